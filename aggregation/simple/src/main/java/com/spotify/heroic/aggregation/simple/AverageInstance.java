@@ -31,7 +31,12 @@ import java.beans.ConstructorProperties;
 public class AverageInstance extends DistributedBucketInstance<StripedAverageBucket> {
     @ConstructorProperties({"size", "extent"})
     public AverageInstance(final long size, final long extent) {
-        super(size, extent, ImmutableSet.of(MetricType.POINT), MetricType.POINT);
+        super(size, extent, ImmutableSet.of(MetricType.POINT, MetricType.SPREAD), MetricType.POINT);
+    }
+
+    @Override
+    protected boolean summarizesSpreads() {
+        return true;
     }
 
     @Override
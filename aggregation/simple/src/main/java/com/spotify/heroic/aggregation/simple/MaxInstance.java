@@ -34,6 +34,11 @@ public class MaxInstance extends DistributedBucketInstance<StripedMaxBucket> {
         super(size, extent, ImmutableSet.of(MetricType.POINT, MetricType.SPREAD), MetricType.POINT);
     }
 
+    @Override
+    protected boolean summarizesSpreads() {
+        return true;
+    }
+
     @Override
     protected StripedMaxBucket buildBucket(long timestamp) {
         return new StripedMaxBucket(timestamp);
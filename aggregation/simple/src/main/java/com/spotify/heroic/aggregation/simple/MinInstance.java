@@ -34,6 +34,11 @@ public class MinInstance extends DistributedBucketInstance<StripedMinBucket> {
         super(size, extent, ImmutableSet.of(MetricType.POINT, MetricType.SPREAD), MetricType.POINT);
     }
 
+    @Override
+    protected boolean summarizesSpreads() {
+        return true;
+    }
+
     @Override
     protected StripedMinBucket buildBucket(long timestamp) {
         return new StripedMinBucket(timestamp);
@@ -109,6 +109,9 @@ public class Module implements HeroicModule {
                     }
                 });
 
+            c.registerInstance(DistributedQuantileInstance.NAME,
+                DistributedQuantileInstance.class);
+
             c.register(Delta.NAME, Delta.class, DeltaInstance.class, args -> new Delta());
 
             c.register(TopK.NAME, TopK.class, TopKInstance.class,
@@ -88,8 +88,13 @@ public class QuantileBucket extends AbstractBucket {
      * @param d data point to add.
      */
     @Override
-    public synchronized void updatePoint(Map<String, String> key, Point d) {
-        batch[index] = d.getValue();
+    public void updatePoint(Map<String, String> key, Point d) {
+        updatePoint(key, d.getTimestamp(), d.getValue());
+    }
+
+    @Override
+    public synchronized void updatePoint(Map<String, String> key, long timestamp, double value) {
+        batch[index] = value;
         index++;
         count++;
 
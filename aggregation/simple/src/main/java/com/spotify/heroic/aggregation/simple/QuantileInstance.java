@@ -22,6 +22,7 @@
 package com.spotify.heroic.aggregation.simple;
 
 import com.google.common.collect.ImmutableSet;
+import com.spotify.heroic.aggregation.AggregationInstance;
 import com.spotify.heroic.aggregation.BucketAggregationInstance;
 import com.spotify.heroic.metric.Metric;
 import com.spotify.heroic.metric.MetricType;
@@ -48,6 +49,20 @@ public class QuantileInstance extends BucketAggregationInstance<QuantileBucket>
         this.error = error;
     }
 
+    /**
+     * Data nodes ship mergeable sketches, since quantiles of partial quantiles are not
+     * meaningful.
+     */
+    @Override
+    public AggregationInstance distributed() {
+        return new DistributedQuantileInstance(size, extent, error);
+    }
+
+    @Override
+    public AggregationInstance reducer() {
+        return new ReduceQuantileInstance(size, extent, q, error);
+    }
+
     @Override
     protected QuantileBucket buildBucket(long timestamp) {
         return new QuantileBucket(timestamp, q, error);
@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.aggregation.simple;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A mergeable quantile sketch, based on the merging variant of the t-digest.
+ * <p>
+ * Samples are buffered and periodically merged into a sorted set of weighted centroids, where
+ * the size of each centroid is bounded by the k1 scale function. This keeps centroids small in the
+ * tails, which is where high-percentile queries need precision.
+ * <p>
+ * Unlike {@link QuantileBucket}, two sketches can be merged without loss beyond the error bound
+ * of the sketch, which makes it suitable as a partial state for distributed aggregations.
+ * <p>
+ * This class is not thread-safe.
+ * <p>
+ * See: Dunning and Ertl, "Computing Extremely Accurate Quantiles Using t-Digests", 2019
+ */
+public class QuantileSketch {
+    private static final byte VERSION = 1;
+
+    /* header: version, compression, min, max, centroid count */
+    private static final int HEADER_SIZE = 1 + Double.BYTES * 3 + Integer.BYTES;
+    private static final int CENTROID_SIZE = Double.BYTES * 2;
+
+    private static final double MIN_COMPRESSION = 20D;
+
+    private final double compression;
+
+    private double[] means;
+    private double[] weights;
+    private int centroids = 0;
+
+    private final double[] bufferMeans;
+    private final double[] bufferWeights;
+    private int buffered = 0;
+
+    private double totalWeight = 0D;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public QuantileSketch(final double compression) {
+        this.compression = Math.max(compression, MIN_COMPRESSION);
+
+        final int capacity = (int) Math.ceil(this.compression) * 2 + 10;
+        this.means = new double[capacity];
+        this.weights = new double[capacity];
+
+        final int bufferSize = (int) Math.ceil(this.compression) * 5;
+        this.bufferMeans = new double[bufferSize];
+        this.bufferWeights = new double[bufferSize];
+    }
+
+    /**
+     * Pick a compression that gives roughly the given relative rank error.
+     */
+    public static double compressionFor(final double error) {
+        if (error <= 0D) {
+            throw new IllegalArgumentException("error must be positive: " + error);
+        }
+
+        return 1D / error;
+    }
+
+    public void add(final double value) {
+        add(value, 1D);
+    }
+
+    public void merge(final QuantileSketch other) {
+        other.compress();
+
+        for (int i = 0; i < other.centroids; i++) {
+            add(other.means[i], other.weights[i]);
+        }
+
+        /* extremes are tracked exactly, centroid means might not reach them */
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public boolean isEmpty() {
+        return totalWeight == 0D;
+    }
+
+    public long count() {
+        return (long) totalWeight;
+    }
+
+    /**
+     * Estimate the value at the given quantile.
+     *
+     * @param q Quantile to estimate, between 0 and 1.
+     * @return The estimated value, or {@code NaN} if the sketch is empty.
+     */
+    public double quantile(final double q) {
+        compress();
+
+        if (centroids == 0) {
+            return Double.NaN;
+        }
+
+        if (centroids == 1 || q <= 0D) {
+            return q <= 0D ? min : means[0];
+        }
+
+        if (q >= 1D) {
+            return max;
+        }
+
+        final double index = q * totalWeight;
+
+        /* left tail, interpolate between the minimum and the first centroid */
+        final double firstHalf = weights[0] / 2D;
+
+        if (index < firstHalf) {
+            return min + (means[0] - min) * (index / firstHalf);
+        }
+
+        double weightSoFar = firstHalf;
+
+        for (int i = 0; i < centroids - 1; i++) {
+            final double delta = (weights[i] + weights[i + 1]) / 2D;
+
+            if (weightSoFar + delta > index) {
+                final double z = (index - weightSoFar) / delta;
+                return means[i] + z * (means[i + 1] - means[i]);
+            }
+
+            weightSoFar += delta;
+        }
+
+        /* right tail, interpolate between the last centroid and the maximum */
+        final double lastHalf = weights[centroids - 1] / 2D;
+        final double z = Math.min(1D, (index - weightSoFar) / lastHalf);
+        return means[centroids - 1] + z * (max - means[centroids - 1]);
+    }
+
+    public byte[] toBytes() {
+        compress();
+
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + centroids * CENTROID_SIZE);
+
+        buffer.put(VERSION);
+        buffer.putDouble(compression);
+        buffer.putDouble(min);
+        buffer.putDouble(max);
+        buffer.putInt(centroids);
+
+        for (int i = 0; i < centroids; i++) {
+            buffer.putDouble(means[i]);
+            buffer.putDouble(weights[i]);
+        }
+
+        return buffer.array();
+    }
+
+    public static QuantileSketch fromBytes(final byte[] bytes) {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+        if (bytes.length < HEADER_SIZE) {
+            throw new IllegalArgumentException("sketch too small: " + bytes.length + " byte(s)");
+        }
+
+        final byte version = buffer.get();
+
+        if (version != VERSION) {
+            throw new IllegalArgumentException("unsupported sketch version: " + version);
+        }
+
+        final QuantileSketch sketch = new QuantileSketch(buffer.getDouble());
+        final double min = buffer.getDouble();
+        final double max = buffer.getDouble();
+        final int centroids = buffer.getInt();
+
+        if (buffer.remaining() != centroids * CENTROID_SIZE) {
+            throw new IllegalArgumentException("corrupt sketch, unexpected size");
+        }
+
+        /* centroids are stored sorted and compressed, restore them as-is */
+        if (centroids > sketch.means.length) {
+            sketch.means = new double[centroids];
+            sketch.weights = new double[centroids];
+        }
+
+        for (int i = 0; i < centroids; i++) {
+            sketch.means[i] = buffer.getDouble();
+            sketch.weights[i] = buffer.getDouble();
+            sketch.totalWeight += sketch.weights[i];
+        }
+
+        sketch.centroids = centroids;
+        sketch.min = min;
+        sketch.max = max;
+        return sketch;
+    }
+
+    private void add(final double mean, final double weight) {
+        if (buffered == bufferMeans.length) {
+            compress();
+        }
+
+        bufferMeans[buffered] = mean;
+        bufferWeights[buffered] = weight;
+        buffered++;
+
+        totalWeight += weight;
+        min = Math.min(min, mean);
+        max = Math.max(max, mean);
+    }
+
+    /**
+     * Merge all buffered samples into the set of centroids.
+     */
+    private void compress() {
+        if (buffered == 0) {
+            return;
+        }
+
+        sort(bufferMeans, bufferWeights, 0, buffered - 1);
+
+        final int size = centroids + buffered;
+        final double[] newMeans = new double[Math.max(size, means.length)];
+        final double[] newWeights = new double[newMeans.length];
+
+        /* merge the sorted buffer with the (already sorted) centroids */
+        int i = 0;
+        int j = 0;
+        int n = -1;
+
+        double weightSoFar = 0D;
+        double weightLimit = 0D;
+
+        while (i < centroids || j < buffered) {
+            final double mean;
+            final double weight;
+
+            if (j >= buffered || (i < centroids && means[i] <= bufferMeans[j])) {
+                mean = means[i];
+                weight = weights[i++];
+            } else {
+                mean = bufferMeans[j];
+                weight = bufferWeights[j++];
+            }
+
+            if (n >= 0 && weightSoFar + newWeights[n] + weight <= weightLimit) {
+                final double merged = newWeights[n] + weight;
+                newMeans[n] += (mean - newMeans[n]) * weight / merged;
+                newWeights[n] = merged;
+                continue;
+            }
+
+            if (n >= 0) {
+                weightSoFar += newWeights[n];
+            }
+
+            n++;
+            newMeans[n] = mean;
+            newWeights[n] = weight;
+            weightLimit = totalWeight * limit(weightSoFar / totalWeight);
+        }
+
+        this.means = newMeans;
+        this.weights = newWeights;
+        this.centroids = n + 1;
+        this.buffered = 0;
+    }
+
+    /**
+     * The largest quantile that a centroid starting at quantile q is allowed to extend to, as
+     * given by the k1 scale function {@code k(q) = compression / (2 * PI) * asin(2 * q - 1)}.
+     */
+    private double limit(final double q) {
+        final double normalizer = compression / (2D * Math.PI);
+        final double k = normalizer * Math.asin(2D * Math.min(1D, Math.max(0D, q)) - 1D) + 1D;
+
+        if (k >= normalizer * Math.PI / 2D) {
+            return 1D;
+        }
+
+        return (Math.sin(k / normalizer) + 1D) / 2D;
+    }
+
+    /**
+     * Sort the given parallel arrays by the first array.
+     */
+    private static void sort(final double[] keys, final double[] values, int low, int high) {
+        while (low < high) {
+            final double pivot = keys[(low + high) >>> 1];
+
+            int i = low;
+            int j = high;
+
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+
+                while (keys[j] > pivot) {
+                    j--;
+                }
+
+                if (i <= j) {
+                    swap(keys, i, j);
+                    swap(values, i, j);
+                    i++;
+                    j--;
+                }
+            }
+
+            /* recurse into the smaller partition to bound stack depth */
+            if (j - low < high - i) {
+                sort(keys, values, low, j);
+                low = i;
+            } else {
+                sort(keys, values, i, high);
+                high = j;
+            }
+        }
+    }
+
+    private static void swap(final double[] array, final int a, final int b) {
+        final double tmp = array[a];
+        array[a] = array[b];
+        array[b] = tmp;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.aggregation.simple;
+
+import com.spotify.heroic.aggregation.AbstractBucket;
+import com.spotify.heroic.metric.Payload;
+import com.spotify.heroic.metric.Point;
+
+import java.util.Map;
+
+/**
+ * Bucket that maintains a mergeable {@link QuantileSketch}.
+ * <p>
+ * Points are added to the sketch, and payloads are expected to contain the serialized state of
+ * a sketch built by another bucket, which is merged into this one.
+ */
+public class QuantileSketchBucket extends AbstractBucket {
+    private final long timestamp;
+    private final QuantileSketch sketch;
+
+    public QuantileSketchBucket(final long timestamp, final double error) {
+        this.timestamp = timestamp;
+        this.sketch = new QuantileSketch(QuantileSketch.compressionFor(error));
+    }
+
+    @Override
+    public void updatePoint(final Map<String, String> key, final Point sample) {
+        updatePoint(key, sample.getTimestamp(), sample.getValue());
+    }
+
+    @Override
+    public synchronized void updatePoint(
+        final Map<String, String> key, final long timestamp, final double value
+    ) {
+        sketch.add(value);
+    }
+
+    @Override
+    public void updatePayload(final Map<String, String> key, final Payload sample) {
+        final QuantileSketch other = QuantileSketch.fromBytes(sample.getState());
+
+        synchronized (this) {
+            sketch.merge(other);
+        }
+    }
+
+    @Override
+    public long timestamp() {
+        return timestamp;
+    }
+
+    public synchronized boolean isEmpty() {
+        return sketch.isEmpty();
+    }
+
+    public synchronized double value(final double q) {
+        return sketch.quantile(q);
+    }
+
+    public synchronized byte[] state() {
+        return sketch.toBytes();
+    }
+}
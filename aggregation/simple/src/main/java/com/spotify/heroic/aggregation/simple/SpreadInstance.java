@@ -35,6 +35,11 @@ public class SpreadInstance extends DistributedBucketInstance<SpreadBucket> {
             MetricType.SPREAD);
     }
 
+    @Override
+    protected boolean summarizesSpreads() {
+        return true;
+    }
+
     @Override
     protected SpreadBucket buildBucket(long timestamp) {
         return new SpreadBucket(timestamp);
@@ -39,6 +39,11 @@ public class StdDevInstance extends BucketAggregationInstance<StripedStdDevBucke
         super(size, extent, ImmutableSet.of(MetricType.POINT, MetricType.SPREAD), MetricType.POINT);
     }
 
+    @Override
+    protected boolean summarizesSpreads() {
+        return true;
+    }
+
     @Override
     protected StripedStdDevBucket buildBucket(long timestamp) {
         return new StripedStdDevBucket(timestamp);
@@ -49,7 +49,12 @@ public class StripedAverageBucket extends AbstractBucket implements DoubleBucket
 
     @Override
     public void updatePoint(Map<String, String> key, Point d) {
-        value.add(d.getValue());
+        updatePoint(key, d.getTimestamp(), d.getValue());
+    }
+
+    @Override
+    public void updatePoint(Map<String, String> key, long timestamp, double sample) {
+        value.add(sample);
         count.increment();
     }
 
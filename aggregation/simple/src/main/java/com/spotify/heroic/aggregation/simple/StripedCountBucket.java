@@ -50,6 +50,11 @@ public class StripedCountBucket implements AnyBucket {
         count.increment();
     }
 
+    @Override
+    public void updatePoint(Map<String, String> key, long timestamp, double value) {
+        count.increment();
+    }
+
     public long count() {
         return count.sum();
     }
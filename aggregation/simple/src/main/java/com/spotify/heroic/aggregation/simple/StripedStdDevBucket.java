@@ -55,8 +55,11 @@ public class StripedStdDevBucket extends AbstractBucket implements DoubleBucket
 
     @Override
     public void updatePoint(Map<String, String> key, Point d) {
-        final double v = d.getValue();
+        updatePoint(key, d.getTimestamp(), d.getValue());
+    }
 
+    @Override
+    public void updatePoint(Map<String, String> key, long timestamp, double v) {
         sum.add(v);
         sum2.add(v * v);
         count.increment();
@@ -52,8 +52,13 @@ public class StripedSumBucket extends AbstractBucket implements DoubleBucket {
 
     @Override
     public void updatePoint(Map<String, String> key, Point d) {
+        updatePoint(key, d.getTimestamp(), d.getValue());
+    }
+
+    @Override
+    public void updatePoint(Map<String, String> key, long timestamp, double value) {
         valid = true;
-        sum.add(d.getValue());
+        sum.add(value);
     }
 
     @Override
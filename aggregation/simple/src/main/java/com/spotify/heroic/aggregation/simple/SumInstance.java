@@ -34,6 +34,11 @@ public class SumInstance extends DistributedBucketInstance<StripedSumBucket> {
         super(size, extent, ImmutableSet.of(MetricType.POINT, MetricType.SPREAD), MetricType.POINT);
     }
 
+    @Override
+    protected boolean summarizesSpreads() {
+        return true;
+    }
+
     @Override
     protected StripedSumBucket buildBucket(long timestamp) {
         return new StripedSumBucket(timestamp);
@@ -3,10 +3,21 @@ package com.spotify.heroic.aggregation.simple;
 import org.junit.Test;
 
 import static com.spotify.heroic.test.LombokDataTest.verifyClassBuilder;
+import static org.junit.Assert.assertEquals;
 
 public class QuantileInstanceTest {
     @Test
     public void lombokDataTest() {
         verifyClassBuilder(QuantileInstance.class).verify();
+        verifyClassBuilder(DistributedQuantileInstance.class).verify();
+        verifyClassBuilder(ReduceQuantileInstance.class).verify();
+    }
+
+    @Test
+    public void testDistributed() {
+        final QuantileInstance instance = new QuantileInstance(10, 20, 0.9, 0.01);
+
+        assertEquals(new DistributedQuantileInstance(10, 20, 0.01), instance.distributed());
+        assertEquals(new ReduceQuantileInstance(10, 20, 0.9, 0.01), instance.reducer());
     }
 }
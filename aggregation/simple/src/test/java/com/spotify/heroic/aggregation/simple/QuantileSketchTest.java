@@ -0,0 +1,110 @@
+package com.spotify.heroic.aggregation.simple;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QuantileSketchTest {
+    private static final double ERROR = 0.01;
+    private static final double[] QUANTILES = {0.01, 0.1, 0.5, 0.9, 0.99};
+
+    @Test
+    public void testEmpty() {
+        final QuantileSketch sketch = new QuantileSketch(QuantileSketch.compressionFor(ERROR));
+        assertTrue(sketch.isEmpty());
+        assertTrue(Double.isNaN(sketch.quantile(0.5)));
+    }
+
+    @Test
+    public void testSingle() {
+        final QuantileSketch sketch = new QuantileSketch(QuantileSketch.compressionFor(ERROR));
+        sketch.add(1337D);
+        assertEquals(1337D, sketch.quantile(0.5), 0D);
+        assertEquals(1L, sketch.count());
+    }
+
+    @Test
+    public void testQuantiles() {
+        final QuantileSketch sketch = new QuantileSketch(QuantileSketch.compressionFor(ERROR));
+
+        for (int i = 1; i <= 10000; i++) {
+            sketch.add(i);
+        }
+
+        assertEquals(10000L, sketch.count());
+        assertEquals(1D, sketch.quantile(0D), 0D);
+        assertEquals(10000D, sketch.quantile(1D), 0D);
+
+        for (final double q : QUANTILES) {
+            assertEquals(10000 * q, sketch.quantile(q), 10000 * ERROR);
+        }
+    }
+
+    @Test
+    public void testMergeMatchesSingleSketch() {
+        final Random random = new Random(0x5eed);
+
+        final double[] samples = new double[100000];
+        final List<QuantileSketch> parts = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            parts.add(new QuantileSketch(QuantileSketch.compressionFor(ERROR)));
+        }
+
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = random.nextGaussian() * 100D;
+            parts.get(i % parts.size()).add(samples[i]);
+        }
+
+        final QuantileSketch merged = new QuantileSketch(QuantileSketch.compressionFor(ERROR));
+
+        for (final QuantileSketch part : parts) {
+            /* go through the wire format, like a distributed aggregation would */
+            merged.merge(QuantileSketch.fromBytes(part.toBytes()));
+        }
+
+        Arrays.sort(samples);
+
+        assertEquals(samples.length, merged.count());
+        assertEquals(samples[0], merged.quantile(0D), 0D);
+        assertEquals(samples[samples.length - 1], merged.quantile(1D), 0D);
+
+        for (final double q : QUANTILES) {
+            final double expected = samples[(int) (q * samples.length)];
+            final double actual = merged.quantile(q);
+
+            /* compare by rank, which is what the error bound applies to */
+            final int rank = Math.abs(Arrays.binarySearch(samples, actual));
+            assertEquals(q, rank / (double) samples.length, ERROR);
+            assertEquals(expected, actual, 10D);
+        }
+    }
+
+    @Test
+    public void testSerializationRoundTrip() {
+        final QuantileSketch sketch = new QuantileSketch(QuantileSketch.compressionFor(ERROR));
+
+        for (int i = 0; i < 1000; i++) {
+            sketch.add(i % 17);
+        }
+
+        final QuantileSketch copy = QuantileSketch.fromBytes(sketch.toBytes());
+
+        assertEquals(sketch.count(), copy.count());
+
+        for (final double q : QUANTILES) {
+            assertEquals(sketch.quantile(q), copy.quantile(q), 0D);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCorrupt() {
+        QuantileSketch.fromBytes(new byte[]{1, 2, 3});
+    }
+}
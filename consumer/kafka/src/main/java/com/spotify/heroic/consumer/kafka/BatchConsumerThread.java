@@ -0,0 +1,412 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.consumer.kafka;
+
+import com.spotify.heroic.consumer.ConsumerSchema;
+import com.spotify.heroic.consumer.ConsumerSchemaValidationException;
+import com.spotify.heroic.consumer.GroupedWrites;
+import com.spotify.heroic.ingestion.Ingestion;
+import com.spotify.heroic.ingestion.IngestionGroup;
+import com.spotify.heroic.ingestion.IngestionManager;
+import com.spotify.heroic.statistics.ConsumerReporter;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.ResolvableFuture;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Consumes batches of records from a Kafka consumer.
+ * <p>
+ * The records of each poll are decoded in parallel, grouped by series, and written through the
+ * ingestion group. Offsets are only committed once all writes for the batch have completed,
+ * failed writes are retried, so every record is written at least once.
+ * <p>
+ * While the writes of a batch are pending or being retried, all partitions are paused and the
+ * consumer keeps polling, so that it is not considered dead by its group.
+ */
+@Slf4j
+public final class BatchConsumerThread extends Thread {
+    private static final long INITIAL_SLEEP = 5000L;
+    private static final long MAX_SLEEP = 40000L;
+
+    private final AsyncFramework async;
+    private final String name;
+    private final ConsumerReporter reporter;
+    private final Consumer<byte[], byte[]> consumer;
+    private final List<String> topics;
+    private final ConsumerSchema.Consumer schema;
+    private final IngestionManager ingestion;
+    private final IngestionGroup group;
+    private final int parallelism;
+    private final long pollTimeout;
+    private final AtomicInteger active;
+    private final AtomicLong errors;
+    private final LongAdder consumed;
+    private final long initialSleep;
+
+    private final CountDownLatch stopSignal = new CountDownLatch(1);
+
+    protected final ResolvableFuture<Void> stopFuture;
+
+    private volatile boolean paused = false;
+
+    /**
+     * @param parallelism Number of parts each batch is split into when decoding.
+     * @param pollTimeout Time to wait for records in each poll, in milliseconds.
+     */
+    public BatchConsumerThread(
+        final AsyncFramework async, final String name, final ConsumerReporter reporter,
+        final Consumer<byte[], byte[]> consumer, final List<String> topics,
+        final ConsumerSchema.Consumer schema, final IngestionManager ingestion,
+        final IngestionGroup group, final int parallelism, final long pollTimeout,
+        final AtomicInteger active, final AtomicLong errors, final LongAdder consumed
+    ) {
+        this(async, name, reporter, consumer, topics, schema, ingestion, group, parallelism,
+            pollTimeout, active, errors, consumed, INITIAL_SLEEP);
+    }
+
+    BatchConsumerThread(
+        final AsyncFramework async, final String name, final ConsumerReporter reporter,
+        final Consumer<byte[], byte[]> consumer, final List<String> topics,
+        final ConsumerSchema.Consumer schema, final IngestionManager ingestion,
+        final IngestionGroup group, final int parallelism, final long pollTimeout,
+        final AtomicInteger active, final AtomicLong errors, final LongAdder consumed,
+        final long initialSleep
+    ) {
+        super(String.format("%s: %s", BatchConsumerThread.class.getCanonicalName(), name));
+
+        this.async = async;
+        this.name = name;
+        this.reporter = reporter;
+        this.consumer = consumer;
+        this.topics = topics;
+        this.schema = schema;
+        this.ingestion = ingestion;
+        this.group = group;
+        this.parallelism = parallelism;
+        this.pollTimeout = pollTimeout;
+        this.active = active;
+        this.errors = errors;
+        this.consumed = consumed;
+        this.initialSleep = initialSleep;
+
+        this.stopFuture = async.future();
+    }
+
+    @Override
+    public void run() {
+        log.info("{}: Starting thread", name);
+
+        active.incrementAndGet();
+
+        try {
+            guardedRun();
+        } catch (final Throwable e) {
+            log.error("{}: Error in thread", name, e);
+            active.decrementAndGet();
+            close();
+            stopFuture.fail(e);
+            return;
+        }
+
+        log.info("{}: Stopping thread", name);
+        active.decrementAndGet();
+        close();
+        stopFuture.resolve(null);
+    }
+
+    public AsyncFuture<Void> pauseConsumption() {
+        paused = true;
+        return async.resolved();
+    }
+
+    public AsyncFuture<Void> resumeConsumption() {
+        paused = false;
+        return async.resolved();
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public AsyncFuture<Void> shutdown() {
+        stopSignal.countDown();
+        consumer.wakeup();
+        return stopFuture;
+    }
+
+    private void guardedRun() throws Exception {
+        consumer.subscribe(topics);
+
+        while (stopSignal.getCount() > 0) {
+            try {
+                /* keep polling while paused, so that the consumer stays in its group */
+                updatePaused(paused || !ingestion.writeCapacity().isDone());
+
+                final ConsumerRecords<byte[], byte[]> records = consumer.poll(pollTimeout);
+
+                if (!records.isEmpty()) {
+                    consumeBatch(records);
+                }
+            } catch (final WakeupException e) {
+                /* woken up by shutdown, check stop signal */
+            }
+        }
+    }
+
+    private void updatePaused(final boolean pause) {
+        if (pause) {
+            consumer.pause(consumer.assignment());
+            return;
+        }
+
+        final Collection<TopicPartition> partitions = consumer.paused();
+
+        if (!partitions.isEmpty()) {
+            consumer.resume(partitions);
+        }
+    }
+
+    private void consumeBatch(final ConsumerRecords<byte[], byte[]> records) throws Exception {
+        final long received = System.currentTimeMillis();
+
+        final List<ConsumerRecord<byte[], byte[]>> messages = new ArrayList<>(records.count());
+        final Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+
+        /* records are ordered by offset within each partition */
+        for (final ConsumerRecord<byte[], byte[]> record : records) {
+            messages.add(record);
+            offsets.put(new TopicPartition(record.topic(), record.partition()),
+                new OffsetAndMetadata(record.offset() + 1));
+        }
+
+        final List<Ingestion.Request> writes = GroupedWrites.group(decode(messages));
+        reporter.reportBatch(messages.size(), writes.size());
+
+        if (!writeUntilSuccessful(writes)) {
+            return;
+        }
+
+        consumed.add(messages.size());
+        commit(offsets, received);
+    }
+
+    private List<Ingestion.Request> decode(final List<ConsumerRecord<byte[], byte[]>> messages)
+        throws Exception {
+        final int size = (messages.size() + parallelism - 1) / parallelism;
+
+        if (size >= messages.size()) {
+            return decodeAll(messages);
+        }
+
+        final List<AsyncFuture<List<Ingestion.Request>>> parts = new ArrayList<>();
+
+        for (int i = 0; i < messages.size(); i += size) {
+            final List<ConsumerRecord<byte[], byte[]>> part =
+                messages.subList(i, Math.min(messages.size(), i + size));
+            parts.add(async.call(() -> decodeAll(part)));
+        }
+
+        final List<Ingestion.Request> writes = new ArrayList<>();
+
+        for (final List<Ingestion.Request> part : async.collect(parts).get()) {
+            writes.addAll(part);
+        }
+
+        return writes;
+    }
+
+    private List<Ingestion.Request> decodeAll(
+        final List<ConsumerRecord<byte[], byte[]>> messages
+    ) {
+        final List<Ingestion.Request> writes = new ArrayList<>();
+
+        for (final ConsumerRecord<byte[], byte[]> m : messages) {
+            final byte[] body = m.value();
+
+            try {
+                writes.addAll(schema.decode(body));
+                reporter.reportMessageSize(body.length);
+            } catch (final ConsumerSchemaValidationException e) {
+                /* these messages should be ignored */
+                reporter.reportConsumerSchemaError();
+            } catch (final Exception e) {
+                errors.incrementAndGet();
+                log.error("{}: Failed to decode message at {}:{}:{}", name, m.topic(),
+                    m.partition(), m.offset(), e);
+                reporter.reportMessageError();
+            }
+        }
+
+        return writes;
+    }
+
+    /**
+     * Write the given batch until all of its writes succeed, retrying only the failed ones.
+     *
+     * @return {@code true} if the batch was written, {@code false} if the thread was stopped
+     * before that happened.
+     */
+    private boolean writeUntilSuccessful(final List<Ingestion.Request> writes)
+        throws InterruptedException {
+        List<Ingestion.Request> remaining = writes;
+        long sleep = initialSleep;
+
+        while (stopSignal.getCount() > 0) {
+            final List<AsyncFuture<Ingestion>> futures = new ArrayList<>(remaining.size());
+            final CountDownLatch done = new CountDownLatch(remaining.size());
+
+            for (final Ingestion.Request w : remaining) {
+                final AsyncFuture<Ingestion> future = group.write(w);
+                future.onFinished(done::countDown);
+                futures.add(future);
+            }
+
+            while (!done.await(pollTimeout, TimeUnit.MILLISECONDS)) {
+                if (stopSignal.getCount() == 0) {
+                    return false;
+                }
+
+                pollPaused();
+            }
+
+            final List<Ingestion.Request> failed = new ArrayList<>();
+            Throwable cause = null;
+
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (final ExecutionException e) {
+                    failed.add(remaining.get(i));
+                    cause = e.getCause();
+                } catch (final CancellationException e) {
+                    failed.add(remaining.get(i));
+                }
+            }
+
+            if (failed.isEmpty()) {
+                return true;
+            }
+
+            errors.incrementAndGet();
+            log.error("{}: Failed {} of {} write(s) in batch", name, failed.size(),
+                remaining.size(), cause);
+            reporter.reportMessageError();
+
+            handleRetry(sleep);
+            sleep = Math.min(sleep * 2, MAX_SLEEP);
+            remaining = failed;
+        }
+
+        return false;
+    }
+
+    /**
+     * Poll the consumer with all partitions paused, without consuming any records.
+     * <p>
+     * Partitions assigned by a rebalance during the poll are not paused yet, so any records
+     * returned for them are sought back to, to be consumed once the batch is done.
+     */
+    private void pollPaused() {
+        consumer.pause(consumer.assignment());
+
+        final ConsumerRecords<byte[], byte[]> records = consumer.poll(0L);
+
+        for (final TopicPartition partition : records.partitions()) {
+            consumer.seek(partition, records.records(partition).get(0).offset());
+        }
+
+        if (!records.isEmpty()) {
+            consumer.pause(consumer.assignment());
+        }
+    }
+
+    private void commit(
+        final Map<TopicPartition, OffsetAndMetadata> offsets, final long received
+    ) {
+        try {
+            consumer.commitSync(offsets);
+        } catch (final WakeupException e) {
+            throw e;
+        } catch (final KafkaException e) {
+            /* the batch will be delivered again, which is permitted */
+            log.warn("{}: Failed to commit offsets", name, e);
+            reporter.reportCommitError();
+            return;
+        }
+
+        reporter.reportCommitLag(System.currentTimeMillis() - received);
+    }
+
+    private void handleRetry(final long sleep) throws InterruptedException {
+        log.info("{}: Retrying in {}ms", name, sleep);
+
+        /* decrementing the number of active active consumers indicates an error to the consumer
+         * module. This makes sure that the status of the service is set to as 'failing'. */
+        active.decrementAndGet();
+
+        try {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(sleep);
+            long left;
+
+            while ((left = deadline - System.nanoTime()) > 0) {
+                final long wait = Math.min(left, TimeUnit.MILLISECONDS.toNanos(pollTimeout));
+
+                if (stopSignal.await(wait, TimeUnit.NANOSECONDS)) {
+                    return;
+                }
+
+                pollPaused();
+            }
+        } finally {
+            active.incrementAndGet();
+        }
+    }
+
+    private void close() {
+        try {
+            consumer.close();
+        } catch (final Exception e) {
+            log.warn("{}: Failed to close consumer", name, e);
+        }
+    }
+}
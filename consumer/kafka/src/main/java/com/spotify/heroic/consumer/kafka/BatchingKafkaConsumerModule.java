@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.heroic.consumer.kafka;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.spotify.heroic.common.Duration;
+import com.spotify.heroic.common.ReflectionUtils;
+import com.spotify.heroic.consumer.ConsumerModule;
+import com.spotify.heroic.consumer.ConsumerSchema;
+import com.spotify.heroic.consumer.DaggerConsumerSchema_Depends;
+import com.spotify.heroic.dagger.PrimaryComponent;
+import com.spotify.heroic.ingestion.IngestionComponent;
+import com.spotify.heroic.ingestion.IngestionGroup;
+import com.spotify.heroic.ingestion.IngestionManager;
+import com.spotify.heroic.lifecycle.LifeCycle;
+import com.spotify.heroic.lifecycle.LifeCycleManager;
+import com.spotify.heroic.statistics.ConsumerReporter;
+import dagger.Component;
+import dagger.Module;
+import dagger.Provides;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.Managed;
+import eu.toolchain.async.ManagedSetup;
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+
+import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A Kafka consumer which polls records in batches, writes them as grouped writes, and commits
+ * offsets once the writes for a batch have completed.
+ */
+@Slf4j
+@Data
+public class BatchingKafkaConsumerModule implements ConsumerModule {
+    public static final int DEFAULT_THREADS = 2;
+    public static final int DEFAULT_PARALLELISM = 4;
+    public static final Duration DEFAULT_POLL_TIMEOUT = Duration.of(1, TimeUnit.SECONDS);
+
+    private static final String ENABLE_AUTO_COMMIT = "enable.auto.commit";
+    private static final String MAX_POLL_RECORDS = "max.poll.records";
+
+    private final Optional<String> id;
+    private final List<String> topics;
+    private final int threads;
+    private final int parallelism;
+    private final Duration pollTimeout;
+    private final Optional<Integer> batchSize;
+    private final Map<String, String> config;
+    private final ConsumerSchema schema;
+
+    @Override
+    public Exposed module(
+        PrimaryComponent primary, IngestionComponent ingestion, Depends depends, String id
+    ) {
+        return DaggerBatchingKafkaConsumerModule_C
+            .builder()
+            .primaryComponent(primary)
+            .ingestionComponent(ingestion)
+            .depends(depends)
+            .m(new M(primary, depends))
+            .build();
+    }
+
+    @KafkaScope
+    @Component(modules = M.class,
+        dependencies = {
+            PrimaryComponent.class, IngestionComponent.class, ConsumerModule.Depends.class
+        })
+    interface C extends ConsumerModule.Exposed {
+        @Override
+        BatchingKafkaConsumer consumer();
+
+        @Override
+        LifeCycle consumerLife();
+    }
+
+    @RequiredArgsConstructor
+    @Module
+    class M {
+        private final PrimaryComponent primary;
+        private final ConsumerModule.Depends depends;
+
+        @Provides
+        @Named("consuming")
+        @KafkaScope
+        AtomicInteger consuming() {
+            return new AtomicInteger();
+        }
+
+        @Provides
+        @Named("total")
+        @KafkaScope
+        AtomicInteger total() {
+            return new AtomicInteger();
+        }
+
+        @Provides
+        @Named("errors")
+        @KafkaScope
+        AtomicLong errors() {
+            return new AtomicLong();
+        }
+
+        @Provides
+        @Named("consumed")
+        @KafkaScope
+        LongAdder consumed() {
+            return new LongAdder();
+        }
+
+        @Provides
+        @Named("config")
+        @KafkaScope
+        Map<String, String> config() {
+            return config;
+        }
+
+        @Provides
+        @Named("topics")
+        @KafkaScope
+        List<String> topics() {
+            return topics;
+        }
+
+        @Provides
+        @KafkaScope
+        IngestionGroup group(final IngestionManager ingestionManager) {
+            final IngestionGroup ingestion = ingestionManager.useDefaultGroup();
+
+            if (ingestion.isEmpty()) {
+                throw new IllegalStateException("No backends are part of the ingestion group");
+            }
+
+            return ingestion;
+        }
+
+        @Provides
+        @KafkaScope
+        ConsumerSchema.Consumer consumer(final IngestionGroup ingestion) {
+            final ConsumerSchema.Depends d = DaggerConsumerSchema_Depends
+                .builder()
+                .primaryComponent(primary)
+                .depends(depends)
+                .dependsModule(new ConsumerSchema.DependsModule(ingestion))
+                .build();
+
+            final ConsumerSchema.Exposed exposed = schema.setup(d);
+            return exposed.consumer();
+        }
+
+        @Provides
+        @KafkaScope
+        public Managed<BatchConnection> connection(
+            final AsyncFramework async, final ConsumerReporter reporter,
+            final ConsumerSchema.Consumer consumer, final IngestionManager ingestion,
+            final IngestionGroup group, @Named("consuming") AtomicInteger consuming,
+            @Named("total") AtomicInteger total, @Named("errors") AtomicLong errors,
+            @Named("consumed") LongAdder consumed
+        ) {
+            return async.managed(new ManagedSetup<BatchConnection>() {
+                @Override
+                public AsyncFuture<BatchConnection> construct() {
+                    return async.call(() -> {
+                        log.info("Starting");
+
+                        final List<BatchConsumerThread> threads = new ArrayList<>();
+
+                        for (int i = 0; i < BatchingKafkaConsumerModule.this.threads; i++) {
+                            final String name = String.format("batch:%d", i);
+
+                            threads.add(new BatchConsumerThread(async, name, reporter,
+                                buildConsumer(), topics, consumer, ingestion, group, parallelism,
+                                pollTimeout.toMilliseconds(), consuming, errors, consumed));
+                        }
+
+                        for (final BatchConsumerThread t : threads) {
+                            t.start();
+                        }
+
+                        total.set(threads.size());
+                        return new BatchConnection(threads);
+                    });
+                }
+
+                @Override
+                public AsyncFuture<Void> destruct(final BatchConnection value) {
+                    total.set(0);
+
+                    final List<AsyncFuture<Void>> shutdown = ImmutableList.copyOf(
+                        value.getThreads().stream().map(BatchConsumerThread::shutdown).iterator());
+
+                    return async.collectAndDiscard(shutdown);
+                }
+            });
+        }
+
+        @Provides
+        @KafkaScope
+        LifeCycle life(LifeCycleManager manager, BatchingKafkaConsumer consumer) {
+            return manager.build(consumer);
+        }
+    }
+
+    private org.apache.kafka.clients.consumer.Consumer<byte[], byte[]> buildConsumer() {
+        final Properties properties = new Properties();
+        properties.putAll(config);
+
+        /* offsets are committed once the writes for a batch have completed */
+        properties.put(ENABLE_AUTO_COMMIT, "false");
+        batchSize.ifPresent(size -> properties.put(MAX_POLL_RECORDS, Integer.toString(size)));
+
+        return new org.apache.kafka.clients.consumer.KafkaConsumer<>(properties,
+            new ByteArrayDeserializer(), new ByteArrayDeserializer());
+    }
+
+    @Override
+    public Optional<String> id() {
+        return id;
+    }
+
+    @Override
+    public String buildId(int i) {
+        return String.format("kafka-batch#%d", i);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @NoArgsConstructor(access = AccessLevel.PRIVATE)
+    public static class Builder implements ConsumerModule.Builder {
+        private Optional<String> id = Optional.empty();
+        private Optional<List<String>> topics = Optional.empty();
+        private Optional<Integer> threads = Optional.empty();
+        private Optional<Integer> parallelism = Optional.empty();
+        private Optional<Duration> pollTimeout = Optional.empty();
+        private Optional<Integer> batchSize = Optional.empty();
+        private Optional<Map<String, String>> config = Optional.empty();
+        private Optional<ConsumerSchema> schema = Optional.empty();
+
+        @JsonCreator
+        public Builder(
+            @JsonProperty("id") Optional<String> id,
+            @JsonProperty("schema") Optional<String> schema,
+            @JsonProperty("topics") Optional<List<String>> topics,
+            @JsonProperty("threads") Optional<Integer> threads,
+            @JsonProperty("parallelism") Optional<Integer> parallelism,
+            @JsonProperty("pollTimeout") Optional<Duration> pollTimeout,
+            @JsonProperty("batchSize") Optional<Integer> batchSize,
+            @JsonProperty("config") Optional<Map<String, String>> config
+        ) {
+            this.id = id;
+            this.topics = topics;
+            this.threads = threads;
+            this.parallelism = parallelism;
+            this.pollTimeout = pollTimeout;
+            this.batchSize = batchSize;
+            this.config = config;
+            this.schema = schema.map(s -> ReflectionUtils.buildInstance(s, ConsumerSchema.class));
+        }
+
+        public Builder id(String id) {
+            this.id = Optional.of(id);
+            return this;
+        }
+
+        public Builder topics(List<String> topics) {
+            this.topics = Optional.of(topics);
+            return this;
+        }
+
+        public Builder threads(int threads) {
+            this.threads = Optional.of(threads);
+            return this;
+        }
+
+        public Builder parallelism(int parallelism) {
+            this.parallelism = Optional.of(parallelism);
+            return this;
+        }
+
+        public Builder pollTimeout(Duration pollTimeout) {
+            this.pollTimeout = Optional.of(pollTimeout);
+            return this;
+        }
+
+        public Builder batchSize(int batchSize) {
+            this.batchSize = Optional.of(batchSize);
+            return this;
+        }
+
+        public Builder config(Map<String, String> config) {
+            this.config = Optional.of(config);
+            return this;
+        }
+
+        public Builder schema(String schemaClass) {
+            this.schema =
+                Optional.of(ReflectionUtils.buildInstance(schemaClass, ConsumerSchema.class));
+            return this;
+        }
+
+        @Override
+        public ConsumerModule build() {
+            if (topics.map(Collection::isEmpty).orElse(true)) {
+                throw new RuntimeException("No topics are defined");
+            }
+
+            if (!schema.isPresent()) {
+                throw new RuntimeException("Schema is not defined");
+            }
+
+            if (parallelism.map(p -> p < 1).orElse(false)) {
+                throw new RuntimeException("Parallelism must be at least 1");
+            }
+
+            // @formatter:off
+            return new BatchingKafkaConsumerModule(
+                id,
+                topics.get(),
+                threads.orElse(DEFAULT_THREADS),
+                parallelism.orElse(DEFAULT_PARALLELISM),
+                pollTimeout.orElse(DEFAULT_POLL_TIMEOUT),
+                batchSize,
+                config.orElseGet(ImmutableMap::of),
+                schema.get()
+            );
+            // @formatter:on
+        }
+    }
+}
@@ -23,6 +23,7 @@ package com.spotify.heroic.consumer.kafka;
 
 import com.spotify.heroic.consumer.ConsumerSchema;
 import com.spotify.heroic.consumer.ConsumerSchemaValidationException;
+import com.spotify.heroic.ingestion.IngestionManager;
 import com.spotify.heroic.statistics.ConsumerReporter;
 import eu.toolchain.async.AsyncFramework;
 import eu.toolchain.async.AsyncFuture;
@@ -33,6 +34,7 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -42,12 +44,15 @@ import java.util.concurrent.atomic.LongAdder;
 public final class ConsumerThread extends Thread {
     private static final long INITIAL_SLEEP = 5;
     private static final long MAX_SLEEP = 40;
+    /* how often to check the stop signal while waiting for ingestion capacity, in milliseconds */
+    private static final long CAPACITY_POLL = 100;
 
     private final AsyncFramework async;
     private final String name;
     private final ConsumerReporter reporter;
     private final KafkaStream<byte[], byte[]> stream;
     private final ConsumerSchema.Consumer schema;
+    private final IngestionManager ingestion;
     private final AtomicInteger active;
     private final AtomicLong errors;
     private final LongAdder consumed;
@@ -63,7 +68,8 @@ public final class ConsumerThread extends Thread {
     public ConsumerThread(
         final AsyncFramework async, final String name, final ConsumerReporter reporter,
         final KafkaStream<byte[], byte[]> stream, final ConsumerSchema.Consumer schema,
-        final AtomicInteger active, final AtomicLong errors, final LongAdder consumed
+        final IngestionManager ingestion, final AtomicInteger active, final AtomicLong errors,
+        final LongAdder consumed
     ) {
         super(String.format("%s: %s", ConsumerThread.class.getCanonicalName(), name));
 
@@ -72,6 +78,7 @@ public final class ConsumerThread extends Thread {
         this.reporter = reporter;
         this.stream = stream;
         this.schema = schema;
+        this.ingestion = ingestion;
         this.active = active;
         this.errors = errors;
         this.consumed = consumed;
@@ -139,6 +146,7 @@ public final class ConsumerThread extends Thread {
     private void guardedRun() throws Exception {
         for (final MessageAndMetadata<byte[], byte[]> m : stream) {
             parkPaused();
+            awaitCapacity();
 
             if (stopSignal.getCount() == 0) {
                 break;
@@ -168,6 +176,30 @@ public final class ConsumerThread extends Thread {
         log.info("Resuming");
     }
 
+    /**
+     * Wait until ingestion can accept more writes, since writes do not block.
+     */
+    private void awaitCapacity() throws Exception {
+        final AsyncFuture<Void> capacity = ingestion.writeCapacity();
+
+        if (capacity.isDone()) {
+            return;
+        }
+
+        log.info("{}: Waiting for ingestion capacity", name);
+
+        while (stopSignal.getCount() > 0) {
+            try {
+                capacity.get(CAPACITY_POLL, TimeUnit.MILLISECONDS);
+                break;
+            } catch (final TimeoutException e) {
+                /* check stop signal and wait again */
+            }
+        }
+
+        log.info("{}: Resuming", name);
+    }
+
     private void retryUntilSuccessful(final byte[] body) throws InterruptedException {
         long sleep = INITIAL_SLEEP;
 
@@ -175,7 +175,8 @@ public class KafkaConsumerModule implements ConsumerModule {
         @KafkaScope
         public Managed<Connection> connection(
             final AsyncFramework async, final ConsumerReporter reporter,
-            final ConsumerSchema.Consumer consumer, @Named("consuming") AtomicInteger consuming,
+            final ConsumerSchema.Consumer consumer, final IngestionManager ingestion,
+            @Named("consuming") AtomicInteger consuming,
             @Named("total") AtomicInteger total, @Named("errors") AtomicLong errors,
             @Named("consumed") LongAdder consumed
         ) {
@@ -197,8 +198,8 @@ public class KafkaConsumerModule implements ConsumerModule {
                             connector.createMessageStreams(streamsMap);
 
                         final List<ConsumerThread> threads =
-                            buildThreads(async, reporter, streams, consumer, consuming, errors,
-                                consumed);
+                            buildThreads(async, reporter, streams, consumer, ingestion,
+                                consuming, errors, consumed);
 
                         for (final ConsumerThread t : threads) {
                             t.start();
@@ -245,8 +246,8 @@ public class KafkaConsumerModule implements ConsumerModule {
     private List<ConsumerThread> buildThreads(
         final AsyncFramework async, final ConsumerReporter reporter,
         final Map<String, List<KafkaStream<byte[], byte[]>>> streams,
-        ConsumerSchema.Consumer consumer, AtomicInteger consuming, AtomicLong errors,
-        LongAdder consumed
+        ConsumerSchema.Consumer consumer, IngestionManager ingestion, AtomicInteger consuming,
+        AtomicLong errors, LongAdder consumed
     ) {
         final List<ConsumerThread> threads = new ArrayList<>();
 
@@ -263,8 +264,8 @@ public class KafkaConsumerModule implements ConsumerModule {
                 final String name = String.format("%s:%d", topic, count++);
 
                 threads.add(
-                    new ConsumerThread(async, name, reporter, stream, consumer, consuming, errors,
-                        consumed));
+                    new ConsumerThread(async, name, reporter, stream, consumer, ingestion,
+                        consuming, errors, consumed));
             }
         }
 
@@ -32,6 +32,7 @@ public class Module implements HeroicModule {
 
         return () -> {
             config.registerType("kafka", KafkaConsumerModule.Builder.class);
+            config.registerType("kafka-batch", BatchingKafkaConsumerModule.Builder.class);
         };
     }
 }
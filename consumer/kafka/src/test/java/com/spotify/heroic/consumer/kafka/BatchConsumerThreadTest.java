@@ -0,0 +1,189 @@
+package com.spotify.heroic.consumer.kafka;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.spotify.heroic.common.Series;
+import com.spotify.heroic.consumer.ConsumerSchema;
+import com.spotify.heroic.ingestion.Ingestion;
+import com.spotify.heroic.ingestion.IngestionGroup;
+import com.spotify.heroic.ingestion.IngestionManager;
+import com.spotify.heroic.metric.MetricCollection;
+import com.spotify.heroic.metric.Point;
+import com.spotify.heroic.statistics.ConsumerReporter;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.ResolvableFuture;
+import eu.toolchain.async.TinyAsync;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BatchConsumerThreadTest {
+    private static final String TOPIC = "metrics";
+    private static final TopicPartition PARTITION = new TopicPartition(TOPIC, 0);
+
+    private final AsyncFramework async =
+        TinyAsync.builder().executor(MoreExecutors.newDirectExecutorService()).build();
+
+    private final Ingestion.Request a = request("a");
+    private final Ingestion.Request b = request("b");
+
+    @Mock
+    private ConsumerReporter reporter;
+
+    @Mock
+    private ConsumerSchema.Consumer schema;
+
+    @Mock
+    private IngestionManager ingestion;
+
+    @Mock
+    private IngestionGroup group;
+
+    private TestConsumer consumer;
+    private BatchConsumerThread thread;
+
+    @Before
+    public void setup() throws Exception {
+        doReturn(async.resolved()).when(ingestion).writeCapacity();
+        doReturn(ImmutableList.of(a, b)).when(schema).decode(any(byte[].class));
+
+        consumer = new TestConsumer();
+        thread = new BatchConsumerThread(async, "test", reporter, consumer,
+            ImmutableList.of(TOPIC), schema, ingestion, group, 1, 10L, new AtomicInteger(),
+            new AtomicLong(), new LongAdder(), 1L);
+    }
+
+    private static Ingestion.Request request(final String key) {
+        return new Ingestion.Request(Series.of(key),
+            MetricCollection.points(ImmutableList.of(new Point(1L, 1D))));
+    }
+
+    @Test
+    public void testCommitAfterWrites() throws Exception {
+        final ResolvableFuture<Ingestion> pending = async.future();
+        doReturn(pending).when(group).write(a);
+        doReturn(async.resolved(Ingestion.of(0L))).when(group).write(b);
+
+        final AtomicBoolean polledWhilePending = new AtomicBoolean();
+
+        consumer.onPoll = () -> {
+            if (!pending.isDone() && !consumer.paused().isEmpty()) {
+                /* still polling while the write is pending, but nothing is committed */
+                polledWhilePending.set(consumer.commits.isEmpty());
+                pending.resolve(Ingestion.of(0L));
+            } else if (!consumer.commits.isEmpty()) {
+                thread.shutdown();
+            }
+        };
+
+        thread.run();
+        thread.stopFuture.get();
+
+        assertTrue(polledWhilePending.get());
+        assertEquals(ImmutableList.of(ImmutableMap.of(PARTITION, new OffsetAndMetadata(1L))),
+            consumer.commits);
+    }
+
+    @Test
+    public void testRetryFailedWrites() throws Exception {
+        when(group.write(a)).thenReturn(async.failed(new IllegalStateException("failed")),
+            async.resolved(Ingestion.of(0L)));
+        doReturn(async.resolved(Ingestion.of(0L))).when(group).write(b);
+
+        consumer.onPoll = () -> {
+            if (!consumer.commits.isEmpty()) {
+                thread.shutdown();
+            }
+        };
+
+        thread.run();
+        thread.stopFuture.get();
+
+        /* only the failed write is retried */
+        verify(group, times(2)).write(a);
+        verify(group, times(1)).write(b);
+        assertEquals(1, consumer.commits.size());
+    }
+
+    @Test
+    public void testNoCommitOnShutdown() throws Exception {
+        doReturn(async.failed(new IllegalStateException("failed"))).when(group).write(a);
+        doReturn(async.resolved(Ingestion.of(0L))).when(group).write(b);
+
+        final AtomicInteger retries = new AtomicInteger();
+
+        consumer.onPoll = () -> {
+            if (!consumer.paused().isEmpty() && retries.incrementAndGet() >= 3) {
+                thread.shutdown();
+            }
+        };
+
+        thread.run();
+        thread.stopFuture.get();
+
+        verify(group, atLeast(2)).write(a);
+        verify(group, times(1)).write(b);
+        assertTrue(consumer.commits.isEmpty());
+    }
+
+    /**
+     * A mock consumer which is assigned a single partition with one record on its first poll,
+     * and which records all commits.
+     */
+    private static class TestConsumer extends MockConsumer<byte[], byte[]> {
+        private final List<Map<TopicPartition, OffsetAndMetadata>> commits = new ArrayList<>();
+        private Runnable onPoll = () -> {
+        };
+        private boolean assigned = false;
+
+        TestConsumer() {
+            super(OffsetResetStrategy.EARLIEST);
+        }
+
+        @Override
+        public synchronized ConsumerRecords<byte[], byte[]> poll(final long timeout) {
+            if (!assigned) {
+                assigned = true;
+                rebalance(ImmutableList.of(PARTITION));
+                updateBeginningOffsets(ImmutableMap.of(PARTITION, 0L));
+                addRecord(new ConsumerRecord<>(TOPIC, 0, 0L, new byte[0], new byte[]{1}));
+            }
+
+            onPoll.run();
+            return super.poll(timeout);
+        }
+
+        @Override
+        public synchronized void commitSync(final Map<TopicPartition, OffsetAndMetadata> offsets) {
+            commits.add(offsets);
+            super.commitSync(offsets);
+        }
+    }
+}
@@ -47,6 +47,7 @@ public class HeroicModules {
     public static final List<HeroicModule> ALL_MODULES = ImmutableList.of(
         new com.spotify.heroic.metric.datastax.Module(),
         new com.spotify.heroic.metric.memory.Module(),
+        new com.spotify.heroic.metric.local.Module(),
 
         new com.spotify.heroic.analytics.bigtable.Module(),
         new com.spotify.heroic.metric.bigtable.Module(),
@@ -22,6 +22,7 @@
 package com.spotify.heroic;
 
 import com.spotify.heroic.cluster.ClusterShard;
+import com.spotify.heroic.common.Statistics;
 import com.spotify.heroic.common.UsableGroupManager;
 import com.spotify.heroic.metadata.CountSeries;
 import com.spotify.heroic.metadata.DeleteSeries;
@@ -43,6 +44,11 @@ import java.util.List;
 public interface QueryManager extends UsableGroupManager<QueryManager.Group> {
     QueryBuilder newQueryFromString(String query);
 
+    /**
+     * Statistics of the query cache.
+     */
+    Statistics getStatistics();
+
     interface Group {
         AsyncFuture<QueryResult> query(Query query);
 
@@ -67,13 +67,28 @@ public class QueryOptions {
      */
     private final Optional<Boolean> failOnLimits;
 
+    /**
+     * Identifies the client that issued the query, used to share resources fairly between
+     * clients.
+     */
+    private final Optional<String> clientId;
+
     public Optional<Integer> getFetchSize() {
         return fetchSize;
     }
 
+    /**
+     * Build options without a client id, for uses which only care about what is being queried
+     * and not who is asking, like cache keys.
+     */
+    public QueryOptions withoutClientId() {
+        return new QueryOptions(tracing, fetchSize, dataLimit, groupLimit, seriesLimit,
+            failOnLimits, Optional.empty());
+    }
+
     public static QueryOptions defaults() {
         return new QueryOptions(DEFAULT_TRACING, Optional.empty(), OptionalLimit.empty(),
-            OptionalLimit.empty(), OptionalLimit.empty(), Optional.empty());
+            OptionalLimit.empty(), OptionalLimit.empty(), Optional.empty(), Optional.empty());
     }
 
     public static Builder builder() {
@@ -87,6 +102,7 @@ public class QueryOptions {
         private OptionalLimit groupLimit = OptionalLimit.empty();
         private OptionalLimit seriesLimit = OptionalLimit.empty();
         private Optional<Boolean> failOnLimits = Optional.empty();
+        private Optional<String> clientId = Optional.empty();
 
         public Builder tracing(Tracing tracing) {
             this.tracing = Optional.of(tracing);
@@ -118,11 +134,16 @@ public class QueryOptions {
             return this;
         }
 
+        public Builder clientId(String clientId) {
+            this.clientId = Optional.of(clientId);
+            return this;
+        }
+
         public QueryOptions build() {
             final Tracing tracing = this.tracing.orElse(DEFAULT_TRACING);
 
             return new QueryOptions(tracing, fetchSize, dataLimit, groupLimit, seriesLimit,
-                failOnLimits);
+                failOnLimits, clientId);
         }
     }
 }
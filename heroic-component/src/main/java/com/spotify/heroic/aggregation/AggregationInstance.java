@@ -55,6 +55,34 @@ public interface AggregationInstance {
      */
     long cadence();
 
+    /**
+     * Get how far back in time samples contribute to each bucket of the aggregation.
+     * <p>
+     * This is used to determine how much data needs to be processed to re-compute only a part of
+     * the range, like when stitching cached results together with new ones.
+     *
+     * @return The extent in milliseconds, or {@code -1} if the result for a given timestamp
+     * might depend on the whole range, in which case the aggregation can't be computed
+     * piecewise.
+     */
+    default long extent() {
+        return -1L;
+    }
+
+    /**
+     * Check if this aggregation gives the same result when it is fed spreads, each summarizing
+     * all samples within a window of the given resolution, instead of the samples themselves.
+     * <p>
+     * Windows end at multiples of the resolution and include their end, like buckets. This is
+     * used to read pre-aggregated rollups instead of raw samples.
+     *
+     * @param resolution Resolution of the windows in milliseconds.
+     * @return {@code true} if the result would be the same.
+     */
+    default boolean acceptsRollup(long resolution) {
+        return false;
+    }
+
     /**
      * Traverse the possible aggregations and build the necessary graph out of them.
      */
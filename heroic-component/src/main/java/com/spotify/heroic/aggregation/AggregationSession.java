@@ -26,6 +26,7 @@ import com.spotify.heroic.metric.Payload;
 import com.spotify.heroic.metric.Event;
 import com.spotify.heroic.metric.MetricGroup;
 import com.spotify.heroic.metric.Point;
+import com.spotify.heroic.metric.PointColumns;
 import com.spotify.heroic.metric.Spread;
 
 import java.util.List;
@@ -35,6 +36,16 @@ import java.util.Set;
 public interface AggregationSession {
     void updatePoints(Map<String, String> key, Set<Series> series, List<Point> values);
 
+    /**
+     * Update the session with points in columnar form.
+     * <p>
+     * Sessions that can consume columns directly should override this, the default
+     * implementation uses the lazy list view of the columns.
+     */
+    default void updatePoints(Map<String, String> key, Set<Series> series, PointColumns values) {
+        updatePoints(key, series, values.asList());
+    }
+
     void updateEvents(Map<String, String> key, Set<Series> series, List<Event> values);
 
     void updateSpreads(Map<String, String> key, Set<Series> series, List<Spread> values);
@@ -32,6 +32,15 @@ import java.util.Map;
 public interface Bucket {
     void updatePoint(Map<String, String> key, Point sample);
 
+    /**
+     * Update the bucket with a single point, without requiring a {@link Point} instance.
+     * <p>
+     * Buckets that are sensitive to allocation should override this.
+     */
+    default void updatePoint(Map<String, String> key, long timestamp, double value) {
+        updatePoint(key, new Point(timestamp, value));
+    }
+
     void updateEvent(Map<String, String> key, Event sample);
 
     void updateSpread(Map<String, String> key, Spread sample);
@@ -35,6 +35,7 @@ import com.spotify.heroic.metric.MetricCollection;
 import com.spotify.heroic.metric.MetricGroup;
 import com.spotify.heroic.metric.MetricType;
 import com.spotify.heroic.metric.Point;
+import com.spotify.heroic.metric.PointColumns;
 import com.spotify.heroic.metric.Spread;
 import lombok.AccessLevel;
 import lombok.Data;
@@ -86,6 +87,8 @@ public abstract class BucketAggregationInstance<B extends Bucket> implements Agg
         private final ConcurrentLinkedQueue<Set<Series>> series = new ConcurrentLinkedQueue<>();
         private final LongAdder sampleSize = new LongAdder();
 
+        private final boolean aligned = alignedBuckets();
+
         private final List<B> buckets;
         private final long offset;
 
@@ -97,6 +100,49 @@ public abstract class BucketAggregationInstance<B extends Bucket> implements Agg
             feed(MetricType.POINT, values, (bucket, m) -> bucket.updatePoint(key, m));
         }
 
+        @Override
+        public void updatePoints(
+            Map<String, String> key, Set<Series> s, PointColumns values
+        ) {
+            series.add(s);
+
+            if (!input.contains(MetricType.POINT)) {
+                return;
+            }
+
+            int sampleSize = 0;
+
+            for (int i = 0; i < values.size(); i++) {
+                final double value = values.value(i);
+
+                /* same as Point#valid() */
+                if (!Double.isFinite(value)) {
+                    continue;
+                }
+
+                final long timestamp = values.timestamp(i);
+                sampleSize += 1;
+
+                if (aligned) {
+                    final int index = alignedIndex(timestamp);
+
+                    if (index >= 0) {
+                        buckets.get(index).updatePoint(key, timestamp, value);
+                    }
+
+                    continue;
+                }
+
+                final Iterator<B> matched = matching(timestamp);
+
+                while (matched.hasNext()) {
+                    matched.next().updatePoint(key, timestamp, value);
+                }
+            }
+
+            this.sampleSize.add(sampleSize);
+        }
+
         @Override
         public void updateEvents(
             Map<String, String> key, Set<Series> s, List<Event> values
@@ -143,20 +189,54 @@ public abstract class BucketAggregationInstance<B extends Bucket> implements Agg
                     continue;
                 }
 
-                final Iterator<B> buckets = matching(m);
+                sampleSize += 1;
+
+                if (aligned) {
+                    final int index = alignedIndex(m.getTimestamp());
 
-                while (buckets.hasNext()) {
-                    consumer.apply(buckets.next(), m);
+                    if (index >= 0) {
+                        consumer.apply(buckets.get(index), m);
+                    }
+
+                    continue;
                 }
 
-                sampleSize += 1;
+                final Iterator<B> matched = matching(m.getTimestamp());
+
+                while (matched.hasNext()) {
+                    consumer.apply(matched.next(), m);
+                }
             }
 
             this.sampleSize.add(sampleSize);
         }
 
-        private Iterator<B> matching(final Metric m) {
-            final long ts = m.getTimestamp() - offset - 1;
+        /**
+         * Find the only bucket matching the given timestamp when buckets do not overlap.
+         * <p>
+         * This is equivalent to {@link #matching(long)} when size equals extent, but computes the
+         * index arithmetically instead of allocating an iterator.
+         *
+         * @return The index of the matching bucket, or {@code -1} if no bucket matches.
+         */
+        private int alignedIndex(final long timestamp) {
+            final long te = timestamp - offset - 1 + extent;
+
+            if (te < 0) {
+                return -1;
+            }
+
+            final long index = te / size;
+
+            if (index >= buckets.size()) {
+                return -1;
+            }
+
+            return (int) index;
+        }
+
+        private Iterator<B> matching(final long timestamp) {
+            final long ts = timestamp - offset - 1;
             final long te = ts + extent;
 
             if (te < 0) {
@@ -237,11 +317,44 @@ public abstract class BucketAggregationInstance<B extends Bucket> implements Agg
         return size;
     }
 
+    @Override
+    public long extent() {
+        return extent;
+    }
+
+    /**
+     * Buckets only contain whole windows if both the size and the extent are multiples of the
+     * resolution.
+     */
+    @Override
+    public boolean acceptsRollup(final long resolution) {
+        return resolution > 0 && summarizesSpreads() && input.contains(MetricType.SPREAD) &&
+            size % resolution == 0 && extent % resolution == 0;
+    }
+
     @Override
     public String toString() {
         return String.format("%s(size=%d, extent=%d)", getClass().getSimpleName(), size, extent);
     }
 
+    /**
+     * If a bucket which is updated with a spread ends up in the same state as if it was updated
+     * with all the samples that the spread summarizes.
+     */
+    protected boolean summarizesSpreads() {
+        return false;
+    }
+
+    /**
+     * If buckets do not overlap, so that every sample maps to at most one bucket which can be
+     * found without iterating over the candidates.
+     * <p>
+     * Package-private so that benchmarks can compare against the general path.
+     */
+    boolean alignedBuckets() {
+        return size == extent;
+    }
+
     private List<B> buildBuckets(final DateRange range, long size) {
         final long start = range.start();
         final long count = (range.diff() + size) / size;
@@ -30,6 +30,7 @@ import com.spotify.heroic.metric.Event;
 import com.spotify.heroic.metric.MetricGroup;
 import com.spotify.heroic.metric.Payload;
 import com.spotify.heroic.metric.Point;
+import com.spotify.heroic.metric.PointColumns;
 import com.spotify.heroic.metric.Spread;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
@@ -70,6 +71,34 @@ public class ChainInstance implements AggregationInstance {
             .orElse(-1L);
     }
 
+    /**
+     * Each aggregation in the chain extends how far back samples contribute to a bucket.
+     */
+    @Override
+    public long extent() {
+        long extent = 0L;
+
+        for (final AggregationInstance a : chain) {
+            final long e = a.extent();
+
+            if (e < 0) {
+                return -1L;
+            }
+
+            extent += e;
+        }
+
+        return extent;
+    }
+
+    /**
+     * Only the first aggregation in the chain sees the input samples.
+     */
+    @Override
+    public boolean acceptsRollup(final long resolution) {
+        return chain.get(0).acceptsRollup(resolution);
+    }
+
     @Override
     public AggregationInstance distributed() {
         final Iterator<AggregationInstance> it = chain.iterator();
@@ -206,6 +235,13 @@ public class ChainInstance implements AggregationInstance {
             first.updatePoints(key, series, values);
         }
 
+        @Override
+        public void updatePoints(
+            Map<String, String> key, Set<Series> series, PointColumns values
+        ) {
+            first.updatePoints(key, series, values);
+        }
+
         @Override
         public void updateEvents(
             Map<String, String> key, Set<Series> series, List<Event> values
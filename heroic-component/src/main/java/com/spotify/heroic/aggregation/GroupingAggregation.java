@@ -30,6 +30,7 @@ import com.spotify.heroic.metric.Payload;
 import com.spotify.heroic.metric.Event;
 import com.spotify.heroic.metric.MetricGroup;
 import com.spotify.heroic.metric.Point;
+import com.spotify.heroic.metric.PointColumns;
 import com.spotify.heroic.metric.Spread;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -90,6 +91,16 @@ public abstract class GroupingAggregation implements AggregationInstance {
         return each.cadence();
     }
 
+    @Override
+    public long extent() {
+        return each.extent();
+    }
+
+    @Override
+    public boolean acceptsRollup(final long resolution) {
+        return each.acceptsRollup(resolution);
+    }
+
     @Override
     public AggregationInstance distributed() {
         return newInstance(of, each.distributed());
@@ -122,6 +133,14 @@ public abstract class GroupingAggregation implements AggregationInstance {
             session(key).updatePoints(key, series, values);
         }
 
+        @Override
+        public void updatePoints(
+            Map<String, String> group, Set<Series> series, PointColumns values
+        ) {
+            final Map<String, String> key = key(group);
+            session(key).updatePoints(key, series, values);
+        }
+
         @Override
         public void updateEvents(
             Map<String, String> group, Set<Series> series, List<Event> values
@@ -21,14 +21,40 @@
 
 package com.spotify.heroic.cache;
 
+import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.common.Statistics;
 import com.spotify.heroic.metric.FullQuery;
 import com.spotify.heroic.metric.QueryResult;
 import eu.toolchain.async.AsyncFuture;
 
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 public interface QueryCache {
     AsyncFuture<QueryResult> load(
         FullQuery.Request request, Supplier<AsyncFuture<QueryResult>> loader
     );
+
+    /**
+     * Load the result of a query which can be computed piecewise over its range.
+     * <p>
+     * Caches which support it can re-use previously computed buckets, and only use the loader to
+     * compute the part of the range which is not cached.
+     *
+     * @param request Request to load.
+     * @param extent How far back in time samples contribute to each bucket, as per {@link
+     * com.spotify.heroic.aggregation.AggregationInstance#extent()}.
+     * @param loader Loader that computes the result for a given range.
+     * @return A future that resolves to the result of the full request.
+     */
+    default AsyncFuture<QueryResult> load(
+        FullQuery.Request request, long extent,
+        Function<DateRange, AsyncFuture<QueryResult>> loader
+    ) {
+        return load(request, () -> loader.apply(request.getRange()));
+    }
+
+    default Statistics getStatistics() {
+        return Statistics.empty();
+    }
 }
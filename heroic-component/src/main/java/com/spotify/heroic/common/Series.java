@@ -189,6 +189,21 @@ public class Series implements Comparable<Series> {
         return new Series(key, tags);
     }
 
+    /**
+     * Build a series around the given sorted tags, without copying them.
+     * <p>
+     * This is intended for decoders which build the tags for each series themselves. The tags
+     * must not be modified after they have been passed in, since that would invalidate the hash
+     * of the series.
+     *
+     * @param key The key of the time series.
+     * @param tags The tags of the time series, ordered by their natural ordering.
+     * @return A series that uses the given tags.
+     */
+    public static Series ofSorted(String key, TreeMap<String, String> tags) {
+        return new Series(key, tags);
+    }
+
     @Override
     public int compareTo(Series o) {
         final int k = key.compareTo(o.getKey());
@@ -22,6 +22,7 @@
 package com.spotify.heroic.consumer;
 
 import com.spotify.heroic.dagger.PrimaryComponent;
+import com.spotify.heroic.ingestion.Ingestion;
 import com.spotify.heroic.ingestion.IngestionGroup;
 import com.spotify.heroic.lifecycle.LifeCycle;
 import dagger.Component;
@@ -29,11 +30,23 @@ import dagger.Module;
 import dagger.Provides;
 import lombok.RequiredArgsConstructor;
 
+import java.util.List;
+
 public interface ConsumerSchema {
     Exposed setup(Depends depends);
 
     interface Consumer {
         void consume(byte[] message) throws ConsumerSchemaException;
+
+        /**
+         * Decode a message into the writes it contains, without performing them.
+         * <p>
+         * This is used by consumers which write and acknowledge messages in batches.
+         *
+         * @param message Message to decode.
+         * @return The writes contained in the message.
+         */
+        List<Ingestion.Request> decode(byte[] message) throws ConsumerSchemaException;
     }
 
     @ConsumerSchemaScope
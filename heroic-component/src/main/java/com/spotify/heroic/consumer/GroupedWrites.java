@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.heroic.consumer;
+
+import com.spotify.heroic.common.Series;
+import com.spotify.heroic.ingestion.Ingestion;
+import com.spotify.heroic.metric.Metric;
+import com.spotify.heroic.metric.MetricCollection;
+import com.spotify.heroic.metric.MetricType;
+import com.spotify.heroic.metric.PointColumns;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups the writes decoded from a batch of messages, so that the batch is written with a single
+ * request per series and metric type.
+ */
+public final class GroupedWrites {
+    private GroupedWrites() {
+    }
+
+    /**
+     * Group the given writes by series and metric type.
+     *
+     * @param writes Writes to group.
+     * @return Grouped writes, in the order their series first appeared.
+     */
+    public static List<Ingestion.Request> group(final List<Ingestion.Request> writes) {
+        final Map<Key, List<MetricCollection>> groups = new LinkedHashMap<>();
+
+        for (final Ingestion.Request w : writes) {
+            if (w.getData().isEmpty()) {
+                continue;
+            }
+
+            groups
+                .computeIfAbsent(new Key(w.getSeries(), w.getData().getType()),
+                    k -> new ArrayList<>())
+                .add(w.getData());
+        }
+
+        final List<Ingestion.Request> grouped = new ArrayList<>(groups.size());
+
+        for (final Map.Entry<Key, List<MetricCollection>> e : groups.entrySet()) {
+            final Key key = e.getKey();
+            grouped.add(new Ingestion.Request(key.getSeries(), merge(key.getType(), e.getValue())));
+        }
+
+        return grouped;
+    }
+
+    private static MetricCollection merge(
+        final MetricType type, final List<MetricCollection> collections
+    ) {
+        if (collections.size() == 1) {
+            return collections.get(0);
+        }
+
+        if (type == MetricType.POINT) {
+            final PointColumns.Builder points = PointColumns.builder();
+
+            for (final MetricCollection c : collections) {
+                points.addAll(c.getPointColumns());
+            }
+
+            return MetricCollection.points(points.build().sorted());
+        }
+
+        final List<Metric> data = new ArrayList<>();
+
+        for (final MetricCollection c : collections) {
+            data.addAll(c.getData());
+        }
+
+        data.sort(Metric.comparator());
+        return MetricCollection.build(type, data);
+    }
+
+    @Data
+    private static class Key {
+        private final Series series;
+        private final MetricType type;
+    }
+}
@@ -0,0 +1,796 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.filter;
+
+import com.spotify.heroic.common.Series;
+import lombok.RequiredArgsConstructor;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * A filter which has been compiled into a predicate that is cheaper to evaluate than
+ * {@link Filter#apply(Series)}.
+ * <p>
+ * When compiling, regular expressions are compiled once, checks against the same tag in an
+ * {@code and} or {@code or} share a single tag lookup, and the children of {@code and} and
+ * {@code or} are ordered so that cheap checks which are likely to decide the outcome run first.
+ * Cost and selectivity are static estimates based on the kind of check.
+ * <p>
+ * Compiled filters are immutable and thread-safe, compile once and reuse the result.
+ */
+public final class CompiledFilter implements Predicate<Series> {
+    static final double LOOKUP_COST = 2D;
+    static final double COMPARE_COST = 1D;
+    static final double REGEX_COST = 20D;
+    static final double DELEGATE_COST = 50D;
+
+    static final double HAS_TAG_PROBABILITY = 0.8D;
+    static final double MATCH_PROBABILITY = 0.1D;
+    static final double STARTS_WITH_PROBABILITY = 0.2D;
+    static final double REGEX_PROBABILITY = 0.3D;
+    static final double DELEGATE_PROBABILITY = 0.5D;
+
+    private static final double MIN_PROBABILITY = 0.001D;
+
+    private final Filter filter;
+    private final Node root;
+
+    private CompiledFilter(final Filter filter, final Node root) {
+        this.filter = filter;
+        this.root = root;
+    }
+
+    /**
+     * Compile the given filter.
+     *
+     * @param filter Filter to compile.
+     * @return A predicate which matches the same series as the given filter.
+     */
+    public static CompiledFilter compile(final Filter filter) {
+        return new CompiledFilter(filter, compileNode(filter.optimize()));
+    }
+
+    @Override
+    public boolean test(final Series series) {
+        return root.test(series);
+    }
+
+    /**
+     * The filter that this predicate was compiled from.
+     */
+    public Filter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Estimated relative cost of evaluating this predicate once.
+     */
+    public double cost() {
+        return root.cost();
+    }
+
+    @Override
+    public String toString() {
+        return root.toString();
+    }
+
+    static Node compileNode(final Filter filter) {
+        return filter.visit(new Filter.Visitor<Node>() {
+            @Override
+            public Node visitTrue(final TrueFilter t) {
+                return Constant.TRUE;
+            }
+
+            @Override
+            public Node visitFalse(final FalseFilter f) {
+                return Constant.FALSE;
+            }
+
+            @Override
+            public Node visitMatchKey(final MatchKeyFilter matchKey) {
+                return new MatchKey(matchKey.getValue());
+            }
+
+            @Override
+            public Node visitNot(final NotFilter not) {
+                final Node child = compileNode(not.getFilter());
+
+                if (child instanceof Constant) {
+                    return ((Constant) child).value ? Constant.FALSE : Constant.TRUE;
+                }
+
+                return new Not(child);
+            }
+
+            @Override
+            public Node visitAnd(final AndFilter and) {
+                return compileAnd(and.terms());
+            }
+
+            @Override
+            public Node visitOr(final OrFilter or) {
+                return compileOr(or.terms());
+            }
+
+            @Override
+            public Node defaultAction(final Filter filter) {
+                return tagCheck(filter)
+                    .<Node>map(c -> new Tag(c.tag, c.check))
+                    .orElseGet(() -> new Delegate(filter));
+            }
+        });
+    }
+
+    static Node compileAnd(final List<Filter> terms) {
+        final List<Node> children = new ArrayList<>();
+        final Map<String, List<ValueCheck>> tags = new LinkedHashMap<>();
+
+        for (final Filter term : terms) {
+            final Optional<TagCheck> check = tagCheck(term);
+
+            if (check.isPresent()) {
+                add(tags, check.get());
+                continue;
+            }
+
+            final Node child = compileNode(term);
+
+            if (child == Constant.FALSE) {
+                return Constant.FALSE;
+            }
+
+            if (child != Constant.TRUE) {
+                children.add(child);
+            }
+        }
+
+        for (final Map.Entry<String, List<ValueCheck>> e : tags.entrySet()) {
+            final List<ValueCheck> checks = new ArrayList<>();
+
+            /* the tag has to be present for any other check to match */
+            for (final ValueCheck c : e.getValue()) {
+                if (c != HasTag.INSTANCE) {
+                    checks.add(c);
+                }
+            }
+
+            children.add(allOfTag(e.getKey(), checks));
+        }
+
+        if (children.isEmpty()) {
+            return Constant.TRUE;
+        }
+
+        if (children.size() == 1) {
+            return children.get(0);
+        }
+
+        children.sort(Comparator.comparingDouble(CompiledFilter::andRank));
+        return new And(children);
+    }
+
+    static Node compileOr(final List<Filter> terms) {
+        final List<Node> children = new ArrayList<>();
+        final Map<String, List<ValueCheck>> tags = new LinkedHashMap<>();
+
+        for (final Filter term : terms) {
+            final Optional<TagCheck> check = tagCheck(term);
+
+            if (check.isPresent()) {
+                add(tags, check.get());
+                continue;
+            }
+
+            final Node child = compileNode(term);
+
+            if (child == Constant.TRUE) {
+                return Constant.TRUE;
+            }
+
+            if (child != Constant.FALSE) {
+                children.add(child);
+            }
+        }
+
+        for (final Map.Entry<String, List<ValueCheck>> e : tags.entrySet()) {
+            /* any check matches if the tag is present */
+            if (e.getValue().contains(HasTag.INSTANCE)) {
+                children.add(new Tag(e.getKey(), HasTag.INSTANCE));
+                continue;
+            }
+
+            children.add(anyOfTag(e.getKey(), e.getValue()));
+        }
+
+        if (children.isEmpty()) {
+            return Constant.FALSE;
+        }
+
+        if (children.size() == 1) {
+            return children.get(0);
+        }
+
+        children.sort(Comparator.comparingDouble(CompiledFilter::orRank));
+        return new Or(children);
+    }
+
+    private static Node allOfTag(final String tag, final List<ValueCheck> checks) {
+        if (checks.isEmpty()) {
+            return new Tag(tag, HasTag.INSTANCE);
+        }
+
+        if (checks.size() == 1) {
+            return new Tag(tag, checks.get(0));
+        }
+
+        final List<ValueCheck> sorted = new ArrayList<>(checks);
+        sorted.sort(Comparator.comparingDouble(CompiledFilter::andRank));
+        return new AllOfTag(tag, sorted);
+    }
+
+    private static Node anyOfTag(final String tag, final List<ValueCheck> checks) {
+        if (checks.size() == 1) {
+            return new Tag(tag, checks.get(0));
+        }
+
+        final List<ValueCheck> sorted = new ArrayList<>(checks);
+        sorted.sort(Comparator.comparingDouble(CompiledFilter::orRank));
+        return new AnyOfTag(tag, sorted);
+    }
+
+    private static void add(final Map<String, List<ValueCheck>> tags, final TagCheck check) {
+        tags.computeIfAbsent(check.tag, t -> new ArrayList<>()).add(check.check);
+    }
+
+    /**
+     * Extract a check against the value of a single tag, if the given filter is one.
+     */
+    static Optional<TagCheck> tagCheck(final Filter filter) {
+        return filter.visit(new Filter.Visitor<Optional<TagCheck>>() {
+            @Override
+            public Optional<TagCheck> visitHasTag(final HasTagFilter hasTag) {
+                return Optional.of(new TagCheck(hasTag.getTag(), HasTag.INSTANCE));
+            }
+
+            @Override
+            public Optional<TagCheck> visitMatchTag(final MatchTagFilter matchTag) {
+                return Optional.of(
+                    new TagCheck(matchTag.getTag(), new Equals(matchTag.getValue())));
+            }
+
+            @Override
+            public Optional<TagCheck> visitStartsWith(final StartsWithFilter startsWith) {
+                return Optional.of(
+                    new TagCheck(startsWith.getTag(), new StartsWith(startsWith.getValue())));
+            }
+
+            @Override
+            public Optional<TagCheck> visitRegex(final RegexFilter regex) {
+                return Optional.of(new TagCheck(regex.getTag(), new Regex(regex.getPattern())));
+            }
+
+            @Override
+            public Optional<TagCheck> defaultAction(final Filter filter) {
+                return Optional.empty();
+            }
+        });
+    }
+
+    /**
+     * Rank of an {@code and} child, lower ranks are evaluated first.
+     * <p>
+     * Evaluation stops at the first child which doesn't match, so the expected cost is minimized
+     * by ordering on cost per chance of not matching.
+     */
+    static double andRank(final Estimated e) {
+        return e.cost() / Math.max(1D - e.probability(), MIN_PROBABILITY);
+    }
+
+    /**
+     * Rank of an {@code or} child, lower ranks are evaluated first.
+     * <p>
+     * Evaluation stops at the first child which matches, so the expected cost is minimized by
+     * ordering on cost per chance of matching.
+     */
+    static double orRank(final Estimated e) {
+        return e.cost() / Math.max(e.probability(), MIN_PROBABILITY);
+    }
+
+    interface Estimated {
+        /**
+         * Estimated relative cost of evaluating once.
+         */
+        double cost();
+
+        /**
+         * Estimated probability of matching.
+         */
+        double probability();
+    }
+
+    interface Node extends Estimated {
+        boolean test(Series series);
+    }
+
+    interface ValueCheck extends Estimated {
+        boolean test(String value);
+    }
+
+    @RequiredArgsConstructor
+    static class TagCheck {
+        private final String tag;
+        private final ValueCheck check;
+    }
+
+    @RequiredArgsConstructor
+    static class Constant implements Node {
+        static final Constant TRUE = new Constant(true);
+        static final Constant FALSE = new Constant(false);
+
+        private final boolean value;
+
+        @Override
+        public boolean test(final Series series) {
+            return value;
+        }
+
+        @Override
+        public double cost() {
+            return 0D;
+        }
+
+        @Override
+        public double probability() {
+            return value ? 1D : 0D;
+        }
+
+        @Override
+        public String toString() {
+            return value ? "true" : "false";
+        }
+    }
+
+    @RequiredArgsConstructor
+    static class MatchKey implements Node {
+        private final String key;
+
+        @Override
+        public boolean test(final Series series) {
+            return key.equals(series.getKey());
+        }
+
+        @Override
+        public double cost() {
+            return COMPARE_COST;
+        }
+
+        @Override
+        public double probability() {
+            return MATCH_PROBABILITY;
+        }
+
+        @Override
+        public String toString() {
+            return "$key = " + key;
+        }
+    }
+
+    @RequiredArgsConstructor
+    static class Not implements Node {
+        private final Node child;
+
+        @Override
+        public boolean test(final Series series) {
+            return !child.test(series);
+        }
+
+        @Override
+        public double cost() {
+            return child.cost();
+        }
+
+        @Override
+        public double probability() {
+            return 1D - child.probability();
+        }
+
+        @Override
+        public String toString() {
+            return "!(" + child + ")";
+        }
+    }
+
+    static class And implements Node {
+        private final Node[] children;
+        private final double cost;
+        private final double probability;
+
+        And(final List<Node> children) {
+            this.children = children.toArray(new Node[children.size()]);
+
+            double cost = 0D;
+            double probability = 1D;
+
+            for (final Node c : children) {
+                cost += c.cost();
+                probability *= c.probability();
+            }
+
+            this.cost = cost;
+            this.probability = probability;
+        }
+
+        @Override
+        public boolean test(final Series series) {
+            for (final Node c : children) {
+                if (!c.test(series)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        public double cost() {
+            return cost;
+        }
+
+        @Override
+        public double probability() {
+            return probability;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + StringUtils.join(children, " and ") + ")";
+        }
+    }
+
+    static class Or implements Node {
+        private final Node[] children;
+        private final double cost;
+        private final double probability;
+
+        Or(final List<Node> children) {
+            this.children = children.toArray(new Node[children.size()]);
+
+            double cost = 0D;
+            double miss = 1D;
+
+            for (final Node c : children) {
+                cost += c.cost();
+                miss *= 1D - c.probability();
+            }
+
+            this.cost = cost;
+            this.probability = 1D - miss;
+        }
+
+        @Override
+        public boolean test(final Series series) {
+            for (final Node c : children) {
+                if (c.test(series)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        @Override
+        public double cost() {
+            return cost;
+        }
+
+        @Override
+        public double probability() {
+            return probability;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + StringUtils.join(children, " or ") + ")";
+        }
+    }
+
+    /**
+     * A single check against the value of a tag.
+     */
+    @RequiredArgsConstructor
+    static class Tag implements Node {
+        private final String tag;
+        private final ValueCheck check;
+
+        @Override
+        public boolean test(final Series series) {
+            final String value = series.getTags().get(tag);
+            return value != null && check.test(value);
+        }
+
+        @Override
+        public double cost() {
+            return LOOKUP_COST + check.cost();
+        }
+
+        @Override
+        public double probability() {
+            return check.probability();
+        }
+
+        @Override
+        public String toString() {
+            return tag + " " + check;
+        }
+    }
+
+    /**
+     * Several checks against the value of a tag, which all have to match.
+     */
+    static class AllOfTag implements Node {
+        private final String tag;
+        private final ValueCheck[] checks;
+        private final double cost;
+        private final double probability;
+
+        AllOfTag(final String tag, final List<ValueCheck> checks) {
+            this.tag = tag;
+            this.checks = checks.toArray(new ValueCheck[checks.size()]);
+
+            double cost = LOOKUP_COST;
+            double probability = 1D;
+
+            for (final ValueCheck c : checks) {
+                cost += c.cost();
+                probability *= c.probability();
+            }
+
+            this.cost = cost;
+            this.probability = probability;
+        }
+
+        @Override
+        public boolean test(final Series series) {
+            final String value = series.getTags().get(tag);
+
+            if (value == null) {
+                return false;
+            }
+
+            for (final ValueCheck c : checks) {
+                if (!c.test(value)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        public double cost() {
+            return cost;
+        }
+
+        @Override
+        public double probability() {
+            return probability;
+        }
+
+        @Override
+        public String toString() {
+            return tag + " all(" + StringUtils.join(checks, ", ") + ")";
+        }
+    }
+
+    /**
+     * Several checks against the value of a tag, where any has to match.
+     */
+    static class AnyOfTag implements Node {
+        private final String tag;
+        private final ValueCheck[] checks;
+        private final double cost;
+        private final double probability;
+
+        AnyOfTag(final String tag, final List<ValueCheck> checks) {
+            this.tag = tag;
+            this.checks = checks.toArray(new ValueCheck[checks.size()]);
+
+            double cost = LOOKUP_COST;
+            double miss = 1D;
+
+            for (final ValueCheck c : checks) {
+                cost += c.cost();
+                miss *= 1D - c.probability();
+            }
+
+            this.cost = cost;
+            this.probability = 1D - miss;
+        }
+
+        @Override
+        public boolean test(final Series series) {
+            final String value = series.getTags().get(tag);
+
+            if (value == null) {
+                return false;
+            }
+
+            for (final ValueCheck c : checks) {
+                if (c.test(value)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        @Override
+        public double cost() {
+            return cost;
+        }
+
+        @Override
+        public double probability() {
+            return probability;
+        }
+
+        @Override
+        public String toString() {
+            return tag + " any(" + StringUtils.join(checks, ", ") + ")";
+        }
+    }
+
+    /**
+     * Filters which can't be compiled are evaluated as-is.
+     */
+    @RequiredArgsConstructor
+    static class Delegate implements Node {
+        private final Filter filter;
+
+        @Override
+        public boolean test(final Series series) {
+            return filter.apply(series);
+        }
+
+        @Override
+        public double cost() {
+            return DELEGATE_COST;
+        }
+
+        @Override
+        public double probability() {
+            return DELEGATE_PROBABILITY;
+        }
+
+        @Override
+        public String toString() {
+            return filter.toString();
+        }
+    }
+
+    static class HasTag implements ValueCheck {
+        static final HasTag INSTANCE = new HasTag();
+
+        @Override
+        public boolean test(final String value) {
+            return true;
+        }
+
+        @Override
+        public double cost() {
+            return 0D;
+        }
+
+        @Override
+        public double probability() {
+            return HAS_TAG_PROBABILITY;
+        }
+
+        @Override
+        public String toString() {
+            return "+";
+        }
+    }
+
+    @RequiredArgsConstructor
+    static class Equals implements ValueCheck {
+        private final String expected;
+
+        @Override
+        public boolean test(final String value) {
+            return expected.equals(value);
+        }
+
+        @Override
+        public double cost() {
+            return COMPARE_COST;
+        }
+
+        @Override
+        public double probability() {
+            return MATCH_PROBABILITY;
+        }
+
+        @Override
+        public String toString() {
+            return "= " + expected;
+        }
+    }
+
+    @RequiredArgsConstructor
+    static class StartsWith implements ValueCheck {
+        private final String prefix;
+
+        @Override
+        public boolean test(final String value) {
+            return value.startsWith(prefix);
+        }
+
+        @Override
+        public double cost() {
+            return COMPARE_COST;
+        }
+
+        @Override
+        public double probability() {
+            return STARTS_WITH_PROBABILITY;
+        }
+
+        @Override
+        public String toString() {
+            return "^ " + prefix;
+        }
+    }
+
+    @RequiredArgsConstructor
+    static class Regex implements ValueCheck {
+        private final Pattern pattern;
+
+        @Override
+        public boolean test(final String value) {
+            return pattern.matcher(value).matches();
+        }
+
+        @Override
+        public double cost() {
+            return REGEX_COST;
+        }
+
+        @Override
+        public double probability() {
+            return REGEX_PROBABILITY;
+        }
+
+        @Override
+        public String toString() {
+            return "~ " + pattern.pattern();
+        }
+    }
+}
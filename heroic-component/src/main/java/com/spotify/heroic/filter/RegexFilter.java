@@ -25,6 +25,7 @@ import com.spotify.heroic.common.Series;
 import com.spotify.heroic.grammar.DSL;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
 
 import java.util.regex.Pattern;
 
@@ -36,11 +37,17 @@ public class RegexFilter implements Filter {
     private final String tag;
     private final String value;
 
+    /**
+     * The compiled pattern, compiled once on first use.
+     */
+    @Getter(lazy = true)
+    private final Pattern pattern = Pattern.compile(this.value);
+
     @Override
     public boolean apply(Series series) {
         final String value;
         return (value = series.getTags().get(tag)) != null &&
-            Pattern.compile(this.value).matcher(value).matches();
+            getPattern().matcher(value).matches();
     }
 
     @Override
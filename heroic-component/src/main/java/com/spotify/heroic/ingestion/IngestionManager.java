@@ -29,9 +29,26 @@ import eu.toolchain.async.AsyncFuture;
 public interface IngestionManager extends UsableGroupManager<IngestionGroup> {
     String INGESTED = "ingested";
     String AVAILABLE_WRITE_PERMITS = "available-write-permits";
+    String PENDING_WRITES = "pending-writes";
+    String WRITE_AHEAD_PENDING_BYTES = "write-ahead-pending-bytes";
+    String WRITE_AHEAD_LAG = "write-ahead-lag";
+    String WRITE_AHEAD_OVERFLOWED = "write-ahead-overflowed";
+    String COALESCED_WRITES = "coalesced-writes";
+    String COALESCE_FLUSHES = "coalesce-flushes";
+    String COALESCE_BUFFERED_POINTS = "coalesce-buffered-points";
 
     Statistics getStatistics();
 
+    /**
+     * Get a future which is resolved when ingestion has capacity for more writes.
+     * <p>
+     * Writes never block the writing thread. Consumers which do not wait for the result of their
+     * writes should wait for this future before taking in more data.
+     *
+     * @return A future that is resolved when more writes can be accepted.
+     */
+    AsyncFuture<Void> writeCapacity();
+
     /**
      * Configure a filter to use for ingestion.
      * <p>
@@ -25,7 +25,9 @@ import com.google.common.collect.ImmutableList;
 import com.spotify.heroic.QueryOptions;
 import com.spotify.heroic.async.AsyncObservable;
 import com.spotify.heroic.async.AsyncObserver;
+import com.spotify.heroic.common.DateRange;
 import com.spotify.heroic.common.OptionalLimit;
+import com.spotify.heroic.common.Series;
 import com.spotify.heroic.common.Statistics;
 import eu.toolchain.async.AsyncFramework;
 import eu.toolchain.async.AsyncFuture;
@@ -70,6 +72,16 @@ public abstract class AbstractMetricBackend implements MetricBackend {
         return async.resolved(0L);
     }
 
+    @Override
+    public AsyncFuture<Long> compact(Series series, DateRange range) {
+        return async.resolved(0L);
+    }
+
+    @Override
+    public Optional<Long> retainedSince(MetricType type, Series series) {
+        return Optional.empty();
+    }
+
     @Override
     public AsyncFuture<MetricCollection> fetchRow(BackendKey key) {
         return async.failed(new Exception("not supported"));
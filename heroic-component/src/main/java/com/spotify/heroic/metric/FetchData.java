@@ -29,10 +29,10 @@ import com.spotify.heroic.common.Series;
 import eu.toolchain.async.Collector;
 import lombok.Data;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 @Data
 public class FetchData {
@@ -60,6 +60,7 @@ public class FetchData {
         return results -> {
             final ImmutableList.Builder<Long> times = ImmutableList.builder();
             final Map<MetricType, ImmutableList.Builder<Metric>> fetchGroups = new HashMap<>();
+            final List<MetricCollection> points = new ArrayList<>();
             final ImmutableList.Builder<QueryTrace> traces = ImmutableList.builder();
 
             for (final FetchData fetch : results) {
@@ -67,6 +68,12 @@ public class FetchData {
                 traces.add(fetch.trace);
 
                 for (final MetricCollection g : fetch.groups) {
+                    /* points are merged in columnar form, see MetricCollection#mergeSortedPoints */
+                    if (g.getType() == MetricType.POINT) {
+                        points.add(g);
+                        continue;
+                    }
+
                     ImmutableList.Builder<Metric> data = fetchGroups.get(g.getType());
 
                     if (data == null) {
@@ -78,12 +85,18 @@ public class FetchData {
                 }
             }
 
-            final List<MetricCollection> groups = fetchGroups
+            final List<MetricCollection> groups = new ArrayList<>();
+
+            if (!points.isEmpty()) {
+                groups.add(MetricCollection.mergeSortedPoints(points));
+            }
+
+            fetchGroups
                 .entrySet()
                 .stream()
                 .map((e) -> MetricCollection.build(e.getKey(),
                     Ordering.from(Metric.comparator()).immutableSortedCopy(e.getValue().build())))
-                .collect(Collectors.toList());
+                .forEach(groups::add);
 
             return new FetchData(w.end(traces.build()), ImmutableList.of(), times.build(), groups);
         };
@@ -98,5 +98,13 @@ public final class FullQuery {
         private final DateRange range;
         private final AggregationInstance aggregation;
         private final QueryOptions options;
+
+        public Request withRange(final DateRange range) {
+            return new Request(source, filter, range, aggregation, options);
+        }
+
+        public Request withOptions(final QueryOptions options) {
+            return new Request(source, filter, range, aggregation, options);
+        }
     }
 }
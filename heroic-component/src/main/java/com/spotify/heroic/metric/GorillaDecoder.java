@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.heroic.metric;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes a block of points encoded by {@link GorillaEncoder}.
+ * <p>
+ * Bits are read straight from the given buffer, which is not modified. This class is not
+ * thread-safe.
+ *
+ * <pre>
+ * final GorillaDecoder decoder = new GorillaDecoder(buffer);
+ *
+ * while (decoder.next()) {
+ *     consume(decoder.timestamp(), decoder.value());
+ * }
+ * </pre>
+ */
+public class GorillaDecoder {
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int size;
+
+    /* number of bits read */
+    private int position = 0;
+    private int read = 0;
+
+    private long timestamp;
+    private long delta;
+    private long value;
+    private int leading;
+    private int trailing;
+
+    /**
+     * @param buffer Buffer to decode, starting at its current position.
+     */
+    public GorillaDecoder(final ByteBuffer buffer) {
+        if (buffer.remaining() < GorillaEncoder.HEADER_SIZE) {
+            throw new IllegalArgumentException(
+                "block too small: " + buffer.remaining() + " byte(s)");
+        }
+
+        final byte version = buffer.get(buffer.position());
+
+        if (version != GorillaEncoder.VERSION) {
+            throw new IllegalArgumentException("unsupported block version: " + version);
+        }
+
+        this.buffer = buffer;
+        this.size = buffer.getInt(buffer.position() + 1);
+        this.offset = buffer.position() + GorillaEncoder.HEADER_SIZE;
+    }
+
+    public GorillaDecoder(final byte[] bytes) {
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * The total number of points in the block.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Advance to the next point.
+     *
+     * @return {@code true} if there was a next point, in which case it is available through
+     * {@link #timestamp()} and {@link #value()}.
+     */
+    public boolean next() {
+        if (read >= size) {
+            return false;
+        }
+
+        if (read++ == 0) {
+            timestamp = readBits(64);
+            value = readBits(64);
+            return true;
+        }
+
+        delta += readTimestamp();
+        timestamp += delta;
+        value ^= readValue();
+        return true;
+    }
+
+    public long timestamp() {
+        return timestamp;
+    }
+
+    public double value() {
+        return Double.longBitsToDouble(value);
+    }
+
+    /**
+     * Decode all points of the given block into a builder.
+     */
+    public static void decode(final ByteBuffer buffer, final PointColumns.Builder builder) {
+        final GorillaDecoder decoder = new GorillaDecoder(buffer);
+
+        while (decoder.next()) {
+            builder.add(decoder.timestamp(), decoder.value());
+        }
+    }
+
+    public static PointColumns decode(final byte[] bytes) {
+        final GorillaDecoder decoder = new GorillaDecoder(bytes);
+        final PointColumns.Builder builder = PointColumns.builder(decoder.size());
+
+        while (decoder.next()) {
+            builder.add(decoder.timestamp(), decoder.value());
+        }
+
+        return builder.build();
+    }
+
+    private long readTimestamp() {
+        if (readBit() == 0) {
+            return 0L;
+        }
+
+        if (readBit() == 0) {
+            return signed(readBits(7), 7);
+        }
+
+        if (readBit() == 0) {
+            return signed(readBits(9), 9);
+        }
+
+        if (readBit() == 0) {
+            return signed(readBits(12), 12);
+        }
+
+        return readBits(64);
+    }
+
+    private long readValue() {
+        if (readBit() == 0) {
+            return 0L;
+        }
+
+        if (readBit() == 1) {
+            leading = (int) readBits(5);
+            final int meaningful = (int) readBits(6) + 1;
+            trailing = 64 - leading - meaningful;
+        }
+
+        return readBits(64 - leading - trailing) << trailing;
+    }
+
+    private int readBit() {
+        final int b = buffer.get(offset + (position >>> 3)) & 0xff;
+        final int bit = (b >>> (7 - (position & 7))) & 1;
+        position++;
+        return bit;
+    }
+
+    /**
+     * Read n bits, most significant bit first.
+     */
+    private long readBits(final int n) {
+        long result = 0L;
+        int remaining = n;
+
+        while (remaining > 0) {
+            final int available = 8 - (position & 7);
+            final int take = Math.min(available, remaining);
+            final int b = buffer.get(offset + (position >>> 3)) & 0xff;
+            result = (result << take) | ((b >>> (available - take)) & ((1 << take) - 1));
+            position += take;
+            remaining -= take;
+        }
+
+        return result;
+    }
+
+    private static long signed(final long value, final int bits) {
+        return (value << (64 - bits)) >> (64 - bits);
+    }
+}
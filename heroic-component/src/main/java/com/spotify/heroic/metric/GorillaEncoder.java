@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.heroic.metric;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Encodes points into a compressed block, as described in the Gorilla paper.
+ * <p>
+ * Timestamps are stored as delta-of-deltas and values are stored as the XOR with the previous
+ * value, both with variable length prefix codes. Regular timestamps and slowly changing values
+ * compress to a few bits per point.
+ * <p>
+ * Points are expected to be added in timestamp order, but out of order points are supported at
+ * the cost of compression. This class is not thread-safe.
+ * <p>
+ * See: Pelkonen et al., "Gorilla: A Fast, Scalable, In-Memory Time Series Database", 2015
+ *
+ * @see GorillaDecoder
+ */
+public class GorillaEncoder {
+    static final byte VERSION = 1;
+
+    /* header: version, point count */
+    static final int HEADER_SIZE = 1 + Integer.BYTES;
+
+    private long[] words;
+    /* number of bits written */
+    private int position = 0;
+    private int size = 0;
+
+    private long previousTimestamp;
+    private long previousDelta;
+    private long previousValue;
+    private int previousLeading = -1;
+    private int previousTrailing = 0;
+
+    public GorillaEncoder() {
+        this(4);
+    }
+
+    /**
+     * @param capacity Initial capacity in 64-bit words.
+     */
+    public GorillaEncoder(final int capacity) {
+        this.words = new long[Math.max(capacity, 1)];
+    }
+
+    public void add(final long timestamp, final double value) {
+        final long bits = Double.doubleToRawLongBits(value);
+
+        if (size++ == 0) {
+            writeBits(timestamp, 64);
+            writeBits(bits, 64);
+            previousTimestamp = timestamp;
+            previousValue = bits;
+            return;
+        }
+
+        final long delta = timestamp - previousTimestamp;
+        writeTimestamp(delta - previousDelta);
+        previousTimestamp = timestamp;
+        previousDelta = delta;
+
+        writeValue(bits ^ previousValue);
+        previousValue = bits;
+    }
+
+    public void addAll(final PointColumns columns) {
+        for (int i = 0; i < columns.size(); i++) {
+            add(columns.timestamp(i), columns.value(i));
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * The number of bytes that the encoded block currently uses.
+     */
+    public int byteSize() {
+        return HEADER_SIZE + (position + 7) / 8;
+    }
+
+    public byte[] toBytes() {
+        final ByteBuffer buffer = ByteBuffer.allocate(byteSize());
+        buffer.put(VERSION);
+        buffer.putInt(size);
+
+        final int bytes = (position + 7) / 8;
+
+        for (int i = 0; i < bytes; i++) {
+            buffer.put((byte) (words[i >>> 3] >>> (56 - 8 * (i & 7))));
+        }
+
+        return buffer.array();
+    }
+
+    public static byte[] encode(final PointColumns columns) {
+        final GorillaEncoder encoder = new GorillaEncoder(columns.size() / 4 + 4);
+        encoder.addAll(columns);
+        return encoder.toBytes();
+    }
+
+    /**
+     * Delta-of-delta encoding, with ranges picked to fit common deviations in scrape intervals.
+     */
+    private void writeTimestamp(final long dod) {
+        if (dod == 0) {
+            writeBits(0b0, 1);
+        } else if (fits(dod, 7)) {
+            writeBits(0b10, 2);
+            writeBits(dod, 7);
+        } else if (fits(dod, 9)) {
+            writeBits(0b110, 3);
+            writeBits(dod, 9);
+        } else if (fits(dod, 12)) {
+            writeBits(0b1110, 4);
+            writeBits(dod, 12);
+        } else {
+            writeBits(0b1111, 4);
+            writeBits(dod, 64);
+        }
+    }
+
+    private void writeValue(final long xor) {
+        if (xor == 0) {
+            writeBits(0b0, 1);
+            return;
+        }
+
+        final int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        final int trailing = Long.numberOfTrailingZeros(xor);
+
+        /* meaningful bits fit in the window of the previous value */
+        if (previousLeading >= 0 && leading >= previousLeading &&
+            trailing >= previousTrailing) {
+            writeBits(0b10, 2);
+            writeBits(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+            return;
+        }
+
+        final int meaningful = 64 - leading - trailing;
+
+        writeBits(0b11, 2);
+        writeBits(leading, 5);
+        writeBits(meaningful - 1, 6);
+        writeBits(xor >>> trailing, meaningful);
+
+        previousLeading = leading;
+        previousTrailing = trailing;
+    }
+
+    /**
+     * Write the lowest n bits of the given value, most significant bit first.
+     */
+    private void writeBits(final long value, final int n) {
+        if (position + n > words.length * 64) {
+            words = Arrays.copyOf(words, Math.max(words.length * 2, (position + n) / 64 + 1));
+        }
+
+        int remaining = n;
+
+        while (remaining > 0) {
+            final int free = 64 - (position & 63);
+            final int take = Math.min(free, remaining);
+            final long chunk = (value >>> (remaining - take)) & mask(take);
+            words[position >>> 6] |= chunk << (free - take);
+            position += take;
+            remaining -= take;
+        }
+    }
+
+    static boolean fits(final long value, final int bits) {
+        final long limit = 1L << (bits - 1);
+        return value >= -limit && value < limit;
+    }
+
+    static long mask(final int bits) {
+        return bits == 64 ? -1L : (1L << bits) - 1;
+    }
+}
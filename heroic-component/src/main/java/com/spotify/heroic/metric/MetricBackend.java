@@ -24,12 +24,15 @@ package com.spotify.heroic.metric;
 import com.spotify.heroic.QueryOptions;
 import com.spotify.heroic.async.AsyncObservable;
 import com.spotify.heroic.common.Collected;
+import com.spotify.heroic.common.DateRange;
 import com.spotify.heroic.common.Grouped;
 import com.spotify.heroic.common.Initializing;
+import com.spotify.heroic.common.Series;
 import com.spotify.heroic.common.Statistics;
 import eu.toolchain.async.AsyncFuture;
 
 import java.util.List;
+import java.util.Optional;
 
 public interface MetricBackend extends Initializing, Grouped, Collected {
     Statistics getStatistics();
@@ -114,6 +117,30 @@ public interface MetricBackend extends Initializing, Grouped, Collected {
      */
     AsyncFuture<Long> countKey(BackendKey key, QueryOptions options);
 
+    /**
+     * Compact the stored data of the given series and range into the most compact storage format
+     * supported by the backend.
+     *
+     * @return A future containing the number of samples that were compacted.
+     */
+    AsyncFuture<Long> compact(Series series, DateRange range);
+
+    /**
+     * Indicates that this backend only retains recent data of the series written through it.
+     * <p>
+     * If present, the backend holds all data of the given type and series with a timestamp after
+     * the given timestamp, or {@link Long#MAX_VALUE} if it holds no complete data for it. Groups
+     * that contain both backends with limited retention and durable backends use this to read
+     * recent data from the former, and older data from the latter.
+     * <p>
+     * This requires that all writes of a series go through the same node, a backend which has
+     * not received the writes of a series must not claim to hold it.
+     *
+     * @return The timestamp after which this backend holds all data of the series, or empty if
+     * the backend is durable.
+     */
+    Optional<Long> retainedSince(MetricType type, Series series);
+
     /**
      * Fetch a complete row from the backend.
      */
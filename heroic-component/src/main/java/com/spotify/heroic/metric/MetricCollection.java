@@ -30,8 +30,10 @@ import lombok.AccessLevel;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.function.Function;
 
@@ -60,6 +62,10 @@ import static com.google.common.base.Preconditions.checkNotNull;
  *     ...
  * }
  * </pre>
+ * <p>
+ * Collections of points can also be backed by {@link PointColumns}, in which case {@link
+ * #getData()} is a lazy view over the columns. Hot paths should prefer {@link
+ * #getPointColumns()} to avoid materializing {@link Point} objects.
  *
  * @author udoprog
  * @see Point
@@ -96,6 +102,19 @@ public abstract class MetricCollection {
         AggregationSession session, Map<String, String> tags, Set<Series> series
     );
 
+    /**
+     * Access the points of this collection in columnar form.
+     * <p>
+     * This is free for collections built from {@link PointColumns}, other collections of points
+     * are copied.
+     *
+     * @return The points in this collection.
+     * @throws IllegalArgumentException if this is not a collection of points.
+     */
+    public PointColumns getPointColumns() {
+        return PointColumns.copyOf(getDataAs(Point.class));
+    }
+
     public int size() {
         return data.size();
     }
@@ -129,6 +148,10 @@ public abstract class MetricCollection {
         return new PointCollection(metrics);
     }
 
+    public static MetricCollection points(PointColumns columns) {
+        return new PointCollection(columns);
+    }
+
     public static MetricCollection events(List<Event> metrics) {
         return new EventCollection(metrics);
     }
@@ -149,6 +172,19 @@ public abstract class MetricCollection {
         return adapter.apply(metrics);
     }
 
+    /**
+     * Merge the given collections of points, retaining their columnar form.
+     */
+    public static MetricCollection mergeSortedPoints(final List<MetricCollection> collections) {
+        final List<PointColumns> columns = new ArrayList<>(collections.size());
+
+        for (final MetricCollection c : collections) {
+            columns.add(c.getPointColumns());
+        }
+
+        return points(PointColumns.mergeSorted(columns));
+    }
+
     public static MetricCollection mergeSorted(
         final MetricType type, final List<List<? extends Metric>> values
     ) {
@@ -160,14 +196,32 @@ public abstract class MetricCollection {
 
     @SuppressWarnings("unchecked")
     private static class PointCollection extends MetricCollection {
+        private final Optional<PointColumns> columns;
+
         PointCollection(List<? extends Metric> points) {
             super(MetricType.POINT, points);
+            this.columns = Optional.empty();
+        }
+
+        PointCollection(PointColumns columns) {
+            super(MetricType.POINT, columns.asList());
+            this.columns = Optional.of(columns);
+        }
+
+        @Override
+        public PointColumns getPointColumns() {
+            return columns.orElseGet(super::getPointColumns);
         }
 
         @Override
         public void updateAggregation(
             AggregationSession session, Map<String, String> tags, Set<Series> series
         ) {
+            if (columns.isPresent()) {
+                session.updatePoints(tags, series, columns.get());
+                return;
+            }
+
             session.updatePoints(tags, series, adapt());
         }
 
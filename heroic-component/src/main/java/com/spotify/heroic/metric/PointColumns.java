@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.metric;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An immutable, columnar collection of points.
+ * <p>
+ * Timestamps and values are stored in parallel primitive arrays, which avoids allocating one
+ * {@link Point} per sample when data is moved from a backend into an aggregation.
+ * <p>
+ * Code that still operates on {@link Point} objects can use {@link #asList()}, which is a lazy
+ * view that only materializes points as they are accessed.
+ */
+public final class PointColumns {
+    private static final long[] EMPTY_TIMESTAMPS = new long[0];
+    private static final double[] EMPTY_VALUES = new double[0];
+
+    private static final PointColumns EMPTY = new PointColumns(EMPTY_TIMESTAMPS, EMPTY_VALUES, 0);
+
+    private final long[] timestamps;
+    private final double[] values;
+    private final int size;
+
+    private PointColumns(final long[] timestamps, final double[] values, final int size) {
+        this.timestamps = timestamps;
+        this.values = values;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long timestamp(final int index) {
+        checkIndex(index);
+        return timestamps[index];
+    }
+
+    public double value(final int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    /**
+     * Check if the timestamps in this collection are in non-decreasing order.
+     */
+    public boolean isSorted() {
+        for (int i = 1; i < size; i++) {
+            if (timestamps[i - 1] > timestamps[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Copy the timestamps of this collection into the given array.
+     *
+     * @param target Target array, must have room for at least {@link #size()} elements.
+     */
+    public void copyTimestamps(final long[] target) {
+        System.arraycopy(timestamps, 0, target, 0, size);
+    }
+
+    /**
+     * Copy the values of this collection into the given array.
+     *
+     * @param target Target array, must have room for at least {@link #size()} elements.
+     */
+    public void copyValues(final double[] target) {
+        System.arraycopy(values, 0, target, 0, size);
+    }
+
+    /**
+     * Lazy list view of this collection.
+     * <p>
+     * Every access to an element allocates a new {@link Point}, prefer operating on the columns
+     * directly when possible.
+     */
+    public List<Point> asList() {
+        return new PointList();
+    }
+
+    /**
+     * Get a version of this collection where timestamps are guaranteed to be sorted.
+     * <p>
+     * The sort is stable, points with the same timestamp retain their relative order.
+     */
+    public PointColumns sorted() {
+        if (isSorted()) {
+            return this;
+        }
+
+        final Integer[] order = new Integer[size];
+
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+
+        Arrays.sort(order, Comparator.comparingLong(i -> timestamps[i]));
+
+        final long[] t = new long[size];
+        final double[] v = new double[size];
+
+        for (int i = 0; i < size; i++) {
+            t[i] = timestamps[order[i]];
+            v[i] = values[order[i]];
+        }
+
+        return new PointColumns(t, v, size);
+    }
+
+    public static PointColumns empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Build a collection from the given arrays.
+     * <p>
+     * The arrays are used as-is without copying, and must not be modified after this call.
+     */
+    public static PointColumns of(final long[] timestamps, final double[] values, final int size) {
+        if (timestamps.length < size || values.length < size) {
+            throw new IllegalArgumentException(
+                "columns are smaller than size (" + size + ")");
+        }
+
+        return new PointColumns(timestamps, values, size);
+    }
+
+    public static PointColumns copyOf(final List<Point> points) {
+        final Builder builder = new Builder(points.size());
+
+        for (final Point p : points) {
+            builder.add(p.getTimestamp(), p.getValue());
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Merge the given collections into a single, sorted collection.
+     * <p>
+     * Each input is sorted first if necessary. Points with the same timestamp are ordered in the
+     * order of the input collections.
+     */
+    public static PointColumns mergeSorted(final List<PointColumns> columns) {
+        if (columns.isEmpty()) {
+            return EMPTY;
+        }
+
+        PointColumns[] current = new PointColumns[columns.size()];
+
+        for (int i = 0; i < current.length; i++) {
+            current[i] = columns.get(i).sorted();
+        }
+
+        /* pairwise merge until only one collection remains */
+        while (current.length > 1) {
+            final PointColumns[] next = new PointColumns[(current.length + 1) / 2];
+
+            for (int i = 0; i < next.length; i++) {
+                final int left = i * 2;
+
+                if (left + 1 < current.length) {
+                    next[i] = merge(current[left], current[left + 1]);
+                } else {
+                    next[i] = current[left];
+                }
+            }
+
+            current = next;
+        }
+
+        return current[0];
+    }
+
+    public static Builder builder() {
+        return new Builder(16);
+    }
+
+    public static Builder builder(final int capacity) {
+        return new Builder(capacity);
+    }
+
+    private static PointColumns merge(final PointColumns a, final PointColumns b) {
+        if (a.size == 0) {
+            return b;
+        }
+
+        if (b.size == 0) {
+            return a;
+        }
+
+        final int size = a.size + b.size;
+        final long[] t = new long[size];
+        final double[] v = new double[size];
+
+        int i = 0;
+        int j = 0;
+        int k = 0;
+
+        while (i < a.size && j < b.size) {
+            if (a.timestamps[i] <= b.timestamps[j]) {
+                t[k] = a.timestamps[i];
+                v[k++] = a.values[i++];
+            } else {
+                t[k] = b.timestamps[j];
+                v[k++] = b.values[j++];
+            }
+        }
+
+        while (i < a.size) {
+            t[k] = a.timestamps[i];
+            v[k++] = a.values[i++];
+        }
+
+        while (j < b.size) {
+            t[k] = b.timestamps[j];
+            v[k++] = b.values[j++];
+        }
+
+        return new PointColumns(t, v, size);
+    }
+
+    private void checkIndex(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+    }
+
+    private class PointList extends AbstractList<Point> implements RandomAccess {
+        @Override
+        public Point get(final int index) {
+            checkIndex(index);
+            return new Point(timestamps[index], values[index]);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * A growable builder for point columns.
+     * <p>
+     * Not thread-safe. The builder hands over its arrays when {@link #build()} is called, and is
+     * reset to an empty state afterwards.
+     */
+    public static final class Builder {
+        private long[] timestamps;
+        private double[] values;
+        private int size = 0;
+
+        private Builder(final int capacity) {
+            this.timestamps = new long[Math.max(capacity, 1)];
+            this.values = new double[Math.max(capacity, 1)];
+        }
+
+        public Builder add(final long timestamp, final double value) {
+            if (size == timestamps.length) {
+                grow(size + 1);
+            }
+
+            timestamps[size] = timestamp;
+            values[size] = value;
+            size++;
+            return this;
+        }
+
+        public Builder addAll(final PointColumns other) {
+            if (size + other.size > timestamps.length) {
+                grow(size + other.size);
+            }
+
+            System.arraycopy(other.timestamps, 0, timestamps, size, other.size);
+            System.arraycopy(other.values, 0, values, size, other.size);
+            size += other.size;
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public PointColumns build() {
+            if (size == 0) {
+                return EMPTY;
+            }
+
+            final PointColumns result = new PointColumns(timestamps, values, size);
+            this.timestamps = EMPTY_TIMESTAMPS;
+            this.values = EMPTY_VALUES;
+            this.size = 0;
+            return result;
+        }
+
+        private void grow(final int minimum) {
+            final int capacity = Math.max(minimum, Math.max(timestamps.length * 2, 16));
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+}
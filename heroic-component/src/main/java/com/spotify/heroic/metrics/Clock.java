@@ -24,6 +24,14 @@ package com.spotify.heroic.metrics;
 public interface Clock {
     long getTick();
 
+    /**
+     * Wall-clock time in milliseconds, unlike the tick which is only useful to measure elapsed
+     * time.
+     */
+    default long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
     static Clock systemClock() {
         return new Clock() {
             @Override
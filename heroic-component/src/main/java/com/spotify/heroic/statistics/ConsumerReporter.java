@@ -29,4 +29,17 @@ public interface ConsumerReporter {
     void reportConsumerSchemaError();
 
     void reportMessageDrift(final long ms);
+
+    /**
+     * Report a batch of consumed messages, and the number of grouped writes it resulted in.
+     */
+    void reportBatch(int messages, int writes);
+
+    /**
+     * Report the time between a batch being received and its offsets being committed, in
+     * milliseconds.
+     */
+    void reportCommitLag(long ms);
+
+    void reportCommitError();
 }
@@ -37,5 +37,7 @@ public interface HeroicReporter {
 
     MetricBackendReporter newMetricBackend();
 
+    QueryCacheReporter newQueryCache();
+
     void registerShards(Set<Map<String, String>> knownShards);
 }
@@ -29,4 +29,46 @@ public interface IngestionManagerReporter {
     void incrementConcurrentWrites();
 
     void decrementConcurrentWrites();
+
+    /**
+     * Report that a write was not accepted by the write-ahead log, since it was full.
+     */
+    void reportWriteAheadOverflow();
+
+    void reportWriteAheadAppended(long bytes);
+
+    void reportWriteAheadDrained(long bytes);
+
+    void reportWriteAheadRetries(int writes);
+
+    /**
+     * Report records which were moved to the dead-letter file of the write-ahead log, since they
+     * were corrupt or could not be written.
+     */
+    void reportWriteAheadDeadLetters(int records);
+
+    /**
+     * Report the time between a record being appended to the write-ahead log and it being
+     * drained, in milliseconds.
+     */
+    void reportWriteAheadLag(long lag);
+
+    void incrementPendingWrites();
+
+    void decrementPendingWrites();
+
+    /**
+     * Report the time a write spent in the write queue before it was started, in milliseconds.
+     */
+    void reportWriteQueueWait(long wait);
+
+    /**
+     * Report that a write was rejected, since the write queue was full.
+     */
+    void reportWriteRejected();
+
+    /**
+     * Report that a queued write was dropped to make room for a newer write.
+     */
+    void reportWriteDropped();
 }
@@ -31,4 +31,18 @@ public interface MetricBackendReporter {
     FutureReporter.Context reportFindSeries();
 
     FutureReporter.Context reportQueryMetrics();
+
+    /**
+     * Report the current limit of concurrent fetches towards the given backend.
+     */
+    void reportFetchLimit(MetricBackend backend, int limit);
+
+    /**
+     * Report a batch of writes which has been executed by a backend.
+     *
+     * @param statements Number of statements in the batch.
+     * @param bytes Estimated size of the batch in bytes.
+     * @param millis How long it took to execute the batch.
+     */
+    void reportWriteBatch(int statements, long bytes, long millis);
 }
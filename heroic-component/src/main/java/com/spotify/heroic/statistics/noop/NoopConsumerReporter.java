@@ -43,6 +43,18 @@ public class NoopConsumerReporter implements ConsumerReporter {
     public void reportMessageDrift(final long ms) {
     }
 
+    @Override
+    public void reportBatch(final int messages, final int writes) {
+    }
+
+    @Override
+    public void reportCommitLag(final long ms) {
+    }
+
+    @Override
+    public void reportCommitError() {
+    }
+
     private static final NoopConsumerReporter instance = new NoopConsumerReporter();
 
     public static NoopConsumerReporter get() {
@@ -27,6 +27,7 @@ import com.spotify.heroic.statistics.HeroicReporter;
 import com.spotify.heroic.statistics.IngestionManagerReporter;
 import com.spotify.heroic.statistics.MetadataBackendReporter;
 import com.spotify.heroic.statistics.MetricBackendReporter;
+import com.spotify.heroic.statistics.QueryCacheReporter;
 import com.spotify.heroic.statistics.SuggestBackendReporter;
 
 import java.util.Map;
@@ -63,6 +64,11 @@ public class NoopHeroicReporter implements HeroicReporter {
         return NoopMetricBackendReporter.get();
     }
 
+    @Override
+    public QueryCacheReporter newQueryCache() {
+        return NoopQueryCacheReporter.get();
+    }
+
     @Override
     public void registerShards(Set<Map<String, String>> knownShards) {
     }
@@ -47,6 +47,50 @@ public class NoopIngestionManagerReporter implements IngestionManagerReporter {
 
     }
 
+    @Override
+    public void reportWriteAheadOverflow() {
+    }
+
+    @Override
+    public void reportWriteAheadAppended(final long bytes) {
+    }
+
+    @Override
+    public void reportWriteAheadDrained(final long bytes) {
+    }
+
+    @Override
+    public void reportWriteAheadRetries(final int writes) {
+    }
+
+    @Override
+    public void reportWriteAheadDeadLetters(final int records) {
+    }
+
+    @Override
+    public void reportWriteAheadLag(final long lag) {
+    }
+
+    @Override
+    public void incrementPendingWrites() {
+    }
+
+    @Override
+    public void decrementPendingWrites() {
+    }
+
+    @Override
+    public void reportWriteQueueWait(final long wait) {
+    }
+
+    @Override
+    public void reportWriteRejected() {
+    }
+
+    @Override
+    public void reportWriteDropped() {
+    }
+
     private static final NoopIngestionManagerReporter instance = new NoopIngestionManagerReporter();
 
     public static NoopIngestionManagerReporter get() {
@@ -68,6 +68,14 @@ public class NoopMetricBackendReporter implements MetricBackendReporter {
         return NoopFutureReporterContext.get();
     }
 
+    @Override
+    public void reportFetchLimit(final MetricBackend backend, final int limit) {
+    }
+
+    @Override
+    public void reportWriteBatch(final int statements, final long bytes, final long millis) {
+    }
+
     private static final NoopMetricBackendReporter instance = new NoopMetricBackendReporter();
 
     public static NoopMetricBackendReporter get() {
@@ -0,0 +1,149 @@
+package com.spotify.heroic.aggregation;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.common.Series;
+import com.spotify.heroic.metric.MetricType;
+import com.spotify.heroic.metric.Point;
+import com.spotify.heroic.metric.PointColumns;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures feeding a day of ten second samples into one minute buckets, both when buckets are
+ * aligned (size equals extent) and when they slide over a five minute extent.
+ * <p>
+ * The {@code iterator} mode uses the same aligned buckets as {@code aligned}, but goes through
+ * the general path which iterates over all matching buckets, so the two can be compared.
+ * <p>
+ * Run with {@code mvn -pl heroic-component test-compile exec:java
+ * -Dexec.mainClass=com.spotify.heroic.aggregation.BucketAggregationBenchmark
+ * -Dexec.classpathScope=test}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BucketAggregationBenchmark {
+    private static final long SIZE = 60_000L;
+    private static final long INTERVAL = 10_000L;
+    private static final long DAY = 86_400_000L;
+
+    private static final Map<String, String> KEY = ImmutableMap.of();
+    private static final Set<Series> SERIES = ImmutableSet.of(Series.of("cpu"));
+
+    @Param({"aligned", "iterator", "sliding"})
+    public String mode;
+
+    private BucketAggregationInstance<SumBucket> aggregation;
+    private DateRange range;
+    private List<Point> points;
+    private PointColumns columns;
+
+    @Setup
+    public void setup() {
+        final long extent = "sliding".equals(mode) ? SIZE * 5 : SIZE;
+        final boolean forceIterator = "iterator".equals(mode);
+
+        aggregation = new BucketAggregationInstance<SumBucket>(SIZE, extent,
+            ImmutableSet.of(MetricType.POINT), MetricType.POINT) {
+            @Override
+            protected SumBucket buildBucket(final long timestamp) {
+                return new SumBucket(timestamp);
+            }
+
+            @Override
+            protected Point build(final SumBucket bucket) {
+                return new Point(bucket.timestamp(), bucket.sum);
+            }
+
+            @Override
+            public AggregationInstance reducer() {
+                return this;
+            }
+
+            @Override
+            boolean alignedBuckets() {
+                return !forceIterator && super.alignedBuckets();
+            }
+        };
+
+        range = new DateRange(0L, DAY);
+
+        final Random random = new Random(0L);
+        final PointColumns.Builder builder = PointColumns.builder();
+
+        for (long t = INTERVAL; t <= DAY; t += INTERVAL) {
+            builder.add(t, random.nextGaussian() * 100D);
+        }
+
+        columns = builder.build();
+        points = new ArrayList<>(columns.asList());
+    }
+
+    @Benchmark
+    public AggregationResult points() {
+        final AggregationSession session = aggregation.session(range);
+        session.updatePoints(KEY, SERIES, points);
+        return session.result();
+    }
+
+    @Benchmark
+    public AggregationResult columns() {
+        final AggregationSession session = aggregation.session(range);
+        session.updatePoints(KEY, SERIES, columns);
+        return session.result();
+    }
+
+    public static void main(final String[] argv) throws RunnerException {
+        new Runner(
+            new OptionsBuilder().include(BucketAggregationBenchmark.class.getSimpleName()).build())
+            .run();
+    }
+
+    private static final class SumBucket extends AbstractBucket {
+        private final long timestamp;
+        private double sum;
+
+        private SumBucket(final long timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public void updatePoint(final Map<String, String> key, final Point sample) {
+            sum += sample.getValue();
+        }
+
+        @Override
+        public void updatePoint(final Map<String, String> key, final long t, final double v) {
+            sum += v;
+        }
+
+        @Override
+        public long timestamp() {
+            return timestamp;
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.spotify.heroic.common.DateRange;
 import com.spotify.heroic.common.Series;
 import com.spotify.heroic.metric.MetricType;
 import com.spotify.heroic.metric.Point;
+import com.spotify.heroic.metric.PointColumns;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import org.junit.Assert;
@@ -15,6 +16,7 @@ import org.mockito.Mockito;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
 public class BucketAggregationTest {
@@ -112,6 +114,12 @@ public class BucketAggregationTest {
         final AggregationResult result = session.result();
 
         Assert.assertEquals(expected, result.getResult().get(0).getMetrics().getData());
+
+        final AggregationSession columnar = a.session(new DateRange(1000, 3000));
+        columnar.updatePoints(group, series, PointColumns.copyOf(input));
+
+        Assert.assertEquals(expected,
+            columnar.result().getResult().get(0).getMetrics().getData());
     }
 
     @Test
@@ -126,4 +134,44 @@ public class BucketAggregationTest {
         Assert.assertEquals(build().add(1000, 2.0).add(1999, 0.0).add(2998, 0.0).result(),
             result.getResult().get(0).getMetrics().getData());
     }
+
+    @Test
+    public void testMatchesBruteForce() {
+        final Random random = new Random(0x42);
+
+        for (final long extent : new long[]{100, 250, 1000}) {
+            final List<Point> input = new ArrayList<>();
+
+            for (int i = 0; i < 1000; i++) {
+                input.add(new Point(random.nextInt(3000), 1.0));
+            }
+
+            final BucketAggregationInstance<TestBucket> a = setup(250, extent);
+            final DateRange range = new DateRange(1000, 2000);
+
+            final List<Point> expected = new ArrayList<>();
+
+            for (long bucket = range.start(); bucket <= range.end(); bucket += 250) {
+                double sum = 0D;
+
+                for (final Point p : input) {
+                    if (p.getTimestamp() > bucket - extent && p.getTimestamp() <= bucket) {
+                        sum += p.getValue();
+                    }
+                }
+
+                expected.add(new Point(bucket, sum));
+            }
+
+            final AggregationSession session = a.session(range);
+            session.updatePoints(group, series, input);
+            Assert.assertEquals(expected,
+                session.result().getResult().get(0).getMetrics().getData());
+
+            final AggregationSession columnar = a.session(range);
+            columnar.updatePoints(group, series, PointColumns.copyOf(input));
+            Assert.assertEquals(expected,
+                columnar.result().getResult().get(0).getMetrics().getData());
+        }
+    }
 }
@@ -5,6 +5,7 @@ import org.junit.Test;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.TreeMap;
 
 import static org.junit.Assert.assertEquals;
 
@@ -31,6 +32,19 @@ public class SeriesTest {
         assertEquals(1, series.size());
     }
 
+    @Test
+    public void testOfSorted() {
+        final TreeMap<String, String> tags = new TreeMap<>();
+        tags.put("site", "sto");
+        tags.put("host", "a");
+
+        final Series a = Series.ofSorted("foo", tags);
+        final Series b = Series.of("foo", ImmutableMap.of("host", "a", "site", "sto"));
+
+        assertEquals(b, a);
+        assertEquals(b.hash(), a.hash());
+    }
+
     @Test
     public void toDSLTest() {
         final Series a = Series.of("system.cpu-user-perc",
@@ -0,0 +1,50 @@
+package com.spotify.heroic.consumer;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.spotify.heroic.common.Series;
+import com.spotify.heroic.ingestion.Ingestion;
+import com.spotify.heroic.metric.Event;
+import com.spotify.heroic.metric.MetricCollection;
+import com.spotify.heroic.metric.Point;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class GroupedWritesTest {
+    private final Series a = Series.of("a", ImmutableMap.of("host", "foo"));
+    private final Series b = Series.of("b", ImmutableMap.of("host", "foo"));
+
+    private Ingestion.Request point(final Series series, final long timestamp) {
+        return new Ingestion.Request(series,
+            MetricCollection.points(ImmutableList.of(new Point(timestamp, timestamp))));
+    }
+
+    @Test
+    public void testGroup() {
+        final Ingestion.Request event = new Ingestion.Request(a,
+            MetricCollection.events(ImmutableList.of(new Event(5L))));
+
+        final List<Ingestion.Request> grouped = GroupedWrites.group(
+            ImmutableList.of(point(a, 3L), point(b, 1L), event, point(a, 1L), point(a, 2L)));
+
+        assertEquals(3, grouped.size());
+
+        assertEquals(a, grouped.get(0).getSeries());
+        assertEquals(ImmutableList.of(new Point(1L, 1D), new Point(2L, 2D), new Point(3L, 3D)),
+            grouped.get(0).getData().getData());
+
+        assertEquals(point(b, 1L), grouped.get(1));
+        assertEquals(event, grouped.get(2));
+    }
+
+    @Test
+    public void testEmpty() {
+        final Ingestion.Request empty =
+            new Ingestion.Request(a, MetricCollection.points(ImmutableList.of()));
+
+        assertEquals(ImmutableList.of(), GroupedWrites.group(ImmutableList.of(empty)));
+    }
+}
@@ -0,0 +1,77 @@
+package com.spotify.heroic.filter;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.spotify.heroic.common.Series;
+import org.junit.Test;
+
+import java.util.List;
+
+import static com.spotify.heroic.filter.Filter.and;
+import static com.spotify.heroic.filter.Filter.hasTag;
+import static com.spotify.heroic.filter.Filter.matchKey;
+import static com.spotify.heroic.filter.Filter.matchTag;
+import static com.spotify.heroic.filter.Filter.not;
+import static com.spotify.heroic.filter.Filter.or;
+import static com.spotify.heroic.filter.Filter.regex;
+import static com.spotify.heroic.filter.Filter.startsWith;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class CompiledFilterTest {
+    private final List<Series> series = ImmutableList.of(Series.of("a"),
+        Series.of("a", ImmutableMap.of("foo", "abc")),
+        Series.of("b", ImmutableMap.of("foo", "bcd", "bar", "abc")),
+        Series.of("b", ImmutableMap.of("bar", "bcd")));
+
+    private final List<Filter> filters = ImmutableList.of(TrueFilter.get(), FalseFilter.get(),
+        matchKey("a"), hasTag("foo"), matchTag("foo", "abc"), startsWith("foo", "ab"),
+        regex("foo", "b.*"), not(hasTag("bar")),
+        and(matchTag("foo", "abc"), startsWith("foo", "a"), hasTag("foo")),
+        and(matchKey("b"), regex("bar", "a.c"), not(startsWith("foo", "b"))),
+        or(matchTag("foo", "abc"), startsWith("foo", "b"), regex("bar", "b.*")),
+        or(hasTag("foo"), matchTag("foo", "xyz"), matchKey("b")),
+        not(or(and(hasTag("foo"), matchKey("a")), matchTag("bar", "bcd"))),
+        and(TrueFilter.get(), or(FalseFilter.get(), hasTag("bar"))));
+
+    @Test
+    public void testSameAsInterpreted() {
+        for (final Filter f : filters) {
+            final CompiledFilter compiled = CompiledFilter.compile(f);
+
+            for (final Series s : series) {
+                assertEquals(f + " on " + s, f.apply(s), compiled.test(s));
+            }
+        }
+    }
+
+    @Test
+    public void testRegexCompiledOnce() {
+        final RegexFilter regex = regex("foo", "b.*");
+        assertSame(regex.getPattern(), regex.getPattern());
+    }
+
+    @Test
+    public void testSharedTagLookup() {
+        final Filter prefix = startsWith("foo", "ab");
+        final Filter match = matchTag("foo", "abc");
+
+        /* matches are more selective, and prefixes more likely to match */
+        assertEquals("foo all(= abc, ^ ab)", CompiledFilter.compile(and(prefix, match)).toString());
+        assertEquals("foo any(^ ab, = abc)", CompiledFilter.compile(or(match, prefix)).toString());
+    }
+
+    @Test
+    public void testHasTagInOr() {
+        assertEquals("foo +",
+            CompiledFilter.compile(or(hasTag("foo"), matchTag("foo", "abc"))).toString());
+    }
+
+    @Test
+    public void testCheapChecksFirst() {
+        assertEquals("($key = a and foo ~ b.*)",
+            CompiledFilter.compile(and(regex("foo", "b.*"), matchKey("a"))).toString());
+        assertEquals("($key = a or foo ~ b.*)",
+            CompiledFilter.compile(or(regex("foo", "b.*"), matchKey("a"))).toString());
+    }
+}
@@ -0,0 +1,111 @@
+package com.spotify.heroic.filter;
+
+import com.google.common.collect.ImmutableMap;
+import com.spotify.heroic.common.Series;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.spotify.heroic.filter.Filter.and;
+import static com.spotify.heroic.filter.Filter.hasTag;
+import static com.spotify.heroic.filter.Filter.matchKey;
+import static com.spotify.heroic.filter.Filter.matchTag;
+import static com.spotify.heroic.filter.Filter.not;
+import static com.spotify.heroic.filter.Filter.or;
+import static com.spotify.heroic.filter.Filter.regex;
+import static com.spotify.heroic.filter.Filter.startsWith;
+
+/**
+ * Compares interpreted ({@link Filter#apply(Series)}) and compiled ({@link CompiledFilter})
+ * filter evaluation.
+ * <p>
+ * Run with {@code mvn -pl heroic-component test-compile exec:java
+ * -Dexec.mainClass=com.spotify.heroic.filter.FilterBenchmark -Dexec.classpathScope=test}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+    private static final int SERIES = 1000;
+
+    @Param({"tags", "regex", "mixed"})
+    public String kind;
+
+    private Filter filter;
+    private CompiledFilter compiled;
+    private List<Series> series;
+
+    @Setup
+    public void setup() {
+        switch (kind) {
+            case "tags":
+                filter = and(matchTag("role", "web"), startsWith("host", "web-1"),
+                    hasTag("site"), not(matchTag("site", "lon")));
+                break;
+            case "regex":
+                filter = and(regex("host", "web-[0-9]+\\.example\\.com"), matchKey("cpu"));
+                break;
+            default:
+                filter = or(and(matchKey("cpu"), regex("host", "db-.*")),
+                    and(matchTag("role", "web"), startsWith("host", "web-"),
+                        regex("host", ".*\\.example\\.com")));
+                break;
+        }
+
+        compiled = CompiledFilter.compile(filter);
+
+        final Random random = new Random(0L);
+        final String[] keys = {"cpu", "memory", "disk"};
+        final String[] roles = {"web", "db", "cache"};
+        final String[] sites = {"lon", "sto", "ash"};
+
+        series = new ArrayList<>(SERIES);
+
+        for (int i = 0; i < SERIES; i++) {
+            final String role = roles[random.nextInt(roles.length)];
+
+            series.add(Series.of(keys[random.nextInt(keys.length)],
+                ImmutableMap.of("role", role, "host", role + "-" + i + ".example.com", "site",
+                    sites[random.nextInt(sites.length)])));
+        }
+    }
+
+    @Benchmark
+    public void interpreted(final Blackhole bh) {
+        for (final Series s : series) {
+            bh.consume(filter.apply(s));
+        }
+    }
+
+    @Benchmark
+    public void compiled(final Blackhole bh) {
+        for (final Series s : series) {
+            bh.consume(compiled.test(s));
+        }
+    }
+
+    public static void main(final String[] argv) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FilterBenchmark.class.getSimpleName()).build())
+            .run();
+    }
+}
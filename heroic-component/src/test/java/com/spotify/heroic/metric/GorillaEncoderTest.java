@@ -0,0 +1,100 @@
+package com.spotify.heroic.metric;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GorillaEncoderTest {
+    private void assertRoundTrip(final PointColumns columns) {
+        final PointColumns decoded = GorillaDecoder.decode(GorillaEncoder.encode(columns));
+
+        assertEquals(columns.size(), decoded.size());
+
+        for (int i = 0; i < columns.size(); i++) {
+            assertEquals(columns.timestamp(i), decoded.timestamp(i));
+            assertEquals(Double.doubleToRawLongBits(columns.value(i)),
+                Double.doubleToRawLongBits(decoded.value(i)));
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        assertRoundTrip(PointColumns.empty());
+    }
+
+    @Test
+    public void testRegular() {
+        final PointColumns.Builder builder = PointColumns.builder();
+
+        for (int i = 0; i < 720; i++) {
+            builder.add(1000000L + i * 10000L, 42D + i % 3);
+        }
+
+        final PointColumns columns = builder.build();
+        assertRoundTrip(columns);
+
+        /* far below the 12 bytes per point of the raw representation */
+        assertTrue(GorillaEncoder.encode(columns).length < columns.size());
+    }
+
+    @Test
+    public void testSpecialValues() {
+        assertRoundTrip(PointColumns
+            .builder()
+            .add(0L, Double.NaN)
+            .add(1L, Double.POSITIVE_INFINITY)
+            .add(2L, -0D)
+            .add(3L, Double.MIN_VALUE)
+            .add(4L, Double.MAX_VALUE)
+            .add(Long.MAX_VALUE / 2, Double.NEGATIVE_INFINITY)
+            .build());
+    }
+
+    @Test
+    public void testIrregular() {
+        final Random random = new Random(0x1234L);
+
+        for (int n = 0; n < 100; n++) {
+            final PointColumns.Builder builder = PointColumns.builder();
+
+            long timestamp = random.nextInt();
+
+            for (int i = 0; i < random.nextInt(200); i++) {
+                timestamp += random.nextBoolean() ? 10000L : random.nextInt(1 << 20) - (1 << 19);
+                final double value = random.nextBoolean() ? random.nextDouble() :
+                    Double.longBitsToDouble(random.nextLong());
+                builder.add(timestamp, value);
+            }
+
+            assertRoundTrip(builder.build());
+        }
+    }
+
+    @Test
+    public void testDecodeAtPosition() {
+        final byte[] block =
+            GorillaEncoder.encode(PointColumns.builder().add(1L, 1D).add(2L, 2D).build());
+
+        final ByteBuffer buffer = ByteBuffer.allocate(block.length + 3);
+        buffer.put(new byte[3]).put(block).position(3);
+
+        final GorillaDecoder decoder = new GorillaDecoder(buffer);
+
+        assertEquals(2, decoder.size());
+        assertTrue(decoder.next());
+        assertEquals(1L, decoder.timestamp());
+        assertTrue(decoder.next());
+        assertEquals(2D, decoder.value(), 0D);
+        assertFalse(decoder.next());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadVersion() {
+        new GorillaDecoder(new byte[]{2, 0, 0, 0, 0});
+    }
+}
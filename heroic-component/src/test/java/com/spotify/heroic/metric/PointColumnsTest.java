@@ -0,0 +1,74 @@
+package com.spotify.heroic.metric;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PointColumnsTest {
+    @Test
+    public void testBuilder() {
+        final PointColumns.Builder builder = PointColumns.builder(1);
+
+        for (int i = 0; i < 100; i++) {
+            builder.add(i, i * 2);
+        }
+
+        final PointColumns columns = builder.build();
+
+        assertEquals(100, columns.size());
+        assertEquals(42L, columns.timestamp(42));
+        assertEquals(84D, columns.value(42), 0D);
+        assertEquals(0, builder.size());
+    }
+
+    @Test
+    public void testAsList() {
+        final PointColumns columns = PointColumns.builder().add(1, 1D).add(2, 2D).build();
+        assertEquals(ImmutableList.of(new Point(1, 1D), new Point(2, 2D)), columns.asList());
+    }
+
+    @Test
+    public void testSorted() {
+        final PointColumns columns =
+            PointColumns.builder().add(3, 3D).add(1, 1D).add(2, 2D).add(1, 4D).build();
+
+        assertFalse(columns.isSorted());
+
+        final PointColumns sorted = columns.sorted();
+
+        assertTrue(sorted.isSorted());
+        assertEquals(ImmutableList.of(new Point(1, 1D), new Point(1, 4D), new Point(2, 2D),
+            new Point(3, 3D)), sorted.asList());
+    }
+
+    @Test
+    public void testMergeSorted() {
+        final PointColumns a = PointColumns.builder().add(1, 1D).add(4, 4D).build();
+        final PointColumns b = PointColumns.builder().add(2, 2D).add(4, 5D).build();
+        final PointColumns c = PointColumns.builder().add(3, 3D).build();
+
+        final PointColumns merged =
+            PointColumns.mergeSorted(ImmutableList.of(a, PointColumns.empty(), b, c));
+
+        assertEquals(ImmutableList.of(new Point(1, 1D), new Point(2, 2D), new Point(3, 3D),
+            new Point(4, 4D), new Point(4, 5D)), merged.asList());
+    }
+
+    @Test
+    public void testMetricCollection() {
+        final PointColumns columns = PointColumns.builder().add(1, 1D).add(2, 2D).build();
+        final MetricCollection collection = MetricCollection.points(columns);
+
+        assertEquals(MetricType.POINT, collection.getType());
+        assertEquals(MetricCollection.points(columns.asList()), collection);
+        assertEquals(columns, collection.getPointColumns());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testOutOfBounds() {
+        PointColumns.builder().add(1, 1D).build().timestamp(1);
+    }
+}
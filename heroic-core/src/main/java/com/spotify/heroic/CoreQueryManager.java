@@ -39,6 +39,7 @@ import com.spotify.heroic.common.Feature;
 import com.spotify.heroic.common.FeatureSet;
 import com.spotify.heroic.common.Features;
 import com.spotify.heroic.common.OptionalLimit;
+import com.spotify.heroic.common.Statistics;
 import com.spotify.heroic.filter.Filter;
 import com.spotify.heroic.filter.TrueFilter;
 import com.spotify.heroic.grammar.DefaultScope;
@@ -170,14 +171,17 @@ public class CoreQueryManager implements QueryManager {
         });
     }
 
+    @Override
+    public Statistics getStatistics() {
+        return queryCache.getStatistics();
+    }
+
     @RequiredArgsConstructor
     public class Group implements QueryManager.Group {
         private final List<ClusterShard> shards;
 
         @Override
         public AsyncFuture<QueryResult> query(Query q) {
-            final List<AsyncFuture<QueryResultPart>> futures = new ArrayList<>();
-
             final MetricType source = q.getSource().orElse(MetricType.POINT);
 
             final QueryOptions options = q.getOptions().orElseGet(QueryOptions::defaults);
@@ -209,32 +213,45 @@ public class CoreQueryManager implements QueryManager {
                 () -> buildShiftedRange(rawRange, aggregationInstance.cadence(), now),
                 () -> rawRange);
 
-            final AggregationCombiner combiner;
-
-            if (isDistributed) {
-                combiner = new DistributedAggregationCombiner(root.reducer(), range);
-            } else {
-                combiner = AggregationCombiner.DEFAULT;
-            }
-
             final FullQuery.Request request =
                 new FullQuery.Request(source, filter, range, aggregationInstance, options);
 
-            return queryCache.load(request, () -> {
+            final OptionalLimit limit = options.getGroupLimit().orElse(groupLimit);
+
+            /* loads the result of the request for any range, so that it can be computed piecewise
+             * by the cache */
+            final Function<DateRange, AsyncFuture<QueryResult>> loader = r -> {
+                final AggregationCombiner combiner;
+
+                if (isDistributed) {
+                    combiner = new DistributedAggregationCombiner(root.reducer(), r);
+                } else {
+                    combiner = AggregationCombiner.DEFAULT;
+                }
+
+                final FullQuery.Request partial = request.withRange(r);
+                final List<AsyncFuture<QueryResultPart>> futures = new ArrayList<>();
+
                 for (final ClusterShard shard : shards) {
                     final AsyncFuture<QueryResultPart> queryPart = shard
-                        .apply(g -> g.query(request))
+                        .apply(g -> g.query(partial))
                         .catchFailed(FullQuery.shardError(QUERY_NODE, shard))
                         .directTransform(QueryResultPart.fromResultGroup(shard));
 
                     futures.add(queryPart);
                 }
 
-                final OptionalLimit limit = options.getGroupLimit().orElse(groupLimit);
-
                 return async.collect(futures,
-                    QueryResult.collectParts(QUERY, range, combiner, limit));
-            });
+                    QueryResult.collectParts(QUERY, r, combiner, limit));
+            };
+
+            final long extent = root.extent();
+
+            if (extent >= 0) {
+                return queryCache.load(request, extent, loader);
+            }
+
+            return queryCache.load(request, () -> loader.apply(range));
         }
 
         @Override
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.cache.memcached;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.spotify.folsom.MemcacheClient;
+import com.spotify.folsom.MemcacheStatus;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.ResolvableFuture;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Optional;
+
+/**
+ * Memcached client backed by folsom.
+ */
+@RequiredArgsConstructor
+public class FolsomMemcachedClient implements MemcachedClient {
+    private final AsyncFramework async;
+    private final MemcacheClient<byte[]> client;
+
+    @Override
+    public AsyncFuture<Optional<byte[]>> get(final String key) {
+        return bind(client.get(key)).directTransform(Optional::ofNullable);
+    }
+
+    @Override
+    public AsyncFuture<Void> set(final String key, final byte[] value, final int ttl) {
+        return bind(client.set(key, value, ttl)).directTransform(status -> {
+            if (status != MemcacheStatus.OK) {
+                throw new IllegalStateException("Failed to set key: " + status);
+            }
+
+            return null;
+        });
+    }
+
+    @Override
+    public AsyncFuture<Void> close() {
+        return async.call(() -> {
+            client.shutdown();
+            return null;
+        });
+    }
+
+    private <T> AsyncFuture<T> bind(final ListenableFuture<T> source) {
+        final ResolvableFuture<T> target = async.future();
+
+        Futures.addCallback(source, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(final T result) {
+                target.resolve(result);
+            }
+
+            @Override
+            public void onFailure(final Throwable t) {
+                target.fail(t);
+            }
+        });
+
+        target.onCancelled(() -> source.cancel(false));
+        return target;
+    }
+}
@@ -21,34 +21,194 @@
 
 package com.spotify.heroic.cache.memcached;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.HostAndPort;
+import com.spotify.folsom.MemcacheClient;
+import com.spotify.folsom.MemcacheClientBuilder;
 import com.spotify.heroic.cache.CacheComponent;
 import com.spotify.heroic.cache.CacheModule;
 import com.spotify.heroic.cache.CacheScope;
-import com.spotify.heroic.cache.memory.MemoryQueryCache;
+import com.spotify.heroic.common.Duration;
 import com.spotify.heroic.dagger.PrimaryComponent;
+import com.spotify.heroic.lifecycle.LifeCycle;
+import com.spotify.heroic.lifecycle.LifeCycleManager;
+import com.spotify.heroic.statistics.HeroicReporter;
+import com.spotify.heroic.statistics.QueryCacheReporter;
 import dagger.Component;
+import dagger.Module;
+import dagger.Provides;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.Managed;
+import eu.toolchain.async.ManagedSetup;
+import lombok.NoArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 
+import javax.inject.Named;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+@Slf4j
+@Module
+@RequiredArgsConstructor
 public class MemcachedCacheModule implements CacheModule {
+    public static final int DEFAULT_PORT = 11211;
+    public static final List<String> DEFAULT_ADDRESSES = ImmutableList.of("localhost");
+    public static final double DEFAULT_TTL_FACTOR = 1D;
+    public static final Duration DEFAULT_MIN_TTL = Duration.of(1, TimeUnit.SECONDS);
+    public static final Duration DEFAULT_MAX_TTL = Duration.of(1, TimeUnit.HOURS);
+
+    /**
+     * Addresses of the memcached servers, as {@code host[:port]}.
+     */
+    private final List<String> addresses;
+
+    /**
+     * Cached results live for this multiple of the cadence of their query.
+     */
+    private final double ttlFactor;
+
+    private final Duration minTtl;
+    private final Duration maxTtl;
+
     @Override
     public CacheComponent module(PrimaryComponent primary) {
-        return DaggerMemcachedCacheModule_C.builder().primaryComponent(primary).build();
+        return DaggerMemcachedCacheModule_C
+            .builder()
+            .primaryComponent(primary)
+            .memcachedCacheModule(this)
+            .build();
+    }
+
+    @Provides
+    @CacheScope
+    public QueryCacheReporter reporter(final HeroicReporter reporter) {
+        return reporter.newQueryCache();
+    }
+
+    @Provides
+    @CacheScope
+    public Managed<MemcachedClient> client(final AsyncFramework async) {
+        final List<HostAndPort> hosts = addresses
+            .stream()
+            .map(a -> HostAndPort.fromString(a).withDefaultPort(DEFAULT_PORT))
+            .collect(Collectors.toList());
+
+        return async.managed(new ManagedSetup<MemcachedClient>() {
+            @Override
+            public AsyncFuture<MemcachedClient> construct() throws Exception {
+                return async.call(() -> {
+                    log.info("Connecting to memcached: {}", hosts);
+
+                    final MemcacheClient<byte[]> client = MemcacheClientBuilder
+                        .newByteArrayClient()
+                        .withAddresses(hosts)
+                        .connectAscii();
+
+                    return new FolsomMemcachedClient(async, client);
+                });
+            }
+
+            @Override
+            public AsyncFuture<Void> destruct(final MemcachedClient value) throws Exception {
+                return value.close();
+            }
+        });
+    }
+
+    @Provides
+    @CacheScope
+    @Named("ttlFactor")
+    public double ttlFactor() {
+        return ttlFactor;
+    }
+
+    @Provides
+    @CacheScope
+    @Named("minTtl")
+    public long minTtl() {
+        return minTtl.toMilliseconds();
+    }
+
+    @Provides
+    @CacheScope
+    @Named("maxTtl")
+    public long maxTtl() {
+        return maxTtl.toMilliseconds();
+    }
+
+    @Provides
+    @CacheScope
+    @Named("cache")
+    public LifeCycle cacheLife(final LifeCycleManager manager, final MemcachedQueryCache cache) {
+        return manager.build(cache);
     }
 
     @CacheScope
-    @Component(dependencies = PrimaryComponent.class)
+    @Component(modules = MemcachedCacheModule.class, dependencies = PrimaryComponent.class)
     interface C extends CacheComponent {
         @Override
-        MemoryQueryCache queryCache();
+        MemcachedQueryCache queryCache();
+
+        @Override
+        @Named("cache")
+        LifeCycle cacheLife();
     }
 
     public static Builder builder() {
         return new Builder();
     }
 
+    @NoArgsConstructor
     public static class Builder implements CacheModule.Builder {
+        private Optional<List<String>> addresses = Optional.empty();
+        private Optional<Double> ttlFactor = Optional.empty();
+        private Optional<Duration> minTtl = Optional.empty();
+        private Optional<Duration> maxTtl = Optional.empty();
+
+        @JsonCreator
+        public Builder(
+            @JsonProperty("addresses") Optional<List<String>> addresses,
+            @JsonProperty("ttlFactor") Optional<Double> ttlFactor,
+            @JsonProperty("minTtl") Optional<Duration> minTtl,
+            @JsonProperty("maxTtl") Optional<Duration> maxTtl
+        ) {
+            this.addresses = addresses;
+            this.ttlFactor = ttlFactor;
+            this.minTtl = minTtl;
+            this.maxTtl = maxTtl;
+        }
+
+        public Builder addresses(final List<String> addresses) {
+            this.addresses = Optional.of(addresses);
+            return this;
+        }
+
+        public Builder ttlFactor(final double ttlFactor) {
+            this.ttlFactor = Optional.of(ttlFactor);
+            return this;
+        }
+
+        public Builder minTtl(final Duration minTtl) {
+            this.minTtl = Optional.of(minTtl);
+            return this;
+        }
+
+        public Builder maxTtl(final Duration maxTtl) {
+            this.maxTtl = Optional.of(maxTtl);
+            return this;
+        }
+
         @Override
-        public CacheModule build() {
-            return new MemcachedCacheModule();
+        public MemcachedCacheModule build() {
+            return new MemcachedCacheModule(addresses.orElse(DEFAULT_ADDRESSES),
+                ttlFactor.orElse(DEFAULT_TTL_FACTOR), minTtl.orElse(DEFAULT_MIN_TTL),
+                maxTtl.orElse(DEFAULT_MAX_TTL));
         }
     }
 }
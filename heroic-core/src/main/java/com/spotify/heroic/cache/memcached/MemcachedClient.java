@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.cache.memcached;
+
+import eu.toolchain.async.AsyncFuture;
+
+import java.util.Optional;
+
+/**
+ * The subset of memcached operations used by {@link MemcachedQueryCache}.
+ */
+public interface MemcachedClient {
+    /**
+     * Get the value stored under the given key.
+     *
+     * @return A future resolving to the value, or empty if the key is not present.
+     */
+    AsyncFuture<Optional<byte[]>> get(String key);
+
+    /**
+     * Store a value under the given key.
+     *
+     * @param ttl Time to live of the value, in seconds.
+     */
+    AsyncFuture<Void> set(String key, byte[] value, int ttl);
+
+    AsyncFuture<Void> close();
+}
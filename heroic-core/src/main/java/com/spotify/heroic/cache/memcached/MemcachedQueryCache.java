@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.cache.memcached;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+import com.spotify.heroic.cache.CacheScope;
+import com.spotify.heroic.cache.QueryCache;
+import com.spotify.heroic.lifecycle.LifeCycleRegistry;
+import com.spotify.heroic.lifecycle.LifeCycles;
+import com.spotify.heroic.metric.FullQuery;
+import com.spotify.heroic.metric.QueryResult;
+import com.spotify.heroic.statistics.QueryCacheReporter;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.Borrowed;
+import eu.toolchain.async.Managed;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Query cache which is shared between API nodes through memcached.
+ * <p>
+ * Results are stored in a compact binary form (see {@link QueryResultCodec}) under a key derived
+ * from the request. Results are written in the background, and any failure to talk to memcached
+ * causes the query to be computed as if the cache was empty.
+ */
+@Slf4j
+@CacheScope
+public class MemcachedQueryCache implements QueryCache, LifeCycles {
+    private static final String KEY_PREFIX = "heroic:query:1:";
+
+    /**
+     * Memcached treats expiration times larger than this as absolute timestamps.
+     */
+    private static final long MAX_TTL_SECONDS = TimeUnit.DAYS.toSeconds(30);
+
+    /**
+     * Default maximum size of an item in memcached.
+     */
+    private static final int MAX_VALUE_SIZE = 1024 * 1024;
+
+    private final AsyncFramework async;
+    private final Managed<MemcachedClient> client;
+    private final ObjectMapper mapper;
+    private final QueryCacheReporter reporter;
+    private final double ttlFactor;
+    private final long minTtl;
+    private final long maxTtl;
+
+    private final QueryResultCodec codec = new QueryResultCodec();
+
+    @Inject
+    public MemcachedQueryCache(
+        final AsyncFramework async, final Managed<MemcachedClient> client,
+        @Named("application/json+internal") final ObjectMapper mapper,
+        final QueryCacheReporter reporter, @Named("ttlFactor") final double ttlFactor,
+        @Named("minTtl") final long minTtl, @Named("maxTtl") final long maxTtl
+    ) {
+        this.async = async;
+        this.client = client;
+        this.mapper = mapper;
+        this.reporter = reporter;
+        this.ttlFactor = ttlFactor;
+        this.minTtl = minTtl;
+        this.maxTtl = maxTtl;
+    }
+
+    @Override
+    public void register(final LifeCycleRegistry registry) {
+        registry.start(client::start);
+        registry.stop(client::stop);
+    }
+
+    @Override
+    public AsyncFuture<QueryResult> load(
+        final FullQuery.Request request, final Supplier<AsyncFuture<QueryResult>> loader
+    ) {
+        final long cadence = request.getAggregation().cadence();
+
+        /* can't be cached :( */
+        if (cadence <= 0) {
+            return loader.get();
+        }
+
+        final String key;
+
+        try {
+            key = key(request);
+        } catch (final JsonProcessingException e) {
+            log.warn("Failed to build cache key for request: {}", request, e);
+            return loader.get();
+        }
+
+        final Borrowed<MemcachedClient> b = client.borrow();
+
+        /* the client is not started, or has been stopped */
+        if (!b.isValid()) {
+            reporter.reportMiss();
+            return loader.get();
+        }
+
+        final MemcachedClient c = b.get();
+
+        return c.get(key).catchFailed(e -> {
+            log.warn("Failed to get cached result: {}", key, e);
+            return Optional.empty();
+        }).lazyTransform(cached -> {
+            if (cached.isPresent()) {
+                try {
+                    final QueryResult result = codec.decode(cached.get());
+                    reporter.reportHit();
+                    return async.resolved(result);
+                } catch (final IOException e) {
+                    log.warn("Failed to decode cached result: {}", key, e);
+                }
+            }
+
+            reporter.reportMiss();
+
+            return loader.get().directTransform(result -> {
+                store(c, key, result, cadence);
+                return result;
+            });
+        }).onFinished(b::release);
+    }
+
+    /**
+     * Calculate the time to live of a cached result, in seconds.
+     * <p>
+     * Results are kept for a multiple of the cadence of the query, since a new bucket is
+     * available every cadence.
+     */
+    int ttl(final long cadence) {
+        final long ttl = Math.min(Math.max((long) (cadence * ttlFactor), minTtl), maxTtl);
+        final long seconds = (ttl + 999L) / 1000L;
+        return (int) Math.min(Math.max(seconds, 1L), MAX_TTL_SECONDS);
+    }
+
+    String key(final FullQuery.Request request) throws JsonProcessingException {
+        /* the client which issued the query does not change its result */
+        final byte[] bytes =
+            mapper.writeValueAsBytes(request.withOptions(request.getOptions().withoutClientId()));
+        return KEY_PREFIX + Hashing.sha256().hashBytes(bytes).toString();
+    }
+
+    private void store(
+        final MemcachedClient c, final String key, final QueryResult result, final long cadence
+    ) {
+        final Optional<byte[]> encoded;
+
+        try {
+            encoded = codec.encode(result);
+        } catch (final IOException e) {
+            log.warn("Failed to encode result: {}", key, e);
+            return;
+        }
+
+        if (!encoded.isPresent() || encoded.get().length > MAX_VALUE_SIZE) {
+            return;
+        }
+
+        c.set(key, encoded.get(), ttl(cadence)).onFailed(e -> {
+            log.warn("Failed to store cached result: {}", key, e);
+        });
+    }
+}
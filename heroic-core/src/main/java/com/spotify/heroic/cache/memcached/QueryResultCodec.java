@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.cache.memcached;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.common.Series;
+import com.spotify.heroic.metric.Metric;
+import com.spotify.heroic.metric.MetricCollection;
+import com.spotify.heroic.metric.MetricType;
+import com.spotify.heroic.metric.Payload;
+import com.spotify.heroic.metric.Point;
+import com.spotify.heroic.metric.PointColumns;
+import com.spotify.heroic.metric.QueryResult;
+import com.spotify.heroic.metric.QueryTrace;
+import com.spotify.heroic.metric.ResultLimits;
+import com.spotify.heroic.metric.ShardedResultGroup;
+import com.spotify.heroic.metric.Spread;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Compact binary encoding of query results.
+ * <p>
+ * Timestamps are delta-encoded as variable-length integers, since consecutive samples of an
+ * aggregated result are typically exactly one cadence apart. Query traces are not encoded, a
+ * decoded result gets a trace indicating that it was read from the cache.
+ * <p>
+ * Only complete results can be encoded. Results with errors, or which were truncated by a
+ * limit, are not, since serving them from the cache would hide the problem until they expire.
+ * Results must also only contain points, spreads, or cardinality payloads.
+ */
+public class QueryResultCodec {
+    /* version 1 included the limits of a result, which are now always empty */
+    private static final byte VERSION = 2;
+
+    private static final QueryTrace.Identifier CACHED =
+        QueryTrace.identifier(QueryResultCodec.class, "cached");
+
+    /**
+     * Encode the given result.
+     *
+     * @return The encoded result, or empty if the result can't be encoded.
+     */
+    public Optional<byte[]> encode(final QueryResult result) throws IOException {
+        if (!result.getErrors().isEmpty() || !result.getLimits().getLimits().isEmpty()) {
+            return Optional.empty();
+        }
+
+        for (final ShardedResultGroup g : result.getGroups()) {
+            if (!isSupported(g.getMetrics().getType())) {
+                return Optional.empty();
+            }
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (final DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            writeVarLong(out, result.getRange().start());
+            writeVarLong(out, result.getRange().end());
+
+            writeVarLong(out, result.getGroups().size());
+
+            for (final ShardedResultGroup g : result.getGroups()) {
+                writeGroup(out, g);
+            }
+        }
+
+        return Optional.of(bytes.toByteArray());
+    }
+
+    public QueryResult decode(final byte[] bytes) throws IOException {
+        final QueryTrace.NamedWatch w = QueryTrace.watch(CACHED);
+
+        try (final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            final byte version = in.readByte();
+
+            if (version != VERSION) {
+                throw new IOException("Unsupported version: " + version);
+            }
+
+            final long start = readVarLong(in);
+            final long end = readVarLong(in);
+
+            final int groupCount = readSize(in);
+            final List<ShardedResultGroup> groups = new ArrayList<>(groupCount);
+
+            for (int i = 0; i < groupCount; i++) {
+                groups.add(readGroup(in));
+            }
+
+            return new QueryResult(new DateRange(start, end), groups, ImmutableList.of(), w.end(),
+                ResultLimits.of());
+        }
+    }
+
+    static boolean isSupported(final MetricType type) {
+        switch (type) {
+            case POINT:
+            case SPREAD:
+            case CARDINALITY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void writeGroup(final DataOutputStream out, final ShardedResultGroup g)
+        throws IOException {
+        writeMap(out, g.getShard());
+        writeMap(out, g.getKey());
+
+        writeVarLong(out, g.getSeries().size());
+
+        for (final Series s : g.getSeries()) {
+            writeString(out, s.getKey());
+            writeMap(out, s.getTags());
+        }
+
+        writeVarLong(out, g.getCadence());
+
+        final MetricCollection metrics = g.getMetrics();
+        final MetricType type = metrics.getType();
+        writeString(out, type.identifier());
+
+        switch (type) {
+            case POINT:
+                writePoints(out, metrics.getPointColumns());
+                break;
+            case SPREAD:
+                writeSpreads(out, metrics.getDataAs(Spread.class));
+                break;
+            case CARDINALITY:
+                writePayloads(out, metrics.getDataAs(Payload.class));
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported type: " + type);
+        }
+    }
+
+    private ShardedResultGroup readGroup(final DataInputStream in) throws IOException {
+        final Map<String, String> shard = readMap(in);
+        final Map<String, String> key = readMap(in);
+
+        final int seriesCount = readSize(in);
+        final ImmutableSet.Builder<Series> series = ImmutableSet.builder();
+
+        for (int i = 0; i < seriesCount; i++) {
+            final String seriesKey = readString(in);
+            series.add(Series.of(seriesKey, readMap(in)));
+        }
+
+        final long cadence = readVarLong(in);
+
+        final String identifier = readString(in);
+        final MetricType type = MetricType
+            .fromIdentifier(identifier)
+            .orElseThrow(() -> new IOException("Unknown type: " + identifier));
+
+        final MetricCollection metrics;
+
+        switch (type) {
+            case POINT:
+                metrics = MetricCollection.points(readPoints(in));
+                break;
+            case SPREAD:
+                metrics = MetricCollection.spreads(readSpreads(in));
+                break;
+            case CARDINALITY:
+                metrics = MetricCollection.cardinality(readPayloads(in));
+                break;
+            default:
+                throw new IOException("Unsupported type: " + type);
+        }
+
+        return new ShardedResultGroup(shard, key, series.build(), metrics, cadence);
+    }
+
+    private void writePoints(final DataOutputStream out, final PointColumns points)
+        throws IOException {
+        writeVarLong(out, points.size());
+
+        long last = 0L;
+
+        for (int i = 0; i < points.size(); i++) {
+            final long timestamp = points.timestamp(i);
+            writeVarLong(out, zigZag(timestamp - last));
+            out.writeDouble(points.value(i));
+            last = timestamp;
+        }
+    }
+
+    private PointColumns readPoints(final DataInputStream in) throws IOException {
+        final int size = readSize(in);
+        final PointColumns.Builder points = PointColumns.builder(size);
+
+        long last = 0L;
+
+        for (int i = 0; i < size; i++) {
+            last += unZigZag(readVarLong(in));
+            points.add(last, in.readDouble());
+        }
+
+        return points.build();
+    }
+
+    private void writeSpreads(final DataOutputStream out, final List<Spread> spreads)
+        throws IOException {
+        writeVarLong(out, spreads.size());
+
+        long last = 0L;
+
+        for (final Spread s : spreads) {
+            writeVarLong(out, zigZag(s.getTimestamp() - last));
+            writeVarLong(out, s.getCount());
+            out.writeDouble(s.getSum());
+            out.writeDouble(s.getSum2());
+            out.writeDouble(s.getMin());
+            out.writeDouble(s.getMax());
+            last = s.getTimestamp();
+        }
+    }
+
+    private List<Spread> readSpreads(final DataInputStream in) throws IOException {
+        final int size = readSize(in);
+        final List<Spread> spreads = new ArrayList<>(size);
+
+        long last = 0L;
+
+        for (int i = 0; i < size; i++) {
+            last += unZigZag(readVarLong(in));
+            final long count = readVarLong(in);
+            final double sum = in.readDouble();
+            final double sum2 = in.readDouble();
+            final double min = in.readDouble();
+            final double max = in.readDouble();
+            spreads.add(new Spread(last, count, sum, sum2, min, max));
+        }
+
+        return spreads;
+    }
+
+    private void writePayloads(final DataOutputStream out, final List<Payload> payloads)
+        throws IOException {
+        writeVarLong(out, payloads.size());
+
+        long last = 0L;
+
+        for (final Payload p : payloads) {
+            writeVarLong(out, zigZag(p.getTimestamp() - last));
+            writeVarLong(out, p.getState().length);
+            out.write(p.getState());
+            last = p.getTimestamp();
+        }
+    }
+
+    private List<Payload> readPayloads(final DataInputStream in) throws IOException {
+        final int size = readSize(in);
+        final List<Payload> payloads = new ArrayList<>(size);
+
+        long last = 0L;
+
+        for (int i = 0; i < size; i++) {
+            last += unZigZag(readVarLong(in));
+            final byte[] state = new byte[readSize(in)];
+            in.readFully(state);
+            payloads.add(new Payload(last, state));
+        }
+
+        return payloads;
+    }
+
+    private void writeMap(final DataOutputStream out, final Map<String, String> map)
+        throws IOException {
+        writeVarLong(out, map.size());
+
+        for (final Map.Entry<String, String> e : map.entrySet()) {
+            writeString(out, e.getKey());
+            writeString(out, e.getValue());
+        }
+    }
+
+    private Map<String, String> readMap(final DataInputStream in) throws IOException {
+        final int size = readSize(in);
+        final ImmutableMap.Builder<String, String> map = ImmutableMap.builder();
+
+        for (int i = 0; i < size; i++) {
+            final String key = readString(in);
+            map.put(key, readString(in));
+        }
+
+        return map.build();
+    }
+
+    private void writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private String readString(final DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[readSize(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int readSize(final DataInputStream in) throws IOException {
+        final long size = readVarLong(in);
+
+        if (size < 0 || size > in.available()) {
+            throw new IOException("Corrupt size: " + size);
+        }
+
+        return (int) size;
+    }
+
+    static void writeVarLong(final DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(final DataInputStream in) throws IOException {
+        long value = 0L;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.read();
+
+            if (b < 0) {
+                throw new EOFException();
+            }
+
+            value |= (long) (b & 0x7f) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    private static long zigZag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
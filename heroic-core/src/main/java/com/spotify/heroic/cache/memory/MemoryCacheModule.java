@@ -21,20 +21,88 @@
 
 package com.spotify.heroic.cache.memory;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.spotify.heroic.cache.CacheComponent;
 import com.spotify.heroic.cache.CacheModule;
 import com.spotify.heroic.cache.CacheScope;
+import com.spotify.heroic.common.Duration;
 import com.spotify.heroic.dagger.PrimaryComponent;
+import com.spotify.heroic.statistics.HeroicReporter;
+import com.spotify.heroic.statistics.QueryCacheReporter;
 import dagger.Component;
+import dagger.Module;
+import dagger.Provides;
+import lombok.NoArgsConstructor;
+import lombok.RequiredArgsConstructor;
 
+import javax.inject.Named;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+@Module
+@RequiredArgsConstructor
 public class MemoryCacheModule implements CacheModule {
+    public static final long DEFAULT_MAX_WEIGHT = 10_000_000L;
+    public static final boolean DEFAULT_PARTIAL = false;
+    public static final Duration DEFAULT_PARTIAL_MAX_AGE = Duration.of(10, TimeUnit.MINUTES);
+
+    /**
+     * Maximum number of points (or other metrics) that are kept in the cache. If partial caching
+     * is enabled, half of it is used for finalized buckets.
+     */
+    private final long maxWeight;
+
+    /**
+     * If finalized buckets should be cached by the shape of the query, so that only the
+     * remaining range has to be computed for subsequent queries.
+     */
+    private final boolean partial;
+
+    /**
+     * How long finalized buckets are re-used before they are computed again, which bounds how
+     * long late writes are invisible.
+     */
+    private final Duration partialMaxAge;
+
     @Override
     public CacheComponent module(PrimaryComponent primary) {
-        return DaggerMemoryCacheModule_C.builder().primaryComponent(primary).build();
+        return DaggerMemoryCacheModule_C
+            .builder()
+            .primaryComponent(primary)
+            .memoryCacheModule(this)
+            .build();
+    }
+
+    @Provides
+    @CacheScope
+    public QueryCacheReporter reporter(final HeroicReporter reporter) {
+        return reporter.newQueryCache();
+    }
+
+    @Provides
+    @CacheScope
+    @Named("maxWeight")
+    public long maxWeight() {
+        return maxWeight;
+    }
+
+    @Provides
+    @CacheScope
+    @Named("partial")
+    public boolean partial() {
+        return partial;
+    }
+
+    @Provides
+    @CacheScope
+    @Named("partialMaxAge")
+    public long partialMaxAge() {
+        return partialMaxAge.toMilliseconds();
     }
 
     @CacheScope
-    @Component(dependencies = PrimaryComponent.class)
+    @Component(modules = MemoryCacheModule.class, dependencies = PrimaryComponent.class)
     interface C extends CacheComponent {
         @Override
         MemoryQueryCache queryCache();
@@ -44,10 +112,43 @@ public class MemoryCacheModule implements CacheModule {
         return new Builder();
     }
 
+    @NoArgsConstructor
     public static class Builder implements CacheModule.Builder {
+        private Optional<Long> maxWeight = Optional.empty();
+        private Optional<Boolean> partial = Optional.empty();
+        private Optional<Duration> partialMaxAge = Optional.empty();
+
+        @JsonCreator
+        public Builder(
+            @JsonProperty("maxWeight") Optional<Long> maxWeight,
+            @JsonProperty("partial") Optional<Boolean> partial,
+            @JsonProperty("partialMaxAge") Optional<Duration> partialMaxAge
+        ) {
+            this.maxWeight = maxWeight;
+            this.partial = partial;
+            this.partialMaxAge = partialMaxAge;
+        }
+
+        public Builder maxWeight(final long maxWeight) {
+            this.maxWeight = Optional.of(maxWeight);
+            return this;
+        }
+
+        public Builder partial(final boolean partial) {
+            this.partial = Optional.of(partial);
+            return this;
+        }
+
+        public Builder partialMaxAge(final Duration partialMaxAge) {
+            this.partialMaxAge = Optional.of(partialMaxAge);
+            return this;
+        }
+
         @Override
-        public CacheModule build() {
-            return new MemoryCacheModule();
+        public MemoryCacheModule build() {
+            return new MemoryCacheModule(maxWeight.orElse(DEFAULT_MAX_WEIGHT),
+                partial.orElse(DEFAULT_PARTIAL),
+                partialMaxAge.orElse(DEFAULT_PARTIAL_MAX_AGE));
         }
     }
 }
@@ -21,28 +21,115 @@
 
 package com.spotify.heroic.cache.memory;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.spotify.heroic.aggregation.AggregationInstance;
 import com.spotify.heroic.cache.CacheScope;
 import com.spotify.heroic.cache.QueryCache;
+import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.common.Statistics;
 import com.spotify.heroic.metric.FullQuery;
 import com.spotify.heroic.metric.QueryResult;
+import com.spotify.heroic.metric.ShardedResultGroup;
+import com.spotify.heroic.metrics.Clock;
+import com.spotify.heroic.statistics.QueryCacheReporter;
+import eu.toolchain.async.AsyncFramework;
 import eu.toolchain.async.AsyncFuture;
-import net.jodah.expiringmap.ExpirationPolicy;
-import net.jodah.expiringmap.ExpiringMap;
+import eu.toolchain.async.FutureDone;
+import eu.toolchain.async.ResolvableFuture;
 
 import javax.inject.Inject;
-import java.util.concurrent.TimeUnit;
+import javax.inject.Named;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
+/**
+ * Query cache which keeps results in memory.
+ * <p>
+ * Cached results are bounded by their weight, which is the number of points (or other metrics)
+ * that they hold. Concurrent identical queries share a single in-flight load, and requests
+ * which join a load are counted separately from cache hits.
+ * <p>
+ * Queries are keyed by their {@link ResultShape}. Queries which can not be keyed are not cached.
+ */
 @CacheScope
 public class MemoryQueryCache implements QueryCache {
-    private final ExpiringMap<FullQuery.Request, AsyncFuture<QueryResult>> cache;
+    public static final String HITS = "query-cache-hits";
+    public static final String PARTIAL_HITS = "query-cache-partial-hits";
+    public static final String JOINS = "query-cache-joins";
+    public static final String MISSES = "query-cache-misses";
+    public static final String RESULTS_SIZE = "query-cache-size";
+    public static final String RESULTS_WEIGHT = "query-cache-weight";
+    public static final String RESULTS_EVICTIONS = "query-cache-evictions";
+    public static final String PARTIAL_SIZE = "query-cache-partial-size";
+    public static final String PARTIAL_WEIGHT = "query-cache-partial-weight";
+    public static final String PARTIAL_EVICTIONS = "query-cache-partial-evictions";
+
+    private final AsyncFramework async;
+    private final ObjectMapper mapper;
+    private final QueryCacheReporter reporter;
+    private final Clock clock;
+    private final boolean partial;
+    private final long partialMaxAge;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder partialHits = new LongAdder();
+    private final LongAdder joins = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private final WeightedCache<ResultShape.Key, QueryResult> results;
+
+    /**
+     * Loads which are in progress, shared by all requests for the same query.
+     */
+    private final ConcurrentMap<ResultShape.Key, AsyncFuture<QueryResult>> inflight =
+        new ConcurrentHashMap<>();
 
-    private final Object lock = new Object();
+    /**
+     * Finalized buckets, keyed by the shape of the query they belong to.
+     */
+    private final WeightedCache<ResultShape, PartialResult> buckets;
 
     @Inject
-    public MemoryQueryCache() {
-        this.cache = ExpiringMap.builder().variableExpiration().build();
+    public MemoryQueryCache(
+        final AsyncFramework async, final ExecutorService executor,
+        @Named("application/json+internal") final ObjectMapper mapper,
+        final QueryCacheReporter reporter, @Named("maxWeight") final long maxWeight,
+        @Named("partial") final boolean partial, @Named("partialMaxAge") final long partialMaxAge
+    ) {
+        this(async, executor, mapper, reporter, Clock.systemClock(), maxWeight, partial,
+            partialMaxAge);
+    }
+
+    /**
+     * @param executor Executor that evictions run on, so that they do not delay the completion
+     * of the load which triggered them.
+     */
+    MemoryQueryCache(
+        final AsyncFramework async, final Executor executor, final ObjectMapper mapper,
+        final QueryCacheReporter reporter, final Clock clock, final long maxWeight,
+        final boolean partial, final long partialMaxAge
+    ) {
+        this.async = async;
+        this.mapper = mapper;
+        this.reporter = reporter;
+        this.clock = clock;
+        this.partial = partial;
+        this.partialMaxAge = partialMaxAge;
+
+        /* both caches share the budget, buckets are only cached if partial caching is enabled */
+        final long bucketsWeight = partial ? maxWeight / 2 : 0L;
+
+        this.results = new WeightedCache<>(clock, maxWeight - bucketsWeight, executor);
+        this.buckets = new WeightedCache<>(clock, bucketsWeight, executor);
     }
 
     @Override
@@ -50,29 +137,214 @@ public class MemoryQueryCache implements QueryCache {
         FullQuery.Request request, Supplier<AsyncFuture<QueryResult>> loader
     ) {
         final AggregationInstance aggregation = request.getAggregation();
+        final long cadence = aggregation.cadence();
 
         /* can't be cached :( */
-        if (aggregation.cadence() <= 0) {
+        if (cadence <= 0) {
+            return loader.get();
+        }
+
+        final ResultShape.Key key;
+
+        try {
+            key = ResultShape.of(request, mapper).withRange(request.getRange());
+        } catch (final JsonProcessingException e) {
             return loader.get();
         }
 
-        final AsyncFuture<QueryResult> result = cache.get(request);
+        final QueryResult result = results.get(key);
 
         if (result != null) {
-            return result;
+            hit();
+            return async.resolved(result);
+        }
+
+        return shared(key, () -> {
+            /* another load might have completed between the lookup and becoming the loader */
+            final QueryResult loaded = results.get(key);
+
+            if (loaded != null) {
+                hit();
+                return async.resolved(loaded);
+            }
+
+            miss();
+
+            return loader.get().directTransform(r -> {
+                results.put(key, r, weight(r.getGroups()), cadence);
+                return r;
+            });
+        });
+    }
+
+    @Override
+    public AsyncFuture<QueryResult> load(
+        final FullQuery.Request request, final long extent,
+        final Function<DateRange, AsyncFuture<QueryResult>> loader
+    ) {
+        final long cadence = request.getAggregation().cadence();
+
+        if (!partial || cadence <= 0) {
+            return load(request, () -> loader.apply(request.getRange()));
+        }
+
+        final ResultShape shape;
+
+        try {
+            shape = ResultShape.of(request, mapper);
+        } catch (final JsonProcessingException e) {
+            return loader.apply(request.getRange());
+        }
+
+        final DateRange range = request.getRange();
+
+        return shared(shape.withRange(range),
+            () -> loadPartial(shape, range, extent, cadence, loader));
+    }
+
+    private AsyncFuture<QueryResult> loadPartial(
+        final ResultShape shape, final DateRange range, final long extent, final long cadence,
+        final Function<DateRange, AsyncFuture<QueryResult>> loader
+    ) {
+        final long now = clock.currentTimeMillis();
+
+        final PartialResult cached = buckets.get(shape);
+
+        if (cached == null || !cached.covers(range, cadence, now - partialMaxAge)) {
+            miss();
+
+            return loader.apply(range).directTransform(result -> {
+                store(shape, PartialResult.finalized(range, result, cadence, now, now));
+                return result;
+            });
         }
 
-        synchronized (lock) {
-            final AsyncFuture<QueryResult> candidate = cache.get(request);
+        /* all buckets of the requested range have been finalized */
+        if (cached.getEnd() > range.end()) {
+            hit();
+            return async.resolved(cached.slice(range));
+        }
+
+        partialHit();
+
+        /* buckets before the tail have to be re-computed to cover the extent of the first tail
+         * bucket, but are thrown away */
+        final long overlap = ((extent + cadence - 1) / cadence) * cadence;
+        final DateRange tail =
+            range.start(Math.max(range.start(), cached.getEnd() - overlap));
 
-            if (candidate != null) {
-                return candidate;
+        return loader.apply(tail).directTransform(result -> {
+            final QueryResult stitched = cached.stitch(range, result);
+            store(shape,
+                PartialResult.finalized(range, stitched, cadence, now, cached.getCreated()));
+            return stitched;
+        });
+    }
+
+    /**
+     * Share a load between all concurrent requests for the same query.
+     * <p>
+     * The first request starts the load, the ones which arrive while it is in progress join it.
+     */
+    private AsyncFuture<QueryResult> shared(
+        final ResultShape.Key key, final Supplier<AsyncFuture<QueryResult>> load
+    ) {
+        final ResolvableFuture<QueryResult> future = async.future();
+        final AsyncFuture<QueryResult> pending = inflight.putIfAbsent(key, future);
+
+        if (pending != null) {
+            join();
+            return pending;
+        }
+
+        final AsyncFuture<QueryResult> loaded;
+
+        try {
+            loaded = load.get();
+        } catch (final RuntimeException e) {
+            inflight.remove(key, future);
+            future.fail(e);
+            return future;
+        }
+
+        loaded.onDone(new FutureDone<QueryResult>() {
+            @Override
+            public void failed(final Throwable cause) {
+                inflight.remove(key, future);
+                future.fail(cause);
             }
 
-            final AsyncFuture<QueryResult> next = loader.get();
-            cache.put(request, next, ExpirationPolicy.ACCESSED, aggregation.cadence(),
-                TimeUnit.MILLISECONDS);
-            return next;
+            @Override
+            public void resolved(final QueryResult result) {
+                inflight.remove(key, future);
+                future.resolve(result);
+            }
+
+            @Override
+            public void cancelled() {
+                inflight.remove(key, future);
+                future.cancel();
+            }
+        });
+
+        return future;
+    }
+
+    @Override
+    public Statistics getStatistics() {
+        final Map<String, Long> counters = new HashMap<>();
+        counters.put(HITS, hits.sum());
+        counters.put(PARTIAL_HITS, partialHits.sum());
+        counters.put(JOINS, joins.sum());
+        counters.put(MISSES, misses.sum());
+        counters.put(RESULTS_SIZE, results.size());
+        counters.put(RESULTS_WEIGHT, results.weight());
+        counters.put(RESULTS_EVICTIONS, results.evictions());
+        counters.put(PARTIAL_SIZE, buckets.size());
+        counters.put(PARTIAL_WEIGHT, buckets.weight());
+        counters.put(PARTIAL_EVICTIONS, buckets.evictions());
+        return Statistics.of(counters);
+    }
+
+    private void hit() {
+        hits.increment();
+        reporter.reportHit();
+    }
+
+    private void join() {
+        joins.increment();
+        reporter.reportJoin();
+    }
+
+    private void partialHit() {
+        partialHits.increment();
+        reporter.reportPartialHit();
+    }
+
+    private void miss() {
+        misses.increment();
+        reporter.reportMiss();
+    }
+
+    private void store(final ResultShape shape, final PartialResult result) {
+        if (result == null) {
+            return;
         }
+
+        buckets.put(shape, result, weight(result.getGroups()), partialMaxAge);
+    }
+
+    /**
+     * The weight of a result is the number of metrics that it holds, but at least one so that
+     * empty results are also accounted for.
+     */
+    static long weight(final List<ShardedResultGroup> groups) {
+        long weight = 1L;
+
+        for (final ShardedResultGroup g : groups) {
+            weight += g.getMetrics().size();
+        }
+
+        return weight;
     }
 }
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.cache.memory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.common.Series;
+import com.spotify.heroic.metric.Metric;
+import com.spotify.heroic.metric.MetricCollection;
+import com.spotify.heroic.metric.QueryResult;
+import com.spotify.heroic.metric.QueryTrace;
+import com.spotify.heroic.metric.ResultLimits;
+import com.spotify.heroic.metric.ShardedResultGroup;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finalized buckets of a query result, which can be stitched together with the result of the
+ * remaining range.
+ * <p>
+ * Contains all buckets with a timestamp in {@code [start, end)}, at which point the buckets are
+ * considered to be final and won't change when re-computed.
+ */
+@Data
+class PartialResult {
+    private static final QueryTrace.Identifier CACHED =
+        QueryTrace.identifier(PartialResult.class, "cached");
+
+    private final long start;
+    private final long end;
+    private final List<ShardedResultGroup> groups;
+    private final long created;
+
+    /**
+     * Check if the buckets of the given range can be served from this result.
+     *
+     * @param range Range to check.
+     * @param cadence Cadence of the query.
+     * @param minCreated Oldest creation time which is considered fresh.
+     */
+    public boolean covers(final DateRange range, final long cadence, final long minCreated) {
+        if (created < minCreated) {
+            return false;
+        }
+
+        if (range.start() < start || range.start() >= end) {
+            return false;
+        }
+
+        /* buckets must line up */
+        return (range.start() - start) % cadence == 0;
+    }
+
+    /**
+     * Build a result which only contains the given range.
+     */
+    public QueryResult slice(final DateRange range) {
+        final List<ShardedResultGroup> sliced = new ArrayList<>(groups.size());
+
+        for (final ShardedResultGroup g : groups) {
+            sliced.add(slice(g, range.start(), range.end() + 1));
+        }
+
+        return new QueryResult(range, sliced, ImmutableList.of(), QueryTrace.watch(CACHED).end(),
+            ResultLimits.of());
+    }
+
+    /**
+     * Stitch the cached buckets of the given range together with the result of the remaining
+     * range.
+     *
+     * @param range Range of the complete result.
+     * @param tail Result which covers at least all buckets from {@link #end} onwards.
+     */
+    public QueryResult stitch(final DateRange range, final QueryResult tail) {
+        final Map<List<Map<String, String>>, ShardedResultGroup> stitched = new LinkedHashMap<>();
+
+        for (final ShardedResultGroup g : groups) {
+            stitched.put(Arrays.asList(g.getShard(), g.getKey()), slice(g, range.start(), end));
+        }
+
+        for (final ShardedResultGroup g : tail.getGroups()) {
+            final ShardedResultGroup next = slice(g, end, range.end() + 1);
+            stitched.merge(Arrays.asList(g.getShard(), g.getKey()), next, PartialResult::join);
+        }
+
+        return new QueryResult(range, ImmutableList.copyOf(stitched.values()), tail.getErrors(),
+            tail.getTrace(), tail.getLimits());
+    }
+
+    /**
+     * Build the finalized part of the given result.
+     *
+     * @param range Range of the result.
+     * @param result Result to build from.
+     * @param cadence Cadence of the query.
+     * @param now The current time.
+     * @param created When the first result of the series of results was created.
+     * @return A partial result, or {@code null} if nothing in the given result can be cached.
+     */
+    public static PartialResult finalized(
+        final DateRange range, final QueryResult result, final long cadence, final long now,
+        final long created
+    ) {
+        /* incomplete results must not be re-used */
+        if (!result.getErrors().isEmpty() || !result.getLimits().getLimits().isEmpty()) {
+            return null;
+        }
+
+        /* leave one cadence for late writes */
+        final long last = Math.min(range.end(), now - cadence);
+
+        if (last < range.start()) {
+            return null;
+        }
+
+        final long end = range.start() + ((last - range.start()) / cadence + 1) * cadence;
+
+        final List<ShardedResultGroup> groups = new ArrayList<>(result.getGroups().size());
+
+        for (final ShardedResultGroup g : result.getGroups()) {
+            groups.add(slice(g, range.start(), end));
+        }
+
+        return new PartialResult(range.start(), end, groups, created);
+    }
+
+    private static ShardedResultGroup slice(
+        final ShardedResultGroup group, final long start, final long end
+    ) {
+        final List<Metric> data = new ArrayList<>();
+
+        for (final Metric m : group.getMetrics().getData()) {
+            if (m.getTimestamp() >= start && m.getTimestamp() < end) {
+                data.add(m);
+            }
+        }
+
+        final MetricCollection metrics = MetricCollection.build(group.getMetrics().getType(), data);
+        return new ShardedResultGroup(group.getShard(), group.getKey(), group.getSeries(), metrics,
+            group.getCadence());
+    }
+
+    private static ShardedResultGroup join(
+        final ShardedResultGroup a, final ShardedResultGroup b
+    ) {
+        final List<Metric> data = new ArrayList<>();
+        data.addAll(a.getMetrics().getData());
+        data.addAll(b.getMetrics().getData());
+
+        final MetricCollection metrics = MetricCollection.build(a.getMetrics().getType(), data);
+        final ImmutableSet<Series> series =
+            ImmutableSet.<Series>builder().addAll(a.getSeries()).addAll(b.getSeries()).build();
+
+        return new ShardedResultGroup(a.getShard(), a.getKey(), series, metrics, b.getCadence());
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.cache.memory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.spotify.heroic.QueryOptions;
+import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.filter.Filter;
+import com.spotify.heroic.metric.FullQuery;
+import com.spotify.heroic.metric.MetricType;
+import lombok.Data;
+
+/**
+ * Everything that determines the result of a query, except for its range.
+ * <p>
+ * The aggregation is identified by its serialized form, which includes the type of every
+ * aggregation it is composed of. Aggregation instances can not be compared directly, since their
+ * equality is defined loosely, e.g. two bucket aggregations are equal if they have the same size
+ * and extent regardless of what they compute.
+ */
+@Data
+class ResultShape {
+    private final MetricType source;
+    private final Filter filter;
+    private final String aggregation;
+    private final QueryOptions options;
+
+    public Key withRange(final DateRange range) {
+        return new Key(this, range);
+    }
+
+    public static ResultShape of(final FullQuery.Request request, final ObjectMapper mapper)
+        throws JsonProcessingException {
+        final String aggregation = mapper.writeValueAsString(request.getAggregation());
+        /* the client which issued the query does not change its result */
+        return new ResultShape(request.getSource(), request.getFilter(), aggregation,
+            request.getOptions().withoutClientId());
+    }
+
+    /**
+     * Everything that determines the result of a query.
+     */
+    @Data
+    static class Key {
+        private final ResultShape shape;
+        private final DateRange range;
+    }
+}
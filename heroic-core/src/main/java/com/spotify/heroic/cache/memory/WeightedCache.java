@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.cache.memory;
+
+import com.spotify.heroic.metrics.Clock;
+import lombok.RequiredArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A weight-bounded cache, where every entry expires if it hasn't been accessed for a given time.
+ * <p>
+ * Reads and writes never block each other. When the total weight of all entries exceeds the
+ * maximum weight, a single eviction is scheduled on the given executor which removes expired and
+ * least recently accessed entries until the cache is below {@link #EVICTION_TARGET} of the maximum
+ * weight, which amortizes the cost of finding candidates over many inserts. The bound is soft,
+ * inserts might exceed it briefly while an eviction is pending or in progress.
+ */
+class WeightedCache<K, V> {
+    static final double EVICTION_TARGET = 0.9D;
+
+    private final Clock clock;
+    private final long maxWeight;
+    private final Executor executor;
+
+    private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final AtomicLong weight = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private final LongAdder evictions = new LongAdder();
+
+    WeightedCache(final Clock clock, final long maxWeight, final Executor executor) {
+        this.clock = clock;
+        this.maxWeight = maxWeight;
+        this.executor = executor;
+    }
+
+    /**
+     * Get the value for the given key, if present and not expired.
+     *
+     * @return The cached value, or {@code null} if there is none.
+     */
+    public V get(final K key) {
+        final Entry<V> entry = entries.get(key);
+
+        if (entry == null) {
+            return null;
+        }
+
+        final long now = clock.getTick();
+
+        if (entry.isExpired(now)) {
+            remove(key, entry);
+            return null;
+        }
+
+        entry.accessed = now;
+        return entry.value;
+    }
+
+    /**
+     * Put a value into the cache.
+     *
+     * @param weight Weight of the value, values heavier than the maximum weight are never stored.
+     * @param ttl How long the value is kept after it was last accessed, in milliseconds.
+     */
+    public void put(final K key, final V value, final long weight, final long ttl) {
+        if (weight > maxWeight) {
+            return;
+        }
+
+        final Entry<V> entry =
+            new Entry<>(value, weight, TimeUnit.MILLISECONDS.toNanos(ttl), clock.getTick());
+
+        final Entry<V> previous = entries.put(key, entry);
+        long total = this.weight.addAndGet(weight);
+
+        if (previous != null) {
+            total = this.weight.addAndGet(-previous.weight);
+        }
+
+        if (total > maxWeight && evicting.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::evict);
+            } catch (final RejectedExecutionException e) {
+                evicting.set(false);
+            }
+        }
+    }
+
+    public long size() {
+        return entries.size();
+    }
+
+    public long weight() {
+        return weight.get();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    private void remove(final K key, final Entry<V> entry) {
+        if (entries.remove(key, entry)) {
+            weight.addAndGet(-entry.weight);
+        }
+    }
+
+    private void evict() {
+        try {
+            final long now = clock.getTick();
+            final long target = (long) (maxWeight * EVICTION_TARGET);
+
+            final List<Candidate<K, V>> candidates = new ArrayList<>(entries.size());
+
+            for (final Map.Entry<K, Entry<V>> e : entries.entrySet()) {
+                final Entry<V> entry = e.getValue();
+
+                if (entry.isExpired(now)) {
+                    remove(e.getKey(), entry);
+                    continue;
+                }
+
+                /* snapshot the access time, so that the ordering is stable while sorting */
+                candidates.add(new Candidate<>(e.getKey(), entry, entry.accessed));
+            }
+
+            candidates.sort((a, b) -> Long.compare(a.accessed, b.accessed));
+
+            for (final Candidate<K, V> c : candidates) {
+                if (weight.get() <= target) {
+                    break;
+                }
+
+                if (entries.remove(c.key, c.entry)) {
+                    weight.addAndGet(-c.entry.weight);
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long weight;
+        private final long ttl;
+
+        private volatile long accessed;
+
+        private Entry(final V value, final long weight, final long ttl, final long accessed) {
+            this.value = value;
+            this.weight = weight;
+            this.ttl = ttl;
+            this.accessed = accessed;
+        }
+
+        private boolean isExpired(final long now) {
+            return now - accessed > ttl;
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class Candidate<K, V> {
+        private final K key;
+        private final Entry<V> entry;
+        private final long accessed;
+    }
+}
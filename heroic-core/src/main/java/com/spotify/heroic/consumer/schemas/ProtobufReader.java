@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.consumer.schemas;
+
+import com.spotify.heroic.consumer.ConsumerSchemaValidationException;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal reader for the protobuf wire format.
+ * <p>
+ * Reads directly from the message bytes. Nested messages are read by narrowing the limit of the
+ * reader instead of copying them.
+ */
+final class ProtobufReader {
+    static final int VARINT = 0;
+    static final int FIXED64 = 1;
+    static final int LENGTH_DELIMITED = 2;
+    static final int FIXED32 = 5;
+
+    private final byte[] buffer;
+
+    private int position;
+    private int limit;
+
+    ProtobufReader(final byte[] buffer) {
+        this.buffer = buffer;
+        this.position = 0;
+        this.limit = buffer.length;
+    }
+
+    boolean hasRemaining() {
+        return position < limit;
+    }
+
+    /**
+     * Read the tag of the next field, which is its field number and its wire type.
+     */
+    int readTag() throws ConsumerSchemaValidationException {
+        final int tag = (int) readVarint();
+
+        if ((tag >>> 3) == 0) {
+            throw new ConsumerSchemaValidationException("Invalid field number in tag: " + tag);
+        }
+
+        return tag;
+    }
+
+    static int fieldNumber(final int tag) {
+        return tag >>> 3;
+    }
+
+    static int wireType(final int tag) {
+        return tag & 0x7;
+    }
+
+    long readVarint() throws ConsumerSchemaValidationException {
+        long result = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position >= limit) {
+                throw truncated();
+            }
+
+            final byte b = buffer[position++];
+            result |= (long) (b & 0x7f) << shift;
+
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+
+        throw new ConsumerSchemaValidationException("Malformed varint");
+    }
+
+    /**
+     * Read a zigzag encoded varint, as used by {@code sint64} fields.
+     */
+    long readSignedVarint() throws ConsumerSchemaValidationException {
+        final long n = readVarint();
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    double readDouble() throws ConsumerSchemaValidationException {
+        if (limit - position < Long.BYTES) {
+            throw truncated();
+        }
+
+        long bits = 0;
+
+        for (int i = 0; i < Long.BYTES; i++) {
+            bits |= (long) (buffer[position++] & 0xff) << (i * 8);
+        }
+
+        return Double.longBitsToDouble(bits);
+    }
+
+    /**
+     * Read the length of a length-delimited field, and make sure that it fits in what remains.
+     */
+    int readLength() throws ConsumerSchemaValidationException {
+        final long length = readVarint();
+
+        if (length < 0 || length > limit - position) {
+            throw truncated();
+        }
+
+        return (int) length;
+    }
+
+    String readString() throws ConsumerSchemaValidationException {
+        final int length = readLength();
+        final String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    /**
+     * Count the varints in the next {@code length} bytes, without consuming them.
+     */
+    int countVarints(final int length) {
+        int count = 0;
+
+        for (int i = position; i < position + length; i++) {
+            if ((buffer[i] & 0x80) == 0) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Limit reading to the next {@code length} bytes.
+     *
+     * @return The previous limit, to be restored with {@link #popLimit(int)}.
+     */
+    int pushLimit(final int length) {
+        final int previous = limit;
+        limit = position + length;
+        return previous;
+    }
+
+    void popLimit(final int previous) {
+        position = limit;
+        limit = previous;
+    }
+
+    /**
+     * Skip the value of a field with the given wire type.
+     */
+    void skip(final int wireType) throws ConsumerSchemaValidationException {
+        switch (wireType) {
+            case VARINT:
+                readVarint();
+                break;
+            case FIXED64:
+                skipBytes(Long.BYTES);
+                break;
+            case LENGTH_DELIMITED:
+                skipBytes(readLength());
+                break;
+            case FIXED32:
+                skipBytes(Integer.BYTES);
+                break;
+            default:
+                throw new ConsumerSchemaValidationException("Unsupported wire type: " + wireType);
+        }
+    }
+
+    private void skipBytes(final int length) throws ConsumerSchemaValidationException {
+        if (limit - position < length) {
+            throw truncated();
+        }
+
+        position += length;
+    }
+
+    private ConsumerSchemaValidationException truncated() {
+        return new ConsumerSchemaValidationException("Truncated message at byte " + position);
+    }
+}
@@ -29,18 +29,14 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.spotify.heroic.common.Series;
 import com.spotify.heroic.consumer.ConsumerSchema;
 import com.spotify.heroic.consumer.ConsumerSchemaException;
-import com.spotify.heroic.consumer.ConsumerSchemaValidationException;
 import com.spotify.heroic.consumer.SchemaScope;
 import com.spotify.heroic.ingestion.Ingestion;
 import com.spotify.heroic.ingestion.IngestionGroup;
-import com.spotify.heroic.metric.MetricCollection;
 import com.spotify.heroic.metric.Point;
 import com.spotify.heroic.statistics.ConsumerReporter;
 import dagger.Component;
@@ -49,18 +45,11 @@ import lombok.ToString;
 
 import javax.inject.Inject;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 @ToString
 public class Spotify100 implements ConsumerSchema {
-    private static final String HOST = "host";
-    private static final String KEY = "key";
-    private static final String TIME = "time";
-
-    private static final ObjectMapper mapper = new ObjectMapper();
-
     public static final String SCHEMA_VERSION = "1.0.0";
 
     @Data
@@ -132,44 +121,19 @@ public class Spotify100 implements ConsumerSchema {
 
         @Override
         public void consume(final byte[] message) throws ConsumerSchemaException {
-            final JsonMetric metric;
-
-            try {
-                metric = mapper.readValue(message, JsonMetric.class);
-            } catch (final Exception e) {
-                throw new ConsumerSchemaValidationException("Received invalid metric", e);
-            }
-
-            if (metric.getValue() == null) {
-                throw new ConsumerSchemaValidationException(
-                    "Metric must have a value but this metric has a null value: " + metric);
-            }
-
-            if (metric.getVersion() == null || !SCHEMA_VERSION.equals(metric.getVersion())) {
-                throw new ConsumerSchemaValidationException(
-                    String.format("Invalid version %s, expected %s", metric.getVersion(),
-                        SCHEMA_VERSION));
+            for (final Ingestion.Request request : decode(message)) {
+                ingestion.write(request);
             }
+        }
 
-            if (metric.getTime() == null) {
-                throw new ConsumerSchemaValidationException(
-                    "'" + TIME + "' field must be defined: " + message);
-            }
-
-            if (metric.getKey() == null) {
-                throw new ConsumerSchemaValidationException(
-                    "'" + KEY + "' field must be defined: " + message);
-            }
-
-            final Map<String, String> tags = new HashMap<String, String>(metric.getAttributes());
-            tags.put(HOST, metric.getHost());
-
-            final Series series = Series.of(metric.getKey(), tags);
-            final Point p = new Point(metric.getTime(), metric.getValue());
-            final List<Point> points = ImmutableList.of(p);
+        @Override
+        public List<Ingestion.Request> decode(final byte[] message)
+            throws ConsumerSchemaException {
+            final Ingestion.Request request = Spotify100Decoder.decode(message);
+            final Point p = request.getData().getDataAs(Point.class).get(0);
 
             reporter.reportMessageDrift(System.currentTimeMillis() - p.getTimestamp());
-            ingestion.write(new Ingestion.Request(series, MetricCollection.points(points)));
+            return ImmutableList.of(request);
         }
     }
 
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.consumer.schemas;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.collect.ImmutableList;
+import com.spotify.heroic.common.Series;
+import com.spotify.heroic.consumer.ConsumerSchemaValidationException;
+import com.spotify.heroic.ingestion.Ingestion;
+import com.spotify.heroic.metric.MetricCollection;
+import com.spotify.heroic.metric.Point;
+
+import java.io.IOException;
+import java.util.TreeMap;
+
+/**
+ * Streaming decoder for {@link Spotify100} messages.
+ * <p>
+ * Messages are read token by token instead of being bound to {@link Spotify100.JsonMetric}.
+ * Attributes are put straight into the sorted map which backs the decoded series, and unknown
+ * fields are skipped without being materialized.
+ * <p>
+ * The parser buffers are recycled per thread by the shared {@link JsonFactory}, which also
+ * canonicalizes field names. Since attribute keys are field names, they are not allocated again
+ * for every message.
+ */
+final class Spotify100Decoder {
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private static final String VERSION = "version";
+    private static final String KEY = "key";
+    private static final String HOST = "host";
+    private static final String TIME = "time";
+    private static final String ATTRIBUTES = "attributes";
+    private static final String VALUE = "value";
+
+    private Spotify100Decoder() {
+    }
+
+    /**
+     * Decode a single message.
+     *
+     * @param message Message to decode.
+     * @return The write contained in the message.
+     * @throws ConsumerSchemaValidationException if the message is not a valid metric.
+     */
+    static Ingestion.Request decode(final byte[] message)
+        throws ConsumerSchemaValidationException {
+        try (final JsonParser p = FACTORY.createParser(message)) {
+            return decode(p);
+        } catch (final IOException | IllegalArgumentException e) {
+            throw new ConsumerSchemaValidationException("Received invalid metric", e);
+        }
+    }
+
+    private static Ingestion.Request decode(final JsonParser p)
+        throws IOException, ConsumerSchemaValidationException {
+        if (p.nextToken() != JsonToken.START_OBJECT) {
+            throw new ConsumerSchemaValidationException("Received invalid metric, not an object");
+        }
+
+        String version = null;
+        String key = null;
+        String host = null;
+        Long time = null;
+        Double value = null;
+
+        final TreeMap<String, String> tags = new TreeMap<>();
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = p.getCurrentName();
+            final JsonToken token = p.nextToken();
+
+            switch (name) {
+                case VERSION:
+                    version = text(p, token);
+                    break;
+                case KEY:
+                    key = text(p, token);
+                    break;
+                case HOST:
+                    host = text(p, token);
+                    break;
+                case TIME:
+                    time = longValue(p, token);
+                    break;
+                case VALUE:
+                    value = doubleValue(p, token);
+                    break;
+                case ATTRIBUTES:
+                    attributes(p, token, tags);
+                    break;
+                default:
+                    p.skipChildren();
+                    break;
+            }
+        }
+
+        if (p.getCurrentToken() != JsonToken.END_OBJECT) {
+            throw new ConsumerSchemaValidationException("Received invalid metric, truncated");
+        }
+
+        if (value == null) {
+            throw new ConsumerSchemaValidationException(
+                "Metric must have a value but this metric has a null value");
+        }
+
+        if (version == null || !Spotify100.SCHEMA_VERSION.equals(version)) {
+            throw new ConsumerSchemaValidationException(
+                String.format("Invalid version %s, expected %s", version,
+                    Spotify100.SCHEMA_VERSION));
+        }
+
+        if (time == null) {
+            throw new ConsumerSchemaValidationException("'" + TIME + "' field must be defined");
+        }
+
+        if (key == null) {
+            throw new ConsumerSchemaValidationException("'" + KEY + "' field must be defined");
+        }
+
+        tags.put(HOST, host);
+
+        final Series series = Series.ofSorted(key, tags);
+        final Point point = new Point(time, value);
+        return new Ingestion.Request(series, MetricCollection.points(ImmutableList.of(point)));
+    }
+
+    /**
+     * Read attributes, ignoring the ones which do not have a string value.
+     */
+    private static void attributes(
+        final JsonParser p, final JsonToken token, final TreeMap<String, String> tags
+    ) throws IOException, ConsumerSchemaValidationException {
+        /* a repeated field replaces the earlier one */
+        tags.clear();
+
+        if (token == JsonToken.VALUE_NULL) {
+            return;
+        }
+
+        if (token != JsonToken.START_OBJECT) {
+            throw new ConsumerSchemaValidationException(
+                "'" + ATTRIBUTES + "' field must be an object");
+        }
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = p.getCurrentName();
+
+            if (p.nextToken() == JsonToken.VALUE_STRING) {
+                tags.put(name, p.getText());
+            } else {
+                p.skipChildren();
+            }
+        }
+    }
+
+    private static String text(final JsonParser p, final JsonToken token)
+        throws IOException, ConsumerSchemaValidationException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+
+        if (!token.isScalarValue()) {
+            throw new ConsumerSchemaValidationException(
+                "'" + p.getCurrentName() + "' field must be a string");
+        }
+
+        return p.getText();
+    }
+
+    private static Long longValue(final JsonParser p, final JsonToken token)
+        throws IOException, ConsumerSchemaValidationException {
+        switch (token) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_NUMBER_INT:
+                return p.getLongValue();
+            case VALUE_NUMBER_FLOAT:
+                return (long) p.getDoubleValue();
+            case VALUE_STRING:
+                final String text = p.getText().trim();
+                return text.isEmpty() ? null : Long.parseLong(text);
+            default:
+                throw new ConsumerSchemaValidationException(
+                    "'" + p.getCurrentName() + "' field must be a number");
+        }
+    }
+
+    private static Double doubleValue(final JsonParser p, final JsonToken token)
+        throws IOException, ConsumerSchemaValidationException {
+        switch (token) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return p.getDoubleValue();
+            case VALUE_STRING:
+                final String text = p.getText().trim();
+                return text.isEmpty() ? null : Double.parseDouble(text);
+            default:
+                throw new ConsumerSchemaValidationException(
+                    "'" + p.getCurrentName() + "' field must be a number");
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.consumer.schemas;
+
+import com.spotify.heroic.consumer.ConsumerSchema;
+import com.spotify.heroic.consumer.ConsumerSchemaException;
+import com.spotify.heroic.consumer.SchemaScope;
+import com.spotify.heroic.ingestion.Ingestion;
+import com.spotify.heroic.ingestion.IngestionGroup;
+import com.spotify.heroic.metric.PointColumns;
+import com.spotify.heroic.statistics.ConsumerReporter;
+import dagger.Component;
+import lombok.ToString;
+
+import javax.inject.Inject;
+import java.util.List;
+
+/**
+ * Binary schema where every message is an envelope carrying many series, each with many points.
+ * <p>
+ * Envelopes are protobuf encoded with the following definition:
+ * <pre>
+ * syntax = "proto3";
+ *
+ * message Batch {
+ *   // Strings which are referenced by index from tags, so that repeated tag keys and values
+ *   // only have to be sent once per envelope.
+ *   repeated string dictionary = 1;
+ *   repeated Series series = 2;
+ * }
+ *
+ * message Series {
+ *   string key = 1;
+ *   repeated Tag tags = 2;
+ *   // Timestamps in milliseconds, each one relative to the one before it in the same series.
+ *   repeated sint64 timestamps = 3;
+ *   repeated double values = 4;
+ * }
+ *
+ * message Tag {
+ *   oneof key {
+ *     string key_string = 1;
+ *     uint32 key_index = 2;
+ *   }
+ *
+ *   oneof value {
+ *     string value_string = 3;
+ *     uint32 value_index = 4;
+ *   }
+ * }
+ * </pre>
+ * Every series is written as a single multi-point write.
+ */
+@ToString
+public class SpotifyBatch100 implements ConsumerSchema {
+    @SchemaScope
+    public static class Consumer implements ConsumerSchema.Consumer {
+        private final IngestionGroup ingestion;
+        private final ConsumerReporter reporter;
+
+        @Inject
+        public Consumer(IngestionGroup ingestion, ConsumerReporter reporter) {
+            this.ingestion = ingestion;
+            this.reporter = reporter;
+        }
+
+        @Override
+        public void consume(final byte[] message) throws ConsumerSchemaException {
+            for (final Ingestion.Request request : decode(message)) {
+                ingestion.write(request);
+            }
+        }
+
+        @Override
+        public List<Ingestion.Request> decode(final byte[] message)
+            throws ConsumerSchemaException {
+            final List<Ingestion.Request> requests = SpotifyBatch100Decoder.decode(message);
+
+            long latest = Long.MIN_VALUE;
+
+            for (final Ingestion.Request request : requests) {
+                final PointColumns points = request.getData().getPointColumns();
+                latest = Math.max(latest, points.timestamp(points.size() - 1));
+            }
+
+            if (!requests.isEmpty()) {
+                reporter.reportMessageDrift(System.currentTimeMillis() - latest);
+            }
+
+            return requests;
+        }
+    }
+
+    @Override
+    public Exposed setup(final ConsumerSchema.Depends depends) {
+        return DaggerSpotifyBatch100_C.builder().depends(depends).build();
+    }
+
+    @SchemaScope
+    @Component(dependencies = ConsumerSchema.Depends.class)
+    interface C extends ConsumerSchema.Exposed {
+        @Override
+        Consumer consumer();
+    }
+}
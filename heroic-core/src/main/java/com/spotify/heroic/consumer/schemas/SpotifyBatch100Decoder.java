@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.consumer.schemas;
+
+import com.spotify.heroic.common.Series;
+import com.spotify.heroic.consumer.ConsumerSchemaValidationException;
+import com.spotify.heroic.ingestion.Ingestion;
+import com.spotify.heroic.metric.MetricCollection;
+import com.spotify.heroic.metric.PointColumns;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Decoder for {@link SpotifyBatch100} envelopes.
+ * <p>
+ * The envelope is read in two passes. The first collects the dictionary, so that series can
+ * reference it regardless of the order in which fields were written. The second decodes every
+ * series into a single write, with its points read straight into {@link PointColumns}.
+ */
+final class SpotifyBatch100Decoder {
+    static final int BATCH_DICTIONARY = 1;
+    static final int BATCH_SERIES = 2;
+
+    static final int SERIES_KEY = 1;
+    static final int SERIES_TAGS = 2;
+    static final int SERIES_TIMESTAMPS = 3;
+    static final int SERIES_VALUES = 4;
+
+    static final int TAG_KEY = 1;
+    static final int TAG_KEY_INDEX = 2;
+    static final int TAG_VALUE = 3;
+    static final int TAG_VALUE_INDEX = 4;
+
+    private SpotifyBatch100Decoder() {
+    }
+
+    /**
+     * Decode a single envelope.
+     *
+     * @param message Envelope to decode.
+     * @return One write for every series in the envelope which has points.
+     * @throws ConsumerSchemaValidationException if the envelope is malformed.
+     */
+    static List<Ingestion.Request> decode(final byte[] message)
+        throws ConsumerSchemaValidationException {
+        final List<String> dictionary = dictionary(new ProtobufReader(message));
+        final List<Ingestion.Request> requests = new ArrayList<>();
+
+        final ProtobufReader reader = new ProtobufReader(message);
+
+        while (reader.hasRemaining()) {
+            final int tag = reader.readTag();
+
+            if (ProtobufReader.fieldNumber(tag) != BATCH_SERIES) {
+                reader.skip(ProtobufReader.wireType(tag));
+                continue;
+            }
+
+            expect(tag, ProtobufReader.LENGTH_DELIMITED);
+
+            final int previous = reader.pushLimit(reader.readLength());
+            final Ingestion.Request request = series(reader, dictionary);
+            reader.popLimit(previous);
+
+            if (request != null) {
+                requests.add(request);
+            }
+        }
+
+        return requests;
+    }
+
+    private static List<String> dictionary(final ProtobufReader reader)
+        throws ConsumerSchemaValidationException {
+        final List<String> dictionary = new ArrayList<>();
+
+        while (reader.hasRemaining()) {
+            final int tag = reader.readTag();
+
+            if (ProtobufReader.fieldNumber(tag) == BATCH_DICTIONARY) {
+                expect(tag, ProtobufReader.LENGTH_DELIMITED);
+                dictionary.add(reader.readString());
+            } else {
+                reader.skip(ProtobufReader.wireType(tag));
+            }
+        }
+
+        return dictionary;
+    }
+
+    /**
+     * Decode a single series.
+     *
+     * @return A write for the series, or {@code null} if it has no points.
+     */
+    private static Ingestion.Request series(
+        final ProtobufReader reader, final List<String> dictionary
+    ) throws ConsumerSchemaValidationException {
+        String key = null;
+        final TreeMap<String, String> tags = new TreeMap<>();
+
+        long[] timestamps = new long[0];
+        int timestampsSize = 0;
+        long timestamp = 0L;
+
+        double[] values = new double[0];
+        int valuesSize = 0;
+
+        while (reader.hasRemaining()) {
+            final int tag = reader.readTag();
+
+            switch (ProtobufReader.fieldNumber(tag)) {
+                case SERIES_KEY:
+                    expect(tag, ProtobufReader.LENGTH_DELIMITED);
+                    key = reader.readString();
+                    break;
+                case SERIES_TAGS:
+                    expect(tag, ProtobufReader.LENGTH_DELIMITED);
+                    final int previous = reader.pushLimit(reader.readLength());
+                    tag(reader, dictionary, tags);
+                    reader.popLimit(previous);
+                    break;
+                case SERIES_TIMESTAMPS:
+                    if (ProtobufReader.wireType(tag) == ProtobufReader.LENGTH_DELIMITED) {
+                        final int length = reader.readLength();
+                        final int count = reader.countVarints(length);
+                        timestamps = ensureCapacity(timestamps, timestampsSize + count);
+                        final int packed = reader.pushLimit(length);
+
+                        while (reader.hasRemaining()) {
+                            timestamp += reader.readSignedVarint();
+                            timestamps[timestampsSize++] = timestamp;
+                        }
+
+                        reader.popLimit(packed);
+                    } else {
+                        expect(tag, ProtobufReader.VARINT);
+                        timestamps = ensureCapacity(timestamps, timestampsSize + 1);
+                        timestamp += reader.readSignedVarint();
+                        timestamps[timestampsSize++] = timestamp;
+                    }
+                    break;
+                case SERIES_VALUES:
+                    if (ProtobufReader.wireType(tag) == ProtobufReader.LENGTH_DELIMITED) {
+                        final int length = reader.readLength();
+
+                        if (length % Double.BYTES != 0) {
+                            throw new ConsumerSchemaValidationException(
+                                "Packed values have an invalid length: " + length);
+                        }
+
+                        values = ensureCapacity(values, valuesSize + length / Double.BYTES);
+                        final int packed = reader.pushLimit(length);
+
+                        while (reader.hasRemaining()) {
+                            values[valuesSize++] = reader.readDouble();
+                        }
+
+                        reader.popLimit(packed);
+                    } else {
+                        expect(tag, ProtobufReader.FIXED64);
+                        values = ensureCapacity(values, valuesSize + 1);
+                        values[valuesSize++] = reader.readDouble();
+                    }
+                    break;
+                default:
+                    reader.skip(ProtobufReader.wireType(tag));
+                    break;
+            }
+        }
+
+        if (key == null) {
+            throw new ConsumerSchemaValidationException("Series must have a key");
+        }
+
+        if (timestampsSize != valuesSize) {
+            throw new ConsumerSchemaValidationException(
+                "Series " + key + " has " + timestampsSize + " timestamp(s) but " + valuesSize +
+                    " value(s)");
+        }
+
+        if (timestampsSize == 0) {
+            return null;
+        }
+
+        final PointColumns points = PointColumns.of(timestamps, values, timestampsSize).sorted();
+        return new Ingestion.Request(Series.ofSorted(key, tags), MetricCollection.points(points));
+    }
+
+    private static void tag(
+        final ProtobufReader reader, final List<String> dictionary,
+        final TreeMap<String, String> tags
+    ) throws ConsumerSchemaValidationException {
+        String key = null;
+        String value = null;
+
+        while (reader.hasRemaining()) {
+            final int tag = reader.readTag();
+
+            switch (ProtobufReader.fieldNumber(tag)) {
+                case TAG_KEY:
+                    expect(tag, ProtobufReader.LENGTH_DELIMITED);
+                    key = reader.readString();
+                    break;
+                case TAG_KEY_INDEX:
+                    expect(tag, ProtobufReader.VARINT);
+                    key = lookup(dictionary, reader.readVarint());
+                    break;
+                case TAG_VALUE:
+                    expect(tag, ProtobufReader.LENGTH_DELIMITED);
+                    value = reader.readString();
+                    break;
+                case TAG_VALUE_INDEX:
+                    expect(tag, ProtobufReader.VARINT);
+                    value = lookup(dictionary, reader.readVarint());
+                    break;
+                default:
+                    reader.skip(ProtobufReader.wireType(tag));
+                    break;
+            }
+        }
+
+        if (key == null || value == null) {
+            throw new ConsumerSchemaValidationException("Tag must have both a key and a value");
+        }
+
+        tags.put(key, value);
+    }
+
+    private static String lookup(final List<String> dictionary, final long index)
+        throws ConsumerSchemaValidationException {
+        if (index < 0 || index >= dictionary.size()) {
+            throw new ConsumerSchemaValidationException(
+                "Dictionary index " + index + " is out of bounds (size: " + dictionary.size() +
+                    ")");
+        }
+
+        return dictionary.get((int) index);
+    }
+
+    private static void expect(final int tag, final int wireType)
+        throws ConsumerSchemaValidationException {
+        if (ProtobufReader.wireType(tag) != wireType) {
+            throw new ConsumerSchemaValidationException(
+                "Field " + ProtobufReader.fieldNumber(tag) + " has wire type " +
+                    ProtobufReader.wireType(tag) + ", expected " + wireType);
+        }
+    }
+
+    private static long[] ensureCapacity(final long[] array, final int capacity) {
+        if (array.length >= capacity) {
+            return array;
+        }
+
+        return Arrays.copyOf(array, Math.max(capacity, array.length * 2));
+    }
+
+    private static double[] ensureCapacity(final double[] array, final int capacity) {
+        if (array.length >= capacity) {
+            return array;
+        }
+
+        return Arrays.copyOf(array, Math.max(capacity, array.length * 2));
+    }
+}
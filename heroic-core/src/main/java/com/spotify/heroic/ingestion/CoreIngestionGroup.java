@@ -26,7 +26,7 @@ import com.spotify.heroic.common.Collected;
 import com.spotify.heroic.common.DateRange;
 import com.spotify.heroic.common.Grouped;
 import com.spotify.heroic.common.Groups;
-import com.spotify.heroic.filter.Filter;
+import com.spotify.heroic.common.Series;
 import com.spotify.heroic.metadata.MetadataBackend;
 import com.spotify.heroic.metadata.WriteMetadata;
 import com.spotify.heroic.metric.Metric;
@@ -43,17 +43,20 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 
 @RequiredArgsConstructor
 public class CoreIngestionGroup implements IngestionGroup {
     private final AsyncFramework async;
-    private final Supplier<Filter> filter;
-    private final Semaphore writePermits;
+    private final Supplier<Predicate<Series>> filter;
+    private final WriteQueue writeQueue;
     private final IngestionManagerReporter reporter;
     private final LongAdder ingested;
+    private final Optional<WriteAheadLog.Writer> writeAhead;
+    private final Optional<WriteCoalescer.Writer> coalescer;
 
     private final Optional<MetricBackend> metric;
     private final Optional<MetadataBackend> metadata;
@@ -69,6 +72,11 @@ public class CoreIngestionGroup implements IngestionGroup {
     @Override
     public AsyncFuture<Ingestion> write(final Ingestion.Request request) {
         ingested.increment();
+
+        if (coalescer.isPresent()) {
+            return coalescer.get().write(request, this::syncWrite);
+        }
+
         return syncWrite(request);
     }
 
@@ -80,24 +88,12 @@ public class CoreIngestionGroup implements IngestionGroup {
     }
 
     protected AsyncFuture<Ingestion> syncWrite(final Ingestion.Request request) {
-        if (!filter.get().apply(request.getSeries())) {
+        if (!filter.get().test(request.getSeries())) {
             reporter.reportDroppedByFilter();
             return async.resolved(Ingestion.of(ImmutableList.of()));
         }
 
-        try {
-            writePermits.acquire();
-        } catch (final InterruptedException e) {
-            return async.failed(
-                new Exception("Failed to acquire semaphore for bounded request", e));
-        }
-
-        reporter.incrementConcurrentWrites();
-
-        return doWrite(request).onFinished(() -> {
-            writePermits.release();
-            reporter.decrementConcurrentWrites();
-        });
+        return writeQueue.submit(() -> doWrite(request));
     }
 
     protected AsyncFuture<Ingestion> doWrite(final Ingestion.Request request) {
@@ -115,6 +111,19 @@ public class CoreIngestionGroup implements IngestionGroup {
     protected AsyncFuture<Ingestion> doMetricWrite(
         final MetricBackend metric, final Ingestion.Request write
     ) {
+        if (writeAhead.isPresent()) {
+            final long start = System.nanoTime();
+
+            /* writes that are not accepted by the log are written directly */
+            final Optional<AsyncFuture<Void>> logged =
+                writeAhead.get().append(write.getSeries(), write.getData());
+
+            if (logged.isPresent()) {
+                return logged.get().directTransform(v -> Ingestion.of(
+                    TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start)));
+            }
+        }
+
         return metric
             .write(new WriteMetric.Request(write.getSeries(), write.getData()))
             .directTransform(Ingestion::fromWriteMetric);
@@ -21,7 +21,9 @@
 
 package com.spotify.heroic.ingestion;
 
+import com.google.common.collect.ImmutableMap;
 import com.spotify.heroic.common.Statistics;
+import com.spotify.heroic.filter.CompiledFilter;
 import com.spotify.heroic.filter.Filter;
 import com.spotify.heroic.metadata.MetadataBackend;
 import com.spotify.heroic.metadata.MetadataManager;
@@ -36,7 +38,6 @@ import eu.toolchain.async.AsyncFuture;
 import javax.inject.Inject;
 import javax.inject.Named;
 import java.util.Optional;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -55,8 +56,11 @@ public class IngestionManagerImpl implements IngestionManager {
     private final boolean updateSuggestions;
 
     private volatile Filter filter;
+    private volatile CompiledFilter compiledFilter;
 
-    private final Semaphore writePermits;
+    private final WriteQueue writeQueue;
+    private final WriteAheadLog writeAhead;
+    private final WriteCoalescer coalescer;
 
     private final LongAdder ingested = new LongAdder();
 
@@ -64,7 +68,9 @@ public class IngestionManagerImpl implements IngestionManager {
      * @param updateMetrics Ingested metrics will update metric backends.
      * @param updateMetadata Ingested metrics will update metadata backends.
      * @param updateSuggestions Ingested metrics will update suggest backends.
-     * @param maxConcurrentWrites Limit the number of concurrent writes, 0 means no limit at all
+     * @param writeQueue Limits the number of concurrent writes.
+     * @param writeAhead Write-ahead log that point writes are appended to, if it is enabled.
+     * @param coalescer Coalesces point writes to the same series, if it is enabled.
      */
     @Inject
     public IngestionManagerImpl(
@@ -73,7 +79,8 @@ public class IngestionManagerImpl implements IngestionManager {
         @Named("updateMetrics") final boolean updateMetrics,
         @Named("updateMetadata") final boolean updateMetadata,
         @Named("updateSuggestions") final boolean updateSuggestions,
-        @Named("maxConcurrentWrites") final int maxConcurrentWrites, final Filter filter
+        final Filter filter, final WriteQueue writeQueue, final WriteAheadLog writeAhead,
+        final WriteCoalescer coalescer
     ) {
         this.async = async;
         this.metadata = metadata;
@@ -85,19 +92,29 @@ public class IngestionManagerImpl implements IngestionManager {
         this.updateMetadata = updateMetadata;
         this.updateSuggestions = updateSuggestions;
         this.filter = filter;
+        this.compiledFilter = CompiledFilter.compile(filter);
 
-        this.writePermits = new Semaphore(maxConcurrentWrites);
+        this.writeQueue = writeQueue;
+        this.writeAhead = writeAhead;
+        this.coalescer = coalescer;
     }
 
     @Override
     public IngestionGroup useOptionalGroup(final Optional<String> group) {
-        return buildGroup(group, metric::useOptionalGroup, metadata::useOptionalGroup,
-            suggest::useOptionalGroup);
+        final Optional<WriteAheadLog.Writer> writer =
+            optionally(updateMetrics && writeAhead.isEnabled(), () -> writeAhead.writer(group));
+
+        final Optional<WriteCoalescer.Writer> coalesce =
+            optionally(coalescer.isEnabled(), () -> coalescer.writer(group));
+
+        return buildGroup(group, writer, coalesce, metric::useOptionalGroup,
+            metadata::useOptionalGroup, suggest::useOptionalGroup);
     }
 
     @Override
     public AsyncFuture<Void> setFilter(Filter filter) {
-        this.filter = checkNotNull(filter, "filter");
+        this.compiledFilter = CompiledFilter.compile(checkNotNull(filter, "filter"));
+        this.filter = filter;
         return async.resolved();
     }
 
@@ -108,21 +125,47 @@ public class IngestionManagerImpl implements IngestionManager {
 
     @Override
     public Statistics getStatistics() {
-        return Statistics.of(INGESTED, ingested.sum(), AVAILABLE_WRITE_PERMITS,
-            writePermits.availablePermits());
+        final ImmutableMap.Builder<String, Long> statistics = ImmutableMap.builder();
+
+        statistics.put(INGESTED, ingested.sum());
+        statistics.put(AVAILABLE_WRITE_PERMITS, writeQueue.availablePermits());
+        statistics.put(PENDING_WRITES, writeQueue.pendingWrites());
+
+        if (writeAhead.isEnabled()) {
+            statistics.put(WRITE_AHEAD_PENDING_BYTES, writeAhead.pendingBytes());
+            statistics.put(WRITE_AHEAD_LAG, writeAhead.lag());
+            statistics.put(WRITE_AHEAD_OVERFLOWED, writeAhead.overflowed());
+        }
+
+        if (coalescer.isEnabled()) {
+            statistics.put(COALESCED_WRITES, coalescer.coalescedWrites());
+            statistics.put(COALESCE_FLUSHES, coalescer.flushes());
+            statistics.put(COALESCE_BUFFERED_POINTS, coalescer.bufferedPoints());
+        }
+
+        return Statistics.of(statistics.build());
+    }
+
+    @Override
+    public AsyncFuture<Void> writeCapacity() {
+        return writeQueue.capacity();
     }
 
     private <I> IngestionGroup buildGroup(
-        final I input, Function<I, MetricBackend> metric, Function<I, MetadataBackend> metadata,
+        final I input, final Optional<WriteAheadLog.Writer> writer,
+        final Optional<WriteCoalescer.Writer> coalesce,
+        Function<I, MetricBackend> metric, Function<I, MetadataBackend> metadata,
         Function<I, SuggestBackend> suggest
     ) {
         // @formatter:off
         return new CoreIngestionGroup(
             async,
-            () -> filter,
-            writePermits,
+            () -> compiledFilter,
+            writeQueue,
             reporter,
             ingested,
+            writer,
+            coalesce,
 
             optionally(updateMetrics, () -> metric.apply(input)),
             optionally(updateMetadata, () -> metadata.apply(input)),
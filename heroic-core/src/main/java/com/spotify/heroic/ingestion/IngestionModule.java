@@ -21,12 +21,16 @@
 
 package com.spotify.heroic.ingestion;
 
+import com.google.common.collect.ImmutableList;
 import com.spotify.heroic.ExtraParameters;
+import com.spotify.heroic.common.Duration;
 import com.spotify.heroic.common.Optionals;
 import com.spotify.heroic.dagger.PrimaryComponent;
 import com.spotify.heroic.filter.Filter;
 import com.spotify.heroic.filter.TrueFilter;
 import com.spotify.heroic.grammar.QueryParser;
+import com.spotify.heroic.lifecycle.LifeCycle;
+import com.spotify.heroic.lifecycle.LifeCycleManager;
 import com.spotify.heroic.metadata.MetadataComponent;
 import com.spotify.heroic.metric.MetricComponent;
 import com.spotify.heroic.statistics.HeroicReporter;
@@ -41,6 +45,8 @@ import lombok.NoArgsConstructor;
 import lombok.RequiredArgsConstructor;
 
 import javax.inject.Named;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Optional;
 
 import static com.spotify.heroic.common.Optionals.pickOptional;
@@ -55,13 +61,63 @@ public class IngestionModule {
     public static final boolean DEFAULT_UPDATE_METADATA = true;
     public static final boolean DEFAULT_UPDATE_SUGGESTIONS = true;
     public static final int DEFAULT_MAX_CONCURRENT_WRITES = 50000;
+    public static final int DEFAULT_MAX_PENDING_WRITES = 100000;
+    public static final WriteQueue.OverflowPolicy DEFAULT_WRITE_OVERFLOW_POLICY =
+        WriteQueue.OverflowPolicy.REJECT;
+    public static final long DEFAULT_WRITE_AHEAD_LOG_MAX_SIZE = 1024L * 1024 * 1024;
+    public static final boolean DEFAULT_WRITE_AHEAD_LOG_SYNC = true;
+    public static final int DEFAULT_COALESCE_MAX_POINTS = 1000;
+    public static final long DEFAULT_COALESCE_MAX_BUFFERED_POINTS = 1000000L;
 
     private final boolean updateMetrics;
     private final boolean updateMetadata;
     private final boolean updateSuggestions;
     private final int maxConcurrentWrites;
+
+    /**
+     * Maximum number of writes waiting for one of the concurrent writes to finish.
+     */
+    private final int maxPendingWrites;
+
+    /**
+     * What to do with new writes when the queue of pending writes is full.
+     */
+    private final WriteQueue.OverflowPolicy writeOverflowPolicy;
     private final Optional<String> filter;
 
+    /**
+     * Directory of a write-ahead log for point writes, which are then drained into the metric
+     * backends at the rate they sustain. Empty disables the log.
+     */
+    private final Optional<String> writeAheadLog;
+
+    /**
+     * Maximum number of undrained bytes in the write-ahead log. Writes beyond it are written to
+     * the metric backends directly.
+     */
+    private final long writeAheadLogMaxSize;
+
+    /**
+     * Force appends to the write-ahead log to disk before acknowledging them.
+     */
+    private final boolean writeAheadLogSync;
+
+    /**
+     * How long to buffer point writes to the same series, so that they are written as a single
+     * request. Empty disables coalescing.
+     */
+    private final Optional<Duration> coalesceWindow;
+
+    /**
+     * Number of buffered points for a single series that causes them to be written immediately.
+     */
+    private final int coalesceMaxPoints;
+
+    /**
+     * Maximum number of buffered points in total. Writes beyond it are not coalesced.
+     */
+    private final long coalesceMaxBufferedPoints;
+
     public IngestionComponent module(
         PrimaryComponent primary, SuggestComponent suggest, MetadataComponent metadata,
         MetricComponent metric
@@ -85,6 +141,10 @@ public class IngestionModule {
     interface C extends IngestionComponent {
         @Override
         IngestionManagerImpl ingestionManager();
+
+        @Override
+        @Named("ingestion")
+        LifeCycle ingestionLife();
     }
 
     @Module
@@ -123,6 +183,73 @@ public class IngestionModule {
             return maxConcurrentWrites;
         }
 
+        @Provides
+        @Named("maxPendingWrites")
+        @IngestionScope
+        public int maxPendingWrites() {
+            return maxPendingWrites;
+        }
+
+        @Provides
+        @Named("writeOverflowPolicy")
+        @IngestionScope
+        public WriteQueue.OverflowPolicy writeOverflowPolicy() {
+            return writeOverflowPolicy;
+        }
+
+        @Provides
+        @Named("writeAheadLog")
+        @IngestionScope
+        public Optional<Path> writeAheadLog() {
+            return writeAheadLog.map(Paths::get);
+        }
+
+        @Provides
+        @Named("writeAheadLogMaxSize")
+        @IngestionScope
+        public long writeAheadLogMaxSize() {
+            return writeAheadLogMaxSize;
+        }
+
+        @Provides
+        @Named("writeAheadLogSync")
+        @IngestionScope
+        public boolean writeAheadLogSync() {
+            return writeAheadLogSync;
+        }
+
+        @Provides
+        @Named("coalesceWindow")
+        @IngestionScope
+        public Optional<Long> coalesceWindow() {
+            return coalesceWindow.map(Duration::toMilliseconds);
+        }
+
+        @Provides
+        @Named("coalesceMaxPoints")
+        @IngestionScope
+        public int coalesceMaxPoints() {
+            return coalesceMaxPoints;
+        }
+
+        @Provides
+        @Named("coalesceMaxBufferedPoints")
+        @IngestionScope
+        public long coalesceMaxBufferedPoints() {
+            return coalesceMaxBufferedPoints;
+        }
+
+        @Provides
+        @Named("ingestion")
+        @IngestionScope
+        public LifeCycle ingestionLife(
+            final LifeCycleManager manager, final WriteAheadLog log,
+            final WriteCoalescer coalescer
+        ) {
+            return LifeCycle.combined(
+                ImmutableList.of(manager.build(log), manager.build(coalescer)));
+        }
+
         @Provides
         @IngestionScope
         public Filter filter(
@@ -146,7 +273,15 @@ public class IngestionModule {
         private Optional<Boolean> updateMetadata = empty();
         private Optional<Boolean> updateSuggestions = empty();
         private Optional<Integer> maxConcurrentWrites = empty();
+        private Optional<Integer> maxPendingWrites = empty();
+        private Optional<WriteQueue.OverflowPolicy> writeOverflowPolicy = empty();
         private Optional<String> filter = empty();
+        private Optional<String> writeAheadLog = empty();
+        private Optional<Long> writeAheadLogMaxSize = empty();
+        private Optional<Boolean> writeAheadLogSync = empty();
+        private Optional<Duration> coalesceWindow = empty();
+        private Optional<Integer> coalesceMaxPoints = empty();
+        private Optional<Long> coalesceMaxBufferedPoints = empty();
 
         public Builder updateAll() {
             this.updateMetrics = of(true);
@@ -175,6 +310,46 @@ public class IngestionModule {
             return this;
         }
 
+        public Builder maxPendingWrites(int maxPendingWrites) {
+            this.maxPendingWrites = of(maxPendingWrites);
+            return this;
+        }
+
+        public Builder writeOverflowPolicy(WriteQueue.OverflowPolicy writeOverflowPolicy) {
+            this.writeOverflowPolicy = of(writeOverflowPolicy);
+            return this;
+        }
+
+        public Builder writeAheadLog(String writeAheadLog) {
+            this.writeAheadLog = of(writeAheadLog);
+            return this;
+        }
+
+        public Builder writeAheadLogMaxSize(long writeAheadLogMaxSize) {
+            this.writeAheadLogMaxSize = of(writeAheadLogMaxSize);
+            return this;
+        }
+
+        public Builder writeAheadLogSync(boolean writeAheadLogSync) {
+            this.writeAheadLogSync = of(writeAheadLogSync);
+            return this;
+        }
+
+        public Builder coalesceWindow(Duration coalesceWindow) {
+            this.coalesceWindow = of(coalesceWindow);
+            return this;
+        }
+
+        public Builder coalesceMaxPoints(int coalesceMaxPoints) {
+            this.coalesceMaxPoints = of(coalesceMaxPoints);
+            return this;
+        }
+
+        public Builder coalesceMaxBufferedPoints(long coalesceMaxBufferedPoints) {
+            this.coalesceMaxBufferedPoints = of(coalesceMaxBufferedPoints);
+            return this;
+        }
+
         public Builder merge(final Builder o) {
             // @formatter:off
             return new Builder(
@@ -182,7 +357,15 @@ public class IngestionModule {
                 pickOptional(updateMetadata, o.updateMetadata),
                 pickOptional(updateSuggestions, o.updateSuggestions),
                 pickOptional(maxConcurrentWrites, o.maxConcurrentWrites),
-                pickOptional(filter, o.filter)
+                pickOptional(maxPendingWrites, o.maxPendingWrites),
+                pickOptional(writeOverflowPolicy, o.writeOverflowPolicy),
+                pickOptional(filter, o.filter),
+                pickOptional(writeAheadLog, o.writeAheadLog),
+                pickOptional(writeAheadLogMaxSize, o.writeAheadLogMaxSize),
+                pickOptional(writeAheadLogSync, o.writeAheadLogSync),
+                pickOptional(coalesceWindow, o.coalesceWindow),
+                pickOptional(coalesceMaxPoints, o.coalesceMaxPoints),
+                pickOptional(coalesceMaxBufferedPoints, o.coalesceMaxBufferedPoints)
             );
             // @formatter:on
         }
@@ -194,7 +377,15 @@ public class IngestionModule {
                 updateMetadata.orElse(DEFAULT_UPDATE_METADATA),
                 updateSuggestions.orElse(DEFAULT_UPDATE_SUGGESTIONS),
                 maxConcurrentWrites.orElse(DEFAULT_MAX_CONCURRENT_WRITES),
-                filter
+                maxPendingWrites.orElse(DEFAULT_MAX_PENDING_WRITES),
+                writeOverflowPolicy.orElse(DEFAULT_WRITE_OVERFLOW_POLICY),
+                filter,
+                writeAheadLog,
+                writeAheadLogMaxSize.orElse(DEFAULT_WRITE_AHEAD_LOG_MAX_SIZE),
+                writeAheadLogSync.orElse(DEFAULT_WRITE_AHEAD_LOG_SYNC),
+                coalesceWindow,
+                coalesceMaxPoints.orElse(DEFAULT_COALESCE_MAX_POINTS),
+                coalesceMaxBufferedPoints.orElse(DEFAULT_COALESCE_MAX_BUFFERED_POINTS)
             );
             // @formatter:on
         }
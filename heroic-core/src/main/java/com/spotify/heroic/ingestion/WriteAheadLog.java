@@ -0,0 +1,1042 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.ingestion;
+
+import com.spotify.heroic.common.Series;
+import com.spotify.heroic.lifecycle.LifeCycleRegistry;
+import com.spotify.heroic.lifecycle.LifeCycles;
+import com.spotify.heroic.metric.GorillaDecoder;
+import com.spotify.heroic.metric.GorillaEncoder;
+import com.spotify.heroic.metric.MetricCollection;
+import com.spotify.heroic.metric.MetricManager;
+import com.spotify.heroic.metric.MetricType;
+import com.spotify.heroic.metric.PointColumns;
+import com.spotify.heroic.metric.WriteMetric;
+import com.spotify.heroic.statistics.IngestionManagerReporter;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.ResolvableFuture;
+import lombok.Data;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * A disk-backed write-ahead log for point writes, which decouples ingestion from the rate that
+ * metric backends can sustain.
+ * <p>
+ * Writes are appended to segment files in the configured directory and acknowledged once they
+ * have been forced to disk. Appends that arrive while a sync is in progress are forced together
+ * in the next sync. A drainer thread reads the log in batches and replays them into the metric
+ * backend group they were written for, retrying failed writes with a backoff. The position of
+ * the drainer is only advanced and checkpointed once a batch has been replayed, and fully drained
+ * segments are deleted.
+ * <p>
+ * Records which are corrupt, or which still fail after {@link #MAX_ATTEMPTS} attempts, are moved
+ * to the dead-letter file in the same directory, so that they do not block the rest of the log.
+ * <p>
+ * The log is bounded by a maximum size of undrained data. Writes which would exceed it are not
+ * accepted, and are expected to be written to the backend directly. On restart, records after
+ * the checkpoint are replayed, so every write is written to the backend at least once.
+ * <p>
+ * Only points are logged, other types of metrics are not accepted.
+ */
+@Slf4j
+@ToString(of = {"path", "maxSize"})
+@IngestionScope
+public class WriteAheadLog implements LifeCycles {
+    public static final String SEGMENT_SUFFIX = ".wal";
+    public static final String CHECKPOINT = "checkpoint";
+    public static final String DEAD_LETTERS = "dead-letters";
+
+    /* header: payload length, payload crc */
+    static final int HEADER_SIZE = Integer.BYTES * 2;
+    static final long MAX_SEGMENT_SIZE = 64L * 1024 * 1024;
+    static final int DRAIN_BATCH_SIZE = 1000;
+    static final int MAX_ATTEMPTS = 20;
+
+    private static final long MIN_RETRY_DELAY = 100L;
+    private static final long MAX_RETRY_DELAY = 10000L;
+    private static final long IDLE_WAIT = 100L;
+
+    private final AsyncFramework async;
+    private final MetricManager metric;
+    private final IngestionManagerReporter reporter;
+    private final Optional<Path> path;
+    private final long maxSize;
+    private final long segmentSize;
+    private final boolean sync;
+
+    /* segments by sequence number, the last segment is the one being appended to */
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    /* guards all append state, and is notified when records are appended */
+    private final Object lock = new Object();
+    private Segment current;
+    private FileChannel output;
+    private List<ResolvableFuture<Void>> pending = new ArrayList<>();
+    /* number of undrained bytes in the log */
+    private long size = 0L;
+
+    /* drainer state, only accessed by the drainer */
+    private long readSegment;
+    private long readOffset;
+    private long inputSegment;
+    private FileChannel input;
+
+    private final LongAdder overflowed = new LongAdder();
+    private volatile long replaying = 0L;
+    private volatile boolean stopped = false;
+
+    private Thread syncThread;
+    private Thread drainThread;
+
+    /**
+     * @param path Directory to store the log in, empty disables the log.
+     * @param maxSize Maximum number of undrained bytes in the log.
+     * @param sync Force appends to disk before they are acknowledged.
+     */
+    @Inject
+    public WriteAheadLog(
+        final AsyncFramework async, final MetricManager metric,
+        final IngestionManagerReporter reporter,
+        @Named("writeAheadLog") final Optional<Path> path,
+        @Named("writeAheadLogMaxSize") final long maxSize,
+        @Named("writeAheadLogSync") final boolean sync
+    ) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("write-ahead log size must be positive");
+        }
+
+        this.async = async;
+        this.metric = metric;
+        this.reporter = reporter;
+        this.path = path;
+        this.maxSize = maxSize;
+        this.segmentSize = Math.min(MAX_SEGMENT_SIZE, Math.max(maxSize / 8, 1L));
+        this.sync = sync;
+    }
+
+    public boolean isEnabled() {
+        return path.isPresent();
+    }
+
+    @Override
+    public void register(final LifeCycleRegistry registry) {
+        registry.start(this::start);
+        registry.stop(this::stop);
+    }
+
+    /**
+     * Get a writer which appends writes for the given backend group.
+     */
+    public Writer writer(final Optional<String> group) {
+        return new Writer(group);
+    }
+
+    /**
+     * Number of bytes in the log which have not been drained.
+     */
+    public long pendingBytes() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    /**
+     * How long ago the oldest record being drained was appended, in milliseconds.
+     */
+    public long lag() {
+        final long oldest = replaying;
+        return oldest == 0L ? 0L : Math.max(System.currentTimeMillis() - oldest, 0L);
+    }
+
+    public long overflowed() {
+        return overflowed.sum();
+    }
+
+    @ToString(of = {"group"})
+    public class Writer {
+        private final Optional<String> group;
+
+        private Writer(final Optional<String> group) {
+            this.group = group;
+        }
+
+        /**
+         * Append the given write to the log.
+         *
+         * @return A future that is resolved when the write is durable, or empty if the write was
+         * not accepted and should be written directly.
+         */
+        public Optional<AsyncFuture<Void>> append(
+            final Series series, final MetricCollection data
+        ) {
+            if (data.getType() != MetricType.POINT || data.isEmpty()) {
+                return Optional.empty();
+            }
+
+            final byte[] record;
+
+            try {
+                record = encode(group, series, data.getPointColumns(),
+                    System.currentTimeMillis());
+            } catch (final IOException e) {
+                throw new RuntimeException("failed to encode record", e);
+            }
+
+            return WriteAheadLog.this.append(record);
+        }
+    }
+
+    Optional<AsyncFuture<Void>> append(final byte[] record) {
+        synchronized (lock) {
+            if (stopped || output == null) {
+                return Optional.empty();
+            }
+
+            if (size + record.length > maxSize) {
+                overflowed.increment();
+                reporter.reportWriteAheadOverflow();
+                return Optional.empty();
+            }
+
+            try {
+                if (current.size > 0 && current.size + record.length > segmentSize) {
+                    roll();
+                }
+
+                final ByteBuffer buffer = ByteBuffer.wrap(record);
+
+                while (buffer.hasRemaining()) {
+                    output.write(buffer);
+                }
+            } catch (final IOException e) {
+                log.error("{}: failed to append to write-ahead log", current.path, e);
+                rollQuietly();
+                return Optional.empty();
+            }
+
+            /* only published once completely written, readers never see partial records */
+            current.size += record.length;
+            size += record.length;
+            reporter.reportWriteAheadAppended(record.length);
+            lock.notifyAll();
+
+            if (!sync) {
+                return Optional.of(async.resolved());
+            }
+
+            final ResolvableFuture<Void> future = async.future();
+            pending.add(future);
+            return Optional.of(future);
+        }
+    }
+
+    /**
+     * Replay one batch of records into the backends, retrying until all of them succeed or are
+     * moved to the dead-letter file.
+     * <p>
+     * The read position is only advanced when the batch is committed, so a batch which fails to
+     * replay is read again.
+     *
+     * @return The number of records drained.
+     */
+    int drain() throws IOException, InterruptedException {
+        final Batch batch = read(DRAIN_BATCH_SIZE);
+        final List<Record> records = batch.getRecords();
+
+        if (records.isEmpty()) {
+            /* commit skipped records and segments */
+            if (batch.getSegment() != readSegment || batch.getOffset() != readOffset) {
+                commit(batch);
+            }
+
+            return 0;
+        }
+
+        replaying = records.get(0).getAppended();
+
+        try {
+            if (!replay(batch)) {
+                return 0;
+            }
+
+            commit(batch);
+        } finally {
+            replaying = 0L;
+        }
+
+        return records.size();
+    }
+
+    /**
+     * Open the log, recovering all segments and the checkpoint of the drainer.
+     */
+    void open() throws IOException {
+        final Path directory = path.get();
+        Files.createDirectories(directory);
+
+        final Checkpoint checkpoint = readCheckpoint(directory.resolve(CHECKPOINT));
+        final TreeMap<Long, Path> files = new TreeMap<>();
+
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (final Path file : stream) {
+                final String name = file.getFileName().toString();
+
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    files.put(Long.parseLong(
+                        name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+                }
+            }
+        }
+
+        long pendingSize = 0L;
+
+        for (final Map.Entry<Long, Path> e : files.entrySet()) {
+            if (e.getKey() < checkpoint.getSegment()) {
+                Files.delete(e.getValue());
+                continue;
+            }
+
+            final long valid = recover(e.getValue());
+
+            if (valid == 0L) {
+                Files.delete(e.getValue());
+                continue;
+            }
+
+            segments.put(e.getKey(), new Segment(e.getKey(), e.getValue(), valid));
+
+            if (e.getKey() == checkpoint.getSegment()) {
+                pendingSize += Math.max(valid - checkpoint.getOffset(), 0L);
+            } else {
+                pendingSize += valid;
+            }
+        }
+
+        /* the checkpointed segment might have been empty and removed, and then be recreated */
+        readSegment = checkpoint.getSegment();
+        readOffset = segments.containsKey(readSegment) ? checkpoint.getOffset() : 0L;
+
+        final int recovered = segments.size();
+
+        synchronized (lock) {
+            size = pendingSize;
+            createSegment(segments.isEmpty() ? checkpoint.getSegment() : segments.lastKey() + 1);
+        }
+
+        reporter.reportWriteAheadAppended(pendingSize);
+        log.info("{}: recovered write-ahead log with {} undrained byte(s) in {} segment(s)",
+            directory, pendingSize, recovered);
+    }
+
+    /**
+     * Force all outstanding appends to disk, and resolve their futures.
+     *
+     * @return {@code false} if there was nothing to sync and the log is stopped.
+     */
+    boolean sync() throws InterruptedException {
+        final List<ResolvableFuture<Void>> batch;
+        final FileChannel channel;
+        final Segment segment;
+
+        synchronized (lock) {
+            while (pending.isEmpty() && !stopped) {
+                lock.wait();
+            }
+
+            if (pending.isEmpty()) {
+                return false;
+            }
+
+            batch = pending;
+            pending = new ArrayList<>();
+            channel = output;
+            segment = current;
+        }
+
+        try {
+            force(channel, segment);
+        } catch (final IOException e) {
+            fail(batch, e);
+            return true;
+        }
+
+        for (final ResolvableFuture<Void> future : batch) {
+            future.resolve(null);
+        }
+
+        return true;
+    }
+
+    void close() throws IOException {
+        synchronized (lock) {
+            if (output != null) {
+                output.force(false);
+                current.forced = true;
+                output.close();
+                output = null;
+            }
+        }
+
+        closeInput();
+    }
+
+    private AsyncFuture<Void> start() {
+        if (!path.isPresent()) {
+            return async.resolved();
+        }
+
+        return async.call(() -> {
+            open();
+
+            syncThread = new Thread(this::syncLoop, "heroic-write-ahead-sync");
+            drainThread = new Thread(this::drainLoop, "heroic-write-ahead-drain");
+            syncThread.start();
+            drainThread.start();
+            return null;
+        });
+    }
+
+    private AsyncFuture<Void> stop() {
+        if (!path.isPresent()) {
+            return async.resolved();
+        }
+
+        synchronized (lock) {
+            stopped = true;
+            lock.notifyAll();
+        }
+
+        return async.call(() -> {
+            /* outstanding appends are synced before the sync thread exits */
+            syncThread.join();
+            drainThread.interrupt();
+            drainThread.join();
+            close();
+            return null;
+        });
+    }
+
+    private void syncLoop() {
+        try {
+            while (sync()) {
+                /* sync until stopped */
+            }
+        } catch (final InterruptedException e) {
+            log.warn("write-ahead log sync interrupted");
+        }
+    }
+
+    private void drainLoop() {
+        while (!stopped) {
+            try {
+                if (drain() > 0) {
+                    continue;
+                }
+
+                synchronized (lock) {
+                    if (!stopped) {
+                        lock.wait(IDLE_WAIT);
+                    }
+                }
+            } catch (final InterruptedException e) {
+                return;
+            } catch (final Exception e) {
+                log.error("failed to drain write-ahead log", e);
+
+                try {
+                    Thread.sleep(MAX_RETRY_DELAY);
+                } catch (final InterruptedException i) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write all records of the batch, retrying the failed ones with an exponential backoff.
+     * Records which still fail after {@link #MAX_ATTEMPTS} attempts are added to the dead letters
+     * of the batch.
+     *
+     * @return {@code false} if the log was stopped before all records were written.
+     */
+    private boolean replay(final Batch batch) throws IOException, InterruptedException {
+        List<Record> remaining = batch.getRecords();
+        long delay = MIN_RETRY_DELAY;
+
+        for (int attempt = 1; !remaining.isEmpty(); attempt++) {
+            final List<AsyncFuture<WriteMetric>> futures = new ArrayList<>(remaining.size());
+
+            for (final Record r : remaining) {
+                futures.add(write(r));
+            }
+
+            final List<Record> failed = new ArrayList<>();
+            final Iterator<Record> records = remaining.iterator();
+
+            for (final AsyncFuture<WriteMetric> future : futures) {
+                final Record r = records.next();
+
+                try {
+                    if (!future.get().getErrors().isEmpty()) {
+                        failed.add(r);
+                    }
+                } catch (final ExecutionException e) {
+                    failed.add(r);
+                }
+            }
+
+            if (failed.isEmpty()) {
+                return true;
+            }
+
+            if (stopped) {
+                return false;
+            }
+
+            if (attempt >= MAX_ATTEMPTS) {
+                log.error("{} write(s) from the write-ahead log failed {} times, moving them to "
+                    + "the dead-letter file", failed.size(), attempt);
+
+                for (final Record r : failed) {
+                    batch.getDeadLetters().add(encode(r.getGroup(), r.getSeries(),
+                        r.getData().getPointColumns(), r.getAppended()));
+                }
+
+                return true;
+            }
+
+            log.warn("{} write(s) from the write-ahead log failed, retrying in {}ms",
+                failed.size(), delay);
+            reporter.reportWriteAheadRetries(failed.size());
+
+            Thread.sleep(delay);
+            delay = Math.min(delay * 2, MAX_RETRY_DELAY);
+            remaining = failed;
+        }
+
+        return true;
+    }
+
+    private AsyncFuture<WriteMetric> write(final Record r) {
+        try {
+            return metric
+                .useOptionalGroup(r.getGroup())
+                .write(new WriteMetric.Request(r.getSeries(), r.getData()));
+        } catch (final Exception e) {
+            return async.failed(e);
+        }
+    }
+
+    /**
+     * Read up to the given number of records, starting at the read position. The read position
+     * itself is not advanced until the batch is committed.
+     */
+    private Batch read(final int max) throws IOException {
+        final Batch batch = new Batch(readSegment, readOffset);
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+        while (batch.getRecords().size() < max) {
+            final Map.Entry<Long, Segment> entry = segments.ceilingEntry(batch.getSegment());
+
+            if (entry == null) {
+                break;
+            }
+
+            final Segment segment = entry.getValue();
+            final long offset = segment.seq == batch.getSegment() ? batch.getOffset() : 0L;
+
+            /* check before reading the size, the size of a rolled segment is final */
+            final boolean active = segment == current();
+
+            if (offset + HEADER_SIZE > segment.size) {
+                if (active) {
+                    batch.moveTo(segment.seq, offset);
+                    break;
+                }
+
+                batch.moveTo(segment.seq + 1, 0L);
+                continue;
+            }
+
+            final FileChannel channel = input(segment);
+
+            header.clear();
+            readFully(channel, header, offset);
+
+            final int length = header.getInt(0);
+
+            if (length < 0 || offset + HEADER_SIZE + length > segment.size) {
+                /* the start of the next record is unknown, so the rest of the segment is lost */
+                final long skipped = skipRest(segment, offset);
+                log.error("{}: corrupt record length at {}, skipping {} byte(s)", segment.path,
+                    offset, skipped);
+                batch.skip(skipped);
+                batch.moveTo(segment.seq + 1, 0L);
+                continue;
+            }
+
+            final ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+            readFully(channel, record, offset);
+
+            final long end = offset + record.capacity();
+            batch.moveTo(segment.seq, end);
+
+            final CRC32 crc = new CRC32();
+            crc.update(record.array(), HEADER_SIZE, length);
+
+            if ((int) crc.getValue() != header.getInt(Integer.BYTES)) {
+                log.error("{}: corrupt record at {}, moving it to the dead-letter file",
+                    segment.path, offset);
+                batch.deadLetter(record.array());
+                continue;
+            }
+
+            final byte[] payload =
+                Arrays.copyOfRange(record.array(), HEADER_SIZE, record.capacity());
+
+            try {
+                batch.getRecords().add(decode(payload, segment.seq, end));
+            } catch (final Exception e) {
+                log.error("{}: failed to decode record at {}, moving it to the dead-letter file",
+                    segment.path, offset, e);
+                batch.deadLetter(record.array());
+            }
+        }
+
+        return batch;
+    }
+
+    /**
+     * Mark everything up until the end of the batch as drained.
+     */
+    private void commit(final Batch batch) throws IOException {
+        final Path directory = path.get();
+        final List<Record> records = batch.getRecords();
+
+        /* written before the checkpoint, so that no dead letter is lost */
+        if (!batch.getDeadLetters().isEmpty()) {
+            writeDeadLetters(directory.resolve(DEAD_LETTERS), batch.getDeadLetters());
+            reporter.reportWriteAheadDeadLetters(batch.getDeadLetters().size());
+        }
+
+        writeCheckpoint(directory.resolve(CHECKPOINT),
+            new Checkpoint(batch.getSegment(), batch.getOffset()));
+
+        readSegment = batch.getSegment();
+        readOffset = batch.getOffset();
+
+        long drained = batch.getSkipped();
+
+        for (final Record r : records) {
+            drained += r.getSize();
+        }
+
+        synchronized (lock) {
+            size -= drained;
+        }
+
+        reporter.reportWriteAheadDrained(drained);
+
+        if (!records.isEmpty()) {
+            reporter.reportWriteAheadLag(
+                System.currentTimeMillis() - records.get(records.size() - 1).getAppended());
+        }
+
+        /* all segments before the checkpoint have been drained */
+        for (final Segment segment : segments.headMap(readSegment).values()) {
+            if (segment == current()) {
+                continue;
+            }
+
+            if (segment.seq == inputSegment) {
+                closeInput();
+            }
+
+            segments.remove(segment.seq);
+            Files.deleteIfExists(segment.path);
+        }
+    }
+
+    /**
+     * Skip everything in the given segment from the given offset. If it is the active segment,
+     * it is rolled first so that later appends are not skipped with it.
+     *
+     * @return The number of bytes skipped.
+     */
+    private long skipRest(final Segment segment, final long offset) throws IOException {
+        synchronized (lock) {
+            if (segment == current && output != null) {
+                roll();
+            }
+
+            return segment.size - offset;
+        }
+    }
+
+    private FileChannel input(final Segment segment) throws IOException {
+        if (input != null && inputSegment == segment.seq) {
+            return input;
+        }
+
+        closeInput();
+        input = FileChannel.open(segment.path, StandardOpenOption.READ);
+        inputSegment = segment.seq;
+        return input;
+    }
+
+    private void closeInput() throws IOException {
+        if (input != null) {
+            input.close();
+            input = null;
+        }
+    }
+
+    private Segment current() {
+        synchronized (lock) {
+            return current;
+        }
+    }
+
+    private void roll() throws IOException {
+        output.force(false);
+        current.forced = true;
+        output.close();
+        createSegment(current.seq + 1);
+    }
+
+    /**
+     * Roll after a failed append. Outstanding appends are failed if the segment can not be forced
+     * before it is closed.
+     */
+    private void rollQuietly() {
+        try {
+            output.force(false);
+            current.forced = true;
+        } catch (final IOException e) {
+            log.error("{}: failed to force write-ahead log segment", current.path, e);
+            fail(pending, e);
+            pending = new ArrayList<>();
+        }
+
+        try {
+            output.close();
+            createSegment(current.seq + 1);
+        } catch (final IOException e) {
+            log.error("failed to roll write-ahead log, disabling it", e);
+            output = null;
+        }
+    }
+
+    private void createSegment(final long seq) throws IOException {
+        final Path file = path.get().resolve(String.format("%020d%s", seq, SEGMENT_SUFFIX));
+        output = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        current = new Segment(seq, file, 0L);
+        segments.put(seq, current);
+    }
+
+    /**
+     * Force the given segment to disk. A segment which has been closed is durable if it was
+     * forced before it was closed.
+     */
+    private static void force(final FileChannel channel, final Segment segment)
+        throws IOException {
+        if (channel != null) {
+            try {
+                channel.force(false);
+                return;
+            } catch (final ClosedChannelException e) {
+                /* the segment was rolled */
+            }
+        }
+
+        if (!segment.forced) {
+            throw new IOException(segment.path + ": segment was closed before it was forced");
+        }
+    }
+
+    private static void fail(final List<ResolvableFuture<Void>> futures, final Throwable cause) {
+        for (final ResolvableFuture<Void> future : futures) {
+            future.fail(cause);
+        }
+    }
+
+    /**
+     * Find the end of the last valid record in the given segment file, and truncate anything
+     * after it. Corrupt records followed by valid ones are kept, and moved to the dead-letter
+     * file when drained.
+     */
+    private static long recover(final Path file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+            final long length = channel.size();
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+            long position = 0L;
+            long valid = 0L;
+
+            while (position + HEADER_SIZE <= length) {
+                header.clear();
+                readFully(channel, header, position);
+
+                final int size = header.getInt(0);
+
+                if (size < 0 || position + HEADER_SIZE + size > length) {
+                    break;
+                }
+
+                final ByteBuffer payload = ByteBuffer.allocate(size);
+                readFully(channel, payload, position + HEADER_SIZE);
+
+                final CRC32 crc = new CRC32();
+                crc.update(payload.array(), 0, size);
+
+                position += HEADER_SIZE + size;
+
+                if ((int) crc.getValue() == header.getInt(Integer.BYTES)) {
+                    valid = position;
+                }
+            }
+
+            if (valid < length) {
+                log.warn("{}: truncating partially written record at {}", file, valid);
+                channel.truncate(valid);
+            }
+
+            return valid;
+        }
+    }
+
+    private static void readFully(
+        final FileChannel channel, final ByteBuffer buffer, final long position
+    ) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of file");
+            }
+        }
+    }
+
+    static byte[] encode(
+        final Optional<String> group, final Series series, final PointColumns points,
+        final long appended
+    ) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        /* reserve space for the header */
+        out.writeLong(0L);
+
+        out.writeLong(appended);
+        writeString(out, group.orElse(null));
+        writeString(out, series.getKey());
+        out.writeInt(series.getTags().size());
+
+        for (final Map.Entry<String, String> tag : series.getTags().entrySet()) {
+            out.writeUTF(tag.getKey());
+            writeString(out, tag.getValue());
+        }
+
+        out.write(GorillaEncoder.encode(points));
+        out.flush();
+
+        final byte[] record = bytes.toByteArray();
+        final int length = record.length - HEADER_SIZE;
+
+        final CRC32 crc = new CRC32();
+        crc.update(record, HEADER_SIZE, length);
+
+        final ByteBuffer header = ByteBuffer.wrap(record);
+        header.putInt(length);
+        header.putInt((int) crc.getValue());
+        return record;
+    }
+
+    static Record decode(final byte[] payload, final long segment, final long end)
+        throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(payload);
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+
+        final long appended = in.readLong();
+        final Optional<String> group = Optional.ofNullable(readString(in));
+        final String key = readString(in);
+        final int count = in.readInt();
+        final Map<String, String> tags = new TreeMap<>();
+
+        for (int i = 0; i < count; i++) {
+            tags.put(in.readUTF(), readString(in));
+        }
+
+        /* the rest of the payload is the block of points */
+        buffer.position(payload.length - in.available());
+
+        final PointColumns.Builder points = PointColumns.builder();
+        GorillaDecoder.decode(buffer, points);
+
+        return new Record(group, Series.of(key, tags), MetricCollection.points(points.build()),
+            appended, segment, end, HEADER_SIZE + payload.length);
+    }
+
+    private static Checkpoint readCheckpoint(final Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return new Checkpoint(0L, 0L);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        return new Checkpoint(buffer.getLong(), buffer.getLong());
+    }
+
+    private static void writeCheckpoint(final Path file, final Checkpoint checkpoint)
+        throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES * 2);
+        buffer.putLong(checkpoint.getSegment());
+        buffer.putLong(checkpoint.getOffset());
+
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temporary, buffer.array());
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writeDeadLetters(final Path file, final List<byte[]> records)
+        throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            for (final byte[] record : records) {
+                final ByteBuffer buffer = ByteBuffer.wrap(record);
+
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+
+            channel.force(false);
+        }
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeString(final DataOutputStream out, final String value)
+        throws IOException {
+        out.writeBoolean(value != null);
+
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    static class Segment {
+        private final long seq;
+        private final Path path;
+        /* number of completely written bytes */
+        private volatile long size;
+        /* if the segment was forced to disk before it was closed */
+        private volatile boolean forced;
+
+        Segment(final long seq, final Path path, final long size) {
+            this.seq = seq;
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+    @Data
+    static class Checkpoint {
+        private final long segment;
+        private final long offset;
+    }
+
+    /**
+     * A batch of records read by the drainer, and the position after it.
+     */
+    @Data
+    static class Batch {
+        private final List<Record> records = new ArrayList<>();
+        /* raw records to move to the dead-letter file */
+        private final List<byte[]> deadLetters = new ArrayList<>();
+        private long segment;
+        private long offset;
+        /* number of bytes read which are not part of any record */
+        private long skipped;
+
+        Batch(final long segment, final long offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+        void moveTo(final long segment, final long offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+        void skip(final long bytes) {
+            skipped += bytes;
+        }
+
+        void deadLetter(final byte[] record) {
+            deadLetters.add(record);
+            skipped += record.length;
+        }
+    }
+
+    @Data
+    static class Record {
+        private final Optional<String> group;
+        private final Series series;
+        private final MetricCollection data;
+        private final long appended;
+        /* segment and end offset of the record */
+        private final long segment;
+        private final long end;
+        private final int size;
+    }
+}
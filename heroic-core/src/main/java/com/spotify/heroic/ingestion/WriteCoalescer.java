@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.ingestion;
+
+import com.spotify.heroic.common.Series;
+import com.spotify.heroic.lifecycle.LifeCycleRegistry;
+import com.spotify.heroic.lifecycle.LifeCycles;
+import com.spotify.heroic.metric.MetricCollection;
+import com.spotify.heroic.metric.MetricType;
+import com.spotify.heroic.metric.PointColumns;
+import com.spotify.heroic.scheduler.Scheduler;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.FutureDone;
+import eu.toolchain.async.ResolvableFuture;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Coalesces point writes to the same series into a single write.
+ * <p>
+ * Points are buffered per group and series until the oldest buffered write is older than the
+ * window, or the buffer reaches a maximum number of points, at which point all buffered points
+ * are written as one request. The futures of all coalesced writes are completed with the result
+ * of that request.
+ * <p>
+ * The total number of buffered points is bounded, writes which would exceed it are written
+ * directly. All buffers are flushed when stopped.
+ */
+@ToString(of = {"window", "maxPoints", "maxBufferedPoints"})
+@IngestionScope
+public class WriteCoalescer implements LifeCycles {
+    private static final long MIN_FLUSH_INTERVAL = 10L;
+
+    private final AsyncFramework async;
+    private final Scheduler scheduler;
+    private final Optional<Long> window;
+    private final int maxPoints;
+    private final long maxBufferedPoints;
+    private final LongSupplier clock;
+
+    private final ConcurrentMap<Key, Buffer> buffers = new ConcurrentHashMap<>();
+    private final AtomicLong bufferedPoints = new AtomicLong();
+
+    private final LongAdder coalescedWrites = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+
+    /* writers hold the read lock while buffering, stopping holds the write lock */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private boolean stopped = false;
+
+    /**
+     * @param window How long to buffer writes for, in milliseconds. Empty disables coalescing.
+     * @param maxPoints Number of points in a buffer that causes it to be flushed immediately.
+     * @param maxBufferedPoints Maximum number of points buffered in total.
+     */
+    @Inject
+    public WriteCoalescer(
+        final AsyncFramework async, final Scheduler scheduler,
+        @Named("coalesceWindow") final Optional<Long> window,
+        @Named("coalesceMaxPoints") final int maxPoints,
+        @Named("coalesceMaxBufferedPoints") final long maxBufferedPoints
+    ) {
+        this(async, scheduler, window, maxPoints, maxBufferedPoints, System::currentTimeMillis);
+    }
+
+    WriteCoalescer(
+        final AsyncFramework async, final Scheduler scheduler, final Optional<Long> window,
+        final int maxPoints, final long maxBufferedPoints, final LongSupplier clock
+    ) {
+        if (window.isPresent() && window.get() <= 0) {
+            throw new IllegalArgumentException("coalesce window must be positive");
+        }
+
+        this.async = async;
+        this.scheduler = scheduler;
+        this.window = window;
+        this.maxPoints = maxPoints;
+        this.maxBufferedPoints = maxBufferedPoints;
+        this.clock = clock;
+    }
+
+    public boolean isEnabled() {
+        return window.isPresent();
+    }
+
+    @Override
+    public void register(final LifeCycleRegistry registry) {
+        registry.start(this::start);
+        registry.stop(this::stop);
+    }
+
+    /**
+     * Get a writer which coalesces writes for the given backend group.
+     */
+    public Writer writer(final Optional<String> group) {
+        return new Writer(group);
+    }
+
+    public long coalescedWrites() {
+        return coalescedWrites.sum();
+    }
+
+    public long flushes() {
+        return flushes.sum();
+    }
+
+    public long bufferedPoints() {
+        return bufferedPoints.get();
+    }
+
+    @ToString(of = {"group"})
+    public class Writer {
+        private final Optional<String> group;
+
+        private Writer(final Optional<String> group) {
+            this.group = group;
+        }
+
+        /**
+         * Write the given request, buffering it if possible.
+         *
+         * @param sink Function that writes the request, or the coalesced request it is part of.
+         */
+        public AsyncFuture<Ingestion> write(
+            final Ingestion.Request request,
+            final Function<Ingestion.Request, AsyncFuture<Ingestion>> sink
+        ) {
+            final MetricCollection data = request.getData();
+
+            if (data.getType() != MetricType.POINT || data.isEmpty()) {
+                return sink.apply(request);
+            }
+
+            final PointColumns points = data.getPointColumns();
+            final ResolvableFuture<Ingestion> future = async.future();
+            final Key key = new Key(group, request.getSeries());
+            final Buffer[] full = new Buffer[1];
+
+            boolean buffered = false;
+
+            final Lock l = lock.readLock();
+
+            l.lock();
+
+            try {
+                if (!stopped && reserve(points.size())) {
+                    buffers.compute(key, (k, current) -> {
+                        final Buffer buffer =
+                            current != null ? current : new Buffer(sink, clock.getAsLong());
+                        buffer.add(points, future);
+
+                        if (buffer.size() >= maxPoints) {
+                            full[0] = buffer;
+                            return null;
+                        }
+
+                        return buffer;
+                    });
+
+                    buffered = true;
+                }
+            } finally {
+                l.unlock();
+            }
+
+            if (!buffered) {
+                return sink.apply(request);
+            }
+
+            if (full[0] != null) {
+                flush(key, full[0]);
+            }
+
+            return future;
+        }
+    }
+
+    /**
+     * Reserve space for the given number of points in the bound of buffered points.
+     */
+    private boolean reserve(final int points) {
+        if (bufferedPoints.addAndGet(points) <= maxBufferedPoints) {
+            return true;
+        }
+
+        bufferedPoints.addAndGet(-points);
+        return false;
+    }
+
+    /**
+     * Flush all buffers which were created before the given time.
+     *
+     * @return The number of flushed buffers.
+     */
+    int flushOlderThan(final long cutoff) {
+        int flushed = 0;
+
+        for (final Map.Entry<Key, Buffer> e : buffers.entrySet()) {
+            final Buffer buffer = e.getValue();
+
+            if (buffer.created <= cutoff && buffers.remove(e.getKey(), buffer)) {
+                flush(e.getKey(), buffer);
+                flushed++;
+            }
+        }
+
+        return flushed;
+    }
+
+    private void flush(final Key key, final Buffer buffer) {
+        final List<ResolvableFuture<Ingestion>> futures = buffer.futures;
+
+        bufferedPoints.addAndGet(-buffer.size());
+        coalescedWrites.add(futures.size());
+        flushes.increment();
+
+        final MetricCollection data = MetricCollection.points(buffer.points.build().sorted());
+
+        final AsyncFuture<Ingestion> write;
+
+        try {
+            write = buffer.sink.apply(new Ingestion.Request(key.getSeries(), data));
+        } catch (final Exception e) {
+            futures.forEach(f -> f.fail(e));
+            return;
+        }
+
+        write.onDone(new FutureDone<Ingestion>() {
+            @Override
+            public void failed(final Throwable cause) throws Exception {
+                futures.forEach(f -> f.fail(cause));
+            }
+
+            @Override
+            public void resolved(final Ingestion result) throws Exception {
+                futures.forEach(f -> f.resolve(result));
+            }
+
+            @Override
+            public void cancelled() throws Exception {
+                futures.forEach(ResolvableFuture::cancel);
+            }
+        });
+    }
+
+    private AsyncFuture<Void> start() {
+        if (!window.isPresent()) {
+            return async.resolved();
+        }
+
+        final long interval = Math.max(window.get() / 2, MIN_FLUSH_INTERVAL);
+
+        scheduler.periodically("ingestion-coalesce", interval, TimeUnit.MILLISECONDS,
+            () -> flushOlderThan(clock.getAsLong() - window.get()));
+
+        return async.resolved();
+    }
+
+    AsyncFuture<Void> stop() {
+        final Lock l = lock.writeLock();
+
+        l.lock();
+
+        try {
+            stopped = true;
+        } finally {
+            l.unlock();
+        }
+
+        /* no buffer is created or added to once stopped, so this flushes all of them */
+        flushOlderThan(Long.MAX_VALUE);
+        return async.resolved();
+    }
+
+    @Data
+    static class Key {
+        private final Optional<String> group;
+        private final Series series;
+    }
+
+    /**
+     * Buffered writes of a single series, compared by identity.
+     */
+    @RequiredArgsConstructor
+    static class Buffer {
+        private final Function<Ingestion.Request, AsyncFuture<Ingestion>> sink;
+        private final long created;
+        private final PointColumns.Builder points = PointColumns.builder();
+        private final List<ResolvableFuture<Ingestion>> futures = new ArrayList<>();
+
+        void add(final PointColumns columns, final ResolvableFuture<Ingestion> future) {
+            points.addAll(columns);
+            futures.add(future);
+        }
+
+        int size() {
+            return points.size();
+        }
+    }
+}
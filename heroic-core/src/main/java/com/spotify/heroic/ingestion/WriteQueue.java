@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.ingestion;
+
+import com.spotify.heroic.statistics.IngestionManagerReporter;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.FutureDone;
+import eu.toolchain.async.ResolvableFuture;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.ArrayDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Bounds the number of concurrent writes without blocking the writing thread.
+ * <p>
+ * Writes beyond the concurrency limit are put in a bounded queue and started as running writes
+ * finish. When the queue is full, the overflow policy decides if the new write is rejected or if
+ * the oldest queued write is dropped to make room for it.
+ * <p>
+ * Consumers which do not wait for the result of their writes should wait for {@link #capacity()}
+ * before writing more, it is resolved when the queue is at most half full.
+ */
+@ToString(of = {"maxConcurrentWrites", "maxPendingWrites", "overflowPolicy"})
+@IngestionScope
+public class WriteQueue {
+    /* set while a thread is starting queued writes, to avoid recursing when they finish
+     * immediately */
+    private static final ThreadLocal<Boolean> DRAINING = ThreadLocal.withInitial(() -> false);
+
+    private final AsyncFramework async;
+    private final IngestionManagerReporter reporter;
+    private final int maxConcurrentWrites;
+    private final int maxPendingWrites;
+    private final OverflowPolicy overflowPolicy;
+    private final LongSupplier clock;
+
+    private final Object lock = new Object();
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private int running = 0;
+    private ResolvableFuture<Void> capacity = null;
+
+    /**
+     * @param maxConcurrentWrites Limit the number of concurrent writes, 0 means no limit at all.
+     * @param maxPendingWrites Maximum number of writes waiting for a running write to finish.
+     * @param overflowPolicy What to do with writes when the queue is full.
+     */
+    @Inject
+    public WriteQueue(
+        final AsyncFramework async, final IngestionManagerReporter reporter,
+        @Named("maxConcurrentWrites") final int maxConcurrentWrites,
+        @Named("maxPendingWrites") final int maxPendingWrites,
+        @Named("writeOverflowPolicy") final OverflowPolicy overflowPolicy
+    ) {
+        this(async, reporter, maxConcurrentWrites, maxPendingWrites, overflowPolicy,
+            System::currentTimeMillis);
+    }
+
+    WriteQueue(
+        final AsyncFramework async, final IngestionManagerReporter reporter,
+        final int maxConcurrentWrites, final int maxPendingWrites,
+        final OverflowPolicy overflowPolicy, final LongSupplier clock
+    ) {
+        this.async = async;
+        this.reporter = reporter;
+        this.maxConcurrentWrites =
+            maxConcurrentWrites <= 0 ? Integer.MAX_VALUE : maxConcurrentWrites;
+        this.maxPendingWrites = maxPendingWrites;
+        this.overflowPolicy = overflowPolicy;
+        this.clock = clock;
+    }
+
+    /**
+     * Submit a write, which is started once the number of concurrent writes permits it.
+     *
+     * @param write Function starting the write.
+     * @return A future which completes with the write, or fails if the write was rejected or
+     * dropped.
+     */
+    public AsyncFuture<Ingestion> submit(final Supplier<AsyncFuture<Ingestion>> write) {
+        boolean admitted = false;
+        Pending queued = null;
+        Pending dropped = null;
+
+        synchronized (lock) {
+            if (pending.isEmpty() && running < maxConcurrentWrites) {
+                running++;
+                admitted = true;
+            } else if (pending.size() < maxPendingWrites) {
+                queued = enqueue(write);
+            } else if (overflowPolicy == OverflowPolicy.DROP_OLDEST && !pending.isEmpty()) {
+                dropped = pending.poll();
+                queued = enqueue(write);
+            }
+        }
+
+        if (admitted) {
+            return start(write);
+        }
+
+        if (dropped != null) {
+            reporter.reportWriteDropped();
+            dropped.future.fail(new RejectedExecutionException("Dropped from full write queue"));
+            return queued.future;
+        }
+
+        if (queued != null) {
+            reporter.incrementPendingWrites();
+            return queued.future;
+        }
+
+        reporter.reportWriteRejected();
+        return async.failed(new RejectedExecutionException("Write queue is full"));
+    }
+
+    /**
+     * Get a future which is resolved when the queue is at most half full.
+     */
+    public AsyncFuture<Void> capacity() {
+        synchronized (lock) {
+            if (pending.size() <= maxPendingWrites / 2) {
+                return async.resolved();
+            }
+
+            if (capacity == null) {
+                capacity = async.future();
+            }
+
+            return capacity;
+        }
+    }
+
+    public long pendingWrites() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    public long availablePermits() {
+        synchronized (lock) {
+            return maxConcurrentWrites - running;
+        }
+    }
+
+    private Pending enqueue(final Supplier<AsyncFuture<Ingestion>> write) {
+        final Pending p = new Pending(write, async.future(), clock.getAsLong());
+        pending.add(p);
+        return p;
+    }
+
+    private AsyncFuture<Ingestion> start(final Supplier<AsyncFuture<Ingestion>> write) {
+        reporter.incrementConcurrentWrites();
+
+        AsyncFuture<Ingestion> future;
+
+        try {
+            future = write.get();
+        } catch (final Exception e) {
+            future = async.failed(e);
+        }
+
+        return future.onFinished(this::finished);
+    }
+
+    private void finished() {
+        reporter.decrementConcurrentWrites();
+
+        synchronized (lock) {
+            running--;
+        }
+
+        drain();
+    }
+
+    /**
+     * Start queued writes while there are permits available.
+     */
+    private void drain() {
+        if (DRAINING.get()) {
+            return;
+        }
+
+        DRAINING.set(true);
+
+        try {
+            while (true) {
+                final Pending next;
+                final ResolvableFuture<Void> signal;
+
+                synchronized (lock) {
+                    next = running < maxConcurrentWrites ? pending.poll() : null;
+
+                    if (next != null) {
+                        running++;
+                    }
+
+                    if (capacity != null && pending.size() <= maxPendingWrites / 2) {
+                        signal = capacity;
+                        capacity = null;
+                    } else {
+                        signal = null;
+                    }
+                }
+
+                if (signal != null) {
+                    signal.resolve(null);
+                }
+
+                if (next == null) {
+                    return;
+                }
+
+                reporter.decrementPendingWrites();
+                reporter.reportWriteQueueWait(clock.getAsLong() - next.queued);
+                next.run();
+            }
+        } finally {
+            DRAINING.set(false);
+        }
+    }
+
+    @RequiredArgsConstructor
+    private class Pending {
+        private final Supplier<AsyncFuture<Ingestion>> write;
+        private final ResolvableFuture<Ingestion> future;
+        private final long queued;
+
+        private void run() {
+            /* the caller is no longer interested in the write */
+            if (future.isDone()) {
+                synchronized (lock) {
+                    running--;
+                }
+
+                return;
+            }
+
+            start(write).onDone(new FutureDone<Ingestion>() {
+                @Override
+                public void failed(final Throwable cause) throws Exception {
+                    future.fail(cause);
+                }
+
+                @Override
+                public void resolved(final Ingestion result) throws Exception {
+                    future.resolve(result);
+                }
+
+                @Override
+                public void cancelled() throws Exception {
+                    future.cancel();
+                }
+            });
+        }
+    }
+
+    public enum OverflowPolicy {
+        /**
+         * Fail new writes when the queue is full.
+         */
+        REJECT,
+        /**
+         * Fail the oldest queued write to make room for the new one.
+         */
+        DROP_OLDEST
+    }
+}
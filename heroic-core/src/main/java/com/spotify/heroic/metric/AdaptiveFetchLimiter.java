@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.metric;
+
+import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.common.Statistics;
+import com.spotify.heroic.metrics.Clock;
+import com.spotify.heroic.statistics.MetricBackendReporter;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.FutureDone;
+import eu.toolchain.async.ResolvableFuture;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of concurrent fetches towards each backend, where the limit adapts to how the
+ * backend is doing.
+ * <p>
+ * The limit is controlled with additive increase, multiplicative decrease (AIMD), like TCP
+ * congestion control. Every fetch which completes in time grows the limit by {@code 1 / limit},
+ * which adds up to one extra fetch per round of fetches. A fetch which fails, or which is much
+ * slower than the smoothed latency of the backend, shrinks the limit by {@link #BACKOFF}. Only one
+ * decrease happens per round, so that a burst of failures caused by the same overload doesn't
+ * collapse the limit.
+ * <p>
+ * How long a fetch takes depends heavily on the range it reads, so a smoothed latency is kept
+ * for every class of ranges of roughly the same length, and a fetch is only compared to fetches
+ * of the same class.
+ * <p>
+ * Fetches above the limit are queued, and started in the order they arrived. Queued fetches
+ * which are cancelled are dropped from the queue.
+ */
+@MetricScope
+public class AdaptiveFetchLimiter {
+    public static final String FETCH_LIMIT = "fetch-limit";
+
+    static final double BACKOFF = 0.75D;
+
+    /**
+     * How much slower than the smoothed latency a fetch has to be to be considered congested.
+     */
+    static final double TOLERANCE = 2.0D;
+
+    /**
+     * Weight of every new latency sample in the smoothed latency.
+     */
+    static final double SMOOTHING = 0.05D;
+
+    static final int MIN_LIMIT = 1;
+
+    /**
+     * Number of range classes that latencies are kept for, see {@link #rangeClass(DateRange)}.
+     */
+    static final int RANGE_CLASSES = 32;
+
+    /**
+     * Length of the shortest range class.
+     */
+    static final long RANGE_RESOLUTION = TimeUnit.MINUTES.toMillis(1);
+
+    private final AsyncFramework async;
+    private final MetricBackendReporter reporter;
+    private final Clock clock;
+    private final boolean enabled;
+    private final int initialLimit;
+    private final int maxLimit;
+
+    private final ConcurrentMap<MetricBackend, Limit> limits = new ConcurrentHashMap<>();
+
+    /**
+     * @param enabled If the limit should be applied and adapted, otherwise fetches are passed
+     * through as-is.
+     * @param initialLimit Initial limit of every backend.
+     * @param maxLimit Upper bound of the limit of every backend.
+     */
+    @Inject
+    public AdaptiveFetchLimiter(
+        final AsyncFramework async, final MetricBackendReporter reporter,
+        @Named("adaptiveFetchParallelism") final boolean enabled,
+        @Named("fetchParallelism") final int initialLimit,
+        @Named("maxConcurrentFetches") final int maxLimit
+    ) {
+        this(async, reporter, Clock.systemClock(), enabled, initialLimit, maxLimit);
+    }
+
+    AdaptiveFetchLimiter(
+        final AsyncFramework async, final MetricBackendReporter reporter, final Clock clock,
+        final boolean enabled, final int initialLimit, final int maxLimit
+    ) {
+        this.async = async;
+        this.reporter = reporter;
+        this.clock = clock;
+        this.enabled = enabled;
+        this.maxLimit = Math.max(MIN_LIMIT, maxLimit);
+        this.initialLimit = Math.max(MIN_LIMIT, Math.min(initialLimit, this.maxLimit));
+    }
+
+    /**
+     * Perform a fetch towards the given backend, once the limit of the backend allows it.
+     *
+     * @param range Range that the fetch reads, which its latency is compared by.
+     */
+    public AsyncFuture<FetchData> fetch(
+        final MetricBackend backend, final DateRange range,
+        final Supplier<AsyncFuture<FetchData>> fetch
+    ) {
+        if (!enabled) {
+            return fetch.get();
+        }
+
+        return limitFor(backend).fetch(rangeClass(range), fetch);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Get the current limit of concurrent fetches towards the given backend.
+     */
+    public int limit(final MetricBackend backend) {
+        if (!enabled) {
+            return initialLimit;
+        }
+
+        return limitFor(backend).current();
+    }
+
+    public Statistics getStatistics() {
+        long total = 0L;
+
+        for (final Limit l : limits.values()) {
+            total += l.current();
+        }
+
+        return Statistics.of(FETCH_LIMIT, total);
+    }
+
+    /**
+     * Classify a range by its length, where every class covers ranges up to twice as long as the
+     * previous one.
+     */
+    static int rangeClass(final DateRange range) {
+        final long length = range.diff() / RANGE_RESOLUTION;
+        return Math.min(RANGE_CLASSES - 1, Long.SIZE - Long.numberOfLeadingZeros(length));
+    }
+
+    private Limit limitFor(final MetricBackend backend) {
+        return limits.computeIfAbsent(backend, Limit::new);
+    }
+
+    class Limit {
+        private final MetricBackend backend;
+
+        private final Object lock = new Object();
+
+        /* all state below is guarded by lock */
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+        private double limit = initialLimit;
+        private int inflight = 0;
+        private final double[] latency = new double[RANGE_CLASSES];
+        private long round = 0L;
+
+        Limit(final MetricBackend backend) {
+            this.backend = backend;
+            Arrays.fill(latency, Double.NaN);
+            reporter.reportFetchLimit(backend, initialLimit);
+        }
+
+        int current() {
+            synchronized (lock) {
+                return (int) limit;
+            }
+        }
+
+        AsyncFuture<FetchData> fetch(
+            final int rangeClass, final Supplier<AsyncFuture<FetchData>> fetch
+        ) {
+            final ResolvableFuture<FetchData> future = async.future();
+            final Runnable start = () -> start(rangeClass, fetch, future);
+            final boolean queued;
+
+            synchronized (lock) {
+                queued = inflight >= (int) limit;
+
+                if (queued) {
+                    queue.add(start);
+                } else {
+                    inflight++;
+                }
+            }
+
+            if (queued) {
+                future.onCancelled(() -> {
+                    synchronized (lock) {
+                        queue.remove(start);
+                    }
+                });
+
+                return future;
+            }
+
+            start.run();
+            return future;
+        }
+
+        private void start(
+            final int rangeClass, final Supplier<AsyncFuture<FetchData>> fetch,
+            final ResolvableFuture<FetchData> future
+        ) {
+            final long started = clock.getTick();
+            final long round;
+
+            synchronized (lock) {
+                round = this.round;
+            }
+
+            /* cancelled after it was taken from the queue */
+            if (future.isDone()) {
+                finished(round, rangeClass, 0L, false, false);
+                return;
+            }
+
+            AsyncFuture<FetchData> f;
+
+            try {
+                f = fetch.get();
+            } catch (final Exception e) {
+                f = async.failed(e);
+            }
+
+            future.onCancelled(f::cancel);
+
+            f.onDone(new FutureDone<FetchData>() {
+                @Override
+                public void failed(final Throwable cause) {
+                    /* exceeding the quota of a query says nothing about the backend */
+                    final boolean congested = !(cause instanceof QuotaViolationException);
+                    finished(round, rangeClass, clock.getTick() - started, congested, false);
+                    future.fail(cause);
+                }
+
+                @Override
+                public void resolved(final FetchData result) {
+                    final boolean failed = !result.getErrors().isEmpty();
+                    finished(round, rangeClass, clock.getTick() - started, failed, !failed);
+                    future.resolve(result);
+                }
+
+                @Override
+                public void cancelled() {
+                    finished(round, rangeClass, clock.getTick() - started, false, false);
+                    future.cancel();
+                }
+            });
+        }
+
+        /**
+         * @param round The round in which the fetch was started.
+         * @param rangeClass The class of the range that the fetch read.
+         * @param elapsed How long the fetch took, in nanoseconds.
+         * @param failed If the fetch failed because of the backend.
+         * @param sample If the latency of the fetch should be sampled.
+         */
+        private void finished(
+            final long round, final int rangeClass, final long elapsed, final boolean failed,
+            final boolean sample
+        ) {
+            final List<Runnable> start = new ArrayList<>();
+            final int before;
+            final int after;
+
+            synchronized (lock) {
+                before = (int) limit;
+                final boolean busy = inflight * 2 >= before;
+                inflight--;
+
+                final double expected = latency[rangeClass];
+                final boolean slow =
+                    sample && !Double.isNaN(expected) && elapsed > expected * TOLERANCE;
+
+                if (sample) {
+                    latency[rangeClass] = Double.isNaN(expected) ? elapsed
+                        : expected + (elapsed - expected) * SMOOTHING;
+                }
+
+                if (failed || slow) {
+                    if (round == this.round) {
+                        limit = Math.max(MIN_LIMIT, limit * BACKOFF);
+                        this.round++;
+                    }
+                } else if (sample && busy) {
+                    /* only grow when the limit is actually being used */
+                    limit = Math.min(maxLimit, limit + 1D / limit);
+                }
+
+                after = (int) limit;
+
+                while (inflight < after && !queue.isEmpty()) {
+                    inflight++;
+                    start.add(queue.poll());
+                }
+            }
+
+            if (before != after) {
+                reporter.reportFetchLimit(backend, after);
+            }
+
+            for (final Runnable r : start) {
+                r.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.metric;
+
+import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.common.Series;
+import com.spotify.heroic.common.Statistics;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.FutureDone;
+import eu.toolchain.async.ResolvableFuture;
+import lombok.Data;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+/**
+ * De-duplicates concurrent fetches of the same series and range from the same backend.
+ * <p>
+ * The first fetch for a given key is performed against the backend, and every identical fetch
+ * which arrives while it is in-flight shares its result. Every query is charged for the data read
+ * by the shared fetch against its own quota, as if it had performed the fetch itself.
+ * <p>
+ * The shared fetch is limited by the quota of the query that started it, so only queries whose
+ * remaining quota is at most that large are allowed to join it. Other queries fetch on their own.
+ */
+public class FetchCoalescer {
+    public static final String FETCHES_COALESCED = "fetches-coalesced";
+
+    private final AsyncFramework async;
+
+    private final ConcurrentMap<Key, SharedFetch> inflight = new ConcurrentHashMap<>();
+
+    private final LongAdder coalesced = new LongAdder();
+
+    public FetchCoalescer(final AsyncFramework async) {
+        this.async = async;
+    }
+
+    public AsyncFuture<FetchData> fetch(
+        final MetricBackend backend, final FetchData.Request request,
+        final FetchQuotaWatcher watcher
+    ) {
+        return fetch(backend, request, watcher, backend::fetch);
+    }
+
+    /**
+     * Fetch data, where the actual fetch is performed by the given function.
+     *
+     * @param backend Backend that the fetch is performed against.
+     * @param fetch Performs the fetch against the backend.
+     */
+    public AsyncFuture<FetchData> fetch(
+        final MetricBackend backend, final FetchData.Request request,
+        final FetchQuotaWatcher watcher,
+        final BiFunction<FetchData.Request, FetchQuotaWatcher, AsyncFuture<FetchData>> fetch
+    ) {
+        /* let the backend decide how to treat queries which have no quota left */
+        if (!watcher.mayReadData()) {
+            return fetch.apply(request, watcher);
+        }
+
+        final Key key =
+            new Key(backend, request.getType(), request.getSeries(), request.getRange());
+
+        final SharedFetch shared = new SharedFetch(async.future(), watcher.getReadDataQuota());
+        final SharedFetch existing = inflight.putIfAbsent(key, shared);
+
+        if (existing != null) {
+            if (existing.mayJoin(watcher)) {
+                coalesced.increment();
+                return join(existing, watcher);
+            }
+
+            return fetch.apply(request, watcher);
+        }
+
+        AsyncFuture<FetchData> future;
+
+        try {
+            future = fetch.apply(request, shared);
+        } catch (final Exception e) {
+            future = async.failed(e);
+        }
+
+        future.onDone(new FutureDone<FetchData>() {
+            @Override
+            public void failed(final Throwable cause) {
+                inflight.remove(key, shared);
+                shared.future.fail(cause);
+            }
+
+            @Override
+            public void resolved(final FetchData result) {
+                inflight.remove(key, shared);
+                shared.future.resolve(result);
+            }
+
+            @Override
+            public void cancelled() {
+                inflight.remove(key, shared);
+                shared.future.cancel();
+            }
+        });
+
+        return join(shared, watcher);
+    }
+
+    public Statistics getStatistics() {
+        return Statistics.of(FETCHES_COALESCED, coalesced.sum());
+    }
+
+    private AsyncFuture<FetchData> join(
+        final SharedFetch shared, final FetchQuotaWatcher watcher
+    ) {
+        final ResolvableFuture<FetchData> future = async.future();
+
+        shared.future.onDone(new FutureDone<FetchData>() {
+            @Override
+            public void failed(final Throwable cause) {
+                if (charge(shared, watcher, future)) {
+                    future.fail(cause);
+                }
+            }
+
+            @Override
+            public void resolved(final FetchData result) {
+                if (charge(shared, watcher, future)) {
+                    future.resolve(result);
+                }
+            }
+
+            @Override
+            public void cancelled() {
+                future.cancel();
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Charge the quota of a single query for the data read by the shared fetch.
+     *
+     * @return {@code true} if the query is within its quota.
+     */
+    private boolean charge(
+        final SharedFetch shared, final FetchQuotaWatcher watcher,
+        final ResolvableFuture<FetchData> future
+    ) {
+        try {
+            watcher.readData(shared.read.get());
+        } catch (final QuotaViolationException e) {
+            future.fail(e);
+            return false;
+        }
+
+        return true;
+    }
+
+    @Data
+    static class Key {
+        private final MetricBackend backend;
+        private final MetricType type;
+        private final Series series;
+        private final DateRange range;
+    }
+
+    /**
+     * A fetch which is shared between queries, which also acts as the quota watcher of the
+     * backend fetch.
+     */
+    static class SharedFetch implements FetchQuotaWatcher {
+        private final ResolvableFuture<FetchData> future;
+        private final long limit;
+
+        private final AtomicLong read = new AtomicLong();
+
+        SharedFetch(final ResolvableFuture<FetchData> future, final int quota) {
+            this.future = future;
+            /* a quota of Integer.MAX_VALUE is how an unlimited quota is represented */
+            this.limit = quota == Integer.MAX_VALUE ? Long.MAX_VALUE : quota;
+        }
+
+        boolean mayJoin(final FetchQuotaWatcher watcher) {
+            return watcher.mayReadData() && watcher.getReadDataQuota() <= limit;
+        }
+
+        @Override
+        public void readData(final long n) {
+            if (read.addAndGet(n) >= limit) {
+                throw new QuotaViolationException();
+            }
+        }
+
+        @Override
+        public boolean mayReadData() {
+            return read.get() < limit;
+        }
+
+        @Override
+        public int getReadDataQuota() {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0L, limit - read.get()));
+        }
+
+        @Override
+        public boolean isQuotaViolated() {
+            return !mayReadData();
+        }
+    }
+}
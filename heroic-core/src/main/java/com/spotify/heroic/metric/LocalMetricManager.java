@@ -48,11 +48,13 @@ import eu.toolchain.async.AsyncFuture;
 import eu.toolchain.async.LazyTransform;
 import eu.toolchain.async.StreamCollector;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.function.Consumer;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -77,11 +79,16 @@ public class LocalMetricManager implements MetricManager {
     private final OptionalLimit dataLimit;
     private final int fetchParallelism;
     private final boolean failOnLimits;
+    private final boolean fetchCoalescing;
 
     private final AsyncFramework async;
     private final GroupSet<MetricBackend> groupSet;
     private final MetadataManager metadata;
     private final MetricBackendReporter reporter;
+    private final QueryScheduler scheduler;
+    private final AdaptiveFetchLimiter limiter;
+    private final RollupStore rollups;
+    private final FetchCoalescer coalescer;
 
     /**
      * @param groupLimit The maximum amount of groups this manager will allow to be generated.
@@ -90,6 +97,11 @@ public class LocalMetricManager implements MetricManager {
      * may produce.
      * @param dataLimit The maximum number of samples a single query is allowed to fetch.
      * @param fetchParallelism How many fetches that are allowed to be performed in parallel.
+     * @param fetchCoalescing If concurrent fetches of the same series and range should share a
+     * single backend fetch.
+     * @param scheduler Scheduler for fetches across all queries on this node.
+     * @param limiter Limits the number of concurrent fetches towards each backend.
+     * @param rollups Rollups which are maintained on writes, and used for reads when possible.
      */
     @Inject
     public LocalMetricManager(
@@ -98,9 +110,11 @@ public class LocalMetricManager implements MetricManager {
         @Named("aggregationLimit") final OptionalLimit aggregationLimit,
         @Named("dataLimit") final OptionalLimit dataLimit,
         @Named("fetchParallelism") final int fetchParallelism,
-        @Named("failOnLimits") final boolean failOnLimits, final AsyncFramework async,
+        @Named("failOnLimits") final boolean failOnLimits,
+        @Named("fetchCoalescing") final boolean fetchCoalescing, final AsyncFramework async,
         final GroupSet<MetricBackend> groupSet, final MetadataManager metadata,
-        final MetricBackendReporter reporter
+        final MetricBackendReporter reporter, final QueryScheduler scheduler,
+        final AdaptiveFetchLimiter limiter, final RollupStore rollups
     ) {
         this.groupLimit = groupLimit;
         this.seriesLimit = seriesLimit;
@@ -108,10 +122,15 @@ public class LocalMetricManager implements MetricManager {
         this.dataLimit = dataLimit;
         this.fetchParallelism = fetchParallelism;
         this.failOnLimits = failOnLimits;
+        this.fetchCoalescing = fetchCoalescing;
         this.async = async;
         this.groupSet = groupSet;
         this.metadata = metadata;
         this.reporter = reporter;
+        this.scheduler = scheduler;
+        this.limiter = limiter;
+        this.rollups = rollups;
+        this.coalescer = new FetchCoalescer(async);
     }
 
     @Override
@@ -206,14 +225,32 @@ public class LocalMetricManager implements MetricManager {
                 final List<Callable<AsyncFuture<Pair<Series, FetchData>>>> fetches =
                     new ArrayList<>();
 
+                final Map<DateRange, Optional<RollupStore.Plan>> plans = new HashMap<>();
+
                 /* setup fetches */
-                accept(b -> {
-                    for (final Series s : result.getSeries()) {
-                        fetches.add(() -> b
-                            .fetch(new FetchData.Request(source, s, range, options), watcher)
-                            .directTransform(d -> Pair.of(s, d)));
+                for (final Series s : result.getSeries()) {
+                    for (final Pair<MetricBackend, DateRange> route : route(source, s, range)) {
+                        final MetricBackend b = route.getLeft();
+                        final DateRange r = route.getRight();
+
+                        final Optional<RollupStore.Plan> plan = plans.computeIfAbsent(r,
+                            k -> source == MetricType.POINT ? rollups.plan(aggregation, k) :
+                                Optional.empty());
+
+                        final FetchData.Request fetchRequest =
+                            new FetchData.Request(source, s, r, options);
+
+                        if (plan.isPresent()) {
+                            fetches.add(() -> fetchWithRollups(b, fetchRequest, watcher,
+                                dataInMemoryReporter, plan.get()).directTransform(
+                                d -> Pair.of(s, d)));
+                            continue;
+                        }
+
+                        fetches.add(() -> fetch(b, fetchRequest, watcher).directTransform(
+                            d -> Pair.of(s, d)));
                     }
-                });
+                }
 
                 /* setup collector */
 
@@ -250,7 +287,23 @@ public class LocalMetricManager implements MetricManager {
                         };
                 }
 
-                return async.eventuallyCollect(fetches, collector, fetchParallelism);
+                final long cost =
+                    QueryScheduler.cost(result.getSeries().size(), range, estimate);
+
+                /* the parallelism of a single query follows the limit of the backends */
+                int parallelism = fetchParallelism;
+
+                if (limiter.isEnabled()) {
+                    parallelism = 0;
+
+                    for (final MetricBackend b : backends) {
+                        parallelism += limiter.limit(b);
+                    }
+                }
+
+                return scheduler.submit(options.getClientId(), cost, fetches, collector,
+                    parallelism,
+                    reason -> FullQuery.error(w.end(), QueryError.fromMessage(reason)));
             };
 
             return metadata
@@ -268,14 +321,25 @@ public class LocalMetricManager implements MetricManager {
                 result = result.merge(s);
             }
 
-            return result;
+            return result
+                .merge(coalescer.getStatistics())
+                .merge(scheduler.getStatistics())
+                .merge(limiter.getStatistics())
+                .merge(rollups.getStatistics());
         }
 
         @Override
         public AsyncFuture<FetchData> fetch(
             final FetchData.Request request, final FetchQuotaWatcher watcher
         ) {
-            final List<AsyncFuture<FetchData>> callbacks = map(b -> b.fetch(request, watcher));
+            final List<AsyncFuture<FetchData>> callbacks = new ArrayList<>();
+
+            for (final Pair<MetricBackend, DateRange> route : route(request.getType(),
+                request.getSeries(), request.getRange())) {
+                callbacks.add(
+                    route.getLeft().fetch(withRange(request, route.getRight()), watcher));
+            }
+
             return async.collect(callbacks, FetchData.collect(FETCH));
         }
 
@@ -286,7 +350,10 @@ public class LocalMetricManager implements MetricManager {
 
         @Override
         public AsyncFuture<WriteMetric> write(final WriteMetric.Request write) {
-            return async.collect(map(b -> b.write(write)), WriteMetric.reduce());
+            return async.collect(map(b -> {
+                rollups.write(b, write);
+                return b.write(write);
+            }), WriteMetric.reduce());
         }
 
         @Override
@@ -349,6 +416,19 @@ public class LocalMetricManager implements MetricManager {
             });
         }
 
+        @Override
+        public AsyncFuture<Long> compact(final Series series, final DateRange range) {
+            return async.collect(map(b -> b.compact(series, range))).directTransform(result -> {
+                long count = 0;
+
+                for (final long c : result) {
+                    count += c;
+                }
+
+                return count;
+            });
+        }
+
         @Override
         public AsyncFuture<MetricCollection> fetchRow(final BackendKey key) {
             final List<AsyncFuture<MetricCollection>> callbacks = map(b -> b.fetchRow(key));
@@ -369,8 +449,122 @@ public class LocalMetricManager implements MetricManager {
             return AsyncObservable.chain(map(b -> b.streamRow(key)));
         }
 
-        private void accept(final Consumer<MetricBackend> op) {
-            backends.stream().forEach(op::accept);
+        private AsyncFuture<FetchData> fetch(
+            final MetricBackend backend, final FetchData.Request request,
+            final FetchQuotaWatcher watcher
+        ) {
+            if (fetchCoalescing) {
+                return coalescer.fetch(backend, request, watcher,
+                    (r, w) -> limiter.fetch(backend, r.getRange(), () -> backend.fetch(r, w)));
+            }
+
+            return limiter.fetch(backend, request.getRange(),
+                () -> backend.fetch(request, watcher));
+        }
+
+        /**
+         * Fetch a series, reading the windows covered by the plan from rollups and the rest from
+         * raw samples.
+         */
+        private AsyncFuture<FetchData> fetchWithRollups(
+            final MetricBackend backend, final FetchData.Request request,
+            final FetchQuotaWatcher watcher, final DataInMemoryReporter dataInMemoryReporter,
+            final RollupStore.Plan plan
+        ) {
+            final List<AsyncFuture<FetchData>> fetches = new ArrayList<>();
+
+            fetches.add(fetch(backend, withRange(request, plan.head()), watcher));
+
+            /* every spread is read as one sample for each of its statistics */
+            final LongAdder read = new LongAdder();
+
+            final Function<FetchData.Request, AsyncFuture<FetchData>> fetchStat =
+                r -> fetch(backend, r, watcher).directTransform(d -> {
+                    for (final MetricCollection g : d.getGroups()) {
+                        read.add(g.size());
+                    }
+
+                    return d;
+                });
+
+            final Function<FetchData.Request, AsyncFuture<FetchData>> fetchRaw =
+                r -> fetch(backend, r, watcher);
+
+            fetches.add(rollups.fetch(plan, request, fetchStat, fetchRaw).directTransform(d -> {
+                long spreads = 0;
+
+                /* raw samples read in place of missing windows are still needed */
+                for (final MetricCollection g : d.getGroups()) {
+                    if (g.getType() == MetricType.SPREAD) {
+                        spreads += g.size();
+                    }
+                }
+
+                dataInMemoryReporter.reportDataNoLongerNeeded(read.sum() - spreads);
+                return d;
+            }));
+
+            plan.tail().ifPresent(tail -> {
+                fetches.add(fetch(backend, withRange(request, tail), watcher));
+            });
+
+            return async.collect(fetches, FetchData.collect(FETCH));
+        }
+
+        /**
+         * Decide which part of the given range to read from each backend.
+         * <p>
+         * If the group contains both backends which only retain recent data and durable backends,
+         * the recent part of the range which is held by all retaining backends for the given
+         * series is read from them, and the rest of the range from the durable backends. A
+         * retaining backend which does not hold the series is not read at all. Otherwise, the
+         * whole range is read from every backend.
+         * <p>
+         * Ranges are split in the (start, end] convention of the backends, so a point at the
+         * split is only read from the durable backends.
+         */
+        private List<Pair<MetricBackend, DateRange>> route(
+            final MetricType type, final Series series, final DateRange range
+        ) {
+            Optional<Long> since = Optional.empty();
+            boolean durable = false;
+
+            for (final MetricBackend b : backends) {
+                final Optional<Long> s = b.retainedSince(type, series);
+
+                if (!s.isPresent()) {
+                    durable = true;
+                    continue;
+                }
+
+                since = Optional.of(since.map(c -> Math.max(c, s.get())).orElseGet(s::get));
+            }
+
+            final List<Pair<MetricBackend, DateRange>> routes = new ArrayList<>();
+
+            if (!durable || !since.isPresent()) {
+                for (final MetricBackend b : backends) {
+                    routes.add(Pair.of(b, range));
+                }
+
+                return routes;
+            }
+
+            final long split = since.get();
+
+            for (final MetricBackend b : backends) {
+                if (b.retainedSince(type, series).isPresent()) {
+                    if (range.end() > split) {
+                        routes.add(Pair.of(b, range.start(Math.max(range.start(), split))));
+                    }
+                } else {
+                    if (range.start() < split) {
+                        routes.add(Pair.of(b, range.end(Math.min(range.end(), split))));
+                    }
+                }
+            }
+
+            return routes;
         }
 
         private <T> List<T> map(final Function<MetricBackend, T> op) {
@@ -378,6 +572,13 @@ public class LocalMetricManager implements MetricManager {
         }
     }
 
+    private static FetchData.Request withRange(
+        final FetchData.Request request, final DateRange range
+    ) {
+        return new FetchData.Request(request.getType(), request.getSeries(), range,
+            request.getOptions());
+    }
+
     @RequiredArgsConstructor
     private abstract static class ResultCollector
         implements StreamCollector<Pair<Series, FetchData>, FullQuery> {
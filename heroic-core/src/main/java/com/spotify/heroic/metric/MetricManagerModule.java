@@ -24,11 +24,13 @@ package com.spotify.heroic.metric;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.spotify.heroic.analytics.MetricAnalytics;
+import com.spotify.heroic.common.Duration;
 import com.spotify.heroic.common.GroupSet;
 import com.spotify.heroic.common.ModuleIdBuilder;
 import com.spotify.heroic.common.OptionalLimit;
 import com.spotify.heroic.dagger.CorePrimaryComponent;
 import com.spotify.heroic.lifecycle.LifeCycle;
+import com.spotify.heroic.lifecycle.LifeCycleManager;
 import com.spotify.heroic.statistics.HeroicReporter;
 import com.spotify.heroic.statistics.MetricBackendReporter;
 import dagger.Module;
@@ -43,6 +45,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import static com.spotify.heroic.common.Optionals.mergeOptionalList;
 import static com.spotify.heroic.common.Optionals.pickOptional;
@@ -54,6 +58,12 @@ import static java.util.Optional.of;
 public class MetricManagerModule {
     public static final int DEFAULT_FETCH_PARALLELISM = 100;
     public static final boolean DEFAULT_FAIL_ON_LIMITS = false;
+    public static final boolean DEFAULT_FETCH_COALESCING = true;
+    public static final int DEFAULT_MAX_CONCURRENT_FETCHES = 1000;
+    public static final int DEFAULT_MAX_QUERIES = 1000;
+    public static final Duration DEFAULT_MAX_QUEUE_TIME = Duration.of(1, TimeUnit.MINUTES);
+    public static final boolean DEFAULT_ADAPTIVE_FETCH_PARALLELISM = true;
+    public static final Duration DEFAULT_ROLLUP_GRACE = Duration.of(1, TimeUnit.MINUTES);
 
     private final List<MetricModule> backends;
     private final Optional<List<String>> defaultBackends;
@@ -88,6 +98,50 @@ public class MetricManagerModule {
      */
     private final boolean failOnLimits;
 
+    /**
+     * If concurrent fetches of the same series and range should share a single backend fetch.
+     */
+    private final boolean fetchCoalescing;
+
+    /**
+     * How many data fetches are performed in parallel on this node, across all queries.
+     */
+    private final int maxConcurrentFetches;
+
+    /**
+     * How many queries are admitted on this node at the same time.
+     */
+    private final int maxQueries;
+
+    /**
+     * Limit in the estimated cost of a single query, in the number of samples it is expected to
+     * read.
+     */
+    private final OptionalLimit maxQueryCost;
+
+    /**
+     * How long a query may wait for its first fetch to start before it is rejected.
+     */
+    private final Duration maxQueueTime;
+
+    /**
+     * If the number of parallel fetches towards each backend should adapt to its latency and
+     * error rate, starting at {@link #fetchParallelism} and bounded by
+     * {@link #maxConcurrentFetches}.
+     */
+    private final boolean adaptiveFetchParallelism;
+
+    /**
+     * Resolutions to maintain rollups for, which are read instead of raw samples by aggregations
+     * that permit it. Empty disables rollups.
+     */
+    private final List<Duration> rollups;
+
+    /**
+     * How long to wait for late samples before a rollup window is written.
+     */
+    private final Duration rollupGrace;
+
     @Provides
     @MetricScope
     public MetricBackendReporter reporter(HeroicReporter reporter) {
@@ -138,8 +192,12 @@ public class MetricManagerModule {
     @Provides
     @MetricScope
     @Named("metric")
-    public LifeCycle metricLife(List<MetricModule.Exposed> components) {
-        return LifeCycle.combined(components.stream().map(MetricModule.Exposed::life));
+    public LifeCycle metricLife(
+        List<MetricModule.Exposed> components, LifeCycleManager manager, RollupStore rollups
+    ) {
+        return LifeCycle.combined(
+            Stream.concat(components.stream().map(MetricModule.Exposed::life),
+                Stream.of(manager.build(rollups))));
     }
 
     @Provides
@@ -184,6 +242,62 @@ public class MetricManagerModule {
         return failOnLimits;
     }
 
+    @Provides
+    @MetricScope
+    @Named("fetchCoalescing")
+    public boolean fetchCoalescing() {
+        return fetchCoalescing;
+    }
+
+    @Provides
+    @MetricScope
+    @Named("maxConcurrentFetches")
+    public int maxConcurrentFetches() {
+        return maxConcurrentFetches;
+    }
+
+    @Provides
+    @MetricScope
+    @Named("maxQueries")
+    public int maxQueries() {
+        return maxQueries;
+    }
+
+    @Provides
+    @MetricScope
+    @Named("maxQueryCost")
+    public OptionalLimit maxQueryCost() {
+        return maxQueryCost;
+    }
+
+    @Provides
+    @MetricScope
+    @Named("maxQueueTime")
+    public long maxQueueTime() {
+        return maxQueueTime.toMilliseconds();
+    }
+
+    @Provides
+    @MetricScope
+    @Named("adaptiveFetchParallelism")
+    public boolean adaptiveFetchParallelism() {
+        return adaptiveFetchParallelism;
+    }
+
+    @Provides
+    @MetricScope
+    @Named("rollups")
+    public List<Long> rollups() {
+        return ImmutableList.copyOf(rollups.stream().map(Duration::toMilliseconds).iterator());
+    }
+
+    @Provides
+    @MetricScope
+    @Named("rollupGrace")
+    public long rollupGrace() {
+        return rollupGrace.toMilliseconds();
+    }
+
     public static Builder builder() {
         return new Builder();
     }
@@ -199,6 +313,14 @@ public class MetricManagerModule {
         private OptionalLimit dataLimit = OptionalLimit.empty();
         private Optional<Integer> fetchParallelism = empty();
         private Optional<Boolean> failOnLimits = empty();
+        private Optional<Boolean> fetchCoalescing = empty();
+        private Optional<Integer> maxConcurrentFetches = empty();
+        private Optional<Integer> maxQueries = empty();
+        private OptionalLimit maxQueryCost = OptionalLimit.empty();
+        private Optional<Duration> maxQueueTime = empty();
+        private Optional<Boolean> adaptiveFetchParallelism = empty();
+        private Optional<List<Duration>> rollups = empty();
+        private Optional<Duration> rollupGrace = empty();
 
         public Builder backends(List<MetricModule> backends) {
             this.backends = of(backends);
@@ -240,6 +362,46 @@ public class MetricManagerModule {
             return this;
         }
 
+        public Builder fetchCoalescing(boolean fetchCoalescing) {
+            this.fetchCoalescing = of(fetchCoalescing);
+            return this;
+        }
+
+        public Builder maxConcurrentFetches(int maxConcurrentFetches) {
+            this.maxConcurrentFetches = of(maxConcurrentFetches);
+            return this;
+        }
+
+        public Builder maxQueries(int maxQueries) {
+            this.maxQueries = of(maxQueries);
+            return this;
+        }
+
+        public Builder maxQueryCost(long maxQueryCost) {
+            this.maxQueryCost = OptionalLimit.of(maxQueryCost);
+            return this;
+        }
+
+        public Builder maxQueueTime(Duration maxQueueTime) {
+            this.maxQueueTime = of(maxQueueTime);
+            return this;
+        }
+
+        public Builder adaptiveFetchParallelism(boolean adaptiveFetchParallelism) {
+            this.adaptiveFetchParallelism = of(adaptiveFetchParallelism);
+            return this;
+        }
+
+        public Builder rollups(List<Duration> rollups) {
+            this.rollups = of(rollups);
+            return this;
+        }
+
+        public Builder rollupGrace(Duration rollupGrace) {
+            this.rollupGrace = of(rollupGrace);
+            return this;
+        }
+
         public Builder merge(final Builder o) {
             // @formatter:off
             return new Builder(
@@ -250,7 +412,15 @@ public class MetricManagerModule {
                 aggregationLimit.orElse(o.aggregationLimit),
                 dataLimit.orElse(o.dataLimit),
                 pickOptional(fetchParallelism, o.fetchParallelism),
-                pickOptional(failOnLimits, o.failOnLimits)
+                pickOptional(failOnLimits, o.failOnLimits),
+                pickOptional(fetchCoalescing, o.fetchCoalescing),
+                pickOptional(maxConcurrentFetches, o.maxConcurrentFetches),
+                pickOptional(maxQueries, o.maxQueries),
+                maxQueryCost.orElse(o.maxQueryCost),
+                pickOptional(maxQueueTime, o.maxQueueTime),
+                pickOptional(adaptiveFetchParallelism, o.adaptiveFetchParallelism),
+                mergeOptionalList(o.rollups, rollups),
+                pickOptional(rollupGrace, o.rollupGrace)
             );
             // @formatter:on
         }
@@ -265,7 +435,15 @@ public class MetricManagerModule {
                 aggregationLimit,
                 dataLimit,
                 fetchParallelism.orElse(DEFAULT_FETCH_PARALLELISM),
-                failOnLimits.orElse(DEFAULT_FAIL_ON_LIMITS)
+                failOnLimits.orElse(DEFAULT_FAIL_ON_LIMITS),
+                fetchCoalescing.orElse(DEFAULT_FETCH_COALESCING),
+                maxConcurrentFetches.orElse(DEFAULT_MAX_CONCURRENT_FETCHES),
+                maxQueries.orElse(DEFAULT_MAX_QUERIES),
+                maxQueryCost,
+                maxQueueTime.orElse(DEFAULT_MAX_QUEUE_TIME),
+                adaptiveFetchParallelism.orElse(DEFAULT_ADAPTIVE_FETCH_PARALLELISM),
+                rollups.orElseGet(ImmutableList::of),
+                rollupGrace.orElse(DEFAULT_ROLLUP_GRACE)
             );
             // @formatter:on
         }
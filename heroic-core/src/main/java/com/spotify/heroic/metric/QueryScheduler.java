@@ -0,0 +1,474 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.metric;
+
+import com.google.common.collect.ImmutableMap;
+import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.common.OptionalLimit;
+import com.spotify.heroic.common.Statistics;
+import com.spotify.heroic.scheduler.Scheduler;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.FutureDone;
+import eu.toolchain.async.ResolvableFuture;
+import eu.toolchain.async.StreamCollector;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Node-wide scheduler for the fetches of all queries running on a data node.
+ * <p>
+ * Every query is admitted with an estimated cost, and its fetches are performed within a global
+ * budget of concurrent fetches. The budget is shared fairly between clients by dispatching
+ * fetches round-robin between them, and the cheapest query of each client is served first.
+ * <p>
+ * Queries which are estimated to be too expensive, or which arrive when too many queries are
+ * already running, are rejected instead of overloading the backends. Queries which have waited
+ * longer than the maximum queue time without starting a fetch are rejected as well.
+ */
+@Slf4j
+@MetricScope
+public class QueryScheduler {
+    public static final String SCHEDULER_QUERIES = "scheduler-queries";
+    public static final String SCHEDULER_FETCHES = "scheduler-fetches";
+    public static final String SCHEDULER_REJECTED = "scheduler-rejected";
+    public static final String SCHEDULER_TIMEOUTS = "scheduler-timeouts";
+
+    /**
+     * Client used for queries which do not identify themselves.
+     */
+    public static final String DEFAULT_CLIENT = "";
+
+    /**
+     * Range covered by a single sample when estimating the cost of a query, when the aggregation
+     * can't provide an estimate.
+     */
+    static final long COST_RESOLUTION = TimeUnit.MINUTES.toMillis(1);
+
+    private final AsyncFramework async;
+    private final Scheduler scheduler;
+    private final int maxConcurrentFetches;
+    private final int maxQueries;
+    private final OptionalLimit maxQueryCost;
+    private final long maxQueueTime;
+
+    private final Object lock = new Object();
+
+    /* all state below is guarded by lock */
+    private final Map<String, Client> clients = new HashMap<>();
+    private final ArrayDeque<Client> rotation = new ArrayDeque<>();
+    private int fetches = 0;
+    private int queries = 0;
+    private long sequence = 0L;
+
+    private final AtomicInteger dispatching = new AtomicInteger();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    /**
+     * @param maxConcurrentFetches Maximum number of fetches running on this node, across all
+     * queries.
+     * @param maxQueries Maximum number of queries admitted at the same time.
+     * @param maxQueryCost Maximum estimated cost of a single query.
+     * @param maxQueueTime Maximum time in milliseconds that a query waits for its first fetch to
+     * start.
+     */
+    @Inject
+    public QueryScheduler(
+        final AsyncFramework async, final Scheduler scheduler,
+        @Named("maxConcurrentFetches") final int maxConcurrentFetches,
+        @Named("maxQueries") final int maxQueries,
+        @Named("maxQueryCost") final OptionalLimit maxQueryCost,
+        @Named("maxQueueTime") final long maxQueueTime
+    ) {
+        this.async = async;
+        this.scheduler = scheduler;
+        this.maxConcurrentFetches = maxConcurrentFetches;
+        this.maxQueries = maxQueries;
+        this.maxQueryCost = maxQueryCost;
+        this.maxQueueTime = maxQueueTime;
+    }
+
+    /**
+     * Estimate the cost of a query, in the number of samples it is expected to read.
+     *
+     * @param series Number of series that the query reads.
+     * @param range Range of the query.
+     * @param estimate Estimated output of the aggregation, or a negative value if unknown.
+     */
+    public static long cost(final long series, final DateRange range, final long estimate) {
+        final long perSeries = Math.max(1L, Math.max(range.diff() / COST_RESOLUTION, estimate));
+
+        if (perSeries > Long.MAX_VALUE / Math.max(1L, series)) {
+            return Long.MAX_VALUE;
+        }
+
+        return series * perSeries;
+    }
+
+    /**
+     * Submit the fetches of a query.
+     *
+     * @param client Client that the query belongs to.
+     * @param cost Estimated cost of the query, see {@link #cost(long, DateRange, long)}.
+     * @param fetches Fetches to perform.
+     * @param collector Collector for the results of the fetches.
+     * @param parallelism Maximum number of fetches of this query that may run in parallel.
+     * @param rejected Builds the result of the query if it is rejected, from the reason for the
+     * rejection.
+     * @return A future that resolves to the collected result.
+     */
+    public <R, T> AsyncFuture<T> submit(
+        final Optional<String> client, final long cost,
+        final List<Callable<AsyncFuture<R>>> fetches, final StreamCollector<R, T> collector,
+        final int parallelism, final Function<String, T> rejected
+    ) {
+        if (maxQueryCost.isGreater(cost)) {
+            rejections.increment();
+            return async.resolved(rejected.apply(String.format(
+                "Query is estimated to read more samples [%d/%d] than what is allowed", cost,
+                maxQueryCost.asLong().get())));
+        }
+
+        final ResolvableFuture<T> future = async.future();
+
+        if (fetches.isEmpty()) {
+            return end(
+                new Task<>(null, cost, 0L, fetches, collector, parallelism, rejected, future));
+        }
+
+        final Task<R, T> task;
+
+        synchronized (lock) {
+            if (queries >= maxQueries) {
+                rejections.increment();
+                return async.resolved(rejected.apply(
+                    "Too many queries are running on this node (" + maxQueries +
+                        "), try again later"));
+            }
+
+            final String name = client.orElse(DEFAULT_CLIENT);
+            Client c = clients.get(name);
+
+            if (c == null) {
+                c = new Client(name);
+                clients.put(name, c);
+                /* new clients haven't had their turn yet */
+                rotation.addFirst(c);
+            }
+
+            task =
+                new Task<>(c, cost, sequence++, fetches, collector, parallelism, rejected, future);
+            c.tasks.add(task);
+            c.tasks.sort(Task.ORDER);
+            queries++;
+        }
+
+        dispatch();
+
+        synchronized (lock) {
+            if (task.started) {
+                return future;
+            }
+        }
+
+        scheduler.schedule("query-queue-timeout", maxQueueTime, TimeUnit.MILLISECONDS,
+            () -> timeout(task));
+        return future;
+    }
+
+    public Statistics getStatistics() {
+        synchronized (lock) {
+            return new Statistics(
+                ImmutableMap.of(SCHEDULER_QUERIES, (long) queries, SCHEDULER_FETCHES,
+                    (long) fetches, SCHEDULER_REJECTED, rejections.sum(), SCHEDULER_TIMEOUTS,
+                    timeouts.sum()));
+        }
+    }
+
+    /**
+     * Reject the given query if it is still waiting for its first fetch to start.
+     */
+    private <R, T> void timeout(final Task<R, T> task) {
+        synchronized (lock) {
+            if (task.started || !task.client.tasks.remove(task)) {
+                return;
+            }
+
+            queries--;
+        }
+
+        timeouts.increment();
+        task.future.resolve(task.rejected.apply(
+            "Query was queued for longer than the allowed " + maxQueueTime +
+                " ms, try again later"));
+    }
+
+    /**
+     * Start as many fetches as the budget allows.
+     * <p>
+     * Fetches which complete immediately call back into this method, so only one thread
+     * dispatches at a time, and other callers only signal that another round is needed. This
+     * avoids unbounded recursion.
+     */
+    private void dispatch() {
+        if (dispatching.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+
+        do {
+            dispatchRound();
+            missed = dispatching.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void dispatchRound() {
+        final List<Runnable> start = new ArrayList<>();
+
+        synchronized (lock) {
+            int idle = 0;
+
+            /* round-robin between clients, until the budget is exhausted or no client has a
+             * fetch that can be started */
+            while (fetches < maxConcurrentFetches && !rotation.isEmpty() &&
+                idle < rotation.size()) {
+                final Client c = rotation.poll();
+                final Runnable next = next(c);
+
+                if (c.tasks.isEmpty()) {
+                    clients.remove(c.name);
+                    idle = 0;
+                    continue;
+                }
+
+                rotation.add(c);
+
+                if (next == null) {
+                    idle++;
+                    continue;
+                }
+
+                idle = 0;
+                fetches++;
+                start.add(next);
+            }
+        }
+
+        for (final Runnable r : start) {
+            r.run();
+        }
+    }
+
+    /**
+     * Get the next fetch of the cheapest query of the given client which may start a fetch.
+     * <p>
+     * Must be called while holding the lock.
+     */
+    private Runnable next(final Client client) {
+        final Iterator<Task<?, ?>> it = client.tasks.iterator();
+
+        while (it.hasNext()) {
+            final Task<?, ?> task = it.next();
+
+            /* the query was cancelled, don't bother with the remaining fetches */
+            if (task.future.isDone()) {
+                task.fetches = null;
+
+                if (task.running == 0) {
+                    it.remove();
+                    queries--;
+                }
+
+                continue;
+            }
+
+            if (task.running < task.parallelism && task.fetches.hasNext()) {
+                return startNext(task);
+            }
+        }
+
+        return null;
+    }
+
+    private <R, T> Runnable startNext(final Task<R, T> task) {
+        final Callable<AsyncFuture<R>> fetch = task.fetches.next();
+        task.running++;
+        task.started = true;
+
+        return () -> {
+            final AsyncFuture<R> f;
+
+            try {
+                f = fetch.call();
+            } catch (final Exception e) {
+                failed(task, e);
+                return;
+            }
+
+            f.onDone(new FutureDone<R>() {
+                @Override
+                public void failed(final Throwable cause) {
+                    QueryScheduler.this.failed(task, cause);
+                }
+
+                @Override
+                public void resolved(final R result) {
+                    try {
+                        task.collector.resolved(result);
+                    } catch (final Exception e) {
+                        log.error("Failed to collect result", e);
+                    }
+
+                    task.resolved.incrementAndGet();
+                    finished(task);
+                }
+
+                @Override
+                public void cancelled() {
+                    try {
+                        task.collector.cancelled();
+                    } catch (final Exception e) {
+                        log.error("Failed to collect cancellation", e);
+                    }
+
+                    task.cancelled.incrementAndGet();
+                    finished(task);
+                }
+            });
+        };
+    }
+
+    private void failed(final Task<?, ?> task, final Throwable cause) {
+        try {
+            task.collector.failed(cause);
+        } catch (final Exception e) {
+            log.error("Failed to collect failure", e);
+        }
+
+        task.failed.incrementAndGet();
+        finished(task);
+    }
+
+    /**
+     * Called when a fetch of the given task has finished.
+     */
+    private void finished(final Task<?, ?> task) {
+        final boolean done;
+
+        synchronized (lock) {
+            fetches--;
+            task.running--;
+            done = task.isDone() && task.client.tasks.remove(task);
+
+            if (done) {
+                queries--;
+            }
+        }
+
+        if (done) {
+            end(task);
+        }
+
+        dispatch();
+    }
+
+    private <R, T> AsyncFuture<T> end(final Task<R, T> task) {
+        try {
+            task.future.resolve(task.collector.end(task.resolved.get(), task.failed.get(),
+                task.cancelled.get()));
+        } catch (final Exception e) {
+            task.future.fail(e);
+        }
+
+        return task.future;
+    }
+
+    private static class Client {
+        private final String name;
+
+        /* sorted by cost, cheapest first */
+        private final List<Task<?, ?>> tasks = new ArrayList<>();
+
+        private Client(final String name) {
+            this.name = name;
+        }
+    }
+
+    private static class Task<R, T> {
+        private static final Comparator<Task<?, ?>> ORDER =
+            Comparator.<Task<?, ?>>comparingLong(t -> t.cost).thenComparingLong(t -> t.sequence);
+
+        private final Client client;
+        private final long cost;
+        private final long sequence;
+        private final StreamCollector<R, T> collector;
+        private final int parallelism;
+        private final Function<String, T> rejected;
+        private final ResolvableFuture<T> future;
+
+        private final AtomicInteger resolved = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger cancelled = new AtomicInteger();
+
+        /* guarded by the lock of the scheduler, null if no more fetches should be started */
+        private Iterator<Callable<AsyncFuture<R>>> fetches;
+        private int running = 0;
+        private boolean started = false;
+
+        private Task(
+            final Client client, final long cost, final long sequence,
+            final List<Callable<AsyncFuture<R>>> fetches, final StreamCollector<R, T> collector,
+            final int parallelism, final Function<String, T> rejected,
+            final ResolvableFuture<T> future
+        ) {
+            this.client = client;
+            this.cost = cost;
+            this.sequence = sequence;
+            this.fetches = fetches.iterator();
+            this.collector = collector;
+            this.parallelism = Math.max(1, parallelism);
+            this.rejected = rejected;
+            this.future = future;
+        }
+
+        private boolean isDone() {
+            return running == 0 && (fetches == null || !fetches.hasNext());
+        }
+    }
+}
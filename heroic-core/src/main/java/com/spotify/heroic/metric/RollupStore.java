@@ -0,0 +1,571 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.metric;
+
+import com.google.common.collect.ImmutableList;
+import com.spotify.heroic.aggregation.AggregationInstance;
+import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.common.Series;
+import com.spotify.heroic.common.Statistics;
+import com.spotify.heroic.lifecycle.LifeCycleRegistry;
+import com.spotify.heroic.lifecycle.LifeCycles;
+import com.spotify.heroic.scheduler.Scheduler;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import lombok.Data;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Maintains pre-aggregated rollups of written points, and reads them back in place of raw
+ * samples.
+ * <p>
+ * For every configured resolution, the samples of a series that fall within the window
+ * {@code (end - resolution, end]} are summarized into a count, sum, sum of squares, minimum and
+ * maximum. Metric backends only store points, so each statistic is written as a separate point
+ * series at the end of the window. That series is the original series with the additional tags
+ * {@value #ROLLUP_TAG} and {@value #STAT_TAG}, and is not indexed in metadata. When read, the
+ * statistics are combined back into spreads.
+ * <p>
+ * Windows are kept in memory until they are older than the grace period, after which they are
+ * written and samples arriving late for them are dropped. Rollups are written by the node that
+ * ingests the samples, so every series is expected to be ingested through a single node.
+ * <p>
+ * Which windows have been written is not known up front, since rollups might have been enabled
+ * after the samples were written, or windows might have been lost in a crash or a failed write.
+ * Windows which turn out to be missing or incomplete when read are read from raw samples
+ * instead.
+ */
+@Slf4j
+@ToString(of = {"resolutions", "grace"})
+@MetricScope
+public class RollupStore implements LifeCycles {
+    public static final String ROLLUP_TAG = "rollup";
+    public static final String STAT_TAG = "rollup-stat";
+
+    public static final String WINDOWS_WRITTEN = "rollup-windows-written";
+    public static final String SAMPLES_DROPPED = "rollup-samples-dropped";
+    public static final String WRITE_ERRORS = "rollup-write-errors";
+    public static final String QUERIES = "rollup-queries";
+    public static final String RAW_FALLBACKS = "rollup-raw-fallbacks";
+
+    private static final long MIN_FLUSH_INTERVAL = 1000L;
+
+    private static final QueryTrace.Identifier FETCH =
+        QueryTrace.identifier(RollupStore.class, "fetch");
+
+    private final AsyncFramework async;
+    private final Scheduler scheduler;
+    /* resolutions, coarsest first */
+    private final List<Long> resolutions;
+    private final long grace;
+    private final LongSupplier clock;
+
+    private final ConcurrentMap<Key, Windows> windows = new ConcurrentHashMap<>();
+
+    private final LongAdder windowsWritten = new LongAdder();
+    private final LongAdder samplesDropped = new LongAdder();
+    private final LongAdder writeErrors = new LongAdder();
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder rawFallbacks = new LongAdder();
+
+    private volatile boolean stopped = false;
+
+    /**
+     * @param resolutions Resolutions to maintain rollups for, in milliseconds. Empty disables
+     * rollups.
+     * @param grace How long to wait for late samples before a window is written, in milliseconds.
+     */
+    @Inject
+    public RollupStore(
+        final AsyncFramework async, final Scheduler scheduler,
+        @Named("rollups") final List<Long> resolutions, @Named("rollupGrace") final long grace
+    ) {
+        this(async, scheduler, resolutions, grace, System::currentTimeMillis);
+    }
+
+    RollupStore(
+        final AsyncFramework async, final Scheduler scheduler, final List<Long> resolutions,
+        final long grace, final LongSupplier clock
+    ) {
+        for (final long resolution : resolutions) {
+            if (resolution <= 0) {
+                throw new IllegalArgumentException("rollup resolution must be positive");
+            }
+        }
+
+        this.async = async;
+        this.scheduler = scheduler;
+        this.resolutions = ImmutableList.copyOf(
+            resolutions.stream().distinct().sorted(Comparator.reverseOrder()).iterator());
+        this.grace = grace;
+        this.clock = clock;
+    }
+
+    public boolean isEnabled() {
+        return !resolutions.isEmpty();
+    }
+
+    @Override
+    public void register(final LifeCycleRegistry registry) {
+        registry.start(this::start);
+        registry.stop(this::stop);
+    }
+
+    /**
+     * Add the points of the given write to the windows of all resolutions.
+     */
+    public void write(final MetricBackend backend, final WriteMetric.Request request) {
+        if (resolutions.isEmpty() || request.getData().getType() != MetricType.POINT) {
+            return;
+        }
+
+        final PointColumns points = request.getData().getPointColumns();
+
+        if (points.isEmpty()) {
+            return;
+        }
+
+        for (final long resolution : resolutions) {
+            windows.compute(new Key(backend, request.getSeries(), resolution), (k, current) -> {
+                final Windows w = current != null ? current : new Windows();
+
+                /* windows up until the cutoff have been, or are being, written */
+                final long cutoff = clock.getAsLong() - grace;
+
+                for (int i = 0; i < points.size(); i++) {
+                    /* raw reads drop non-finite samples, so rollups have to as well */
+                    if (!Double.isFinite(points.value(i))) {
+                        continue;
+                    }
+
+                    final long end = windowEnd(points.timestamp(i), resolution);
+
+                    if (end <= cutoff) {
+                        samplesDropped.increment();
+                        continue;
+                    }
+
+                    w.add(end, points.value(i));
+                }
+
+                return w.isEmpty() ? null : w;
+            });
+        }
+    }
+
+    /**
+     * Plan how to read the given range from rollups for the given aggregation.
+     * <p>
+     * The coarsest resolution that the aggregation accepts, and which is aligned with the start of
+     * the range, is picked. Windows which are old enough to have been written are planned to be
+     * read from rollups, see {@link #fetch(Plan, FetchData.Request, Function, Function)} for how
+     * windows which were never written are handled.
+     *
+     * @return A plan, or empty if the range should be read from raw samples only.
+     */
+    public Optional<Plan> plan(final AggregationInstance aggregation, final DateRange range) {
+        if (resolutions.isEmpty()) {
+            return Optional.empty();
+        }
+
+        /* leave time for windows past the grace period to be flushed and written */
+        final long written = clock.getAsLong() - grace * 2;
+
+        for (final long resolution : resolutions) {
+            if (range.start() % resolution != 0 || !aggregation.acceptsRollup(resolution)) {
+                continue;
+            }
+
+            final long split =
+                Math.min(floor(range.end() - 1, resolution), floor(written, resolution));
+
+            if (split <= range.start()) {
+                continue;
+            }
+
+            queries.increment();
+            return Optional.of(new Plan(resolution, range.start(), split, range.end()));
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Fetch the rollup windows of the requested series, combined into spreads.
+     * <p>
+     * Windows which are missing, or where any statistic is missing, are read from raw samples
+     * instead.
+     *
+     * @param plan Plan to fetch windows for.
+     * @param request Request for the raw samples of the series.
+     * @param fetch Function used to fetch each statistic.
+     * @param raw Function used to fetch raw samples for windows which are not covered.
+     */
+    public AsyncFuture<FetchData> fetch(
+        final Plan plan, final FetchData.Request request,
+        final Function<FetchData.Request, AsyncFuture<FetchData>> fetch,
+        final Function<FetchData.Request, AsyncFuture<FetchData>> raw
+    ) {
+        final QueryTrace.NamedWatch w = QueryTrace.watch(FETCH);
+
+        final List<AsyncFuture<FetchData>> fetches = new ArrayList<>();
+
+        for (final Stat stat : Stat.values()) {
+            final Series series = series(request.getSeries(), plan.getResolution(), stat);
+
+            fetches.add(fetch.apply(
+                new FetchData.Request(MetricType.POINT, series, plan.rollups(),
+                    request.getOptions())));
+        }
+
+        return async.collect(fetches).lazyTransform(results -> {
+            final List<Spread> spreads = new ArrayList<>();
+            final FetchData rollup = combine(w.end(), results, spreads);
+            final List<DateRange> gaps = gaps(plan, spreads);
+
+            if (gaps.isEmpty()) {
+                return async.resolved(rollup);
+            }
+
+            rawFallbacks.add(gaps.size());
+
+            final List<AsyncFuture<FetchData>> reads = new ArrayList<>();
+            reads.add(async.resolved(rollup));
+
+            for (final DateRange gap : gaps) {
+                reads.add(raw.apply(new FetchData.Request(request.getType(), request.getSeries(),
+                    gap, request.getOptions())));
+            }
+
+            return async.collect(reads, FetchData.collect(FETCH));
+        });
+    }
+
+    public Statistics getStatistics() {
+        final Map<String, Long> counters = new HashMap<>();
+        counters.put(WINDOWS_WRITTEN, windowsWritten.sum());
+        counters.put(SAMPLES_DROPPED, samplesDropped.sum());
+        counters.put(WRITE_ERRORS, writeErrors.sum());
+        counters.put(QUERIES, queries.sum());
+        counters.put(RAW_FALLBACKS, rawFallbacks.sum());
+        return Statistics.of(counters);
+    }
+
+    /**
+     * The series that a statistic of the given series is stored in.
+     */
+    public static Series series(final Series series, final long resolution, final Stat stat) {
+        final Map<String, String> tags = new HashMap<>(series.getTags());
+        tags.put(ROLLUP_TAG, Long.toString(resolution));
+        tags.put(STAT_TAG, stat.tag());
+        return Series.of(series.getKey(), tags);
+    }
+
+    AsyncFuture<Void> start() {
+        if (resolutions.isEmpty()) {
+            return async.resolved();
+        }
+
+        scheduler.periodically("rollup-flush", Math.max(grace / 2, MIN_FLUSH_INTERVAL),
+            TimeUnit.MILLISECONDS, () -> {
+                if (!stopped) {
+                    flush(clock.getAsLong()).get();
+                }
+            });
+
+        return async.resolved();
+    }
+
+    /**
+     * Write all remaining windows, regardless of their age.
+     */
+    AsyncFuture<Void> stop() {
+        stopped = true;
+        return flush(Long.MAX_VALUE);
+    }
+
+    /**
+     * Write all windows that are older than the grace period.
+     *
+     * @param now Current time in milliseconds.
+     */
+    AsyncFuture<Void> flush(final long now) {
+        final long cutoff = now - grace;
+
+        final List<AsyncFuture<Void>> writes = new ArrayList<>();
+
+        for (final Key key : windows.keySet()) {
+            final List<Window> closed = new ArrayList<>();
+
+            windows.computeIfPresent(key, (k, w) -> {
+                w.drain(cutoff, closed);
+                return w.isEmpty() ? null : w;
+            });
+
+            if (!closed.isEmpty()) {
+                writes.add(write(key, closed));
+            }
+        }
+
+        return async.collectAndDiscard(writes);
+    }
+
+    private AsyncFuture<Void> write(final Key key, final List<Window> closed) {
+        final List<AsyncFuture<WriteMetric>> writes = new ArrayList<>();
+
+        for (final Stat stat : Stat.values()) {
+            final PointColumns.Builder points = PointColumns.builder(closed.size());
+
+            for (final Window w : closed) {
+                points.add(w.end, w.get(stat));
+            }
+
+            final Series series = series(key.getSeries(), key.getResolution(), stat);
+
+            writes.add(key
+                .getBackend()
+                .write(new WriteMetric.Request(series, MetricCollection.points(points.build()))));
+        }
+
+        return async.collect(writes).<Void>directTransform(results -> {
+            for (final WriteMetric result : results) {
+                if (!result.getErrors().isEmpty()) {
+                    writeErrors.increment();
+                    return null;
+                }
+            }
+
+            windowsWritten.add(closed.size());
+            return null;
+        }).catchFailed((Throwable e) -> {
+            log.error("Failed to write rollups for {}", key.getSeries(), e);
+            writeErrors.increment();
+            return null;
+        });
+    }
+
+    /**
+     * Combine the fetched statistics into spreads, windows where any statistic is missing are
+     * skipped.
+     *
+     * @param spreads List that the combined spreads are added to, ordered by the end of their
+     * window.
+     */
+    private FetchData combine(
+        final QueryTrace trace, final Collection<FetchData> results, final List<Spread> spreads
+    ) {
+        final ImmutableList.Builder<RequestError> errors = ImmutableList.builder();
+        final ImmutableList.Builder<Long> times = ImmutableList.builder();
+        final TreeMap<Long, Window> byEnd = new TreeMap<>();
+
+        final Stat[] stats = Stat.values();
+        int index = 0;
+
+        for (final FetchData result : results) {
+            final Stat stat = stats[index++];
+
+            errors.addAll(result.getErrors());
+            times.addAll(result.getTimes());
+
+            for (final MetricCollection g : result.getGroups()) {
+                final PointColumns points = g.getPointColumns();
+
+                for (int i = 0; i < points.size(); i++) {
+                    byEnd
+                        .computeIfAbsent(points.timestamp(i), Window::new)
+                        .set(stat, points.value(i));
+                }
+            }
+        }
+
+        for (final Window w : byEnd.values()) {
+            if (w.isComplete()) {
+                spreads.add(w.toSpread());
+            }
+        }
+
+        return new FetchData(trace, errors.build(), times.build(),
+            ImmutableList.of(MetricCollection.spreads(ImmutableList.copyOf(spreads))));
+    }
+
+    /**
+     * Ranges of the plan which are not covered by the given windows, and have to be read from raw
+     * samples.
+     *
+     * @param windows Complete windows, ordered by their end.
+     */
+    static List<DateRange> gaps(final Plan plan, final List<Spread> windows) {
+        final List<DateRange> gaps = new ArrayList<>();
+        long previous = plan.getStart();
+
+        for (final Spread w : windows) {
+            final long end = w.getTimestamp();
+
+            /* the windows between the previous one and this one are missing */
+            if (end - previous > plan.getResolution()) {
+                gaps.add(new DateRange(previous + 1, end - plan.getResolution() + 1));
+            }
+
+            previous = end;
+        }
+
+        if (plan.getSplit() > previous) {
+            gaps.add(new DateRange(previous + 1, plan.getSplit() + 1));
+        }
+
+        return gaps;
+    }
+
+    /**
+     * The end of the window that contains the given timestamp.
+     */
+    static long windowEnd(final long timestamp, final long resolution) {
+        return floor(timestamp - 1, resolution) + resolution;
+    }
+
+    private static long floor(final long value, final long resolution) {
+        return value - Math.floorMod(value, resolution);
+    }
+
+    public enum Stat {
+        COUNT, SUM, SUM2, MIN, MAX;
+
+        public String tag() {
+            return name().toLowerCase();
+        }
+    }
+
+    /**
+     * How a range is read when using rollups.
+     * <p>
+     * Windows ending in {@code (start, split]} are read from rollups. The sample at exactly
+     * {@code start} is not part of any of those windows, so it is read from raw samples together
+     * with everything after {@code split}.
+     */
+    @Data
+    public static class Plan {
+        private final long resolution;
+        private final long start;
+        private final long split;
+        private final long end;
+
+        public DateRange head() {
+            return new DateRange(start, start + 1);
+        }
+
+        public DateRange rollups() {
+            return new DateRange(start + 1, split + 1);
+        }
+
+        public Optional<DateRange> tail() {
+            if (split + 1 >= end) {
+                return Optional.empty();
+            }
+
+            return Optional.of(new DateRange(split + 1, end));
+        }
+    }
+
+    @Data
+    private static class Key {
+        private final MetricBackend backend;
+        private final Series series;
+        private final long resolution;
+    }
+
+    /**
+     * Open windows of a single series and resolution, keyed by their end.
+     */
+    private static class Windows {
+        private final TreeMap<Long, Window> windows = new TreeMap<>();
+
+        void add(final long end, final double value) {
+            windows.computeIfAbsent(end, Window::new).add(value);
+        }
+
+        void drain(final long cutoff, final List<Window> closed) {
+            final Map<Long, Window> head = windows.headMap(cutoff, true);
+            closed.addAll(head.values());
+            head.clear();
+        }
+
+        boolean isEmpty() {
+            return windows.isEmpty();
+        }
+    }
+
+    private static class Window {
+        private final long end;
+        private final double[] values = new double[Stat.values().length];
+        private int present = 0;
+
+        Window(final long end) {
+            this.end = end;
+            values[Stat.MIN.ordinal()] = Double.POSITIVE_INFINITY;
+            values[Stat.MAX.ordinal()] = Double.NEGATIVE_INFINITY;
+        }
+
+        void add(final double value) {
+            values[Stat.COUNT.ordinal()] += 1D;
+            values[Stat.SUM.ordinal()] += value;
+            values[Stat.SUM2.ordinal()] += value * value;
+            values[Stat.MIN.ordinal()] = Math.min(values[Stat.MIN.ordinal()], value);
+            values[Stat.MAX.ordinal()] = Math.max(values[Stat.MAX.ordinal()], value);
+        }
+
+        void set(final Stat stat, final double value) {
+            values[stat.ordinal()] = value;
+            present |= 1 << stat.ordinal();
+        }
+
+        double get(final Stat stat) {
+            return values[stat.ordinal()];
+        }
+
+        boolean isComplete() {
+            return present == (1 << values.length) - 1;
+        }
+
+        Spread toSpread() {
+            return new Spread(end, (long) get(Stat.COUNT), get(Stat.SUM), get(Stat.SUM2),
+                get(Stat.MIN), get(Stat.MAX));
+        }
+    }
+}
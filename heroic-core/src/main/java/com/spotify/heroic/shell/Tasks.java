@@ -54,6 +54,7 @@ import com.spotify.heroic.shell.task.MetadataFindSeriesIds;
 import com.spotify.heroic.shell.task.MetadataLoad;
 import com.spotify.heroic.shell.task.MetadataMigrate;
 import com.spotify.heroic.shell.task.MetadataTags;
+import com.spotify.heroic.shell.task.MetricCompact;
 import com.spotify.heroic.shell.task.ParseQuery;
 import com.spotify.heroic.shell.task.Pause;
 import com.spotify.heroic.shell.task.Query;
@@ -135,6 +136,7 @@ public final class Tasks {
         shellTask(Resume::setup, Resume.class);
         shellTask(IngestionFilter::setup, IngestionFilter.class);
         shellTask(DataMigrate::setup, DataMigrate.class);
+        shellTask(MetricCompact::setup, MetricCompact.class);
         shellTask(ParseQuery::setup, ParseQuery.class);
         shellTask(AnalyticsReportFetchSeries::setup, AnalyticsReportFetchSeries.class);
         shellTask(AnalyticsDumpFetchSeries::setup, AnalyticsDumpFetchSeries.class);
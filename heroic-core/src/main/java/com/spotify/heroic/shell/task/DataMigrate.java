@@ -27,6 +27,7 @@ import com.spotify.heroic.QueryOptions;
 import com.spotify.heroic.async.AsyncObservable;
 import com.spotify.heroic.async.AsyncObserver;
 import com.spotify.heroic.dagger.CoreComponent;
+import com.spotify.heroic.filter.CompiledFilter;
 import com.spotify.heroic.filter.Filter;
 import com.spotify.heroic.grammar.QueryParser;
 import com.spotify.heroic.metric.BackendKey;
@@ -120,7 +121,8 @@ public class DataMigrate implements ShellTask {
             observable = from.streamKeys(keyFilter, options.build());
         }
 
-        observable.observe(new KeyObserver(io, params, filter, from, to, future, errors));
+        observable.observe(
+            new KeyObserver(io, params, CompiledFilter.compile(filter), from, to, future, errors));
 
         return future.directTransform(v -> {
             io.out().println();
@@ -143,7 +145,7 @@ public class DataMigrate implements ShellTask {
     class KeyObserver implements AsyncObserver<BackendKeySet> {
         final ShellIO io;
         final Parameters params;
-        final Filter filter;
+        final CompiledFilter filter;
         final MetricBackend from;
         final MetricBackend to;
         final ResolvableFuture<Void> future;
@@ -225,7 +227,7 @@ public class DataMigrate implements ShellTask {
         }
 
         void streamOne(final BackendKey key) {
-            if (!filter.apply(key.getSeries())) {
+            if (!filter.test(key.getSeries())) {
                 endOne(key);
                 return;
             }
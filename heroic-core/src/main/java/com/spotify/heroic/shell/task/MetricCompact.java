@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.shell.task;
+
+import com.spotify.heroic.async.AsyncObserver;
+import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.common.OptionalLimit;
+import com.spotify.heroic.common.Series;
+import com.spotify.heroic.dagger.CoreComponent;
+import com.spotify.heroic.filter.Filter;
+import com.spotify.heroic.grammar.QueryParser;
+import com.spotify.heroic.metadata.FindSeries;
+import com.spotify.heroic.metadata.FindSeriesStream;
+import com.spotify.heroic.metadata.MetadataManager;
+import com.spotify.heroic.metric.MetricBackend;
+import com.spotify.heroic.metric.MetricManager;
+import com.spotify.heroic.shell.ShellIO;
+import com.spotify.heroic.shell.ShellTask;
+import com.spotify.heroic.shell.TaskName;
+import com.spotify.heroic.shell.TaskParameters;
+import com.spotify.heroic.shell.TaskUsage;
+import com.spotify.heroic.shell.Tasks;
+import dagger.Component;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.ResolvableFuture;
+import eu.toolchain.async.StreamCollector;
+import lombok.Getter;
+import lombok.ToString;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+@TaskUsage("Compact stored points of the matching series into the most compact storage format")
+@TaskName("metric-compact")
+public class MetricCompact implements ShellTask {
+    public static final long DOTS = 100;
+    public static final long LINES = DOTS * 20;
+
+    private final AsyncFramework async;
+    private final QueryParser parser;
+    private final MetadataManager metadata;
+    private final MetricManager metric;
+
+    @Inject
+    public MetricCompact(
+        AsyncFramework async, QueryParser parser, MetadataManager metadata, MetricManager metric
+    ) {
+        this.async = async;
+        this.parser = parser;
+        this.metadata = metadata;
+        this.metric = metric;
+    }
+
+    @Override
+    public TaskParameters params() {
+        return new Parameters();
+    }
+
+    @Override
+    public AsyncFuture<Void> run(final ShellIO io, final TaskParameters base) throws Exception {
+        final Parameters params = (Parameters) base;
+
+        final Filter filter = Tasks.setupFilter(parser, params);
+        final DateRange range = params.getRange();
+        final MetricBackend group = metric.useOptionalGroup(params.group);
+
+        final AtomicLong series = new AtomicLong();
+        final AtomicLong points = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+
+        final ResolvableFuture<Void> future = async.future();
+
+        metadata
+            .useOptionalGroup(params.metadataGroup)
+            .findSeriesStream(new FindSeries.Request(filter, range, params.getLimit()))
+            .observe(new AsyncObserver<FindSeriesStream>() {
+                @Override
+                public AsyncFuture<Void> observe(final FindSeriesStream value) {
+                    if (future.isDone()) {
+                        return async.cancelled();
+                    }
+
+                    final List<Callable<AsyncFuture<Long>>> compactions = new ArrayList<>();
+
+                    for (final Series s : value.getSeries()) {
+                        compactions.add(() -> group.compact(s, range));
+                    }
+
+                    /* the next page is not observed until this one is done, which bounds the
+                     * number of concurrent compactions to the configured parallelism */
+                    return async.eventuallyCollect(compactions, new StreamCollector<Long, Void>() {
+                        @Override
+                        public void resolved(final Long result) throws Exception {
+                            points.addAndGet(result);
+                            dot(io, series.incrementAndGet());
+                        }
+
+                        @Override
+                        public void failed(final Throwable cause) throws Exception {
+                            errors.incrementAndGet();
+
+                            synchronized (io) {
+                                io.out().println("Compaction failed: " + cause);
+                                io.out().flush();
+                            }
+                        }
+
+                        @Override
+                        public void cancelled() throws Exception {
+                        }
+
+                        @Override
+                        public Void end(final int resolved, final int failed, final int cancelled)
+                            throws Exception {
+                            return null;
+                        }
+                    }, params.parallelism);
+                }
+
+                @Override
+                public void cancel() {
+                    future.cancel();
+                }
+
+                @Override
+                public void fail(final Throwable cause) {
+                    future.fail(cause);
+                }
+
+                @Override
+                public void end() {
+                    future.resolve(null);
+                }
+            });
+
+        return future.directTransform(v -> {
+            io.out().println();
+            io.out().println(
+                String.format("Compacted %d point(s) in %d series (%d failed)", points.get(),
+                    series.get(), errors.get()));
+            io.out().flush();
+            return null;
+        });
+    }
+
+    private void dot(final ShellIO io, final long n) {
+        if (n % LINES == 0) {
+            synchronized (io) {
+                io.out().println(" " + n);
+                io.out().flush();
+            }
+        } else if (n % DOTS == 0) {
+            synchronized (io) {
+                io.out().print(".");
+                io.out().flush();
+            }
+        }
+    }
+
+    @ToString
+    private static class Parameters extends Tasks.QueryParamsBase {
+        @Option(name = "-g", aliases = {"--group"}, usage = "Metric backend group to compact",
+            metaVar = "<group>")
+        private Optional<String> group = Optional.empty();
+
+        @Option(name = "--metadata-group", usage = "Metadata backend group to find series in",
+            metaVar = "<group>")
+        private Optional<String> metadataGroup = Optional.empty();
+
+        @Option(name = "--days", usage = "Compact data for the given number of days (default: 7)",
+            metaVar = "<int>")
+        private int days = 7;
+
+        @Option(name = "--limit", usage = "Limit the number of series to compact")
+        @Getter
+        private OptionalLimit limit = OptionalLimit.empty();
+
+        @Option(name = "--parallelism",
+            usage = "Configure how many series to compact in parallel (default: 20)",
+            metaVar = "<number>")
+        private int parallelism = 20;
+
+        @Argument
+        @Getter
+        private List<String> query = new ArrayList<>();
+
+        @Override
+        public DateRange getRange() {
+            final long now = System.currentTimeMillis();
+            return new DateRange(now - TimeUnit.DAYS.toMillis(days), now);
+        }
+    }
+
+    public static MetricCompact setup(final CoreComponent core) {
+        return DaggerMetricCompact_C.builder().coreComponent(core).build().task();
+    }
+
+    @Component(dependencies = CoreComponent.class)
+    interface C {
+        MetricCompact task();
+    }
+}
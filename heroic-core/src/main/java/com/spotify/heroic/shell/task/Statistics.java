@@ -21,6 +21,7 @@
 
 package com.spotify.heroic.shell.task;
 
+import com.spotify.heroic.QueryManager;
 import com.spotify.heroic.consumer.Consumer;
 import com.spotify.heroic.dagger.CoreComponent;
 import com.spotify.heroic.ingestion.IngestionManager;
@@ -54,11 +55,13 @@ public class Statistics implements ShellTask {
     private final MetricManager metrics;
     private final MetadataManager metadata;
     private final SuggestManager suggest;
+    private final QueryManager query;
 
     @Inject
     public Statistics(
         AsyncFramework async, Set<Consumer> consumers, IngestionManager ingestion,
-        MetricManager metrics, MetadataManager metadata, SuggestManager suggest
+        MetricManager metrics, MetadataManager metadata, SuggestManager suggest,
+        QueryManager query
     ) {
         this.async = async;
         this.consumers = consumers;
@@ -66,6 +69,7 @@ public class Statistics implements ShellTask {
         this.metrics = metrics;
         this.metadata = metadata;
         this.suggest = suggest;
+        this.query = query;
     }
 
     @Override
@@ -123,6 +127,12 @@ public class Statistics implements ShellTask {
             }
         }
 
+        io.out().println("Query: " + query);
+
+        for (final Entry<String, Long> e : query.getStatistics().getCounters().entrySet()) {
+            io.out().println("  " + e.getKey() + "=" + e.getValue());
+        }
+
         io.out().flush();
         return async.resolved();
     }
@@ -0,0 +1,61 @@
+package com.spotify.heroic.cache.memcached;
+
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local stand-in for a memcached server, which can be shared between several caches to simulate
+ * multiple API nodes.
+ */
+@RequiredArgsConstructor
+public class LocalMemcachedClient implements MemcachedClient {
+    private final AsyncFramework async;
+
+    private final Map<String, Item> items = new ConcurrentHashMap<>();
+
+    private volatile boolean available = true;
+
+    @Override
+    public AsyncFuture<Optional<byte[]>> get(final String key) {
+        if (!available) {
+            return async.failed(new IllegalStateException("memcached is not available"));
+        }
+
+        return async.resolved(Optional.ofNullable(items.get(key)).map(Item::getValue));
+    }
+
+    @Override
+    public AsyncFuture<Void> set(final String key, final byte[] value, final int ttl) {
+        if (!available) {
+            return async.failed(new IllegalStateException("memcached is not available"));
+        }
+
+        items.put(key, new Item(value, ttl));
+        return async.resolved();
+    }
+
+    @Override
+    public AsyncFuture<Void> close() {
+        return async.resolved();
+    }
+
+    public Map<String, Item> items() {
+        return items;
+    }
+
+    public void setAvailable(final boolean available) {
+        this.available = available;
+    }
+
+    @Data
+    public static class Item {
+        private final byte[] value;
+        private final int ttl;
+    }
+}
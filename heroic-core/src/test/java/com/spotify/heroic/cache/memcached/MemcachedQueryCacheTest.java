@@ -0,0 +1,222 @@
+package com.spotify.heroic.cache.memcached;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.spotify.heroic.QueryOptions;
+import com.spotify.heroic.aggregation.AggregationInstance;
+import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.common.Series;
+import com.spotify.heroic.filter.Filter;
+import com.spotify.heroic.metric.FullQuery;
+import com.spotify.heroic.metric.MetricCollection;
+import com.spotify.heroic.metric.MetricType;
+import com.spotify.heroic.metric.Point;
+import com.spotify.heroic.metric.QueryError;
+import com.spotify.heroic.metric.QueryResult;
+import com.spotify.heroic.metric.QueryTrace;
+import com.spotify.heroic.metric.ResultLimits;
+import com.spotify.heroic.metric.ShardedResultGroup;
+import com.spotify.heroic.statistics.QueryCacheReporter;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.Managed;
+import eu.toolchain.async.ManagedSetup;
+import eu.toolchain.async.TinyAsync;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MemcachedQueryCacheTest {
+    private static final long CADENCE = TimeUnit.MINUTES.toMillis(1);
+
+    private static final QueryTrace.Identifier TEST =
+        QueryTrace.identifier(MemcachedQueryCacheTest.class, "test");
+
+    private final AsyncFramework async =
+        TinyAsync.builder().executor(MoreExecutors.newDirectExecutorService()).build();
+
+    private LocalMemcachedClient memcached;
+
+    @Mock
+    private ObjectMapper mapper;
+
+    @Mock
+    private QueryCacheReporter reporter;
+
+    @Mock
+    private FullQuery.Request request;
+
+    @Mock
+    private AggregationInstance aggregation;
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Before
+    public void setup() throws Exception {
+        memcached = new LocalMemcachedClient(async);
+
+        doReturn(aggregation).when(request).getAggregation();
+        doReturn(QueryOptions.defaults()).when(request).getOptions();
+        doReturn(request).when(request).withOptions(any(QueryOptions.class));
+        doReturn(CADENCE).when(aggregation).cadence();
+        doReturn(new byte[]{42}).when(mapper).writeValueAsBytes(any());
+    }
+
+    @Test
+    public void testSharedBetweenNodes() throws Exception {
+        final QueryResult result = result();
+
+        final MemcachedQueryCache a = cache();
+        final MemcachedQueryCache b = cache();
+
+        assertEquals(result, a.load(request, loader(result)).get());
+        assertEquals(1, memcached.items().size());
+
+        /* another node sees the result stored by the first one */
+        final QueryResult cached = b.load(request, loader(result)).get();
+
+        assertEquals(1, loads.get());
+        assertEquals(result.getRange(), cached.getRange());
+        assertEquals(result.getGroups(), cached.getGroups());
+
+        verify(reporter).reportMiss();
+        verify(reporter).reportHit();
+    }
+
+    @Test
+    public void testNotCacheable() throws Exception {
+        doReturn(0L).when(aggregation).cadence();
+
+        final MemcachedQueryCache cache = cache();
+        cache.load(request, loader(result())).get();
+        cache.load(request, loader(result())).get();
+
+        assertEquals(2, loads.get());
+        assertTrue(memcached.items().isEmpty());
+    }
+
+    @Test
+    public void testErrorsNotStored() throws Exception {
+        final QueryResult errors = new QueryResult(new DateRange(0, CADENCE * 10),
+            ImmutableList.of(), ImmutableList.of(QueryError.fromMessage("error")),
+            QueryTrace.watch(TEST).end(), ResultLimits.of());
+
+        cache().load(request, loader(errors)).get();
+
+        assertTrue(memcached.items().isEmpty());
+    }
+
+    @Test
+    public void testUnavailable() throws Exception {
+        memcached.setAvailable(false);
+
+        final QueryResult result = result();
+        assertEquals(result, cache().load(request, loader(result)).get());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testClientStopped() throws Exception {
+        final Managed<MemcachedClient> managed = managed();
+        managed.stop().get();
+
+        final MemcachedQueryCache cache = new MemcachedQueryCache(async, managed, mapper,
+            reporter, 1D, TimeUnit.SECONDS.toMillis(1), TimeUnit.HOURS.toMillis(1));
+
+        final QueryResult result = result();
+        assertEquals(result, cache.load(request, loader(result)).get());
+        assertEquals(1, loads.get());
+        assertTrue(memcached.items().isEmpty());
+    }
+
+    @Test
+    public void testCorruptValue() throws Exception {
+        final MemcachedQueryCache cache = cache();
+        memcached.set(cache.key(request), new byte[]{1, 2, 3}, 60).get();
+
+        final QueryResult result = result();
+        assertEquals(result, cache.load(request, loader(result)).get());
+        verify(reporter, times(1)).reportMiss();
+    }
+
+    @Test
+    public void testKeyWithoutClientId() throws Exception {
+        final FullQuery.Request request = new FullQuery.Request(MetricType.POINT, Filter.and(),
+            new DateRange(0, CADENCE * 10), aggregation,
+            QueryOptions.builder().clientId("a").build());
+
+        cache().key(request);
+
+        verify(mapper).writeValueAsBytes(request.withOptions(QueryOptions.defaults()));
+    }
+
+    @Test
+    public void testTtl() throws Exception {
+        final MemcachedQueryCache cache = new MemcachedQueryCache(async, managed(), mapper,
+            reporter, 2D, TimeUnit.SECONDS.toMillis(10), TimeUnit.MINUTES.toMillis(5));
+
+        assertEquals(10, cache.ttl(1000));
+        assertEquals(120, cache.ttl(CADENCE));
+        assertEquals(300, cache.ttl(TimeUnit.HOURS.toMillis(1)));
+
+        cache.load(request, loader(result())).get();
+        assertEquals(120, memcached.items().values().iterator().next().getTtl());
+    }
+
+    private MemcachedQueryCache cache() throws Exception {
+        return new MemcachedQueryCache(async, managed(), mapper, reporter, 1D,
+            TimeUnit.SECONDS.toMillis(1), TimeUnit.HOURS.toMillis(1));
+    }
+
+    private Managed<MemcachedClient> managed() throws Exception {
+        final Managed<MemcachedClient> managed =
+            async.managed(new ManagedSetup<MemcachedClient>() {
+                @Override
+                public AsyncFuture<MemcachedClient> construct() {
+                    return async.resolved(memcached);
+                }
+
+                @Override
+                public AsyncFuture<Void> destruct(final MemcachedClient value) {
+                    return async.resolved();
+                }
+            });
+
+        managed.start().get();
+        return managed;
+    }
+
+    private Supplier<AsyncFuture<QueryResult>> loader(final QueryResult result) {
+        return () -> {
+            loads.incrementAndGet();
+            return async.resolved(result);
+        };
+    }
+
+    private QueryResult result() {
+        final ShardedResultGroup group =
+            new ShardedResultGroup(ImmutableMap.of(), ImmutableMap.of("host", "a"),
+                ImmutableSet.of(Series.of("a")), MetricCollection.points(
+                ImmutableList.of(new Point(0, 1D), new Point(CADENCE, 2D))), CADENCE);
+
+        return new QueryResult(new DateRange(0, CADENCE * 10), ImmutableList.of(group),
+            ImmutableList.of(), QueryTrace.watch(TEST).end(), ResultLimits.of());
+    }
+}
@@ -0,0 +1,107 @@
+package com.spotify.heroic.cache.memcached;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.common.Series;
+import com.spotify.heroic.metric.Event;
+import com.spotify.heroic.metric.MetricCollection;
+import com.spotify.heroic.metric.Payload;
+import com.spotify.heroic.metric.Point;
+import com.spotify.heroic.metric.QueryError;
+import com.spotify.heroic.metric.QueryResult;
+import com.spotify.heroic.metric.QueryTrace;
+import com.spotify.heroic.metric.ResultLimit;
+import com.spotify.heroic.metric.ResultLimits;
+import com.spotify.heroic.metric.ShardedResultGroup;
+import com.spotify.heroic.metric.Spread;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class QueryResultCodecTest {
+    private static final QueryTrace.Identifier TEST =
+        QueryTrace.identifier(QueryResultCodecTest.class, "test");
+
+    private final QueryResultCodec codec = new QueryResultCodec();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final QueryResult result = result(ImmutableList.of(
+            group(MetricCollection.points(
+                ImmutableList.of(new Point(1000, 1D), new Point(2000, Double.NaN),
+                    new Point(3000, -42.5D)))),
+            group(MetricCollection.spreads(
+                ImmutableList.of(new Spread(1000, 2, 3D, 5D, 1D, 2D)))),
+            group(MetricCollection.cardinality(
+                ImmutableList.of(new Payload(1000, new byte[]{1, 2, 3}))))
+        ), ResultLimits.of());
+
+        final QueryResult decoded = codec.decode(codec.encode(result).get());
+
+        assertEquals(result.getRange(), decoded.getRange());
+        assertEquals(result.getLimits(), decoded.getLimits());
+        assertEquals(3, decoded.getGroups().size());
+
+        for (int i = 0; i < 2; i++) {
+            assertEquals(result.getGroups().get(i), decoded.getGroups().get(i));
+        }
+
+        final List<Payload> payloads =
+            decoded.getGroups().get(2).getMetrics().getDataAs(Payload.class);
+        assertEquals(1000, payloads.get(0).getTimestamp());
+        assertArrayEquals(new byte[]{1, 2, 3}, payloads.get(0).getState());
+    }
+
+    @Test
+    public void testUnsupported() throws IOException {
+        final QueryResult events = result(ImmutableList.of(group(
+            MetricCollection.events(ImmutableList.of(new Event(1000, ImmutableMap.of()))))),
+            ResultLimits.of());
+
+        assertFalse(codec.encode(events).isPresent());
+
+        final QueryResult errors = new QueryResult(new DateRange(0, 10000), ImmutableList.of(),
+            ImmutableList.of(QueryError.fromMessage("error")), QueryTrace.watch(TEST).end(),
+            ResultLimits.of());
+
+        assertFalse(codec.encode(errors).isPresent());
+
+        final QueryResult limited = result(
+            ImmutableList.of(group(MetricCollection.points(ImmutableList.of(new Point(1, 1D))))),
+            ResultLimits.of(ResultLimit.SERIES));
+
+        assertFalse(codec.encode(limited).isPresent());
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorrupt() throws IOException {
+        final QueryResult result = result(
+            ImmutableList.of(group(MetricCollection.points(ImmutableList.of(new Point(1, 1D))))),
+            ResultLimits.of());
+
+        final byte[] bytes = codec.encode(result).get();
+        codec.decode(Arrays.copyOf(bytes, bytes.length - 4));
+    }
+
+    private static ShardedResultGroup group(final MetricCollection metrics) {
+        return new ShardedResultGroup(ImmutableMap.of("site", "lon"),
+            ImmutableMap.of("host", "a"),
+            ImmutableSet.of(Series.of("a", ImmutableMap.of("host", "a", "role", "web"))), metrics,
+            1000);
+    }
+
+    private static QueryResult result(
+        final List<ShardedResultGroup> groups, final ResultLimits limits
+    ) {
+        return new QueryResult(new DateRange(0, 10000), groups, ImmutableList.of(),
+            QueryTrace.watch(TEST).end(), limits);
+    }
+}
@@ -0,0 +1,356 @@
+package com.spotify.heroic.cache.memory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.jsontype.NamedType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.spotify.heroic.QueryOptions;
+import com.spotify.heroic.aggregation.AbstractBucket;
+import com.spotify.heroic.aggregation.AggregationInstance;
+import com.spotify.heroic.aggregation.BucketAggregationInstance;
+import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.common.Series;
+import com.spotify.heroic.common.Statistics;
+import com.spotify.heroic.common.TypeNameMixin;
+import com.spotify.heroic.filter.Filter;
+import com.spotify.heroic.metric.FullQuery;
+import com.spotify.heroic.metric.MetricCollection;
+import com.spotify.heroic.metric.MetricType;
+import com.spotify.heroic.metric.Point;
+import com.spotify.heroic.metric.QueryResult;
+import com.spotify.heroic.metric.QueryTrace;
+import com.spotify.heroic.metric.ResultLimits;
+import com.spotify.heroic.metric.ShardedResultGroup;
+import com.spotify.heroic.metrics.Clock;
+import com.spotify.heroic.statistics.QueryCacheReporter;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.ResolvableFuture;
+import eu.toolchain.async.TinyAsync;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MemoryQueryCacheTest {
+    private static final long CADENCE = TimeUnit.MINUTES.toMillis(1);
+
+    private static final QueryTrace.Identifier TEST =
+        QueryTrace.identifier(MemoryQueryCacheTest.class, "test");
+
+    private final AsyncFramework async =
+        TinyAsync.builder().executor(MoreExecutors.newDirectExecutorService()).build();
+
+    @Mock
+    private QueryCacheReporter reporter;
+
+    @Mock
+    private FullQuery.Request request;
+
+    @Mock
+    private AggregationInstance aggregation;
+
+    @Mock
+    private ObjectMapper mapper;
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private long now;
+    private MemoryQueryCache cache;
+
+    @Before
+    public void setup() {
+        doReturn(aggregation).when(request).getAggregation();
+        doReturn(QueryOptions.defaults()).when(request).getOptions();
+        doReturn(CADENCE).when(aggregation).cadence();
+
+        now = 0L;
+        cache =
+            new MemoryQueryCache(async, Runnable::run, mapper, reporter, () -> now, 100L, false,
+                0L);
+    }
+
+    @Test
+    public void testSameCadenceNotShared() throws Exception {
+        final ObjectMapper mapper = new ObjectMapper();
+        mapper.addMixIn(AggregationInstance.class, TypeNameMixin.class);
+        mapper.registerSubtypes(new NamedType(First.class, "first"),
+            new NamedType(Second.class, "second"));
+
+        final MemoryQueryCache cache = new MemoryQueryCache(async, Runnable::run, mapper,
+            reporter, () -> now, 100L, false, 0L);
+
+        final DateRange range = new DateRange(0L, CADENCE * 2);
+        final FullQuery.Request first = new FullQuery.Request(MetricType.POINT, Filter.and(),
+            range, new First(), QueryOptions.defaults());
+        final FullQuery.Request second = first.withRange(range);
+        final FullQuery.Request other = new FullQuery.Request(MetricType.POINT, Filter.and(),
+            range, new Second(), QueryOptions.defaults());
+
+        /* bucket aggregations with the same size and extent are equal */
+        assertEquals(first, second);
+        assertEquals(first, other);
+
+        final QueryResult a = result(2);
+        final QueryResult b = result(3);
+
+        assertEquals(a, cache.load(first, loader(async.resolved(a))).get());
+        assertEquals(a, cache.load(second, loader(async.resolved(b))).get());
+        assertEquals(b, cache.load(other, loader(async.resolved(b))).get());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testSharedBetweenClients() throws Exception {
+        final ObjectMapper mapper = new ObjectMapper();
+        mapper.addMixIn(AggregationInstance.class, TypeNameMixin.class);
+        mapper.registerSubtypes(new NamedType(First.class, "first"));
+
+        final MemoryQueryCache cache = new MemoryQueryCache(async, Runnable::run, mapper,
+            reporter, () -> now, 100L, false, 0L);
+
+        final DateRange range = new DateRange(0L, CADENCE * 2);
+        final FullQuery.Request a = new FullQuery.Request(MetricType.POINT, Filter.and(), range,
+            new First(), QueryOptions.builder().clientId("a").build());
+        final FullQuery.Request b = a.withOptions(QueryOptions.builder().clientId("b").build());
+
+        final QueryResult result = result(2);
+
+        assertEquals(result, cache.load(a, loader(async.resolved(result))).get());
+        assertEquals(result, cache.load(b, loader(async.resolved(result(3)))).get());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testSameCadenceNotSharedPartial() throws Exception {
+        final ObjectMapper mapper = new ObjectMapper();
+        mapper.addMixIn(AggregationInstance.class, TypeNameMixin.class);
+        mapper.registerSubtypes(new NamedType(First.class, "first"),
+            new NamedType(Second.class, "second"));
+
+        final MemoryQueryCache cache = new MemoryQueryCache(async, Runnable::run, mapper,
+            reporter, () -> now, 100L, true, TimeUnit.DAYS.toMillis(1));
+
+        /* the range is entirely in the past, so all buckets are finalized */
+        final DateRange range = new DateRange(0L, CADENCE * 2);
+        final FullQuery.Request first = new FullQuery.Request(MetricType.POINT, Filter.and(),
+            range, new First(), QueryOptions.defaults());
+        final FullQuery.Request other = new FullQuery.Request(MetricType.POINT, Filter.and(),
+            range, new Second(), QueryOptions.defaults());
+
+        final QueryResult a = result(2);
+        final QueryResult b = result(3);
+
+        assertEquals(a, cache.load(first, CADENCE, r -> loader(async.resolved(a)).get()).get());
+        assertEquals(b, cache.load(other, CADENCE, r -> loader(async.resolved(b)).get()).get());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testPartialUsesClock() throws Exception {
+        final ObjectMapper mapper = new ObjectMapper();
+        mapper.addMixIn(AggregationInstance.class, TypeNameMixin.class);
+        mapper.registerSubtypes(new NamedType(First.class, "first"));
+
+        /* the wall clock is at the start of the range, so no buckets are finalized */
+        final Clock clock = new Clock() {
+            @Override
+            public long getTick() {
+                return now;
+            }
+
+            @Override
+            public long currentTimeMillis() {
+                return 0L;
+            }
+        };
+
+        final MemoryQueryCache cache = new MemoryQueryCache(async, Runnable::run, mapper,
+            reporter, clock, 100L, true, TimeUnit.DAYS.toMillis(1));
+
+        final FullQuery.Request request = new FullQuery.Request(MetricType.POINT, Filter.and(),
+            new DateRange(0L, CADENCE * 2), new First(), QueryOptions.defaults());
+
+        final QueryResult a = result(2);
+
+        assertEquals(a, cache.load(request, CADENCE, r -> loader(async.resolved(a)).get()).get());
+        assertEquals(a, cache.load(request, CADENCE, r -> loader(async.resolved(a)).get()).get());
+        assertEquals(2, loads.get());
+        assertEquals(0L, cache.getStatistics().get(MemoryQueryCache.PARTIAL_SIZE, -1L));
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        final ResolvableFuture<QueryResult> pending = async.future();
+
+        final AsyncFuture<QueryResult> a = cache.load(request, loader(pending));
+        final AsyncFuture<QueryResult> b = cache.load(request, loader(pending));
+
+        assertSame(a, b);
+        assertEquals(1, loads.get());
+
+        final QueryResult result = result(2);
+        pending.resolve(result);
+
+        assertEquals(result, a.get());
+        assertEquals(result, cache.load(request, loader(async.resolved(result))).get());
+        assertEquals(1, loads.get());
+
+        final Statistics s = cache.getStatistics();
+        assertEquals(1L, s.get(MemoryQueryCache.HITS, -1L));
+        assertEquals(1L, s.get(MemoryQueryCache.JOINS, -1L));
+        assertEquals(1L, s.get(MemoryQueryCache.MISSES, -1L));
+        assertEquals(1L, s.get(MemoryQueryCache.RESULTS_SIZE, -1L));
+        assertEquals(3L, s.get(MemoryQueryCache.RESULTS_WEIGHT, -1L));
+    }
+
+    @Test
+    public void testSingleFlightPartial() throws Exception {
+        final ObjectMapper mapper = new ObjectMapper();
+        mapper.addMixIn(AggregationInstance.class, TypeNameMixin.class);
+        mapper.registerSubtypes(new NamedType(First.class, "first"));
+
+        final MemoryQueryCache cache = new MemoryQueryCache(async, Runnable::run, mapper,
+            reporter, () -> now, 100L, true, TimeUnit.DAYS.toMillis(1));
+
+        final FullQuery.Request request = new FullQuery.Request(MetricType.POINT, Filter.and(),
+            new DateRange(0L, CADENCE * 2), new First(), QueryOptions.defaults());
+
+        final ResolvableFuture<QueryResult> pending = async.future();
+
+        final AsyncFuture<QueryResult> a =
+            cache.load(request, CADENCE, r -> loader(pending).get());
+        final AsyncFuture<QueryResult> b =
+            cache.load(request, CADENCE, r -> loader(pending).get());
+
+        assertSame(a, b);
+        assertEquals(1, loads.get());
+
+        final QueryResult result = result(2);
+        pending.resolve(result);
+
+        assertEquals(result, b.get());
+
+        final Statistics s = cache.getStatistics();
+        assertEquals(0L, s.get(MemoryQueryCache.HITS, -1L));
+        assertEquals(1L, s.get(MemoryQueryCache.JOINS, -1L));
+        assertEquals(1L, s.get(MemoryQueryCache.MISSES, -1L));
+    }
+
+    @Test
+    public void testFailedNotCached() throws Exception {
+        final AsyncFuture<QueryResult> failed =
+            cache.load(request, loader(async.failed(new RuntimeException("failed"))));
+
+        assertTrue(failed.isFailed());
+
+        final QueryResult result = result(2);
+        assertEquals(result, cache.load(request, loader(async.resolved(result))).get());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testExpired() throws Exception {
+        cache.load(request, loader(async.resolved(result(2)))).get();
+
+        now = TimeUnit.MILLISECONDS.toNanos(CADENCE + 1);
+
+        cache.load(request, loader(async.resolved(result(2)))).get();
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testWeightBound() throws Exception {
+        /* heavier than the whole cache */
+        cache.load(request, loader(async.resolved(result(200)))).get();
+        cache.load(request, loader(async.resolved(result(200)))).get();
+
+        assertEquals(2, loads.get());
+        assertEquals(0L, cache.getStatistics().get(MemoryQueryCache.RESULTS_WEIGHT, -1L));
+    }
+
+    @Test
+    public void testWeightSharedWithPartial() throws Exception {
+        final MemoryQueryCache cache = new MemoryQueryCache(async, Runnable::run, mapper,
+            reporter, () -> now, 100L, true, TimeUnit.DAYS.toMillis(1));
+
+        /* fits in the whole cache, but not in the half which is left to complete results */
+        cache.load(request, loader(async.resolved(result(60)))).get();
+        cache.load(request, loader(async.resolved(result(60)))).get();
+
+        assertEquals(2, loads.get());
+        assertEquals(0L, cache.getStatistics().get(MemoryQueryCache.RESULTS_WEIGHT, -1L));
+
+        cache.load(request, loader(async.resolved(result(40)))).get();
+        assertEquals(41L, cache.getStatistics().get(MemoryQueryCache.RESULTS_WEIGHT, -1L));
+    }
+
+    @Test
+    public void testNotCacheable() throws Exception {
+        doReturn(0L).when(aggregation).cadence();
+
+        cache.load(request, loader(async.resolved(result(2)))).get();
+        cache.load(request, loader(async.resolved(result(2)))).get();
+
+        assertEquals(2, loads.get());
+    }
+
+    public static class First extends BucketAggregationInstance<AbstractBucket> {
+        public First() {
+            super(CADENCE, CADENCE, ALL_TYPES, MetricType.POINT);
+        }
+
+        @Override
+        protected AbstractBucket buildBucket(final long timestamp) {
+            return null;
+        }
+
+        @Override
+        protected Point build(final AbstractBucket bucket) {
+            return null;
+        }
+
+        @Override
+        public AggregationInstance reducer() {
+            return this;
+        }
+    }
+
+    public static class Second extends First {
+    }
+
+    private Supplier<AsyncFuture<QueryResult>> loader(final AsyncFuture<QueryResult> result) {
+        return () -> {
+            loads.incrementAndGet();
+            return result;
+        };
+    }
+
+    private QueryResult result(final int points) {
+        final ImmutableList.Builder<Point> data = ImmutableList.builder();
+
+        for (int i = 0; i < points; i++) {
+            data.add(new Point(i * CADENCE, i));
+        }
+
+        final ShardedResultGroup group =
+            new ShardedResultGroup(ImmutableMap.of(), ImmutableMap.of(),
+                ImmutableSet.of(Series.of("a")), MetricCollection.points(data.build()), CADENCE);
+
+        return new QueryResult(new DateRange(0, CADENCE * points), ImmutableList.of(group),
+            ImmutableList.of(), QueryTrace.watch(TEST).end(), ResultLimits.of());
+    }
+}
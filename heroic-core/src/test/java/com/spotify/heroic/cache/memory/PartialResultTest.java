@@ -0,0 +1,122 @@
+package com.spotify.heroic.cache.memory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.common.Series;
+import com.spotify.heroic.metric.MetricCollection;
+import com.spotify.heroic.metric.Point;
+import com.spotify.heroic.metric.QueryError;
+import com.spotify.heroic.metric.QueryResult;
+import com.spotify.heroic.metric.QueryTrace;
+import com.spotify.heroic.metric.ResultLimits;
+import com.spotify.heroic.metric.ShardedResultGroup;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PartialResultTest {
+    private static final long CADENCE = 10;
+
+    private static final Map<String, String> SHARD = ImmutableMap.of("site", "lon");
+    private static final Map<String, String> KEY = ImmutableMap.of("host", "a");
+    private static final Series A = Series.of("a");
+    private static final Series B = Series.of("b");
+
+    private static final QueryTrace.Identifier TEST =
+        QueryTrace.identifier(PartialResultTest.class, "test");
+
+    @Test
+    public void testFinalizedLeavesLateBuckets() {
+        final DateRange range = new DateRange(100, 200);
+        final QueryResult result = result(range, group(A, points(100, 200)));
+
+        /* buckets up to and including 170 are one cadence older than now */
+        final PartialResult partial = PartialResult.finalized(range, result, CADENCE, 185, 185);
+
+        assertEquals(100, partial.getStart());
+        assertEquals(180, partial.getEnd());
+        assertEquals(points(100, 170),
+            partial.getGroups().get(0).getMetrics().getDataAs(Point.class));
+    }
+
+    @Test
+    public void testFinalizedRejectsIncomplete() {
+        final DateRange range = new DateRange(100, 200);
+
+        final QueryResult errors = new QueryResult(range, ImmutableList.of(),
+            ImmutableList.of(QueryError.fromMessage("error")), QueryTrace.watch(TEST).end(),
+            ResultLimits.of());
+
+        assertNull(PartialResult.finalized(range, errors, CADENCE, 1000, 1000));
+        assertNull(PartialResult.finalized(range, result(range), CADENCE, 100, 100));
+    }
+
+    @Test
+    public void testCovers() {
+        final PartialResult partial = new PartialResult(100, 180, ImmutableList.of(), 50);
+
+        assertTrue(partial.covers(new DateRange(100, 300), CADENCE, 0));
+        assertTrue(partial.covers(new DateRange(170, 300), CADENCE, 0));
+        assertFalse(partial.covers(new DateRange(105, 300), CADENCE, 0));
+        assertFalse(partial.covers(new DateRange(90, 300), CADENCE, 0));
+        assertFalse(partial.covers(new DateRange(180, 300), CADENCE, 0));
+        assertFalse(partial.covers(new DateRange(100, 300), CADENCE, 60));
+    }
+
+    @Test
+    public void testStitch() {
+        final PartialResult partial =
+            new PartialResult(100, 180, ImmutableList.of(group(A, points(100, 170))), 0);
+
+        /* tail overlaps with the cached range, and contains a new series */
+        final DateRange tail = new DateRange(160, 220);
+        final QueryResult result =
+            partial.stitch(new DateRange(120, 220), result(tail, group(B, points(160, 220))));
+
+        assertEquals(1, result.getGroups().size());
+
+        final ShardedResultGroup g = result.getGroups().get(0);
+        assertEquals(ImmutableSet.of(A, B), g.getSeries());
+        assertEquals(points(120, 220), g.getMetrics().getDataAs(Point.class));
+    }
+
+    @Test
+    public void testSlice() {
+        final PartialResult partial =
+            new PartialResult(100, 180, ImmutableList.of(group(A, points(100, 170))), 0);
+
+        final QueryResult result = partial.slice(new DateRange(130, 150));
+
+        assertEquals(points(130, 150),
+            result.getGroups().get(0).getMetrics().getDataAs(Point.class));
+    }
+
+    private static List<Point> points(final long start, final long end) {
+        final List<Point> points = new ArrayList<>();
+
+        for (long t = start; t <= end; t += CADENCE) {
+            points.add(new Point(t, t));
+        }
+
+        return points;
+    }
+
+    private static ShardedResultGroup group(final Series series, final List<Point> points) {
+        return new ShardedResultGroup(SHARD, KEY, ImmutableSet.of(series),
+            MetricCollection.points(points), CADENCE);
+    }
+
+    private static QueryResult result(final DateRange range, final ShardedResultGroup... groups) {
+        return new QueryResult(range, ImmutableList.copyOf(groups), ImmutableList.of(),
+            QueryTrace.watch(TEST).end(), ResultLimits.of());
+    }
+}
@@ -0,0 +1,114 @@
+package com.spotify.heroic.cache.memory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class WeightedCacheTest {
+    private long now;
+    private WeightedCache<String, String> cache;
+
+    @Before
+    public void setup() {
+        now = 0L;
+        cache = new WeightedCache<>(() -> now, 100L, Runnable::run);
+    }
+
+    @Test
+    public void testGetPut() {
+        cache.put("a", "A", 10L, 1000L);
+
+        assertEquals("A", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(1L, cache.size());
+        assertEquals(10L, cache.weight());
+    }
+
+    @Test
+    public void testReplace() {
+        cache.put("a", "A", 10L, 1000L);
+        cache.put("a", "B", 20L, 1000L);
+
+        assertEquals("B", cache.get("a"));
+        assertEquals(20L, cache.weight());
+    }
+
+    @Test
+    public void testExpireAfterAccess() {
+        cache.put("a", "A", 10L, 1000L);
+
+        now = TimeUnit.MILLISECONDS.toNanos(900);
+        assertEquals("A", cache.get("a"));
+
+        /* access extends the lifetime of the entry */
+        now = TimeUnit.MILLISECONDS.toNanos(1800);
+        assertEquals("A", cache.get("a"));
+
+        now = TimeUnit.MILLISECONDS.toNanos(2801);
+        assertNull(cache.get("a"));
+        assertEquals(0L, cache.size());
+        assertEquals(0L, cache.weight());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyAccessed() {
+        for (int i = 0; i < 10; i++) {
+            now = i;
+            cache.put("k" + i, "v" + i, 10L, 1000L);
+        }
+
+        now = 10;
+        assertEquals("v0", cache.get("k0"));
+
+        now = 11;
+        cache.put("k10", "v10", 10L, 1000L);
+
+        /* evicted down to below the target weight, oldest accesses first */
+        assertEquals(90L, cache.weight());
+        assertEquals(2L, cache.evictions());
+        assertEquals("v0", cache.get("k0"));
+        assertNull(cache.get("k1"));
+        assertNull(cache.get("k2"));
+        assertEquals("v3", cache.get("k3"));
+        assertEquals("v10", cache.get("k10"));
+    }
+
+    @Test
+    public void testEvictOnExecutor() {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+        final WeightedCache<String, String> cache =
+            new WeightedCache<>(() -> now, 100L, tasks::add);
+
+        for (int i = 0; i < 12; i++) {
+            now = i;
+            cache.put("k" + i, "v" + i, 10L, 1000L);
+        }
+
+        /* inserting doesn't evict, and only one eviction is scheduled at a time */
+        assertEquals(120L, cache.weight());
+        assertEquals(1, tasks.size());
+
+        tasks.poll().run();
+
+        assertEquals(90L, cache.weight());
+        assertEquals(3L, cache.evictions());
+
+        now = 12;
+        cache.put("k12", "v12", 20L, 1000L);
+        assertEquals(1, tasks.size());
+    }
+
+    @Test
+    public void testTooHeavy() {
+        cache.put("a", "A", 101L, 1000L);
+
+        assertNull(cache.get("a"));
+        assertEquals(0L, cache.weight());
+    }
+}
@@ -0,0 +1,63 @@
+package com.spotify.heroic.consumer.schemas;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding a batch of Spotify 1.0.0 messages by binding them to
+ * {@link Spotify100.JsonMetric}, the way the consumer used to, with {@link Spotify100Decoder}.
+ * <p>
+ * Run with {@code mvn -pl heroic-core test-compile exec:java
+ * -Dexec.mainClass=com.spotify.heroic.consumer.schemas.Spotify100DecodeBenchmark
+ * -Dexec.classpathScope=test}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Spotify100DecodeBenchmark {
+    private List<byte[]> messages;
+
+    @Setup
+    public void setup() {
+        messages = Spotify100Messages.corpus(new Random(0L), 1000);
+    }
+
+    @Benchmark
+    public void databind(final Blackhole bh) throws Exception {
+        for (final byte[] message : messages) {
+            bh.consume(Spotify100Messages.decodeDatabind(message));
+        }
+    }
+
+    @Benchmark
+    public void streaming(final Blackhole bh) throws Exception {
+        for (final byte[] message : messages) {
+            bh.consume(Spotify100Decoder.decode(message));
+        }
+    }
+
+    public static void main(final String[] argv) throws RunnerException {
+        new Runner(
+            new OptionsBuilder().include(Spotify100DecodeBenchmark.class.getSimpleName()).build())
+            .run();
+    }
+}
@@ -0,0 +1,90 @@
+package com.spotify.heroic.consumer.schemas;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.spotify.heroic.common.Series;
+import com.spotify.heroic.consumer.ConsumerSchemaValidationException;
+import com.spotify.heroic.ingestion.Ingestion;
+import com.spotify.heroic.metric.MetricCollection;
+import com.spotify.heroic.metric.Point;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class Spotify100DecoderTest {
+    private Ingestion.Request decode(final String message) throws Exception {
+        return Spotify100Decoder.decode(message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testSameAsDatabind() throws Exception {
+        for (final byte[] message : Spotify100Messages.corpus(new Random(0L), 1000)) {
+            assertEquals(Spotify100Messages.decodeDatabind(message),
+                Spotify100Decoder.decode(message));
+        }
+    }
+
+    @Test
+    public void testDecode() throws Exception {
+        final Ingestion.Request request = decode(
+            "{\"unknown\": {\"a\": [1, {\"b\": 2}]}, \"version\": \"1.0.0\", \"key\": \"foo\", " +
+                "\"host\": \"bar\", \"time\": \"1000\", \"value\": 42, " +
+                "\"attributes\": {\"what\": \"cpu\", \"bar\": null, \"num\": 1, \"o\": {}}}");
+
+        final Series series = Series.of("foo", ImmutableMap.of("host", "bar", "what", "cpu"));
+
+        assertEquals(new Ingestion.Request(series,
+            MetricCollection.points(ImmutableList.of(new Point(1000L, 42D)))), request);
+    }
+
+    @Test
+    public void testNullAttributes() throws Exception {
+        final Series series = Series.of("foo", ImmutableMap.of("host", "bar"));
+
+        assertEquals(series, decode(
+            "{\"version\": \"1.0.0\", \"key\": \"foo\", \"host\": \"bar\", \"time\": 1, " +
+                "\"value\": 1, \"attributes\": null}").getSeries());
+        assertEquals(series, decode(
+            "{\"version\": \"1.0.0\", \"key\": \"foo\", \"host\": \"bar\", \"time\": 1, " +
+                "\"value\": 1}").getSeries());
+    }
+
+    @Test(expected = ConsumerSchemaValidationException.class)
+    public void testMissingValue() throws Exception {
+        decode("{\"version\": \"1.0.0\", \"key\": \"foo\", \"time\": 1}");
+    }
+
+    @Test(expected = ConsumerSchemaValidationException.class)
+    public void testInvalidVersion() throws Exception {
+        decode("{\"version\": \"2.0.0\", \"key\": \"foo\", \"time\": 1, \"value\": 1}");
+    }
+
+    @Test(expected = ConsumerSchemaValidationException.class)
+    public void testMissingTime() throws Exception {
+        decode("{\"version\": \"1.0.0\", \"key\": \"foo\", \"value\": 1}");
+    }
+
+    @Test(expected = ConsumerSchemaValidationException.class)
+    public void testMissingKey() throws Exception {
+        decode("{\"version\": \"1.0.0\", \"time\": 1, \"value\": 1}");
+    }
+
+    @Test(expected = ConsumerSchemaValidationException.class)
+    public void testInvalidAttributes() throws Exception {
+        decode("{\"version\": \"1.0.0\", \"key\": \"foo\", \"time\": 1, \"value\": 1, " +
+            "\"attributes\": []}");
+    }
+
+    @Test(expected = ConsumerSchemaValidationException.class)
+    public void testNotAnObject() throws Exception {
+        decode("[1, 2]");
+    }
+
+    @Test(expected = ConsumerSchemaValidationException.class)
+    public void testTruncated() throws Exception {
+        decode("{\"version\": \"1.0.0\", \"key\": \"foo\", \"time\": 1, \"value\": 1");
+    }
+}
@@ -0,0 +1,82 @@
+package com.spotify.heroic.consumer.schemas;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.spotify.heroic.common.Series;
+import com.spotify.heroic.ingestion.Ingestion;
+import com.spotify.heroic.metric.MetricCollection;
+import com.spotify.heroic.metric.Point;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Messages shaped like the ones emitted by ffwd, and the databind path which was used to decode
+ * them before {@link Spotify100Decoder}.
+ */
+final class Spotify100Messages {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String[] KEYS = {"system", "jvm", "http", "kafka"};
+    private static final String[] WHAT = {"cpu-usage", "heap-used", "requests", "gc-time"};
+    private static final String[] UNITS = {"%", "B", "req/s", "ms"};
+    private static final String[] SITES = {"ash", "gew", "lon", "sto"};
+    private static final String[] ROLES = {"heroic", "bigtable", "elasticsearch", "kafka"};
+
+    private Spotify100Messages() {
+    }
+
+    static List<byte[]> corpus(final Random random, final int size) {
+        final List<byte[]> messages = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            messages.add(message(random).getBytes(StandardCharsets.UTF_8));
+        }
+
+        return messages;
+    }
+
+    static String message(final Random random) {
+        final int kind = random.nextInt(KEYS.length);
+        final StringBuilder b = new StringBuilder();
+
+        b.append("{\"version\":\"1.0.0\"");
+        b.append(",\"key\":\"").append(KEYS[kind]).append('"');
+        b.append(",\"host\":\"").append(ROLES[random.nextInt(ROLES.length)]);
+        b.append('-').append(random.nextInt(1000)).append(".example.net\"");
+        b.append(",\"time\":").append(1490000000000L + random.nextInt(86400000));
+        b.append(",\"attributes\":{");
+        b.append("\"what\":\"").append(WHAT[kind]).append('"');
+        b.append(",\"unit\":\"").append(UNITS[kind]).append('"');
+        b.append(",\"site\":\"").append(SITES[random.nextInt(SITES.length)]).append('"');
+        b.append(",\"role\":\"").append(ROLES[random.nextInt(ROLES.length)]).append('"');
+
+        if (random.nextBoolean()) {
+            b.append(",\"instance\":\"").append(random.nextInt(16)).append('"');
+        }
+
+        b.append("}");
+        b.append(",\"value\":").append(random.nextGaussian() * 100D);
+        /* fields which are emitted by agents, but not used by the schema */
+        b.append(",\"type\":\"metric\",\"proc\":null,\"tags\":[\"a\",\"b\"]");
+        b.append(",\"ttl\":").append(random.nextInt(3600));
+        b.append("}");
+
+        return b.toString();
+    }
+
+    static Ingestion.Request decodeDatabind(final byte[] message) throws Exception {
+        final Spotify100.JsonMetric metric = MAPPER.readValue(message, Spotify100.JsonMetric.class);
+
+        final Map<String, String> tags = new HashMap<>(metric.getAttributes());
+        tags.put("host", metric.getHost());
+
+        final Series series = Series.of(metric.getKey(), tags);
+        final Point point = new Point(metric.getTime(), metric.getValue());
+        return new Ingestion.Request(series, MetricCollection.points(ImmutableList.of(point)));
+    }
+}
@@ -0,0 +1,191 @@
+package com.spotify.heroic.consumer.schemas;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.spotify.heroic.common.Series;
+import com.spotify.heroic.consumer.ConsumerSchemaValidationException;
+import com.spotify.heroic.ingestion.Ingestion;
+import com.spotify.heroic.metric.Point;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SpotifyBatch100DecoderTest {
+    private final Series a = Series.of("a", ImmutableMap.of("host", "foo", "role", "bar"));
+    private final Series b = Series.of("b", ImmutableMap.of("host", "foo"));
+
+    @Test
+    public void testDecode() throws Exception {
+        final byte[] tagHost = new Message().varint(2, 0).varint(4, 1).build();
+        final byte[] tagRole = new Message().string(1, "role").string(3, "bar").build();
+
+        final byte[] seriesA = new Message()
+            .string(1, "a")
+            .bytes(2, tagHost)
+            .bytes(2, tagRole)
+            .bytes(3, packedTimestamps(20L, 10L, 30L))
+            .bytes(4, packedValues(2D, 1D, 3D))
+            .build();
+
+        final byte[] seriesB = new Message()
+            .string(1, "b")
+            .bytes(2, tagHost)
+            .varint(3, zigzag(5L))
+            .fixed64(4, 5D)
+            .build();
+
+        final byte[] batch = new Message()
+            .string(1, "host")
+            .string(1, "foo")
+            .bytes(2, seriesA)
+            .varint(15, 42L)
+            .bytes(2, seriesB)
+            .build();
+
+        final List<Ingestion.Request> requests = SpotifyBatch100Decoder.decode(batch);
+
+        assertEquals(2, requests.size());
+
+        assertEquals(a, requests.get(0).getSeries());
+        assertEquals(ImmutableList.of(new Point(10L, 1D), new Point(20L, 2D), new Point(30L, 3D)),
+            requests.get(0).getData().getData());
+
+        assertEquals(b, requests.get(1).getSeries());
+        assertEquals(ImmutableList.of(new Point(5L, 5D)), requests.get(1).getData().getData());
+    }
+
+    @Test
+    public void testDictionaryAfterSeries() throws Exception {
+        final byte[] tag = new Message().varint(2, 0).varint(4, 1).build();
+        final byte[] series = new Message()
+            .string(1, "b")
+            .bytes(2, tag)
+            .bytes(3, packedTimestamps(5L))
+            .bytes(4, packedValues(5D))
+            .build();
+
+        final byte[] batch =
+            new Message().bytes(2, series).string(1, "host").string(1, "foo").build();
+
+        assertEquals(b, SpotifyBatch100Decoder.decode(batch).get(0).getSeries());
+    }
+
+    @Test
+    public void testEmptySeries() throws Exception {
+        final byte[] batch = new Message().bytes(2, new Message().string(1, "a").build()).build();
+        assertEquals(ImmutableList.of(), SpotifyBatch100Decoder.decode(batch));
+    }
+
+    @Test(expected = ConsumerSchemaValidationException.class)
+    public void testMismatchedPoints() throws Exception {
+        final byte[] series = new Message()
+            .string(1, "a")
+            .bytes(3, packedTimestamps(1L, 2L))
+            .bytes(4, packedValues(1D))
+            .build();
+
+        SpotifyBatch100Decoder.decode(new Message().bytes(2, series).build());
+    }
+
+    @Test(expected = ConsumerSchemaValidationException.class)
+    public void testMissingKey() throws Exception {
+        final byte[] series =
+            new Message().bytes(3, packedTimestamps(1L)).bytes(4, packedValues(1D)).build();
+
+        SpotifyBatch100Decoder.decode(new Message().bytes(2, series).build());
+    }
+
+    @Test(expected = ConsumerSchemaValidationException.class)
+    public void testDictionaryOutOfBounds() throws Exception {
+        final byte[] tag = new Message().varint(2, 0).string(3, "foo").build();
+        final byte[] series = new Message().string(1, "a").bytes(2, tag).build();
+
+        SpotifyBatch100Decoder.decode(new Message().bytes(2, series).build());
+    }
+
+    @Test(expected = ConsumerSchemaValidationException.class)
+    public void testTruncated() throws Exception {
+        final byte[] batch = new Message().bytes(2, new Message().string(1, "a").build()).build();
+        SpotifyBatch100Decoder.decode(Arrays.copyOf(batch, batch.length - 1));
+    }
+
+    private static long zigzag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static byte[] packedTimestamps(final long... timestamps) {
+        final Message packed = new Message();
+        long previous = 0L;
+
+        for (final long timestamp : timestamps) {
+            packed.writeVarint(zigzag(timestamp - previous));
+            previous = timestamp;
+        }
+
+        return packed.build();
+    }
+
+    private static byte[] packedValues(final double... values) {
+        final Message packed = new Message();
+
+        for (final double value : values) {
+            packed.writeFixed64(Double.doubleToLongBits(value));
+        }
+
+        return packed.build();
+    }
+
+    /**
+     * Encoder for the parts of the protobuf wire format used by the schema.
+     */
+    private static class Message {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Message varint(final int field, final long value) {
+            writeVarint(field << 3 | ProtobufReader.VARINT);
+            writeVarint(value);
+            return this;
+        }
+
+        Message fixed64(final int field, final double value) {
+            writeVarint(field << 3 | ProtobufReader.FIXED64);
+            writeFixed64(Double.doubleToLongBits(value));
+            return this;
+        }
+
+        Message string(final int field, final String value) {
+            return bytes(field, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Message bytes(final int field, final byte[] value) {
+            writeVarint(field << 3 | ProtobufReader.LENGTH_DELIMITED);
+            writeVarint(value.length);
+            out.write(value, 0, value.length);
+            return this;
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                out.write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+
+            out.write((int) value);
+        }
+
+        void writeFixed64(final long bits) {
+            for (int i = 0; i < Long.BYTES; i++) {
+                out.write((int) (bits >>> (i * 8)) & 0xff);
+            }
+        }
+
+        byte[] build() {
+            return out.toByteArray();
+        }
+    }
+}
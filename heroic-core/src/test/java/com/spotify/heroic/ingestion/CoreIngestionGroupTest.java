@@ -3,14 +3,16 @@ package com.spotify.heroic.ingestion;
 import com.google.common.collect.ImmutableList;
 import com.spotify.heroic.common.DateRange;
 import com.spotify.heroic.common.Series;
-import com.spotify.heroic.filter.Filter;
 import com.spotify.heroic.metadata.MetadataBackend;
 import com.spotify.heroic.metric.MetricBackend;
+import com.spotify.heroic.metric.MetricCollection;
+import com.spotify.heroic.metric.WriteMetric;
 import com.spotify.heroic.statistics.IngestionManagerReporter;
 import com.spotify.heroic.suggest.SuggestBackend;
 import eu.toolchain.async.AsyncFramework;
 import eu.toolchain.async.AsyncFuture;
 import eu.toolchain.async.FutureFinished;
+import eu.toolchain.async.Transform;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -19,18 +21,17 @@ import org.mockito.runners.MockitoJUnitRunner;
 
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 
 import static java.util.Optional.empty;
 import static java.util.Optional.of;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doAnswer;
-import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
-import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
@@ -41,13 +42,13 @@ public class CoreIngestionGroupTest {
     @Mock
     private AsyncFramework async;
     @Mock
-    private Supplier<Filter> filterSupplier;
+    private Supplier<Predicate<Series>> filterSupplier;
     @Mock
     private Supplier<DateRange> rangeSupplier;
     @Mock
-    private Filter filter;
+    private Predicate<Series> filter;
     @Mock
-    private Semaphore writePermits;
+    private WriteQueue writeQueue;
     @Mock
     private IngestionManagerReporter reporter;
     @Mock
@@ -72,6 +73,16 @@ public class CoreIngestionGroupTest {
     private Series series;
     @Mock
     private DateRange range;
+    @Mock
+    private WriteAheadLog.Writer writer;
+    @Mock
+    private MetricCollection data;
+    @Mock
+    private AsyncFuture<Void> logged;
+    @Mock
+    private AsyncFuture<WriteMetric> written;
+    @Mock
+    private WriteCoalescer.Writer coalescer;
 
     @Before
     public void setup() {
@@ -90,10 +101,25 @@ public class CoreIngestionGroupTest {
     private CoreIngestionGroup setupIngestionGroup(
         final Optional<MetricBackend> metric, final Optional<MetadataBackend> metadata,
         final Optional<SuggestBackend> suggest
+    ) {
+        return setupIngestionGroup(empty(), empty(), metric, metadata, suggest);
+    }
+
+    private CoreIngestionGroup setupIngestionGroup(
+        final Optional<WriteAheadLog.Writer> writeAhead, final Optional<MetricBackend> metric,
+        final Optional<MetadataBackend> metadata, final Optional<SuggestBackend> suggest
+    ) {
+        return setupIngestionGroup(writeAhead, empty(), metric, metadata, suggest);
+    }
+
+    private CoreIngestionGroup setupIngestionGroup(
+        final Optional<WriteAheadLog.Writer> writeAhead,
+        final Optional<WriteCoalescer.Writer> coalescer, final Optional<MetricBackend> metric,
+        final Optional<MetadataBackend> metadata, final Optional<SuggestBackend> suggest
     ) {
         // @formatter:off
         final CoreIngestionGroup group = new CoreIngestionGroup(
-            async, filterSupplier, writePermits, reporter, ingested,
+            async, filterSupplier, writeQueue, reporter, ingested, writeAhead, coalescer,
             metric, metadata, suggest
         );
         // @formatter:on
@@ -115,6 +141,20 @@ public class CoreIngestionGroupTest {
         verify(group).syncWrite(request);
     }
 
+    @Test
+    public void testWriteCoalesced() throws Exception {
+        final CoreIngestionGroup group =
+            setupIngestionGroup(empty(), of(coalescer), empty(), empty(), empty());
+
+        doReturn(expected).when(coalescer).write(eq(request), any());
+
+        assertEquals(expected, group.write(request));
+
+        verify(ingested).increment();
+        verify(coalescer).write(eq(request), any());
+        verify(group, never()).syncWrite(request);
+    }
+
     @Test
     public void testSyncWrite() throws Exception {
         final CoreIngestionGroup group = setupIngestionGroup(empty(), empty(), empty());
@@ -122,21 +162,18 @@ public class CoreIngestionGroupTest {
         doReturn(filter).when(filterSupplier).get();
         doReturn(failed).when(async).failed(any(Throwable.class));
         doReturn(resolved).when(async).resolved(any(Ingestion.class));
-        doReturn(true).when(filter).apply(series);
-        doNothing().when(writePermits).acquire();
-        doNothing().when(writePermits).release();
+        doReturn(true).when(filter).test(series);
+        doAnswer(invocation -> ((Supplier<?>) invocation.getArguments()[0]).get())
+            .when(writeQueue)
+            .submit(any());
         doReturn(expected).when(group).doWrite(request);
 
         assertEquals(expected, group.syncWrite(request));
 
         verify(async, never()).resolved(any(Ingestion.class));
         verify(async, never()).failed(any(Throwable.class));
-        verify(writePermits).acquire();
-        verify(writePermits).release();
-        verify(reporter).incrementConcurrentWrites();
-        verify(reporter).decrementConcurrentWrites();
+        verify(writeQueue).submit(any());
         verify(group).doWrite(request);
-        verify(expected).onFinished(any(FutureFinished.class));
     }
 
     @Test
@@ -146,9 +183,7 @@ public class CoreIngestionGroupTest {
         doReturn(filter).when(filterSupplier).get();
         doReturn(other).when(async).failed(any(Throwable.class));
         doReturn(expected).when(async).resolved(any(Ingestion.class));
-        doReturn(false).when(filter).apply(series);
-        doNothing().when(writePermits).acquire();
-        doNothing().when(writePermits).release();
+        doReturn(false).when(filter).test(series);
 
         doReturn(other).when(expected).onFinished(any(FutureFinished.class));
         doReturn(other).when(group).doWrite(request);
@@ -157,43 +192,12 @@ public class CoreIngestionGroupTest {
 
         verify(async).resolved(any(Ingestion.class));
         verify(async, never()).failed(any(Throwable.class));
-        verify(writePermits, never()).acquire();
-        verify(writePermits, never()).release();
-        verify(reporter, never()).incrementConcurrentWrites();
-        verify(reporter, never()).decrementConcurrentWrites();
+        verify(writeQueue, never()).submit(any());
         verify(reporter).reportDroppedByFilter();
         verify(group, never()).doWrite(request);
         verify(other, never()).onFinished(any(FutureFinished.class));
     }
 
-    @Test
-    public void testSyncWriteAcquireThrows() throws Exception {
-        final CoreIngestionGroup group = setupIngestionGroup(empty(), empty(), empty());
-
-        final InterruptedException e = new InterruptedException();
-
-        doReturn(filter).when(filterSupplier).get();
-        doReturn(expected).when(async).failed(any(Throwable.class));
-        doReturn(resolved).when(async).resolved(any(Ingestion.class));
-        doReturn(true).when(filter).apply(series);
-        doThrow(e).when(writePermits).acquire();
-        doNothing().when(writePermits).release();
-
-        doReturn(other).when(expected).onFinished(any(FutureFinished.class));
-        doReturn(other).when(group).doWrite(request);
-
-        assertEquals(expected, group.syncWrite(request));
-
-        verify(async, never()).resolved(any(Ingestion.class));
-        verify(async).failed(any(Throwable.class));
-        verify(writePermits).acquire();
-        verify(writePermits, never()).release();
-        verify(reporter, never()).incrementConcurrentWrites();
-        verify(reporter, never()).decrementConcurrentWrites();
-        verify(group, never()).doWrite(request);
-        verify(other, never()).onFinished(any(FutureFinished.class));
-    }
-
     @Test
     public void testDoWrite() {
         final CoreIngestionGroup group = setupIngestionGroup(of(metric), of(metadata), of(suggest));
@@ -237,4 +241,35 @@ public class CoreIngestionGroupTest {
         verify(group).doSuggestWrite(suggest, request, range);
         verify(rangeSupplier, times(1)).get();
     }
+
+    @Test
+    public void testDoMetricWriteAheadLog() {
+        final CoreIngestionGroup group =
+            setupIngestionGroup(of(writer), of(metric), empty(), empty());
+
+        doReturn(data).when(request).getData();
+        doReturn(of(logged)).when(writer).append(series, data);
+        doReturn(expected).when(logged).directTransform(any(Transform.class));
+
+        assertEquals(expected, group.doMetricWrite(metric, request));
+
+        verify(writer).append(series, data);
+        verify(metric, never()).write(any(WriteMetric.Request.class));
+    }
+
+    @Test
+    public void testDoMetricWriteAheadLogFull() {
+        final CoreIngestionGroup group =
+            setupIngestionGroup(of(writer), of(metric), empty(), empty());
+
+        doReturn(data).when(request).getData();
+        doReturn(empty()).when(writer).append(series, data);
+        doReturn(written).when(metric).write(any(WriteMetric.Request.class));
+        doReturn(expected).when(written).directTransform(any(Transform.class));
+
+        assertEquals(expected, group.doMetricWrite(metric, request));
+
+        verify(writer).append(series, data);
+        verify(metric).write(any(WriteMetric.Request.class));
+    }
 }
@@ -0,0 +1,295 @@
+package com.spotify.heroic.ingestion;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.spotify.heroic.common.Series;
+import com.spotify.heroic.metric.MetricBackendGroup;
+import com.spotify.heroic.metric.MetricCollection;
+import com.spotify.heroic.metric.MetricManager;
+import com.spotify.heroic.metric.PointColumns;
+import com.spotify.heroic.metric.WriteMetric;
+import com.spotify.heroic.statistics.IngestionManagerReporter;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.TinyAsync;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+
+@RunWith(MockitoJUnitRunner.class)
+public class WriteAheadLogTest {
+    private final AsyncFramework async =
+        TinyAsync.builder().executor(MoreExecutors.newDirectExecutorService()).build();
+
+    private final Series series = Series.of("foo", ImmutableMap.of("host", "a"));
+
+    private final List<WriteMetric.Request> written = new ArrayList<>();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private MetricManager metric;
+
+    @Mock
+    private MetricBackendGroup group;
+
+    @Mock
+    private IngestionManagerReporter reporter;
+
+    /* number of writes to fail before succeeding */
+    private int failures = 0;
+
+    /* number of writes to throw on before succeeding */
+    private int throwing = 0;
+
+    @Before
+    public void setup() {
+        doReturn(group).when(metric).useOptionalGroup(Optional.of("g"));
+
+        doAnswer(invocation -> {
+            if (throwing > 0) {
+                throwing--;
+                throw new IllegalStateException("broken");
+            }
+
+            if (failures > 0) {
+                failures--;
+                return async.failed(new IllegalStateException("throttled"));
+            }
+
+            written.add((WriteMetric.Request) invocation.getArguments()[0]);
+            return async.resolved(WriteMetric.of());
+        }).when(group).write(any(WriteMetric.Request.class));
+    }
+
+    private WriteAheadLog open(final long maxSize) throws IOException {
+        final WriteAheadLog log = new WriteAheadLog(async, metric, reporter,
+            Optional.of(folder.getRoot().toPath()), maxSize, true);
+        log.open();
+        return log;
+    }
+
+    private Path lastSegment() throws IOException {
+        try (final Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            return files
+                .filter(p -> p.toString().endsWith(WriteAheadLog.SEGMENT_SUFFIX))
+                .sorted()
+                .reduce((a, b) -> b)
+                .get();
+        }
+    }
+
+    private static void overwrite(final Path file, final long position, final byte... bytes)
+        throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(bytes), position);
+        }
+    }
+
+    private static MetricCollection points(final long... timestamps) {
+        final PointColumns.Builder builder = PointColumns.builder();
+
+        for (final long t : timestamps) {
+            builder.add(t, t * 2D);
+        }
+
+        return MetricCollection.points(builder.build());
+    }
+
+    @Test
+    public void testAppendAndDrain() throws Exception {
+        final WriteAheadLog log = open(1024 * 1024);
+        final WriteAheadLog.Writer writer = log.writer(Optional.of("g"));
+
+        final AsyncFuture<Void> first = writer.append(series, points(10, 20)).get();
+        writer.append(series, points(30));
+
+        /* acknowledged once synced */
+        assertFalse(first.isDone());
+        assertTrue(log.sync());
+        assertTrue(first.isDone());
+
+        assertTrue(log.pendingBytes() > 0);
+        assertEquals(2, log.drain());
+        assertEquals(0, log.drain());
+        assertEquals(0L, log.pendingBytes());
+
+        assertEquals(2, written.size());
+        assertEquals(series, written.get(0).getSeries());
+
+        final PointColumns points = written.get(0).getData().getPointColumns();
+        assertEquals(2, points.size());
+        assertEquals(20L, points.timestamp(1));
+        assertEquals(40D, points.value(1), 0D);
+        log.close();
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        final WriteAheadLog log = open(1024 * 1024);
+        final WriteAheadLog.Writer writer = log.writer(Optional.of("g"));
+
+        writer.append(series, points(10));
+        assertEquals(1, log.drain());
+        writer.append(series, points(20));
+        writer.append(series, points(30));
+        log.close();
+
+        /* append a partially written record */
+        Files.write(lastSegment(), new byte[]{0, 0, 0, 100, 1, 2}, StandardOpenOption.APPEND);
+
+        /* only the records after the checkpoint are replayed */
+        final WriteAheadLog reopened = open(1024 * 1024);
+        assertEquals(2, reopened.drain());
+        assertEquals(3, written.size());
+        assertEquals(30L, written.get(2).getData().getPointColumns().timestamp(0));
+
+        reopened.writer(Optional.of("g")).append(series, points(40));
+        assertEquals(1, reopened.drain());
+        reopened.close();
+    }
+
+    @Test
+    public void testOverflow() throws Exception {
+        final WriteAheadLog log = open(100);
+        final WriteAheadLog.Writer writer = log.writer(Optional.of("g"));
+
+        assertTrue(writer.append(series, points(10)).isPresent());
+        assertFalse(writer.append(series, points(10, 20, 30, 40, 50)).isPresent());
+        assertEquals(1L, log.overflowed());
+
+        /* space is reclaimed once drained */
+        assertEquals(1, log.drain());
+        assertTrue(writer.append(series, points(20)).isPresent());
+        log.close();
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        final WriteAheadLog log = open(1024 * 1024);
+        final WriteAheadLog.Writer writer = log.writer(Optional.of("g"));
+
+        writer.append(series, points(10));
+        writer.append(series, points(20));
+        failures = 1;
+
+        assertEquals(2, log.drain());
+        assertEquals(2, written.size());
+        log.close();
+    }
+
+    @Test
+    public void testWriteThrows() throws Exception {
+        final WriteAheadLog log = open(1024 * 1024);
+
+        log.writer(Optional.of("g")).append(series, points(10));
+        throwing = 1;
+
+        assertEquals(1, log.drain());
+        assertEquals(1, written.size());
+        log.close();
+    }
+
+    @Test
+    public void testReplayThrows() throws Exception {
+        final WriteAheadLog log = open(1024 * 1024);
+        final WriteAheadLog.Writer writer = log.writer(Optional.of("g"));
+
+        writer.append(series, points(10));
+        writer.append(series, points(20));
+        failures = 1;
+        doThrow(new IllegalStateException("broken")).when(reporter).reportWriteAheadRetries(1);
+
+        try {
+            log.drain();
+            fail("expected replay to throw");
+        } catch (final IllegalStateException e) {
+            /* expected */
+        }
+
+        /* the batch was not committed, so it is read again */
+        doNothing().when(reporter).reportWriteAheadRetries(1);
+        assertEquals(2, log.drain());
+        assertEquals(0L, log.pendingBytes());
+        assertEquals(20L, written.get(written.size() - 1).getData().getPointColumns().timestamp(0));
+        log.close();
+    }
+
+    @Test
+    public void testCorruptRecord() throws Exception {
+        final WriteAheadLog log = open(1024 * 1024);
+        final WriteAheadLog.Writer writer = log.writer(Optional.of("g"));
+        final Path segment = lastSegment();
+
+        writer.append(series, points(10));
+        final long first = Files.size(segment);
+        writer.append(series, points(20));
+        final long second = Files.size(segment);
+        writer.append(series, points(30));
+        log.close();
+
+        overwrite(segment, first + WriteAheadLog.HEADER_SIZE + 2, (byte) 0xff);
+
+        /* only the corrupt record is skipped, and moved to the dead-letter file */
+        final WriteAheadLog reopened = open(1024 * 1024);
+        assertEquals(2, reopened.drain());
+        assertEquals(0L, reopened.pendingBytes());
+        assertEquals(2, written.size());
+        assertEquals(30L, written.get(1).getData().getPointColumns().timestamp(0));
+        assertEquals(second - first,
+            Files.size(folder.getRoot().toPath().resolve(WriteAheadLog.DEAD_LETTERS)));
+        reopened.close();
+    }
+
+    @Test
+    public void testCorruptActiveSegment() throws Exception {
+        final WriteAheadLog log = open(1024 * 1024);
+        final WriteAheadLog.Writer writer = log.writer(Optional.of("g"));
+        final Path segment = lastSegment();
+
+        writer.append(series, points(10));
+        final long first = Files.size(segment);
+        writer.append(series, points(20));
+        writer.append(series, points(30));
+
+        overwrite(segment, first, (byte) 0x7f);
+
+        /* the rest of the segment is skipped, and accounted for */
+        assertEquals(1, log.drain());
+        assertEquals(0L, log.pendingBytes());
+
+        /* appends after the corrupt record are not skipped */
+        writer.append(series, points(40));
+        assertEquals(1, log.drain());
+        assertEquals(0L, log.pendingBytes());
+        assertEquals(2, written.size());
+        assertEquals(40L, written.get(1).getData().getPointColumns().timestamp(0));
+        log.close();
+    }
+}
@@ -0,0 +1,189 @@
+package com.spotify.heroic.ingestion;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.spotify.heroic.common.Series;
+import com.spotify.heroic.metric.Event;
+import com.spotify.heroic.metric.MetricCollection;
+import com.spotify.heroic.metric.Point;
+import com.spotify.heroic.scheduler.Scheduler;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.ResolvableFuture;
+import eu.toolchain.async.TinyAsync;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(MockitoJUnitRunner.class)
+public class WriteCoalescerTest {
+    private final AsyncFramework async =
+        TinyAsync.builder().executor(MoreExecutors.newDirectExecutorService()).build();
+
+    private final Series series = Series.of("foo", ImmutableMap.of("host", "a"));
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private final List<Ingestion.Request> written = new ArrayList<>();
+    private final List<ResolvableFuture<Ingestion>> pending = new ArrayList<>();
+
+    @Mock
+    private Scheduler scheduler;
+
+    private WriteCoalescer.Writer writer;
+    private WriteCoalescer coalescer;
+
+    @Before
+    public void setup() {
+        coalescer = new WriteCoalescer(async, scheduler, Optional.of(100L), 4, 6, clock::get);
+        writer = coalescer.writer(Optional.of("g"));
+    }
+
+    private AsyncFuture<Ingestion> sink(final Ingestion.Request request) {
+        written.add(request);
+        final ResolvableFuture<Ingestion> future = async.future();
+        pending.add(future);
+        return future;
+    }
+
+    private AsyncFuture<Ingestion> write(final Point... points) {
+        final Ingestion.Request request =
+            new Ingestion.Request(series, MetricCollection.points(ImmutableList.copyOf(points)));
+        return writer.write(request, this::sink);
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        final AsyncFuture<Ingestion> a = write(new Point(20L, 2D));
+        clock.set(50L);
+        final AsyncFuture<Ingestion> b = write(new Point(10L, 1D));
+
+        assertEquals(0, coalescer.flushOlderThan(clock.get() - 100L));
+        assertTrue(written.isEmpty());
+
+        clock.set(100L);
+        assertEquals(1, coalescer.flushOlderThan(clock.get() - 100L));
+
+        assertEquals(1, written.size());
+        assertEquals(ImmutableList.of(new Point(10L, 1D), new Point(20L, 2D)),
+            written.get(0).getData().getData());
+
+        assertFalse(a.isDone());
+        pending.get(0).resolve(Ingestion.of(42L));
+        assertEquals(Ingestion.of(42L), a.get());
+        assertEquals(Ingestion.of(42L), b.get());
+
+        assertEquals(2L, coalescer.coalescedWrites());
+        assertEquals(1L, coalescer.flushes());
+        assertEquals(0L, coalescer.bufferedPoints());
+    }
+
+    @Test
+    public void testFlushWhenFull() throws Exception {
+        write(new Point(1L, 1D), new Point(2L, 2D));
+        assertTrue(written.isEmpty());
+
+        write(new Point(3L, 3D), new Point(4L, 4D));
+        assertEquals(1, written.size());
+        assertEquals(4, written.get(0).getData().size());
+        assertEquals(0L, coalescer.bufferedPoints());
+    }
+
+    @Test
+    public void testMaxBufferedPoints() throws Exception {
+        coalescer.writer(Optional.of("other")).write(
+            new Ingestion.Request(series, MetricCollection.points(
+                ImmutableList.of(new Point(1L, 1D), new Point(2L, 2D), new Point(3L, 3D)))),
+            this::sink);
+        write(new Point(1L, 1D), new Point(2L, 2D), new Point(3L, 3D));
+        assertTrue(written.isEmpty());
+        assertEquals(6L, coalescer.bufferedPoints());
+
+        /* would exceed the bound, so it is written directly */
+        write(new Point(4L, 4D));
+        assertEquals(1, written.size());
+        assertEquals(1, written.get(0).getData().size());
+        assertEquals(6L, coalescer.bufferedPoints());
+    }
+
+    @Test
+    public void testPassThroughEvents() throws Exception {
+        final Ingestion.Request request = new Ingestion.Request(series,
+            MetricCollection.events(ImmutableList.of(new Event(1L))));
+
+        writer.write(request, this::sink);
+        assertEquals(ImmutableList.of(request), written);
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        final AsyncFuture<Ingestion> a = write(new Point(1L, 1D));
+        final AsyncFuture<Ingestion> b = write(new Point(2L, 2D));
+
+        coalescer.flushOlderThan(Long.MAX_VALUE);
+        pending.get(0).fail(new IllegalStateException("failed"));
+
+        assertTrue(a.isFailed());
+        assertTrue(b.isFailed());
+    }
+
+    @Test
+    public void testStopWhileWriting() throws Exception {
+        final int threads = 4;
+        final int writes = 10000;
+
+        coalescer =
+            new WriteCoalescer(async, scheduler, Optional.of(100L), 1000, 1000000L, clock::get);
+        writer = coalescer.writer(Optional.of("g"));
+
+        final AtomicLong sunk = new AtomicLong();
+        final CountDownLatch started = new CountDownLatch(threads);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Future<?>> futures = new ArrayList<>();
+
+        for (int i = 0; i < threads; i++) {
+            final Series s = Series.of("foo" + i);
+
+            futures.add(executor.submit(() -> {
+                started.countDown();
+
+                for (int j = 0; j < writes; j++) {
+                    writer.write(new Ingestion.Request(s,
+                        MetricCollection.points(ImmutableList.of(new Point(j, 1D)))), r -> {
+                        sunk.addAndGet(r.getData().size());
+                        return async.resolved(Ingestion.of(0L));
+                    });
+                }
+            }));
+        }
+
+        started.await();
+        coalescer.stop();
+
+        for (final Future<?> future : futures) {
+            future.get();
+        }
+
+        executor.shutdown();
+
+        /* no write was buffered after the buffers were flushed on stop */
+        assertEquals((long) threads * writes, sunk.get());
+        assertEquals(0L, coalescer.bufferedPoints());
+    }
+}
@@ -0,0 +1,134 @@
+package com.spotify.heroic.ingestion;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.spotify.heroic.statistics.IngestionManagerReporter;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.ResolvableFuture;
+import eu.toolchain.async.TinyAsync;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class WriteQueueTest {
+    private final AsyncFramework async =
+        TinyAsync.builder().executor(MoreExecutors.newDirectExecutorService()).build();
+
+    private final List<ResolvableFuture<Ingestion>> started = new ArrayList<>();
+
+    @Mock
+    private IngestionManagerReporter reporter;
+
+    private final Supplier<AsyncFuture<Ingestion>> write = () -> {
+        final ResolvableFuture<Ingestion> future = async.future();
+        started.add(future);
+        return future;
+    };
+
+    private WriteQueue queue(
+        final int maxConcurrentWrites, final int maxPendingWrites,
+        final WriteQueue.OverflowPolicy overflowPolicy
+    ) {
+        return new WriteQueue(async, reporter, maxConcurrentWrites, maxPendingWrites,
+            overflowPolicy, () -> 0L);
+    }
+
+    @Test
+    public void testQueueAndReject() throws Exception {
+        final WriteQueue queue = queue(2, 2, WriteQueue.OverflowPolicy.REJECT);
+
+        final AsyncFuture<Ingestion> a = queue.submit(write);
+        queue.submit(write);
+        final AsyncFuture<Ingestion> c = queue.submit(write);
+        queue.submit(write);
+        final AsyncFuture<Ingestion> e = queue.submit(write);
+
+        assertEquals(2, started.size());
+        assertEquals(2L, queue.pendingWrites());
+        assertTrue(e.isFailed());
+        verify(reporter).reportWriteRejected();
+
+        started.get(0).resolve(Ingestion.of(1L));
+        assertEquals(Ingestion.of(1L), a.get());
+        assertEquals(3, started.size());
+
+        started.get(2).resolve(Ingestion.of(2L));
+        assertEquals(Ingestion.of(2L), c.get());
+        assertEquals(0L, queue.pendingWrites());
+
+        verify(reporter, times(2)).incrementPendingWrites();
+        verify(reporter, times(2)).decrementPendingWrites();
+        verify(reporter, times(4)).incrementConcurrentWrites();
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        final WriteQueue queue = queue(1, 1, WriteQueue.OverflowPolicy.DROP_OLDEST);
+
+        queue.submit(write);
+        final AsyncFuture<Ingestion> b = queue.submit(write);
+        final AsyncFuture<Ingestion> c = queue.submit(write);
+
+        assertTrue(b.isFailed());
+        assertFalse(c.isDone());
+        verify(reporter).reportWriteDropped();
+
+        started.get(0).resolve(Ingestion.of(1L));
+        assertEquals(2, started.size());
+
+        started.get(1).resolve(Ingestion.of(2L));
+        assertEquals(Ingestion.of(2L), c.get());
+    }
+
+    @Test
+    public void testCapacity() throws Exception {
+        final WriteQueue queue = queue(1, 4, WriteQueue.OverflowPolicy.REJECT);
+
+        for (int i = 0; i < 5; i++) {
+            queue.submit(write);
+        }
+
+        final AsyncFuture<Void> capacity = queue.capacity();
+        assertFalse(capacity.isDone());
+
+        started.get(0).resolve(Ingestion.of(1L));
+        assertFalse(capacity.isDone());
+
+        started.get(1).resolve(Ingestion.of(1L));
+        assertTrue(capacity.isDone());
+        assertTrue(queue.capacity().isDone());
+    }
+
+    @Test
+    public void testImmediateCompletion() throws Exception {
+        final WriteQueue queue = queue(1, 100000, WriteQueue.OverflowPolicy.REJECT);
+        final List<AsyncFuture<Ingestion>> futures = new ArrayList<>();
+
+        queue.submit(write);
+
+        for (int i = 0; i < 10000; i++) {
+            futures.add(queue.submit(() -> async.resolved(Ingestion.of(1L))));
+        }
+
+        /* completing the running write starts all queued writes without recursing */
+        started.get(0).resolve(Ingestion.of(1L));
+
+        for (final AsyncFuture<Ingestion> future : futures) {
+            assertEquals(Ingestion.of(1L), future.get());
+        }
+
+        assertEquals(1L, queue.availablePermits());
+    }
+}
@@ -0,0 +1,242 @@
+package com.spotify.heroic.metric;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.statistics.MetricBackendReporter;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.ResolvableFuture;
+import eu.toolchain.async.TinyAsync;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AdaptiveFetchLimiterTest {
+    private static final DateRange MINUTE = new DateRange(0L, TimeUnit.MINUTES.toMillis(1));
+    private static final DateRange DAY = new DateRange(0L, TimeUnit.DAYS.toMillis(1));
+
+    private final AsyncFramework async =
+        TinyAsync.builder().executor(MoreExecutors.newDirectExecutorService()).build();
+
+    private final AtomicLong tick = new AtomicLong();
+
+    private final FetchData data =
+        FetchData.of(QueryTrace.PASSIVE, ImmutableList.of(), ImmutableList.of());
+
+    @Mock
+    private MetricBackend backend;
+
+    @Mock
+    private MetricBackendReporter reporter;
+
+    private final List<ResolvableFuture<FetchData>> started = new ArrayList<>();
+
+    private AdaptiveFetchLimiter limiter(final int initialLimit, final int maxLimit) {
+        return new AdaptiveFetchLimiter(async, reporter, tick::get, true, initialLimit, maxLimit);
+    }
+
+    private AsyncFuture<FetchData> fetch(final AdaptiveFetchLimiter limiter) {
+        return fetch(limiter, MINUTE);
+    }
+
+    private AsyncFuture<FetchData> fetch(
+        final AdaptiveFetchLimiter limiter, final DateRange range
+    ) {
+        return limiter.fetch(backend, range, () -> {
+            final ResolvableFuture<FetchData> future = async.future();
+            started.add(future);
+            return future;
+        });
+    }
+
+    @Test
+    public void testQueueAboveLimit() {
+        final AdaptiveFetchLimiter limiter = limiter(2, 10);
+
+        final AsyncFuture<FetchData> first = fetch(limiter);
+        fetch(limiter);
+        final AsyncFuture<FetchData> third = fetch(limiter);
+
+        assertEquals(2, started.size());
+
+        started.get(0).resolve(data);
+
+        assertTrue(first.isDone());
+        assertEquals(3, started.size());
+
+        started.get(2).resolve(data);
+        assertTrue(third.isDone());
+    }
+
+    @Test
+    public void testAdditiveIncrease() {
+        final AdaptiveFetchLimiter limiter = limiter(1, 10);
+
+        fetch(limiter);
+        started.get(0).resolve(data);
+
+        assertEquals(2, limiter.limit(backend));
+        verify(reporter).reportFetchLimit(backend, 2);
+    }
+
+    @Test
+    public void testIncreaseBoundedByMax() {
+        final AdaptiveFetchLimiter limiter = limiter(2, 2);
+
+        fetch(limiter);
+        fetch(limiter);
+        started.get(0).resolve(data);
+        started.get(1).resolve(data);
+
+        assertEquals(2, limiter.limit(backend));
+    }
+
+    @Test
+    public void testDecreaseOncePerRound() {
+        final AdaptiveFetchLimiter limiter = limiter(4, 10);
+
+        for (int i = 0; i < 4; i++) {
+            fetch(limiter);
+        }
+
+        for (final ResolvableFuture<FetchData> f : started) {
+            f.fail(new RuntimeException("overloaded"));
+        }
+
+        assertEquals(3, limiter.limit(backend));
+
+        /* a fetch in the next round decreases the limit again */
+        fetch(limiter);
+        started.get(4).fail(new RuntimeException("overloaded"));
+
+        assertEquals(2, limiter.limit(backend));
+    }
+
+    @Test
+    public void testDecreaseOnErrors() {
+        final AdaptiveFetchLimiter limiter = limiter(4, 10);
+
+        fetch(limiter);
+        started.get(0)
+            .resolve(FetchData.error(QueryTrace.PASSIVE, QueryError.fromMessage("shard failed")));
+
+        assertEquals(3, limiter.limit(backend));
+    }
+
+    @Test
+    public void testDecreaseOnSlowFetch() {
+        final AdaptiveFetchLimiter limiter = limiter(4, 10);
+
+        fetch(limiter);
+        tick.addAndGet(100L);
+        started.get(0).resolve(data);
+
+        assertEquals(4, limiter.limit(backend));
+
+        fetch(limiter);
+        tick.addAndGet(1000L);
+        started.get(1).resolve(data);
+
+        assertEquals(3, limiter.limit(backend));
+    }
+
+    @Test
+    public void testSlowComparedToSimilarRanges() {
+        final AdaptiveFetchLimiter limiter = limiter(4, 10);
+
+        fetch(limiter, MINUTE);
+        tick.addAndGet(100L);
+        started.get(0).resolve(data);
+
+        /* a longer range is expected to take longer */
+        fetch(limiter, DAY);
+        tick.addAndGet(1000L);
+        started.get(1).resolve(data);
+
+        assertEquals(4, limiter.limit(backend));
+
+        fetch(limiter, DAY);
+        tick.addAndGet(3000L);
+        started.get(2).resolve(data);
+
+        assertEquals(3, limiter.limit(backend));
+    }
+
+    @Test
+    public void testRangeClass() {
+        assertEquals(0, AdaptiveFetchLimiter.rangeClass(new DateRange(0L, 0L)));
+        assertEquals(1, AdaptiveFetchLimiter.rangeClass(MINUTE));
+        assertEquals(AdaptiveFetchLimiter.rangeClass(new DateRange(0L, 1L << 60)),
+            AdaptiveFetchLimiter.rangeClass(new DateRange(0L, Long.MAX_VALUE)));
+        assertTrue(
+            AdaptiveFetchLimiter.rangeClass(MINUTE) < AdaptiveFetchLimiter.rangeClass(DAY));
+    }
+
+    @Test
+    public void testCancelQueued() {
+        final AdaptiveFetchLimiter limiter = limiter(1, 1);
+
+        fetch(limiter);
+        final AsyncFuture<FetchData> queued = fetch(limiter);
+        final AsyncFuture<FetchData> next = fetch(limiter);
+
+        queued.cancel();
+        started.get(0).resolve(data);
+
+        /* the cancelled fetch is never started */
+        assertEquals(2, started.size());
+        assertFalse(next.isDone());
+
+        started.get(1).resolve(data);
+        assertTrue(next.isDone());
+    }
+
+    @Test
+    public void testCancelStarted() {
+        final AdaptiveFetchLimiter limiter = limiter(1, 1);
+
+        final AsyncFuture<FetchData> first = fetch(limiter);
+        fetch(limiter);
+
+        first.cancel();
+
+        assertTrue(started.get(0).isCancelled());
+        assertEquals(2, started.size());
+    }
+
+    @Test
+    public void testQuotaViolationDoesNotDecrease() {
+        final AdaptiveFetchLimiter limiter = limiter(4, 10);
+
+        fetch(limiter);
+        started.get(0).fail(new QuotaViolationException());
+
+        assertEquals(4, limiter.limit(backend));
+    }
+
+    @Test
+    public void testDisabled() {
+        final AdaptiveFetchLimiter limiter =
+            new AdaptiveFetchLimiter(async, reporter, tick::get, false, 2, 10);
+
+        for (int i = 0; i < 4; i++) {
+            fetch(limiter);
+        }
+
+        assertEquals(4, started.size());
+        assertEquals(2, limiter.limit(backend));
+    }
+}
@@ -0,0 +1,132 @@
+package com.spotify.heroic.metric;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.spotify.heroic.QueryOptions;
+import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.common.Series;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.ResolvableFuture;
+import eu.toolchain.async.TinyAsync;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FetchCoalescerTest {
+    private final AsyncFramework async =
+        TinyAsync.builder().executor(MoreExecutors.newDirectExecutorService()).build();
+
+    @Mock
+    private MetricBackend backend;
+
+    private final FetchData.Request request =
+        new FetchData.Request(MetricType.POINT, Series.of("a"), new DateRange(0, 1000),
+            QueryOptions.defaults());
+
+    private final FetchData data = FetchData.of(QueryTrace.PASSIVE, ImmutableList.of(),
+        ImmutableList.of(MetricCollection.points(ImmutableList.of(new Point(0, 1D)))));
+
+    private final AtomicReference<FetchQuotaWatcher> backendWatcher = new AtomicReference<>();
+
+    private ResolvableFuture<FetchData> pending;
+    private FetchCoalescer coalescer;
+
+    @Before
+    public void setup() {
+        pending = async.future();
+        coalescer = new FetchCoalescer(async);
+
+        doAnswer(invocation -> {
+            backendWatcher.set((FetchQuotaWatcher) invocation.getArguments()[1]);
+            return pending;
+        }).when(backend).fetch(eq(request), any(FetchQuotaWatcher.class));
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        final LimitedFetchQuotaWatcher a = new LimitedFetchQuotaWatcher(100);
+        final LimitedFetchQuotaWatcher b = new LimitedFetchQuotaWatcher(100);
+
+        final AsyncFuture<FetchData> first = coalescer.fetch(backend, request, a);
+        final AsyncFuture<FetchData> second = coalescer.fetch(backend, request, b);
+
+        backendWatcher.get().readData(10);
+        pending.resolve(data);
+
+        assertEquals(data, first.get());
+        assertEquals(data, second.get());
+        verify(backend, times(1)).fetch(eq(request), any(FetchQuotaWatcher.class));
+
+        /* each query is charged for the shared read */
+        assertEquals(90, a.getReadDataQuota());
+        assertEquals(90, b.getReadDataQuota());
+
+        assertEquals(1L,
+            coalescer.getStatistics().get(FetchCoalescer.FETCHES_COALESCED, -1L));
+    }
+
+    @Test
+    public void testNotInFlight() throws Exception {
+        pending.resolve(data);
+
+        coalescer.fetch(backend, request, FetchQuotaWatcher.NO_QUOTA).get();
+        coalescer.fetch(backend, request, FetchQuotaWatcher.NO_QUOTA).get();
+
+        verify(backend, times(2)).fetch(eq(request), any(FetchQuotaWatcher.class));
+    }
+
+    @Test
+    public void testLargerQuotaFetchesAlone() throws Exception {
+        coalescer.fetch(backend, request, new LimitedFetchQuotaWatcher(10));
+        coalescer.fetch(backend, request, new LimitedFetchQuotaWatcher(100));
+
+        verify(backend, times(2)).fetch(eq(request), any(FetchQuotaWatcher.class));
+    }
+
+    @Test
+    public void testQuotaPerQuery() throws Exception {
+        final LimitedFetchQuotaWatcher a = new LimitedFetchQuotaWatcher(100);
+        final LimitedFetchQuotaWatcher b = new LimitedFetchQuotaWatcher(20);
+
+        final AsyncFuture<FetchData> first = coalescer.fetch(backend, request, a);
+        final AsyncFuture<FetchData> second = coalescer.fetch(backend, request, b);
+
+        backendWatcher.get().readData(50);
+        pending.resolve(data);
+
+        assertTrue(first.isDone());
+        assertFalse(a.isQuotaViolated());
+
+        assertTrue(second.isFailed());
+        assertTrue(second.cause() instanceof QuotaViolationException);
+        assertTrue(b.isQuotaViolated());
+    }
+
+    @Test
+    public void testFailed() throws Exception {
+        final AsyncFuture<FetchData> first =
+            coalescer.fetch(backend, request, FetchQuotaWatcher.NO_QUOTA);
+        final AsyncFuture<FetchData> second =
+            coalescer.fetch(backend, request, FetchQuotaWatcher.NO_QUOTA);
+
+        pending.fail(new RuntimeException("failed"));
+
+        assertTrue(first.isFailed());
+        assertTrue(second.isFailed());
+    }
+}
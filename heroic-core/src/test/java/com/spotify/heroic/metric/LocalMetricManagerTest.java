@@ -1,16 +1,27 @@
 package com.spotify.heroic.metric;
 
 import static org.junit.Assert.assertNotNull;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
+import com.spotify.heroic.QueryOptions;
+import com.spotify.heroic.common.DateRange;
 import com.spotify.heroic.common.GroupSet;
 import com.spotify.heroic.common.Groups;
 import com.spotify.heroic.common.OptionalLimit;
+import com.spotify.heroic.common.Series;
 import com.spotify.heroic.metadata.MetadataManager;
+import com.spotify.heroic.scheduler.Scheduler;
 import com.spotify.heroic.statistics.MetricBackendReporter;
 import eu.toolchain.async.AsyncFramework;
 import eu.toolchain.async.AsyncFuture;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,25 +54,100 @@ public class LocalMetricManagerTest {
     @Mock
     private AsyncFuture<FetchData> fetchDataFuture;
 
+    @Mock
+    private Scheduler rollupScheduler;
+
     @Before
     public void setup() {
+        final Groups groups = Groups.of("foo");
+        doReturn(groups).when(metricBackend).groups();
+        manager = manager(Collections.singletonList(metricBackend));
+    }
+
+    private LocalMetricManager manager(final List<MetricBackend> backends) {
         final OptionalLimit groupLimit = OptionalLimit.empty();
         final OptionalLimit seriesLimit = OptionalLimit.empty();
         final OptionalLimit aggregationLimit = OptionalLimit.empty();
         final OptionalLimit dataLimit = OptionalLimit.empty();
         final int fetchParallelism = 20;
         final boolean failOnLimits = true;
-        final Groups groups = Groups.of("foo");
-        doReturn(groups).when(metricBackend).groups();
-        final GroupSet<MetricBackend> groupSet =
-            GroupSet.build(Collections.singletonList(metricBackend), Optional.empty());
+        final boolean fetchCoalescing = true;
+        final GroupSet<MetricBackend> groupSet = GroupSet.build(backends, Optional.empty());
+
+        final QueryScheduler scheduler = new QueryScheduler(async, rollupScheduler, 1000, 1000,
+            OptionalLimit.empty(), 60000L);
+        final AdaptiveFetchLimiter limiter =
+            new AdaptiveFetchLimiter(async, reporter, true, fetchParallelism, 1000);
+        final RollupStore rollups =
+            new RollupStore(async, rollupScheduler, Collections.emptyList(), 60000L);
 
-        manager = new LocalMetricManager(groupLimit, seriesLimit, aggregationLimit, dataLimit,
-            fetchParallelism, failOnLimits, async, groupSet, metadata, reporter);
+        return new LocalMetricManager(groupLimit, seriesLimit, aggregationLimit, dataLimit,
+            fetchParallelism, failOnLimits, fetchCoalescing, async, groupSet, metadata, reporter,
+            scheduler, limiter, rollups);
     }
 
     @Test
     public void testUseDefaultBackend() {
         assertNotNull(manager.useDefaultGroup());
     }
+
+    @Test
+    public void testTieredFetch() {
+        final MetricBackend hot = mock(MetricBackend.class);
+        final MetricBackend durable = mock(MetricBackend.class);
+
+        final Series series = Series.of("foo");
+        final QueryOptions options = QueryOptions.defaults();
+
+        doReturn(Groups.of("tiered")).when(hot).groups();
+        doReturn(Groups.of("tiered")).when(durable).groups();
+        doReturn(Optional.of(1000L)).when(hot).retainedSince(MetricType.POINT, series);
+        doReturn(Optional.empty()).when(durable).retainedSince(MetricType.POINT, series);
+
+        final MetricBackendGroup group = manager(Arrays.asList(hot, durable)).useGroup("tiered");
+
+        group.fetch(request(series, new DateRange(0L, 2000L), options),
+            FetchQuotaWatcher.NO_QUOTA);
+        verify(hot).fetch(request(series, new DateRange(1000L, 2000L), options),
+            FetchQuotaWatcher.NO_QUOTA);
+        verify(durable).fetch(request(series, new DateRange(0L, 1000L), options),
+            FetchQuotaWatcher.NO_QUOTA);
+
+        /* ranges which are completely covered by one tier only go to that tier */
+        group.fetch(request(series, new DateRange(1500L, 2000L), options),
+            FetchQuotaWatcher.NO_QUOTA);
+        verify(hot).fetch(request(series, new DateRange(1500L, 2000L), options),
+            FetchQuotaWatcher.NO_QUOTA);
+        verify(durable, times(1)).fetch(any(FetchData.Request.class),
+            any(FetchQuotaWatcher.class));
+    }
+
+    @Test
+    public void testTieredFetchNotRetained() {
+        final MetricBackend hot = mock(MetricBackend.class);
+        final MetricBackend durable = mock(MetricBackend.class);
+
+        final Series series = Series.of("foo");
+        final QueryOptions options = QueryOptions.defaults();
+
+        doReturn(Groups.of("tiered")).when(hot).groups();
+        doReturn(Groups.of("tiered")).when(durable).groups();
+        doReturn(Optional.of(Long.MAX_VALUE)).when(hot).retainedSince(MetricType.POINT, series);
+        doReturn(Optional.empty()).when(durable).retainedSince(MetricType.POINT, series);
+
+        final MetricBackendGroup group = manager(Arrays.asList(hot, durable)).useGroup("tiered");
+
+        /* series which were not written through the hot tier are only read from durable tiers */
+        group.fetch(request(series, new DateRange(0L, 2000L), options),
+            FetchQuotaWatcher.NO_QUOTA);
+        verify(durable).fetch(request(series, new DateRange(0L, 2000L), options),
+            FetchQuotaWatcher.NO_QUOTA);
+        verify(hot, never()).fetch(any(FetchData.Request.class), any(FetchQuotaWatcher.class));
+    }
+
+    private FetchData.Request request(
+        final Series series, final DateRange range, final QueryOptions options
+    ) {
+        return new FetchData.Request(MetricType.POINT, series, range, options);
+    }
 }
@@ -0,0 +1,295 @@
+package com.spotify.heroic.metric;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.common.OptionalLimit;
+import com.spotify.heroic.scheduler.Scheduler;
+import com.spotify.heroic.scheduler.Task;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.ResolvableFuture;
+import eu.toolchain.async.StreamCollector;
+import eu.toolchain.async.TinyAsync;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class QuerySchedulerTest {
+    private static final long QUEUE_TIME = 1000L;
+
+    private final AsyncFramework async =
+        TinyAsync.builder().executor(MoreExecutors.newDirectExecutorService()).build();
+
+    /**
+     * Names of started fetches, in the order they were started.
+     */
+    private final List<String> started = new ArrayList<>();
+
+    /**
+     * Pending fetches, in the order they were started.
+     */
+    private final List<Pair<String, ResolvableFuture<String>>> pending = new ArrayList<>();
+
+    private final Scheduler timer = mock(Scheduler.class);
+
+    @Test
+    public void testBudget() throws Exception {
+        final QueryScheduler scheduler = scheduler(2, 10, OptionalLimit.empty());
+
+        final AsyncFuture<String> result =
+            scheduler.submit(Optional.empty(), 1, fetches("a", 4), new Joiner(), 10, r -> r);
+
+        assertEquals(ImmutableList.of("a0", "a1"), started);
+
+        resolveAll();
+        assertEquals(ImmutableList.of("a0", "a1", "a2", "a3"), started);
+        assertFalse(result.isDone());
+
+        resolveAll();
+        assertEquals("a0,a1,a2,a3 (4/0/0)", result.get());
+    }
+
+    @Test
+    public void testParallelism() throws Exception {
+        final QueryScheduler scheduler = scheduler(10, 10, OptionalLimit.empty());
+
+        scheduler.submit(Optional.empty(), 1, fetches("a", 4), new Joiner(), 1, r -> r);
+        assertEquals(ImmutableList.of("a0"), started);
+    }
+
+    @Test
+    public void testFairBetweenClients() throws Exception {
+        final QueryScheduler scheduler = scheduler(1, 10, OptionalLimit.empty());
+
+        scheduler.submit(Optional.of("heavy"), 1, fetches("a", 3), new Joiner(), 10, r -> r);
+        scheduler.submit(Optional.of("light"), 1, fetches("b", 1), new Joiner(), 10, r -> r);
+
+        while (!pending.isEmpty()) {
+            resolveAll();
+        }
+
+        assertEquals(ImmutableList.of("a0", "b0", "a1", "a2"), started);
+    }
+
+    @Test
+    public void testCheapestFirst() throws Exception {
+        final QueryScheduler scheduler = scheduler(1, 10, OptionalLimit.empty());
+
+        scheduler.submit(Optional.empty(), 100, fetches("a", 2), new Joiner(), 10, r -> r);
+        scheduler.submit(Optional.empty(), 1, fetches("b", 1), new Joiner(), 10, r -> r);
+
+        while (!pending.isEmpty()) {
+            resolveAll();
+        }
+
+        assertEquals(ImmutableList.of("a0", "b0", "a1"), started);
+    }
+
+    @Test
+    public void testFailedFetches() throws Exception {
+        final QueryScheduler scheduler = scheduler(10, 10, OptionalLimit.empty());
+
+        final AsyncFuture<String> result =
+            scheduler.submit(Optional.empty(), 1, fetches("a", 2), new Joiner(), 10, r -> r);
+
+        pending.get(0).getRight().fail(new RuntimeException("failed"));
+        pending.get(1).getRight().cancel();
+
+        assertEquals(" (0/1/1)", result.get());
+        assertEquals(0L,
+            scheduler.getStatistics().get(QueryScheduler.SCHEDULER_FETCHES, -1L));
+    }
+
+    @Test
+    public void testRejectCost() throws Exception {
+        final QueryScheduler scheduler = scheduler(10, 10, OptionalLimit.of(100));
+
+        final String result =
+            scheduler.submit(Optional.empty(), 101, fetches("a", 1), new Joiner(), 10,
+                r -> "rejected: " + r).get();
+
+        assertTrue(result.startsWith("rejected: Query is estimated to read more samples"));
+        assertTrue(started.isEmpty());
+        assertEquals(1L,
+            scheduler.getStatistics().get(QueryScheduler.SCHEDULER_REJECTED, -1L));
+    }
+
+    @Test
+    public void testRejectTooManyQueries() throws Exception {
+        final QueryScheduler scheduler = scheduler(10, 1, OptionalLimit.empty());
+
+        scheduler.submit(Optional.empty(), 1, fetches("a", 1), new Joiner(), 10, r -> r);
+
+        final String result =
+            scheduler.submit(Optional.empty(), 1, fetches("b", 1), new Joiner(), 10,
+                r -> "rejected").get();
+
+        assertEquals("rejected", result);
+        assertEquals(ImmutableList.of("a0"), started);
+
+        /* admitted again once the running query is done */
+        resolveAll();
+
+        scheduler.submit(Optional.empty(), 1, fetches("c", 1), new Joiner(), 10, r -> r);
+        assertEquals(ImmutableList.of("a0", "c0"), started);
+    }
+
+    @Test
+    public void testQueueTimeout() throws Exception {
+        final QueryScheduler scheduler = scheduler(1, 10, OptionalLimit.empty());
+
+        final AsyncFuture<String> a =
+            scheduler.submit(Optional.empty(), 1, fetches("a", 1), new Joiner(), 10, r -> r);
+
+        /* started immediately, so it can't time out */
+        verify(timer, never()).schedule(anyString(), anyLong(), any(TimeUnit.class),
+            any(Task.class));
+
+        final AsyncFuture<String> b =
+            scheduler.submit(Optional.empty(), 1, fetches("b", 1), new Joiner(), 10,
+                r -> "rejected: " + r);
+
+        final ArgumentCaptor<Task> timeout = ArgumentCaptor.forClass(Task.class);
+        verify(timer).schedule(anyString(), eq(QUEUE_TIME), eq(TimeUnit.MILLISECONDS),
+            timeout.capture());
+
+        timeout.getValue().run();
+
+        assertTrue(b.get().startsWith("rejected: Query was queued for longer than"));
+        assertEquals(1L, scheduler.getStatistics().get(QueryScheduler.SCHEDULER_TIMEOUTS, -1L));
+        assertEquals(1L, scheduler.getStatistics().get(QueryScheduler.SCHEDULER_QUERIES, -1L));
+
+        /* the rejected query never starts */
+        resolveAll();
+        assertEquals("a0 (1/0/0)", a.get());
+        assertEquals(ImmutableList.of("a0"), started);
+    }
+
+    @Test
+    public void testQueueTimeoutAfterStart() throws Exception {
+        final QueryScheduler scheduler = scheduler(1, 10, OptionalLimit.empty());
+
+        scheduler.submit(Optional.empty(), 1, fetches("a", 1), new Joiner(), 10, r -> r);
+
+        final AsyncFuture<String> b =
+            scheduler.submit(Optional.empty(), 1, fetches("b", 2), new Joiner(), 10,
+                r -> "rejected: " + r);
+
+        final ArgumentCaptor<Task> timeout = ArgumentCaptor.forClass(Task.class);
+        verify(timer).schedule(anyString(), eq(QUEUE_TIME), eq(TimeUnit.MILLISECONDS),
+            timeout.capture());
+
+        resolveAll();
+        assertEquals(ImmutableList.of("a0", "b0"), started);
+
+        /* the query has started, so it runs to completion */
+        timeout.getValue().run();
+        assertFalse(b.isDone());
+
+        while (!pending.isEmpty()) {
+            resolveAll();
+        }
+
+        assertEquals("b0,b1 (2/0/0)", b.get());
+        assertEquals(0L, scheduler.getStatistics().get(QueryScheduler.SCHEDULER_TIMEOUTS, -1L));
+    }
+
+    @Test
+    public void testNoFetches() throws Exception {
+        final QueryScheduler scheduler = scheduler(10, 10, OptionalLimit.empty());
+
+        assertEquals(" (0/0/0)",
+            scheduler.submit(Optional.empty(), 1, ImmutableList.of(), new Joiner(), 10, r -> r)
+                .get());
+    }
+
+    @Test
+    public void testCost() {
+        final DateRange hour = new DateRange(0, TimeUnit.HOURS.toMillis(1));
+
+        assertEquals(600L, QueryScheduler.cost(10, hour, -1L));
+        assertEquals(1000L, QueryScheduler.cost(10, hour, 100L));
+        assertEquals(10L, QueryScheduler.cost(10, new DateRange(0, 0), -1L));
+        assertEquals(Long.MAX_VALUE, QueryScheduler.cost(Long.MAX_VALUE, hour, -1L));
+    }
+
+    private QueryScheduler scheduler(
+        final int maxConcurrentFetches, final int maxQueries, final OptionalLimit maxQueryCost
+    ) {
+        return new QueryScheduler(async, timer, maxConcurrentFetches, maxQueries, maxQueryCost,
+            QUEUE_TIME);
+    }
+
+    private List<Callable<AsyncFuture<String>>> fetches(final String prefix, final int count) {
+        final List<Callable<AsyncFuture<String>>> fetches = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            final String name = prefix + i;
+
+            fetches.add(() -> {
+                final ResolvableFuture<String> future = async.future();
+                started.add(name);
+                pending.add(Pair.of(name, future));
+                return future;
+            });
+        }
+
+        return fetches;
+    }
+
+    private void resolveAll() {
+        final List<Pair<String, ResolvableFuture<String>>> current = new ArrayList<>(pending);
+        pending.clear();
+
+        for (final Pair<String, ResolvableFuture<String>> p : current) {
+            p.getRight().resolve(p.getLeft());
+        }
+    }
+
+    /**
+     * Joins the names of all resolved fetches, followed by the counts passed to end.
+     */
+    private static class Joiner implements StreamCollector<String, String> {
+        private final List<String> results = new ArrayList<>();
+
+        @Override
+        public synchronized void resolved(final String result) {
+            results.add(result);
+        }
+
+        @Override
+        public void failed(final Throwable cause) {
+        }
+
+        @Override
+        public void cancelled() {
+        }
+
+        @Override
+        public synchronized String end(
+            final int resolved, final int failed, final int cancelled
+        ) {
+            results.sort(String::compareTo);
+            return String.join(",", results) + " (" + resolved + "/" + failed + "/" + cancelled +
+                ")";
+        }
+    }
+}
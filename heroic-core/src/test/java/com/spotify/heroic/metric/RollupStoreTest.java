@@ -0,0 +1,266 @@
+package com.spotify.heroic.metric;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.spotify.heroic.QueryOptions;
+import com.spotify.heroic.aggregation.AggregationInstance;
+import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.common.Series;
+import com.spotify.heroic.scheduler.Scheduler;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.TinyAsync;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RollupStoreTest {
+    private static final long GRACE = 100L;
+
+    private final AsyncFramework async =
+        TinyAsync.builder().executor(MoreExecutors.newDirectExecutorService()).build();
+
+    private final AtomicLong now = new AtomicLong();
+
+    private final Series series = Series.of("foo", ImmutableMap.of("host", "a"));
+
+    private final Map<Series, MetricCollection> written = new HashMap<>();
+
+    private final List<DateRange> rawReads = new ArrayList<>();
+
+    @Mock
+    private Scheduler scheduler;
+
+    @Mock
+    private MetricBackend backend;
+
+    @Mock
+    private AggregationInstance aggregation;
+
+    private RollupStore rollups;
+
+    @Before
+    public void setup() {
+        rollups = new RollupStore(async, scheduler, ImmutableList.of(10L, 100L), GRACE, now::get);
+
+        doAnswer(invocation -> {
+            final WriteMetric.Request request = (WriteMetric.Request) invocation.getArguments()[0];
+            written.put(request.getSeries(), request.getData());
+            return async.resolved(WriteMetric.of());
+        }).when(backend).write(any(WriteMetric.Request.class));
+    }
+
+    private void write(final Point... points) {
+        rollups.write(backend, new WriteMetric.Request(series,
+            MetricCollection.points(ImmutableList.copyOf(points))));
+    }
+
+    private List<Point> stat(final long resolution, final RollupStore.Stat stat) {
+        return written.get(RollupStore.series(series, resolution, stat)).getDataAs(Point.class);
+    }
+
+    @Test
+    public void testWindowEnd() {
+        assertEquals(10L, RollupStore.windowEnd(1L, 10L));
+        assertEquals(10L, RollupStore.windowEnd(10L, 10L));
+        assertEquals(20L, RollupStore.windowEnd(11L, 10L));
+    }
+
+    @Test
+    public void testSeries() {
+        final Series s = RollupStore.series(series, 10L, RollupStore.Stat.SUM2);
+
+        assertEquals("foo", s.getKey());
+        assertEquals(ImmutableMap.of("host", "a", RollupStore.ROLLUP_TAG, "10",
+            RollupStore.STAT_TAG, "sum2"), s.getTags());
+    }
+
+    @Test
+    public void testFlush() throws Exception {
+        write(new Point(1L, 1D), new Point(10L, 3D), new Point(11L, 5D));
+
+        /* no window is past the grace period */
+        rollups.flush(GRACE + 9L).get();
+        assertTrue(written.isEmpty());
+
+        rollups.flush(GRACE + 10L).get();
+
+        assertEquals(ImmutableList.of(new Point(10L, 2D)), stat(10L, RollupStore.Stat.COUNT));
+        assertEquals(ImmutableList.of(new Point(10L, 4D)), stat(10L, RollupStore.Stat.SUM));
+        assertEquals(ImmutableList.of(new Point(10L, 10D)), stat(10L, RollupStore.Stat.SUM2));
+        assertEquals(ImmutableList.of(new Point(10L, 1D)), stat(10L, RollupStore.Stat.MIN));
+        assertEquals(ImmutableList.of(new Point(10L, 3D)), stat(10L, RollupStore.Stat.MAX));
+
+        rollups.stop().get();
+
+        assertEquals(ImmutableList.of(new Point(20L, 5D)), stat(10L, RollupStore.Stat.SUM));
+        assertEquals(ImmutableList.of(new Point(100L, 9D)), stat(100L, RollupStore.Stat.SUM));
+        assertEquals(ImmutableList.of(new Point(100L, 3D)), stat(100L, RollupStore.Stat.COUNT));
+    }
+
+    @Test
+    public void testLateSamplesDropped() throws Exception {
+        now.set(GRACE + 10L);
+
+        write(new Point(10L, 1D), new Point(11L, 2D));
+        rollups.stop().get();
+
+        assertEquals(ImmutableList.of(new Point(20L, 2D)), stat(10L, RollupStore.Stat.SUM));
+        assertEquals(ImmutableList.of(new Point(100L, 3D)), stat(100L, RollupStore.Stat.SUM));
+        assertEquals(1L, rollups.getStatistics().get(RollupStore.SAMPLES_DROPPED, 0L));
+    }
+
+    @Test
+    public void testNonFiniteSamplesSkipped() throws Exception {
+        write(new Point(1L, 1D), new Point(2L, Double.NaN), new Point(3L, 2D),
+            new Point(4L, Double.POSITIVE_INFINITY), new Point(11L, Double.NEGATIVE_INFINITY));
+        rollups.stop().get();
+
+        assertEquals(ImmutableList.of(new Point(10L, 2D)), stat(10L, RollupStore.Stat.COUNT));
+        assertEquals(ImmutableList.of(new Point(10L, 3D)), stat(10L, RollupStore.Stat.SUM));
+        assertEquals(ImmutableList.of(new Point(10L, 5D)), stat(10L, RollupStore.Stat.SUM2));
+        assertEquals(ImmutableList.of(new Point(10L, 1D)), stat(10L, RollupStore.Stat.MIN));
+        assertEquals(ImmutableList.of(new Point(10L, 2D)), stat(10L, RollupStore.Stat.MAX));
+        assertEquals(ImmutableList.of(new Point(100L, 2D)), stat(100L, RollupStore.Stat.COUNT));
+    }
+
+    @Test
+    public void testPlan() {
+        now.set(1000L);
+        doReturn(true).when(aggregation).acceptsRollup(anyLong());
+
+        /* windows ending before now - 2 * grace have been written */
+        final Optional<RollupStore.Plan> plan = rollups.plan(aggregation, new DateRange(0L, 1000L));
+
+        assertEquals(Optional.of(new RollupStore.Plan(100L, 0L, 800L, 1000L)), plan);
+        assertEquals(new DateRange(0L, 1L), plan.get().head());
+        assertEquals(new DateRange(1L, 801L), plan.get().rollups());
+        assertEquals(Optional.of(new DateRange(801L, 1000L)), plan.get().tail());
+
+        /* unaligned with the coarse resolution */
+        assertEquals(Optional.of(new RollupStore.Plan(10L, 50L, 800L, 1000L)),
+            rollups.plan(aggregation, new DateRange(50L, 1000L)));
+
+        assertEquals(Optional.of(new RollupStore.Plan(100L, 0L, 500L, 501L)),
+            rollups.plan(aggregation, new DateRange(0L, 501L)));
+        assertFalse(rollups.plan(aggregation, new DateRange(0L, 501L)).get().tail().isPresent());
+    }
+
+    @Test
+    public void testPlanNotAccepted() {
+        now.set(1000L);
+        doReturn(false).when(aggregation).acceptsRollup(100L);
+        doReturn(false).when(aggregation).acceptsRollup(10L);
+
+        assertFalse(rollups.plan(aggregation, new DateRange(0L, 1000L)).isPresent());
+    }
+
+    @Test
+    public void testPlanNothingWritten() {
+        now.set(250L);
+        doReturn(true).when(aggregation).acceptsRollup(anyLong());
+
+        assertFalse(rollups.plan(aggregation, new DateRange(100L, 1000L)).isPresent());
+    }
+
+    @Test
+    public void testFetch() throws Exception {
+        final RollupStore.Plan plan = new RollupStore.Plan(10L, 0L, 20L, 30L);
+        final FetchData.Request request = new FetchData.Request(MetricType.POINT, series,
+            new DateRange(0L, 30L), QueryOptions.defaults());
+
+        final AsyncFuture<FetchData> future = rollups.fetch(plan, request, r -> {
+            assertEquals(plan.rollups(), r.getRange());
+
+            final RollupStore.Stat stat = RollupStore.Stat.valueOf(
+                r.getSeries().getTags().get(RollupStore.STAT_TAG).toUpperCase());
+
+            final ImmutableList.Builder<Point> points = ImmutableList.builder();
+            points.add(new Point(10L, stat.ordinal() + 1D));
+
+            /* second window is missing its maximum */
+            if (stat != RollupStore.Stat.MAX) {
+                points.add(new Point(20L, stat.ordinal() + 1D));
+            }
+
+            return async.resolved(FetchData.of(QueryTrace.PASSIVE, ImmutableList.of(),
+                ImmutableList.of(MetricCollection.points(points.build()))));
+        }, this::raw);
+
+        final FetchData result = future.get();
+
+        /* the incomplete window is read raw */
+        assertEquals(ImmutableList.of(MetricCollection.points(ImmutableList.of(new Point(11L, 0D))),
+            MetricCollection.spreads(ImmutableList.of(new Spread(10L, 1L, 2D, 3D, 4D, 5D)))),
+            result.getGroups());
+        assertEquals(ImmutableList.of(new DateRange(11L, 21L)), rawReads);
+        assertEquals(1L, rollups.getStatistics().get(RollupStore.RAW_FALLBACKS, -1L));
+    }
+
+    @Test
+    public void testFetchNothingWritten() throws Exception {
+        /* for example a range from before rollups were enabled */
+        final RollupStore.Plan plan = new RollupStore.Plan(10L, 0L, 30L, 40L);
+        final FetchData.Request request = new FetchData.Request(MetricType.POINT, series,
+            new DateRange(0L, 40L), QueryOptions.defaults());
+
+        final FetchData result = rollups.fetch(plan, request, r -> async.resolved(
+            FetchData.of(QueryTrace.PASSIVE, ImmutableList.of(), ImmutableList.of())), this::raw)
+            .get();
+
+        assertEquals(ImmutableList.of(new DateRange(1L, 31L)), rawReads);
+        assertEquals(ImmutableList.of(MetricCollection.points(ImmutableList.of(new Point(1L, 0D))),
+            MetricCollection.spreads(ImmutableList.of())), result.getGroups());
+    }
+
+    @Test
+    public void testGaps() {
+        final RollupStore.Plan plan = new RollupStore.Plan(10L, 0L, 50L, 55L);
+
+        assertEquals(ImmutableList.of(),
+            RollupStore.gaps(plan, ImmutableList.of(spread(10L), spread(20L), spread(30L),
+                spread(40L), spread(50L))));
+
+        /* a window lost in the middle, and the last windows were never written */
+        assertEquals(ImmutableList.of(new DateRange(21L, 31L), new DateRange(41L, 51L)),
+            RollupStore.gaps(plan, ImmutableList.of(spread(10L), spread(20L), spread(40L))));
+
+        assertEquals(ImmutableList.of(new DateRange(1L, 21L)),
+            RollupStore.gaps(plan, ImmutableList.of(spread(30L), spread(40L), spread(50L))));
+    }
+
+    private Spread spread(final long end) {
+        return new Spread(end, 1L, 0D, 0D, 0D, 0D);
+    }
+
+    /**
+     * Raw read, which records the requested range and returns a point at its start.
+     */
+    private AsyncFuture<FetchData> raw(final FetchData.Request request) {
+        assertEquals(series, request.getSeries());
+        rawReads.add(request.getRange());
+
+        return async.resolved(FetchData.of(QueryTrace.PASSIVE, ImmutableList.of(),
+            ImmutableList.of(MetricCollection.points(
+                ImmutableList.of(new Point(request.getRange().start(), 0D))))));
+    }
+}
@@ -27,6 +27,7 @@ import com.spotify.heroic.async.AsyncObservable;
 import com.spotify.heroic.common.Groups;
 import com.spotify.heroic.common.OptionalLimit;
 import com.spotify.heroic.common.Series;
+import com.spotify.heroic.filter.CompiledFilter;
 import com.spotify.heroic.filter.Filter;
 import com.spotify.heroic.metadata.CountSeries;
 import com.spotify.heroic.metadata.DeleteSeries;
@@ -192,7 +193,7 @@ public class MemoryBackend implements MetadataBackend {
     }
 
     private Stream<Series> lookupFilter(final Filter filter) {
-        return storage.stream().filter(filter::apply);
+        return storage.stream().filter(CompiledFilter.compile(filter));
     }
 
     private Stream<Series> lookup(final Filter filter, final OptionalLimit limit) {
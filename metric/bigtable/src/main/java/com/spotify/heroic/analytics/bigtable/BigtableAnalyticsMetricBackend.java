@@ -23,7 +23,9 @@ package com.spotify.heroic.analytics.bigtable;
 
 import com.spotify.heroic.QueryOptions;
 import com.spotify.heroic.async.AsyncObservable;
+import com.spotify.heroic.common.DateRange;
 import com.spotify.heroic.common.Groups;
+import com.spotify.heroic.common.Series;
 import com.spotify.heroic.common.Statistics;
 import com.spotify.heroic.metric.BackendEntry;
 import com.spotify.heroic.metric.BackendKey;
@@ -33,6 +35,7 @@ import com.spotify.heroic.metric.FetchData;
 import com.spotify.heroic.metric.FetchQuotaWatcher;
 import com.spotify.heroic.metric.MetricBackend;
 import com.spotify.heroic.metric.MetricCollection;
+import com.spotify.heroic.metric.MetricType;
 import com.spotify.heroic.metric.WriteMetric;
 import eu.toolchain.async.AsyncFuture;
 import lombok.RequiredArgsConstructor;
@@ -40,6 +43,7 @@ import lombok.ToString;
 
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Optional;
 
 @ToString
 @RequiredArgsConstructor
@@ -119,6 +123,16 @@ class BigtableAnalyticsMetricBackend implements MetricBackend {
         return backend.countKey(key, options);
     }
 
+    @Override
+    public AsyncFuture<Long> compact(Series series, DateRange range) {
+        return backend.compact(series, range);
+    }
+
+    @Override
+    public Optional<Long> retainedSince(MetricType type, Series series) {
+        return backend.retainedSince(type, series);
+    }
+
     @Override
     public AsyncFuture<MetricCollection> fetchRow(BackendKey key) {
         return backend.fetchRow(key);
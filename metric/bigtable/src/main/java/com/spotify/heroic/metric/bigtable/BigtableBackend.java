@@ -27,9 +27,9 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.cloud.bigtable.grpc.scanner.FlatRow;
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
 import com.google.protobuf.ByteString;
 import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.common.Duration;
 import com.spotify.heroic.common.Groups;
 import com.spotify.heroic.common.RequestTimer;
 import com.spotify.heroic.common.Series;
@@ -41,10 +41,13 @@ import com.spotify.heroic.metric.BackendEntry;
 import com.spotify.heroic.metric.Event;
 import com.spotify.heroic.metric.FetchData;
 import com.spotify.heroic.metric.FetchQuotaWatcher;
+import com.spotify.heroic.metric.GorillaDecoder;
+import com.spotify.heroic.metric.GorillaEncoder;
 import com.spotify.heroic.metric.Metric;
 import com.spotify.heroic.metric.MetricCollection;
 import com.spotify.heroic.metric.MetricType;
 import com.spotify.heroic.metric.Point;
+import com.spotify.heroic.metric.PointColumns;
 import com.spotify.heroic.metric.QueryError;
 import com.spotify.heroic.metric.QueryTrace;
 import com.spotify.heroic.metric.WriteMetric;
@@ -56,15 +59,18 @@ import com.spotify.heroic.metric.bigtable.api.ReadRowsRequest;
 import com.spotify.heroic.metric.bigtable.api.RowFilter;
 import com.spotify.heroic.metric.bigtable.api.Table;
 import com.spotify.heroic.metrics.Meter;
+import com.spotify.heroic.scheduler.Scheduler;
 import com.spotify.heroic.statistics.MetricBackendReporter;
 import eu.toolchain.async.AsyncFramework;
 import eu.toolchain.async.AsyncFuture;
 import eu.toolchain.async.Managed;
 import eu.toolchain.async.RetryPolicy;
 import eu.toolchain.async.RetryResult;
+import eu.toolchain.async.StreamCollector;
 import eu.toolchain.serializer.BytesSerialWriter;
 import eu.toolchain.serializer.Serializer;
 import eu.toolchain.serializer.SerializerFramework;
+import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
@@ -77,8 +83,17 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiFunction;
 
 @BigtableScope
@@ -95,8 +110,15 @@ public class BigtableBackend extends AbstractMetricBackend implements LifeCycles
 
     public static final String POINTS = "points";
     public static final String EVENTS = "events";
+    public static final String BLOCKS = "blocks";
     public static final long PERIOD = 0x100000000L;
 
+    /* the period covered by a single block, blocks at the end of a row are truncated */
+    public static final long BLOCK_PERIOD = TimeUnit.HOURS.toMillis(2);
+
+    /* maximum number of blocks compacted in parallel by the scheduled compaction */
+    public static final int COMPACTION_PARALLELISM = 10;
+
     private final AsyncFramework async;
     private final SerializerFramework serializer;
     private final Serializer<RowKey> rowKeySerializer;
@@ -106,6 +128,10 @@ public class BigtableBackend extends AbstractMetricBackend implements LifeCycles
     private final boolean configure;
     private final MetricBackendReporter reporter;
     private final ObjectMapper mapper;
+    private final Optional<RowReadBatcher> batcher;
+    private final boolean blocks;
+    private final Duration compactionInterval;
+    private final Scheduler scheduler;
 
     private static final TypeReference<Map<String, String>> PAYLOAD_TYPE =
         new TypeReference<Map<String, String>>() {
@@ -113,13 +139,22 @@ public class BigtableBackend extends AbstractMetricBackend implements LifeCycles
 
     private final Meter written = new Meter();
 
+    /* blocks which have been written to since they were last compacted */
+    private final Set<DirtyBlock> dirty = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final AtomicLong compacted = new AtomicLong();
+
+    private volatile boolean stopped = false;
+
     @Inject
     public BigtableBackend(
         final AsyncFramework async, @Named("common") final SerializerFramework serializer,
         final Serializer<RowKey> rowKeySerializer, final Managed<BigtableConnection> connection,
         final Groups groups, @Named("table") final String table,
         @Named("configure") final boolean configure, MetricBackendReporter reporter,
-        @Named("application/json") ObjectMapper mapper
+        @Named("application/json") ObjectMapper mapper,
+        @Named("readBatchSize") final int readBatchSize, @Named("blocks") final boolean blocks,
+        @Named("compactionInterval") final Duration compactionInterval, final Scheduler scheduler
     ) {
         super(async);
         this.async = async;
@@ -131,6 +166,11 @@ public class BigtableBackend extends AbstractMetricBackend implements LifeCycles
         this.configure = configure;
         this.reporter = reporter;
         this.mapper = mapper;
+        this.batcher = readBatchSize > 1 ? Optional.of(
+            new RowReadBatcher(async, table, readBatchSize)) : Optional.empty();
+        this.blocks = blocks;
+        this.compactionInterval = compactionInterval;
+        this.scheduler = scheduler;
     }
 
     @Override
@@ -177,6 +217,14 @@ public class BigtableBackend extends AbstractMetricBackend implements LifeCycles
                     return admin.createColumnFamily(metrics, EVENTS);
                 })));
 
+                if (blocks) {
+                    families.add(
+                        async.call(() -> metrics.getColumnFamily(BLOCKS).orElseGet(() -> {
+                            log.info("Creating missing column family: " + BLOCKS);
+                            return admin.createColumnFamily(metrics, BLOCKS);
+                        })));
+                }
+
                 return async.collectAndDiscard(families);
             });
     }
@@ -221,10 +269,7 @@ public class BigtableBackend extends AbstractMetricBackend implements LifeCycles
 
             switch (type) {
                 case POINT:
-                    return fetchBatch(watcher, type, POINTS, prepared, c, (t, d) -> {
-                        final double value = deserializeValue(d);
-                        return new Point(t, value);
-                    });
+                    return fetchPoints(watcher, prepared, c);
                 case EVENT:
                     return fetchBatch(watcher, type, EVENTS, prepared, c, (t, d) -> {
                         final Map<String, String> payload;
@@ -244,6 +289,58 @@ public class BigtableBackend extends AbstractMetricBackend implements LifeCycles
         });
     }
 
+    /**
+     * Compact points into blocks.
+     * <p>
+     * Every block period which is completely covered by the given range, and has ended, has its
+     * points merged with the existing block of the period and written as a new block. The points
+     * are deleted in the same row mutation, so readers see either the points or the block.
+     * <p>
+     * Blocks that are written to are compacted periodically once they have been closed for a
+     * compaction interval. Which blocks are written to is only tracked in memory, so points
+     * written before a restart have to be compacted explicitly with this method.
+     */
+    @Override
+    public AsyncFuture<Long> compact(final Series series, final DateRange range) {
+        if (!blocks) {
+            return async.failed(new IllegalStateException("block format is not enabled"));
+        }
+
+        return connection.doto(c -> {
+            final DateRange closed = range.end(Math.min(range.end(), System.currentTimeMillis()));
+            final List<AsyncFuture<Long>> rows = new ArrayList<>();
+
+            for (long base = base(closed.start()); base < closed.end(); base += PERIOD) {
+                final long start = Math.max(closed.start() - base, 0L);
+                final long end = Math.min(closed.end() - base, PERIOD);
+
+                /* block periods that are completely covered */
+                final long first = (start + BLOCK_PERIOD - 1) / BLOCK_PERIOD * BLOCK_PERIOD;
+                long last = first;
+
+                while (last < end && blockEnd(last) <= end) {
+                    last = blockEnd(last);
+                }
+
+                if (last > first) {
+                    final ByteString rowKey =
+                        serialize(new RowKey(series, base), rowKeySerializer);
+                    rows.add(compactRow(c.dataClient(), rowKey, base, first, last));
+                }
+            }
+
+            return async.collect(rows).directTransform(counts -> {
+                long compacted = 0L;
+
+                for (final long count : counts) {
+                    compacted += count;
+                }
+
+                return compacted;
+            });
+        });
+    }
+
     @Override
     public Iterable<BackendEntry> listEntries() {
         return ImmutableList.of();
@@ -253,10 +350,31 @@ public class BigtableBackend extends AbstractMetricBackend implements LifeCycles
     public Statistics getStatistics() {
         final long written = this.written.getCount();
         final double writeRate = this.written.getFiveMinuteRate();
-        return Statistics.of("written", written, "writeRate", (long) writeRate);
+
+        final Statistics compaction = blocks ?
+            Statistics.of("compacted", compacted.get(), "compactionPending", dirty.size()) :
+            Statistics.empty();
+
+        final Statistics statistics = Statistics
+            .of("written", written, "writeRate", (long) writeRate)
+            .merge(compaction);
+
+        return batcher
+            .map(b -> statistics.merge(
+                Statistics.of("readRequests", b.getRequests(), "readRows", b.getRows())))
+            .orElse(statistics);
     }
 
     private AsyncFuture<Void> start() {
+        if (blocks) {
+            scheduler.periodically("bigtable-compaction", compactionInterval.getDuration(),
+                compactionInterval.getUnit(), () -> {
+                    if (!stopped) {
+                        compactClosed(System.currentTimeMillis());
+                    }
+                });
+        }
+
         final AsyncFuture<Void> future = connection.start();
 
         if (!configure) {
@@ -267,16 +385,94 @@ public class BigtableBackend extends AbstractMetricBackend implements LifeCycles
     }
 
     private AsyncFuture<Void> stop() {
+        stopped = true;
         return connection.stop();
     }
 
+    /**
+     * Compact all written blocks which have been closed for at least a compaction interval.
+     * <p>
+     * Blocks are compacted at most {@link #COMPACTION_PARALLELISM} at a time, and a new round is
+     * not started until the previous one has finished. Blocks which fail to compact are retried
+     * in the next round.
+     */
+    void compactClosed(final long now) {
+        if (!compacting.compareAndSet(false, true)) {
+            return;
+        }
+
+        final long cutoff = now - compactionInterval.toMilliseconds();
+        final List<Callable<AsyncFuture<Long>>> compactions = new ArrayList<>();
+        final Iterator<DirtyBlock> it = dirty.iterator();
+
+        while (it.hasNext()) {
+            final DirtyBlock block = it.next();
+
+            if (block.getEnd() > cutoff) {
+                continue;
+            }
+
+            it.remove();
+            compactions.add(() -> compactBlock(block));
+        }
+
+        async.eventuallyCollect(compactions, new StreamCollector<Long, Void>() {
+            @Override
+            public void resolved(final Long result) throws Exception {
+                compacted.addAndGet(result);
+            }
+
+            @Override
+            public void failed(final Throwable cause) throws Exception {
+                /* logged and marked for retry by compactBlock */
+            }
+
+            @Override
+            public void cancelled() throws Exception {
+            }
+
+            @Override
+            public Void end(final int resolved, final int failed, final int cancelled)
+                throws Exception {
+                return null;
+            }
+        }, COMPACTION_PARALLELISM).onFinished(() -> compacting.set(false));
+    }
+
+    private AsyncFuture<Long> compactBlock(final DirtyBlock block) {
+        final DateRange range = new DateRange(block.getStart(), block.getEnd());
+
+        return compact(block.getSeries(), range).onFailed(cause -> {
+            log.warn("Failed to compact block {}, retrying in the next round", block, cause);
+            dirty.add(block);
+        });
+    }
+
+    /**
+     * Mark the blocks of the given points as written to.
+     */
+    private void markDirty(final Series series, final List<Point> points) {
+        DirtyBlock last = null;
+
+        for (final Point p : points) {
+            final long base = base(p.getTimestamp());
+            final long start = blockStart(offset(p.getTimestamp()));
+
+            if (last != null && last.getStart() == base + start) {
+                continue;
+            }
+
+            last = new DirtyBlock(series, base + start, base + blockEnd(start));
+            dirty.add(last);
+        }
+    }
+
     private AsyncFuture<WriteMetric> writeTyped(
         final Series series, final BigtableDataClient client, final MetricCollection g
     ) throws IOException {
         switch (g.getType()) {
             case POINT:
-                return writeBatch(POINTS, series, client, g.getDataAs(Point.class),
-                    d -> serializeValue(d.getValue()));
+                return writePoints(series, client, g.getDataAs(Point.class));
             case EVENT:
                 return writeBatch(EVENTS, series, client, g.getDataAs(Event.class),
                     BigtableBackend.this::serializeEvent);
@@ -286,6 +482,19 @@ public class BigtableBackend extends AbstractMetricBackend implements LifeCycles
         }
     }
 
+    private AsyncFuture<WriteMetric> writePoints(
+        final Series series, final BigtableDataClient client, final List<Point> points
+    ) throws IOException {
+        final AsyncFuture<WriteMetric> write =
+            writeBatch(POINTS, series, client, points, d -> serializeValue(d.getValue()));
+
+        if (!blocks) {
+            return write;
+        }
+
+        return write.onFinished(() -> markDirty(series, points));
+    }
+
     private <T extends Metric> AsyncFuture<WriteMetric> writeBatch(
         final String columnFamily, final Series series, final BigtableDataClient client,
         final List<T> batch, final Function<T, ByteString> serializer
@@ -316,7 +525,7 @@ public class BigtableBackend extends AbstractMetricBackend implements LifeCycles
                 building.put(rowKey, builder);
             }
 
-            builder.setCell(columnFamily, offsetBytes, valueBytes);
+            builder.setCell(columnFamily, offsetBytes, valueBytes, cellTimestamp(columnFamily));
 
             if (builder.size() >= MAX_BATCH_SIZE) {
                 saved.add(Pair.of(rowKey, builder.build()));
@@ -345,6 +554,14 @@ public class BigtableBackend extends AbstractMetricBackend implements LifeCycles
         return async.collect(writes.build(), WriteMetric.reduce());
     }
 
+    /**
+     * Points are written with the server time when the block format is enabled, which lets
+     * compaction only delete the versions of a point that it has read.
+     */
+    private long cellTimestamp(final String columnFamily) {
+        return blocks && POINTS.equals(columnFamily) ? Mutations.SERVER_TIME : 0L;
+    }
+
     private <T extends Metric> AsyncFuture<WriteMetric> writeOne(
         final String columnFamily, Series series, BigtableDataClient client, T p,
         Function<T, ByteString> serializer
@@ -360,7 +577,7 @@ public class BigtableBackend extends AbstractMetricBackend implements LifeCycles
         final ByteString offsetBytes = serializeOffset(offset);
         final ByteString valueBytes = serializer.apply(p);
 
-        builder.setCell(columnFamily, offsetBytes, valueBytes);
+        builder.setCell(columnFamily, offsetBytes, valueBytes, cellTimestamp(columnFamily));
 
         final RequestTimer<WriteMetric> timer = WriteMetric.timer();
 
@@ -380,37 +597,31 @@ public class BigtableBackend extends AbstractMetricBackend implements LifeCycles
         final List<AsyncFuture<FetchData>> fetches = new ArrayList<>(prepared.size());
 
         for (final PreparedQuery p : prepared) {
-            final AsyncFuture<List<FlatRow>> readRows = client.readRows(table, ReadRowsRequest
-                .builder()
-                .rowKey(p.keyBlob)
-                .filter(RowFilter.chain(Arrays.asList(
-                    RowFilter
-                        .newColumnRangeBuilder(columnFamily)
-                        .startQualifierOpen(p.startKey)
-                        .endQualifierClosed(p.endKey)
-                        .build(),
-                    RowFilter.onlyLatestCell())))
-                .build());
-
-            final Function<FlatRow.Cell, T> transform = cell -> {
-                final long timestamp = p.base + deserializeOffset(cell.getQualifier());
-                return deserializer.apply(timestamp, cell.getValue());
-            };
+            final AsyncFuture<List<FlatRow>> readRows =
+                readRows(client, rangeFilter(columnFamily, p), p.keyBlob);
 
             final QueryTrace.NamedWatch w = QueryTrace.watch(FETCH_SEGMENT);
 
             fetches.add(readRows.directTransform(result -> {
-                final List<Iterable<T>> points = new ArrayList<>();
+                final List<T> data = new ArrayList<>(cellCount(result));
 
+                /* cells are sorted by qualifier, and each query maps to a single row */
                 for (final FlatRow row : result) {
-                    watcher.readData(row.getCells().size());
-                    points.add(Iterables.transform(row.getCells(), transform));
+                    final List<FlatRow.Cell> cells = row.getCells();
+                    watcher.readData(cells.size());
+
+                    for (final FlatRow.Cell cell : cells) {
+                        final long timestamp = p.base + deserializeOffset(cell.getQualifier());
+                        data.add(deserializer.apply(timestamp, cell.getValue()));
+                    }
+                }
+
+                if (result.size() > 1) {
+                    data.sort(Metric.comparator());
                 }
 
                 final QueryTrace trace = w.end();
                 final ImmutableList<Long> times = ImmutableList.of(trace.getElapsed());
-                final List<T> data =
-                    ImmutableList.copyOf(Iterables.mergeSorted(points, Metric.comparator()));
                 final List<MetricCollection> groups =
                     ImmutableList.of(MetricCollection.build(type, data));
 
@@ -421,6 +632,300 @@ public class BigtableBackend extends AbstractMetricBackend implements LifeCycles
         return async.collect(fetches, FetchData.collect(FETCH));
     }
 
+    /**
+     * Fetch points, decoding cells straight into {@link PointColumns}.
+     * <p>
+     * Each prepared query maps to a single row, and cells in a row are sorted by qualifier which
+     * means that the decoded columns are sorted by timestamp.
+     * <p>
+     * If the block format is enabled, blocks of the row are read as well and merged with the
+     * points that have not been compacted yet.
+     */
+    private AsyncFuture<FetchData> fetchPoints(
+        final FetchQuotaWatcher watcher, final List<PreparedQuery> prepared,
+        final BigtableConnection c
+    ) {
+        final BigtableDataClient client = c.dataClient();
+
+        final List<AsyncFuture<FetchData>> fetches = new ArrayList<>(prepared.size());
+
+        for (final PreparedQuery p : prepared) {
+            final AsyncFuture<List<FlatRow>> readRows =
+                readRows(client, rangeFilter(POINTS, p), p.keyBlob);
+
+            final AsyncFuture<List<FlatRow>> readBlocks = blocks ?
+                readRows(client, blocksFilter(p.startOffset, p.endOffset), p.keyBlob) :
+                async.resolved(ImmutableList.of());
+
+            final QueryTrace.NamedWatch w = QueryTrace.watch(FETCH_SEGMENT);
+
+            fetches.add(readRows.lazyTransform(result -> readBlocks.directTransform(blockRows -> {
+                final PointColumns.Builder columns = PointColumns.builder(cellCount(result));
+
+                for (final FlatRow row : result) {
+                    final List<FlatRow.Cell> cells = row.getCells();
+                    watcher.readData(cells.size());
+                    decodePoints(p.base, cells, columns);
+                }
+
+                final PointColumns.Builder blockColumns = PointColumns.builder();
+
+                for (final FlatRow row : blockRows) {
+                    final int before = blockColumns.size();
+                    decodeBlocks(row.getCells(), p.base + p.startOffset, p.base + p.endOffset,
+                        blockColumns);
+                    watcher.readData(blockColumns.size() - before);
+                }
+
+                final QueryTrace trace = w.end();
+                final ImmutableList<Long> times = ImmutableList.of(trace.getElapsed());
+                final PointColumns points = merge(blockColumns.build(), columns.build());
+                final List<MetricCollection> groups =
+                    ImmutableList.of(MetricCollection.points(points));
+
+                return FetchData.of(trace, times, groups);
+            })));
+        }
+
+        return async.collect(fetches, FetchData.collect(FETCH));
+    }
+
+    /**
+     * Compact the given block periods of a single row.
+     *
+     * @param first Offset of the first block period to compact.
+     * @param last Offset of the end of the last block period to compact.
+     * @return A future containing the number of points that were compacted.
+     */
+    private AsyncFuture<Long> compactRow(
+        final BigtableDataClient client, final ByteString rowKey, final long base,
+        final long first, final long last
+    ) {
+        final AsyncFuture<List<FlatRow>> readPoints =
+            client.readRows(table, rowRequest(rowKey, windowFilter(POINTS, first, last)));
+
+        final AsyncFuture<List<FlatRow>> readBlocks =
+            client.readRows(table, rowRequest(rowKey, windowFilter(BLOCKS, first, last)));
+
+        return readPoints.lazyTransform(points -> readBlocks.lazyTransform(blockRows -> {
+            final Map<Long, List<FlatRow.Cell>> pointsByBlock = new TreeMap<>();
+            final Map<Long, FlatRow.Cell> blockByStart = new HashMap<>();
+
+            for (final FlatRow row : points) {
+                for (final FlatRow.Cell cell : row.getCells()) {
+                    final long offset = deserializeOffset(cell.getQualifier());
+                    pointsByBlock
+                        .computeIfAbsent(blockStart(offset), k -> new ArrayList<>())
+                        .add(cell);
+                }
+            }
+
+            for (final FlatRow row : blockRows) {
+                for (final FlatRow.Cell cell : row.getCells()) {
+                    blockByStart.put(deserializeOffset(cell.getQualifier()), cell);
+                }
+            }
+
+            final List<AsyncFuture<Void>> writes = new ArrayList<>();
+            long compacted = 0L;
+
+            for (final Map.Entry<Long, List<FlatRow.Cell>> e : pointsByBlock.entrySet()) {
+                final List<FlatRow.Cell> cells = e.getValue();
+
+                final PointColumns.Builder columns = PointColumns.builder(cells.size());
+                decodePoints(base, cells, columns);
+
+                final PointColumns.Builder existing = PointColumns.builder();
+                final FlatRow.Cell block = blockByStart.get(e.getKey());
+
+                if (block != null) {
+                    GorillaDecoder.decode(block.getValue().asReadOnlyByteBuffer(), existing);
+                }
+
+                final byte[] encoded =
+                    GorillaEncoder.encode(merge(existing.build(), columns.build()));
+
+                Mutations.Builder mutations = Mutations
+                    .builder()
+                    .setCell(BLOCKS, serializeOffset(e.getKey()), ByteString.copyFrom(encoded));
+
+                /* only versions up to the one that was read are deleted, a point which is
+                 * rewritten during compaction is kept and takes precedence over the block.
+                 * Points which do not fit in the same mutation as the block are deleted in
+                 * separate mutations, readers prefer points over blocks until they are gone */
+                for (final FlatRow.Cell cell : cells) {
+                    if (mutations.size() >= MAX_BATCH_SIZE) {
+                        writes.add(client.mutateRow(table, rowKey, mutations.build()));
+                        mutations = Mutations.builder();
+                    }
+
+                    mutations.deleteCells(POINTS, cell.getQualifier(), 0L,
+                        deleteEnd(cell.getTimestamp()));
+                }
+
+                writes.add(client.mutateRow(table, rowKey, mutations.build()));
+                compacted += cells.size();
+            }
+
+            final long result = compacted;
+            return async.collectAndDiscard(writes).directTransform(v -> result);
+        }));
+    }
+
+    /**
+     * Read a single row, batched together with other concurrent reads if batching is enabled.
+     */
+    private AsyncFuture<List<FlatRow>> readRows(
+        final BigtableDataClient client, final RowFilter filter, final ByteString rowKey
+    ) {
+        if (batcher.isPresent()) {
+            return batcher.get().read(client, filter, rowKey);
+        }
+
+        return client.readRows(table, rowRequest(rowKey, filter));
+    }
+
+    private ReadRowsRequest rowRequest(final ByteString rowKey, final RowFilter filter) {
+        return ReadRowsRequest.builder().rowKey(rowKey).filter(filter).build();
+    }
+
+    private RowFilter rangeFilter(final String columnFamily, final PreparedQuery p) {
+        return RowFilter.chain(Arrays.asList(RowFilter
+            .newColumnRangeBuilder(columnFamily)
+            .startQualifierOpen(p.startKey)
+            .endQualifierClosed(p.endKey)
+            .build(), RowFilter.onlyLatestCell()));
+    }
+
+    /**
+     * Filter for all blocks which might contain points with an offset in (start, end].
+     */
+    static RowFilter blocksFilter(final long start, final long end) {
+        return RowFilter.chain(Arrays.asList(RowFilter
+            .newColumnRangeBuilder(BLOCKS)
+            .startQualifierClosed(serializeOffset(blockStart(start)))
+            .endQualifierClosed(serializeOffset(blockStart(Math.min(end, PERIOD - 1))))
+            .build(), RowFilter.onlyLatestCell()));
+    }
+
+    /**
+     * Filter for all cells of the given family with an offset in [first, last).
+     */
+    static RowFilter windowFilter(final String columnFamily, final long first, final long last) {
+        final RowFilter.ColumnRange.Builder range = RowFilter
+            .newColumnRangeBuilder(columnFamily)
+            .startQualifierClosed(serializeOffset(first));
+
+        if (last < PERIOD) {
+            range.endQualifierOpen(serializeOffset(last));
+        }
+
+        return RowFilter.chain(Arrays.asList(range.build(), RowFilter.onlyLatestCell()));
+    }
+
+    /**
+     * Exclusive end of a delete which covers the given cell timestamp, rounded up to the
+     * millisecond granularity of the table.
+     */
+    static long deleteEnd(final long timestampMicros) {
+        return (timestampMicros / 1000L + 1L) * 1000L;
+    }
+
+    static long blockStart(final long offset) {
+        return offset - offset % BLOCK_PERIOD;
+    }
+
+    static long blockEnd(final long blockStart) {
+        return Math.min(blockStart + BLOCK_PERIOD, PERIOD);
+    }
+
+    static int cellCount(final List<FlatRow> rows) {
+        int count = 0;
+
+        for (final FlatRow row : rows) {
+            count += row.getCells().size();
+        }
+
+        return count;
+    }
+
+    static void decodePoints(
+        final long base, final List<FlatRow.Cell> cells, final PointColumns.Builder columns
+    ) {
+        for (final FlatRow.Cell cell : cells) {
+            columns.add(base + deserializeOffset(cell.getQualifier()),
+                deserializeValue(cell.getValue()));
+        }
+    }
+
+    /**
+     * Decode the points of the given block cells that are in the range (start, end].
+     */
+    static void decodeBlocks(
+        final List<FlatRow.Cell> cells, final long start, final long end,
+        final PointColumns.Builder columns
+    ) {
+        for (final FlatRow.Cell cell : cells) {
+            final GorillaDecoder decoder =
+                new GorillaDecoder(cell.getValue().asReadOnlyByteBuffer());
+
+            while (decoder.next()) {
+                final long timestamp = decoder.timestamp();
+
+                if (timestamp > start && timestamp <= end) {
+                    columns.add(timestamp, decoder.value());
+                }
+            }
+        }
+    }
+
+    /**
+     * Merge points decoded from blocks with points stored in separate cells, both sorted by
+     * timestamp.
+     * <p>
+     * Points in cells have been written after the block, or have not been deleted yet by an
+     * ongoing compaction, and take precedence over points with the same timestamp in a block.
+     */
+    static PointColumns merge(final PointColumns blocks, final PointColumns points) {
+        if (blocks.isEmpty()) {
+            return points;
+        }
+
+        if (points.isEmpty()) {
+            return blocks;
+        }
+
+        final PointColumns.Builder merged = PointColumns.builder(blocks.size() + points.size());
+
+        int i = 0;
+        int j = 0;
+
+        while (i < blocks.size() && j < points.size()) {
+            final long a = blocks.timestamp(i);
+            final long b = points.timestamp(j);
+
+            if (a < b) {
+                merged.add(a, blocks.value(i++));
+            } else {
+                if (a == b) {
+                    i++;
+                }
+
+                merged.add(b, points.value(j++));
+            }
+        }
+
+        while (i < blocks.size()) {
+            merged.add(blocks.timestamp(i), blocks.value(i++));
+        }
+
+        while (j < points.size()) {
+            merged.add(points.timestamp(j), points.value(j++));
+        }
+
+        return merged.build();
+    }
+
     <T> ByteString serialize(T rowKey, Serializer<T> serializer) throws IOException {
         try (final BytesSerialWriter writer = this.serializer.writeBytes()) {
             serializer.serialize(writer, rowKey);
@@ -456,7 +961,8 @@ public class BigtableBackend extends AbstractMetricBackend implements LifeCycles
             final ByteString startKey = serializeOffset(offset(modified.start()));
             final ByteString endKey = serializeOffset(offset(modified.end()));
 
-            bases.add(new PreparedQuery(keyBlob, startKey, endKey, base));
+            bases.add(new PreparedQuery(keyBlob, startKey, endKey, base, modified.start() - base,
+                modified.end() - base));
         }
 
         return bases;
@@ -476,8 +982,17 @@ public class BigtableBackend extends AbstractMetricBackend implements LifeCycles
         }
     }
 
+    /**
+     * Deserialize a value by reading the bytes straight from the given string, without copying.
+     */
     static double deserializeValue(ByteString value) {
-        return Double.longBitsToDouble(ByteBuffer.wrap(value.toByteArray()).getLong());
+        long bits = 0L;
+
+        for (int i = 0; i < Double.BYTES; i++) {
+            bits = (bits << 8) | (value.byteAt(i) & 0xff);
+        }
+
+        return Double.longBitsToDouble(bits);
     }
 
     /**
@@ -509,21 +1024,28 @@ public class BigtableBackend extends AbstractMetricBackend implements LifeCycles
     }
 
     static long deserializeOffset(ByteString value) {
-        final byte[] bytes = value.toByteArray();
-
         // @formatter:off
-        return ((long) (bytes[0] & 0xff) << 24) +
-               ((long) (bytes[1] & 0xff) << 16) +
-               ((long) (bytes[2] & 0xff) << 8) +
-               ((long) (bytes[3] & 0xff) << 0);
+        return ((long) (value.byteAt(0) & 0xff) << 24) +
+               ((long) (value.byteAt(1) & 0xff) << 16) +
+               ((long) (value.byteAt(2) & 0xff) << 8) +
+               ((long) (value.byteAt(3) & 0xff) << 0);
         // @formatter:on
     }
 
+    @Data
+    static final class DirtyBlock {
+        private final Series series;
+        private final long start;
+        private final long end;
+    }
+
     @RequiredArgsConstructor
     private static final class PreparedQuery {
         private final ByteString keyBlob;
         private final ByteString startKey;
         private final ByteString endKey;
         private final long base;
+        private final long startOffset;
+        private final long endOffset;
     }
 }
@@ -27,6 +27,7 @@ import com.google.cloud.bigtable.config.BulkOptions;
 import com.google.cloud.bigtable.config.CredentialOptions;
 import com.google.cloud.bigtable.config.RetryOptions;
 import com.google.cloud.bigtable.grpc.BigtableSession;
+import com.google.common.net.HostAndPort;
 import com.spotify.heroic.bigtable.grpc.Status;
 import com.spotify.heroic.metric.bigtable.api.BigtableDataClient;
 import com.spotify.heroic.metric.bigtable.api.BigtableDataClientImpl;
@@ -59,10 +60,13 @@ public class BigtableConnectionBuilder implements Callable<BigtableConnection> {
     private final boolean disableBulkMutations;
     private final int flushIntervalSeconds;
     private final Optional<Integer> batchSize;
+    /* host and port of a bigtable emulator to connect to, instead of the real service */
+    private final Optional<String> emulatorEndpoint;
 
     @Override
     public BigtableConnection call() throws Exception {
-        final CredentialOptions credentials = this.credentials.build();
+        final CredentialOptions credentials = emulatorEndpoint.isPresent() ?
+            CredentialOptions.nullCredential() : this.credentials.build();
 
         final RetryOptions retryOptions = new RetryOptions.Builder()
             .addStatusToRetryOn(Status.Code.UNKNOWN)
@@ -73,15 +77,27 @@ public class BigtableConnectionBuilder implements Callable<BigtableConnection> {
             .map(integer -> new BulkOptions.Builder().setBulkMaxRowKeyCount(integer).build())
             .orElseGet(() -> new BulkOptions.Builder().build());
 
-        final BigtableOptions options = new BigtableOptions.Builder()
+        final BigtableOptions.Builder builder = new BigtableOptions.Builder()
             .setProjectId(project)
             .setInstanceId(instance)
             .setUserAgent(USER_AGENT)
             .setDataChannelCount(64)
             .setCredentialOptions(credentials)
             .setRetryOptions(retryOptions)
-            .setBulkOptions(bulkOptions)
-            .build();
+            .setBulkOptions(bulkOptions);
+
+        emulatorEndpoint.ifPresent(endpoint -> {
+            final HostAndPort hostAndPort = HostAndPort.fromString(endpoint);
+
+            builder
+                .setDataHost(hostAndPort.getHostText())
+                .setTableAdminHost(hostAndPort.getHostText())
+                .setInstanceAdminHost(hostAndPort.getHostText())
+                .setPort(hostAndPort.getPort())
+                .setUsePlaintextNegotiation(true);
+        });
+
+        final BigtableOptions options = builder.build();
 
         final BigtableSession session = new BigtableSession(options, executorService);
 
@@ -24,6 +24,7 @@ package com.spotify.heroic.metric.bigtable;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.spotify.heroic.ExtraParameters;
+import com.spotify.heroic.common.Duration;
 import com.spotify.heroic.common.DynamicModuleId;
 import com.spotify.heroic.common.Groups;
 import com.spotify.heroic.common.ModuleId;
@@ -45,6 +46,7 @@ import lombok.Data;
 import javax.inject.Named;
 import java.util.Optional;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static java.util.Optional.empty;
 import static java.util.Optional.of;
@@ -62,6 +64,9 @@ public final class BigtableMetricModule implements MetricModule, DynamicModuleId
     public static final boolean DEFAULT_CONFIGURE = false;
     public static final boolean DEFAULT_DISABLE_BULK_MUTATIONS = false;
     public static final int DEFAULT_FLUSH_INTERVAL_SECONDS = 2;
+    public static final int DEFAULT_READ_BATCH_SIZE = 500;
+    public static final boolean DEFAULT_BLOCKS = false;
+    public static final Duration DEFAULT_COMPACTION_INTERVAL = Duration.of(10, TimeUnit.MINUTES);
 
     private final Optional<String> id;
     private final Groups groups;
@@ -73,6 +78,10 @@ public final class BigtableMetricModule implements MetricModule, DynamicModuleId
     private final boolean disableBulkMutations;
     private final int flushIntervalSeconds;
     private final Optional<Integer> batchSize;
+    private final int readBatchSize;
+    private final boolean blocks;
+    private final Duration compactionInterval;
+    private final Optional<String> emulatorEndpoint;
 
     @JsonCreator
     public BigtableMetricModule(
@@ -84,7 +93,11 @@ public final class BigtableMetricModule implements MetricModule, DynamicModuleId
         @JsonProperty("configure") Optional<Boolean> configure,
         @JsonProperty("disableBulkMutations") Optional<Boolean> disableBulkMutations,
         @JsonProperty("flushIntervalSeconds") Optional<Integer> flushIntervalSeconds,
-        @JsonProperty("batchSize") Optional<Integer> batchSize
+        @JsonProperty("batchSize") Optional<Integer> batchSize,
+        @JsonProperty("readBatchSize") Optional<Integer> readBatchSize,
+        @JsonProperty("blocks") Optional<Boolean> blocks,
+        @JsonProperty("compactionInterval") Optional<Duration> compactionInterval,
+        @JsonProperty("emulatorEndpoint") Optional<String> emulatorEndpoint
     ) {
         this.id = id;
         this.groups = groups.orElseGet(Groups::empty).or(DEFAULT_GROUP);
@@ -96,6 +109,10 @@ public final class BigtableMetricModule implements MetricModule, DynamicModuleId
         this.disableBulkMutations = disableBulkMutations.orElse(DEFAULT_DISABLE_BULK_MUTATIONS);
         this.flushIntervalSeconds = flushIntervalSeconds.orElse(DEFAULT_FLUSH_INTERVAL_SECONDS);
         this.batchSize = batchSize;
+        this.readBatchSize = readBatchSize.orElse(DEFAULT_READ_BATCH_SIZE);
+        this.blocks = blocks.orElse(DEFAULT_BLOCKS);
+        this.compactionInterval = compactionInterval.orElse(DEFAULT_COMPACTION_INTERVAL);
+        this.emulatorEndpoint = emulatorEndpoint;
     }
 
     @Override
@@ -131,7 +148,7 @@ public final class BigtableMetricModule implements MetricModule, DynamicModuleId
                     return async.call(
                         new BigtableConnectionBuilder(project, instance, credentials, async,
                             executorService, disableBulkMutations, flushIntervalSeconds,
-                            batchSize));
+                            batchSize, emulatorEndpoint));
                 }
 
                 @Override
@@ -159,6 +176,27 @@ public final class BigtableMetricModule implements MetricModule, DynamicModuleId
                 params.contains(BIGTABLE_CONFIGURE_PARAM) || configure;
         }
 
+        @Provides
+        @BigtableScope
+        @Named("readBatchSize")
+        public int readBatchSize() {
+            return readBatchSize;
+        }
+
+        @Provides
+        @BigtableScope
+        @Named("blocks")
+        public boolean blocks() {
+            return blocks;
+        }
+
+        @Provides
+        @BigtableScope
+        @Named("compactionInterval")
+        public Duration compactionInterval() {
+            return compactionInterval;
+        }
+
         @Provides
         @BigtableScope
         public Serializer<RowKey> rowKeySerializer() {
@@ -198,6 +236,10 @@ public final class BigtableMetricModule implements MetricModule, DynamicModuleId
         private Optional<Boolean> disableBulkMutations = empty();
         private Optional<Integer> flushIntervalSeconds = empty();
         private Optional<Integer> batchSize = empty();
+        private Optional<Integer> readBatchSize = empty();
+        private Optional<Boolean> blocks = empty();
+        private Optional<Duration> compactionInterval = empty();
+        private Optional<String> emulatorEndpoint = empty();
 
         public Builder id(String id) {
             this.id = of(id);
@@ -245,6 +287,26 @@ public final class BigtableMetricModule implements MetricModule, DynamicModuleId
             return this;
         }
 
+        public Builder readBatchSize(int readBatchSize) {
+            this.readBatchSize = of(readBatchSize);
+            return this;
+        }
+
+        public Builder blocks(boolean blocks) {
+            this.blocks = of(blocks);
+            return this;
+        }
+
+        public Builder compactionInterval(Duration compactionInterval) {
+            this.compactionInterval = of(compactionInterval);
+            return this;
+        }
+
+        public Builder emulatorEndpoint(String emulatorEndpoint) {
+            this.emulatorEndpoint = of(emulatorEndpoint);
+            return this;
+        }
+
         public Builder table(final String table) {
             this.table = of(table);
             return this;
@@ -252,7 +314,8 @@ public final class BigtableMetricModule implements MetricModule, DynamicModuleId
 
         public BigtableMetricModule build() {
             return new BigtableMetricModule(id, groups, project, instance, table, credentials,
-                configure, disableBulkMutations, flushIntervalSeconds, batchSize);
+                configure, disableBulkMutations, flushIntervalSeconds, batchSize, readBatchSize,
+                blocks, compactionInterval, emulatorEndpoint);
         }
     }
 }
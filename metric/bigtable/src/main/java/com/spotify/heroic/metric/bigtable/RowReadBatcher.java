@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.heroic.metric.bigtable;
+
+import com.google.cloud.bigtable.grpc.scanner.FlatRow;
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.ByteString;
+import com.spotify.heroic.metric.bigtable.api.BigtableDataClient;
+import com.spotify.heroic.metric.bigtable.api.ReadRowsRequest;
+import com.spotify.heroic.metric.bigtable.api.RowFilter;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.FutureDone;
+import eu.toolchain.async.ResolvableFuture;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Batches reads of single rows into multi-row read requests.
+ * <p>
+ * Reads which are requested concurrently and share the same filter are collected into a single
+ * request with a row set of at most {@code maxRows} keys. A batch is sent as soon as it is full,
+ * or otherwise once the reads which are submitted in the same burst have been collected, which
+ * happens on the next task run by the async framework.
+ * <p>
+ * The rows of a batch are streamed back sorted by key, and are handed back to each read by their
+ * key.
+ */
+class RowReadBatcher {
+    private final AsyncFramework async;
+    private final String table;
+    private final int maxRows;
+
+    private final Object lock = new Object();
+
+    /* batches which are being collected, guarded by lock */
+    private Map<BatchKey, Batch> collecting = new LinkedHashMap<>();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+
+    /**
+     * @param table Table to read rows from.
+     * @param maxRows The maximum number of rows in a single request.
+     */
+    RowReadBatcher(final AsyncFramework async, final String table, final int maxRows) {
+        this.async = async;
+        this.table = table;
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Read a single row.
+     *
+     * @param client Client to read the row with.
+     * @param filter Filter to apply to the row, only reads with equal filters are batched.
+     * @param rowKey Key of the row to read.
+     * @return A future containing the row, or an empty list if it does not exist.
+     */
+    AsyncFuture<List<FlatRow>> read(
+        final BigtableDataClient client, final RowFilter filter, final ByteString rowKey
+    ) {
+        final BatchKey key = new BatchKey(client, filter);
+        final ResolvableFuture<List<FlatRow>> future = async.future();
+
+        final Batch full;
+        final boolean schedule;
+
+        synchronized (lock) {
+            schedule = collecting.isEmpty();
+
+            Batch batch = collecting.get(key);
+
+            if (batch == null) {
+                batch = new Batch(key);
+                collecting.put(key, batch);
+            }
+
+            batch.add(rowKey, future);
+
+            if (batch.size() >= maxRows) {
+                collecting.remove(key);
+                full = batch;
+            } else {
+                full = null;
+            }
+        }
+
+        if (full != null) {
+            send(full);
+        }
+
+        if (schedule) {
+            async.call(() -> {
+                flush();
+                return null;
+            });
+        }
+
+        return future;
+    }
+
+    long getRequests() {
+        return requests.sum();
+    }
+
+    long getRows() {
+        return rows.sum();
+    }
+
+    /**
+     * Send all batches which are being collected.
+     */
+    void flush() {
+        final Map<BatchKey, Batch> batches;
+
+        synchronized (lock) {
+            if (collecting.isEmpty()) {
+                return;
+            }
+
+            batches = collecting;
+            collecting = new LinkedHashMap<>();
+        }
+
+        for (final Batch batch : batches.values()) {
+            send(batch);
+        }
+    }
+
+    private void send(final Batch batch) {
+        requests.increment();
+        rows.add(batch.size());
+
+        final AsyncFuture<List<FlatRow>> result;
+
+        try {
+            result = batch.key.client.readRows(table, batch.request());
+        } catch (final Exception e) {
+            batch.fail(e);
+            return;
+        }
+
+        result.onDone(new FutureDone<List<FlatRow>>() {
+            @Override
+            public void failed(final Throwable cause) {
+                batch.fail(cause);
+            }
+
+            @Override
+            public void resolved(final List<FlatRow> result) {
+                batch.resolve(result);
+            }
+
+            @Override
+            public void cancelled() {
+                batch.cancel();
+            }
+        });
+    }
+
+    @Data
+    static class BatchKey {
+        private final BigtableDataClient client;
+        private final RowFilter filter;
+    }
+
+    @RequiredArgsConstructor
+    static class Batch {
+        private final BatchKey key;
+
+        /* the same row might be read more than once in a batch */
+        private final Map<ByteString, List<ResolvableFuture<List<FlatRow>>>> reads =
+            new HashMap<>();
+
+        private int size = 0;
+
+        void add(final ByteString rowKey, final ResolvableFuture<List<FlatRow>> future) {
+            reads.computeIfAbsent(rowKey, k -> new ArrayList<>()).add(future);
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        ReadRowsRequest request() {
+            return ReadRowsRequest.builder().rowKeys(reads.keySet()).filter(key.filter).build();
+        }
+
+        void resolve(final List<FlatRow> result) {
+            final Map<ByteString, FlatRow> byKey = new HashMap<>(result.size());
+
+            for (final FlatRow row : result) {
+                byKey.put(row.getRowKey(), row);
+            }
+
+            for (final Map.Entry<ByteString, List<ResolvableFuture<List<FlatRow>>>> e : reads
+                .entrySet()) {
+                final FlatRow row = byKey.get(e.getKey());
+                final List<FlatRow> rows =
+                    row != null ? ImmutableList.of(row) : ImmutableList.of();
+
+                for (final ResolvableFuture<List<FlatRow>> future : e.getValue()) {
+                    future.resolve(rows);
+                }
+            }
+        }
+
+        void fail(final Throwable cause) {
+            for (final List<ResolvableFuture<List<FlatRow>>> futures : reads.values()) {
+                for (final ResolvableFuture<List<FlatRow>> future : futures) {
+                    future.fail(cause);
+                }
+            }
+        }
+
+        void cancel() {
+            for (final List<ResolvableFuture<List<FlatRow>>> futures : reads.values()) {
+                for (final ResolvableFuture<List<FlatRow>> future : futures) {
+                    future.cancel();
+                }
+            }
+        }
+    }
+}
@@ -31,6 +31,9 @@ import java.util.List;
 
 @RequiredArgsConstructor
 public class Mutations {
+    /* timestamp which lets the server assign the current time to a cell */
+    public static final long SERVER_TIME = -1L;
+
     private final List<com.google.bigtable.v2.Mutation> mutations;
 
     /**
@@ -56,18 +59,69 @@ public class Mutations {
 
         public Builder setCell(
             String family, ByteString columnQualifier, ByteString value
+        ) {
+            return setCell(family, columnQualifier, value, 0L);
+        }
+
+        /**
+         * Set a cell with the given timestamp in microseconds, {@link #SERVER_TIME} lets the
+         * server assign the timestamp.
+         */
+        public Builder setCell(
+            String family, ByteString columnQualifier, ByteString value, long timestampMicros
         ) {
             final com.google.bigtable.v2.Mutation.SetCell.Builder setCell =
                 com.google.bigtable.v2.Mutation.SetCell
                     .newBuilder()
                     .setFamilyName(family)
                     .setColumnQualifier(columnQualifier)
+                    .setTimestampMicros(timestampMicros)
                     .setValue(value);
 
             mutations.add(com.google.bigtable.v2.Mutation.newBuilder().setSetCell(setCell).build());
             return this;
         }
 
+        public Builder deleteCells(String family, ByteString columnQualifier) {
+            final com.google.bigtable.v2.Mutation.DeleteFromColumn.Builder deleteFromColumn =
+                com.google.bigtable.v2.Mutation.DeleteFromColumn
+                    .newBuilder()
+                    .setFamilyName(family)
+                    .setColumnQualifier(columnQualifier);
+
+            mutations.add(com.google.bigtable.v2.Mutation
+                .newBuilder()
+                .setDeleteFromColumn(deleteFromColumn)
+                .build());
+            return this;
+        }
+
+        /**
+         * Delete all versions of a cell with a timestamp in [startMicros, endMicros).
+         */
+        public Builder deleteCells(
+            String family, ByteString columnQualifier, long startMicros, long endMicros
+        ) {
+            final com.google.bigtable.v2.TimestampRange.Builder timeRange =
+                com.google.bigtable.v2.TimestampRange
+                    .newBuilder()
+                    .setStartTimestampMicros(startMicros)
+                    .setEndTimestampMicros(endMicros);
+
+            final com.google.bigtable.v2.Mutation.DeleteFromColumn.Builder deleteFromColumn =
+                com.google.bigtable.v2.Mutation.DeleteFromColumn
+                    .newBuilder()
+                    .setFamilyName(family)
+                    .setColumnQualifier(columnQualifier)
+                    .setTimeRange(timeRange);
+
+            mutations.add(com.google.bigtable.v2.Mutation
+                .newBuilder()
+                .setDeleteFromColumn(deleteFromColumn)
+                .build());
+            return this;
+        }
+
         public Mutations build() {
             return new Mutations(ImmutableList.copyOf(mutations));
         }
@@ -21,24 +21,27 @@
 
 package com.spotify.heroic.metric.bigtable.api;
 
+import com.google.common.collect.ImmutableList;
 import com.google.protobuf.ByteString;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Data
 public class ReadRowsRequest {
     private final Optional<RowRange> range;
     private final Optional<RowFilter> filter;
-    private final Optional<ByteString> rowKey;
+    private final List<ByteString> rowKeys;
 
     public com.google.bigtable.v2.ReadRowsRequest toPb(final String tableUri) {
         final com.google.bigtable.v2.RowSet.Builder rowSetBuilder =
           com.google.bigtable.v2.RowSet.newBuilder();
 
         range.map(RowRange::toPb).ifPresent(rowSetBuilder::addRowRanges);
-        rowKey.ifPresent(rowSetBuilder::addRowKeys);
+        rowSetBuilder.addAllRowKeys(rowKeys);
 
         final com.google.bigtable.v2.ReadRowsRequest.Builder requestBuilder =
             com.google.bigtable.v2.ReadRowsRequest.newBuilder();
@@ -59,7 +62,7 @@ public class ReadRowsRequest {
     public static class Builder {
         private Optional<RowRange> range = Optional.empty();
         private Optional<RowFilter> filter = Optional.empty();
-        private Optional<ByteString> rowKey = Optional.empty();
+        private final ImmutableList.Builder<ByteString> rowKeys = ImmutableList.builder();
 
         public Builder range(final RowRange range) {
             this.range = Optional.of(range);
@@ -72,12 +75,17 @@ public class ReadRowsRequest {
         }
 
         public Builder rowKey(final ByteString rowKey) {
-            this.rowKey = Optional.of(rowKey);
+            this.rowKeys.add(rowKey);
+            return this;
+        }
+
+        public Builder rowKeys(final Collection<ByteString> rowKeys) {
+            this.rowKeys.addAll(rowKeys);
             return this;
         }
 
         public ReadRowsRequest build() {
-            return new ReadRowsRequest(range, filter, rowKey);
+            return new ReadRowsRequest(range, filter, rowKeys.build());
         }
     }
 }
@@ -1,20 +1,52 @@
 package com.spotify.heroic.metric.bigtable;
 
+import com.google.common.collect.ImmutableList;
+import com.spotify.heroic.QueryOptions;
+import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.metric.FetchData;
+import com.spotify.heroic.metric.FetchQuotaWatcher;
+import com.spotify.heroic.metric.MetricCollection;
 import com.spotify.heroic.metric.MetricModule;
+import com.spotify.heroic.metric.MetricType;
+import com.spotify.heroic.metric.WriteMetric;
 import com.spotify.heroic.metric.bigtable.credentials.JsonCredentialsBuilder;
 import com.spotify.heroic.test.AbstractMetricBackendIT;
+import com.spotify.heroic.test.Data;
 import com.spotify.heroic.test.TestProperties;
+import org.junit.Test;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
+import static com.spotify.heroic.metric.bigtable.BigtableBackend.BLOCK_PERIOD;
+import static org.junit.Assert.assertEquals;
+
 public class BigtableBackendIT extends AbstractMetricBackendIT {
     private final TestProperties properties = TestProperties.ofPrefix("it.bigtable");
 
     @Override
     public Optional<MetricModule> setupModule() {
+        final Optional<MetricModule> emulator = properties.getOptionalString("emulator").map(v -> {
+            final String table = "heroic_it_" + UUID.randomUUID();
+
+            return BigtableMetricModule
+                .builder()
+                .configure(true)
+                .project("heroic-it")
+                .instance("heroic-it")
+                .table(table)
+                .emulatorEndpoint(v)
+                .blocks(true)
+                .build();
+        });
+
+        if (emulator.isPresent()) {
+            return emulator;
+        }
+
         return properties.getOptionalString("remote").map(v -> {
             final String table = "heroic_it_" + UUID.randomUUID();
 
@@ -32,4 +64,69 @@ public class BigtableBackendIT extends AbstractMetricBackendIT {
                 .build();
         });
     }
+
+    @Test
+    public void testCompact() throws Exception {
+        if (!blocksEnabled()) {
+            return;
+        }
+
+        /* two closed blocks, and one point in the block after them */
+        final MetricCollection points = Data
+            .points()
+            .p(1000L, 1D)
+            .p(BLOCK_PERIOD - 1, 2D)
+            .p(BLOCK_PERIOD, 3D)
+            .p(BLOCK_PERIOD * 2 - 1, 4D)
+            .p(BLOCK_PERIOD * 2, 5D)
+            .build();
+
+        backend.write(new WriteMetric.Request(s1, points)).get();
+        assertEquals(ImmutableList.of(points), fetch());
+
+        /* only the points in completely covered blocks are compacted */
+        assertEquals(4L, (long) backend.compact(s1, new DateRange(0L, BLOCK_PERIOD * 2)).get());
+        assertEquals(ImmutableList.of(points), fetch());
+
+        /* compacted points have been deleted */
+        assertEquals(0L, (long) backend.compact(s1, new DateRange(0L, BLOCK_PERIOD * 2)).get());
+        assertEquals(ImmutableList.of(points), fetch());
+    }
+
+    @Test
+    public void testRewriteAfterCompact() throws Exception {
+        if (!blocksEnabled()) {
+            return;
+        }
+
+        final MetricCollection points =
+            Data.points().p(1000L, 1D).p(2000L, 2D).p(3000L, 3D).build();
+
+        backend.write(new WriteMetric.Request(s1, points)).get();
+        assertEquals(3L, (long) backend.compact(s1, new DateRange(0L, BLOCK_PERIOD)).get());
+
+        /* points written after compaction take precedence over the block */
+        backend.write(new WriteMetric.Request(s1, Data.points().p(2000L, 20D).build())).get();
+
+        final MetricCollection expected =
+            Data.points().p(1000L, 1D).p(2000L, 20D).p(3000L, 3D).build();
+        assertEquals(ImmutableList.of(expected), fetch());
+
+        /* and are merged into the block by the next compaction */
+        assertEquals(1L, (long) backend.compact(s1, new DateRange(0L, BLOCK_PERIOD)).get());
+        assertEquals(ImmutableList.of(expected), fetch());
+    }
+
+    private boolean blocksEnabled() {
+        return module.map(m -> ((BigtableMetricModule) m).isBlocks()).orElse(false);
+    }
+
+    private List<MetricCollection> fetch() throws Exception {
+        return backend
+            .fetch(new FetchData.Request(MetricType.POINT, s1,
+                new DateRange(0L, BLOCK_PERIOD * 3), QueryOptions.builder().build()),
+                FetchQuotaWatcher.NO_QUOTA)
+            .get()
+            .getGroups();
+    }
 }
@@ -2,10 +2,15 @@ package com.spotify.heroic.metric.bigtable;
 
 import com.google.protobuf.ByteString;
 import com.google.protobuf.ByteString.ByteIterator;
+import com.spotify.heroic.metric.PointColumns;
 import eu.toolchain.serializer.HexUtils;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class BigtableBackendTest {
@@ -20,6 +25,72 @@ public class BigtableBackendTest {
         checkSmaller(0x1000000L, 0xffffffffL);
     }
 
+    @Test
+    public void testValueRoundTrip() {
+        final double[] values = {0D, -0D, 1D, -1.5D, Double.MAX_VALUE, Double.MIN_VALUE,
+            Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+
+        for (final double value : values) {
+            final ByteString bytes = ByteString.copyFrom(
+                ByteBuffer.allocate(Double.BYTES).putLong(Double.doubleToLongBits(value)).array());
+
+            assertEquals(Double.doubleToLongBits(value),
+                Double.doubleToLongBits(BigtableBackend.deserializeValue(bytes)));
+
+            /* values might be views into a larger buffer */
+            final ByteString view = ByteString.copyFromUtf8("xx").concat(bytes).substring(2);
+            assertEquals(Double.doubleToLongBits(value),
+                Double.doubleToLongBits(BigtableBackend.deserializeValue(view)));
+        }
+    }
+
+    @Test
+    public void testBlockBounds() {
+        assertEquals(0L, BigtableBackend.blockStart(0L));
+        assertEquals(0L, BigtableBackend.blockStart(BigtableBackend.BLOCK_PERIOD - 1));
+        assertEquals(BigtableBackend.BLOCK_PERIOD,
+            BigtableBackend.blockStart(BigtableBackend.BLOCK_PERIOD));
+        assertEquals(BigtableBackend.BLOCK_PERIOD, BigtableBackend.blockEnd(0L));
+
+        /* the last block of a row is truncated at the end of the row */
+        final long last = BigtableBackend.blockStart(BigtableBackend.PERIOD - 1);
+        assertEquals(BigtableBackend.PERIOD, BigtableBackend.blockEnd(last));
+    }
+
+    @Test
+    public void testDeleteEnd() {
+        /* legacy cells are written without a timestamp */
+        assertEquals(1000L, BigtableBackend.deleteEnd(0L));
+        assertEquals(2000L, BigtableBackend.deleteEnd(1000L));
+        assertEquals(2000L, BigtableBackend.deleteEnd(1999L));
+    }
+
+    @Test
+    public void testMergePrefersCells() {
+        final PointColumns blocks =
+            PointColumns.of(new long[]{1L, 2L, 4L, 6L}, new double[]{1D, 2D, 4D, 6D}, 4);
+        final PointColumns cells =
+            PointColumns.of(new long[]{2L, 3L, 7L}, new double[]{20D, 30D, 70D}, 3);
+
+        final PointColumns merged = BigtableBackend.merge(blocks, cells);
+
+        final long[] timestamps = new long[merged.size()];
+        final double[] values = new double[merged.size()];
+        merged.copyTimestamps(timestamps);
+        merged.copyValues(values);
+
+        assertArrayEquals(new long[]{1L, 2L, 3L, 4L, 6L, 7L}, timestamps);
+        assertArrayEquals(new double[]{1D, 20D, 30D, 4D, 6D, 70D}, values, 0D);
+    }
+
+    @Test
+    public void testMergeEmpty() {
+        final PointColumns cells = PointColumns.of(new long[]{1L}, new double[]{1D}, 1);
+
+        assertSame(cells, BigtableBackend.merge(PointColumns.empty(), cells));
+        assertSame(cells, BigtableBackend.merge(cells, PointColumns.empty()));
+    }
+
     private void checkSmaller(final long s, final long l) {
         assertEquals(BigtableBackend.offset(s), s);
         assertEquals(BigtableBackend.offset(l), l);
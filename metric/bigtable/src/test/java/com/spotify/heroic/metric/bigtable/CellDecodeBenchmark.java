@@ -0,0 +1,111 @@
+package com.spotify.heroic.metric.bigtable;
+
+import com.google.cloud.bigtable.grpc.scanner.FlatRow;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.protobuf.ByteString;
+import com.spotify.heroic.metric.Metric;
+import com.spotify.heroic.metric.Point;
+import com.spotify.heroic.metric.PointColumns;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding a fetched row through boxed points, the way the fetch path used to, with
+ * decoding it straight into {@link PointColumns}.
+ * <p>
+ * Row sizes correspond to a day at one minute resolution, a day at ten second resolution, and a
+ * full row (~50 days) at one minute resolution.
+ * <p>
+ * Run with {@code mvn -pl metric/bigtable test-compile exec:java
+ * -Dexec.mainClass=com.spotify.heroic.metric.bigtable.CellDecodeBenchmark
+ * -Dexec.classpathScope=test}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CellDecodeBenchmark {
+    private static final long BASE = BigtableBackend.PERIOD * 400;
+
+    @Param({"1440", "8640", "71582"})
+    public int cells;
+
+    private List<FlatRow> rows;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(0L);
+        final long interval = BigtableBackend.PERIOD / cells;
+
+        final FlatRow.Builder row =
+            FlatRow.newBuilder().withRowKey(ByteString.copyFromUtf8("row"));
+
+        for (int i = 0; i < cells; i++) {
+            final ByteString value = ByteString.copyFrom(ByteBuffer
+                .allocate(Double.BYTES)
+                .putLong(Double.doubleToLongBits(random.nextGaussian() * 100D))
+                .array());
+
+            row.addCell(BigtableBackend.POINTS, BigtableBackend.serializeOffset(i * interval), 0L,
+                value);
+        }
+
+        rows = ImmutableList.of(row.build());
+    }
+
+    @Benchmark
+    public List<Point> boxed() {
+        final List<Iterable<Point>> points = new ArrayList<>();
+
+        for (final FlatRow row : rows) {
+            points.add(Iterables.transform(row.getCells(), cell -> new Point(
+                BASE + offset(cell.getQualifier().toByteArray()),
+                ByteBuffer.wrap(cell.getValue().toByteArray()).getDouble())));
+        }
+
+        return ImmutableList.copyOf(Iterables.mergeSorted(points, Metric.comparator()));
+    }
+
+    @Benchmark
+    public PointColumns columns() {
+        final PointColumns.Builder columns =
+            PointColumns.builder(BigtableBackend.cellCount(rows));
+
+        for (final FlatRow row : rows) {
+            BigtableBackend.decodePoints(BASE, row.getCells(), columns);
+        }
+
+        return columns.build();
+    }
+
+    private static long offset(final byte[] bytes) {
+        return ((long) (bytes[0] & 0xff) << 24) + ((long) (bytes[1] & 0xff) << 16) +
+            ((long) (bytes[2] & 0xff) << 8) + ((long) (bytes[3] & 0xff));
+    }
+
+    public static void main(final String[] argv) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CellDecodeBenchmark.class.getSimpleName()).build())
+            .run();
+    }
+}
@@ -0,0 +1,174 @@
+package com.spotify.heroic.metric.bigtable;
+
+import com.google.cloud.bigtable.grpc.scanner.FlatRow;
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.ByteString;
+import com.spotify.heroic.metric.bigtable.api.BigtableDataClient;
+import com.spotify.heroic.metric.bigtable.api.ReadRowsRequest;
+import com.spotify.heroic.metric.bigtable.api.RowFilter;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.ResolvableFuture;
+import eu.toolchain.async.TinyAsync;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RowReadBatcherTest {
+    private static final String TABLE = "metrics";
+
+    private final QueuedExecutor executor = new QueuedExecutor();
+    private final AsyncFramework async = TinyAsync.builder().executor(executor).build();
+
+    private final RowFilter filter = RowFilter
+        .newColumnRangeBuilder("points")
+        .startQualifierOpen(ByteString.copyFromUtf8("start"))
+        .endQualifierClosed(ByteString.copyFromUtf8("end"))
+        .build();
+
+    @Mock
+    private BigtableDataClient client;
+
+    private final List<ResolvableFuture<List<FlatRow>>> requests = new ArrayList<>();
+
+    @Before
+    public void setup() {
+        when(client.readRows(eq(TABLE), any(ReadRowsRequest.class))).thenAnswer(invocation -> {
+            final ResolvableFuture<List<FlatRow>> future = async.future();
+            requests.add(future);
+            return future;
+        });
+    }
+
+    private ByteString key(final String key) {
+        return ByteString.copyFromUtf8(key);
+    }
+
+    private FlatRow row(final String key) {
+        return FlatRow.newBuilder().withRowKey(key(key)).build();
+    }
+
+    @Test
+    public void testBatchConcurrentReads() throws Exception {
+        final RowReadBatcher batcher = new RowReadBatcher(async, TABLE, 10);
+
+        final AsyncFuture<List<FlatRow>> a = batcher.read(client, filter, key("a"));
+        final AsyncFuture<List<FlatRow>> b = batcher.read(client, filter, key("b"));
+        final AsyncFuture<List<FlatRow>> c = batcher.read(client, filter, key("c"));
+
+        executor.runAll();
+
+        final ArgumentCaptor<ReadRowsRequest> request =
+            ArgumentCaptor.forClass(ReadRowsRequest.class);
+        verify(client).readRows(eq(TABLE), request.capture());
+        assertEquals(3, request.getValue().getRowKeys().size());
+
+        requests.get(0).resolve(ImmutableList.of(row("a"), row("c")));
+
+        assertEquals(key("a"), a.getNow().get(0).getRowKey());
+        assertTrue(b.getNow().isEmpty());
+        assertEquals(key("c"), c.getNow().get(0).getRowKey());
+        assertEquals(1L, batcher.getRequests());
+        assertEquals(3L, batcher.getRows());
+    }
+
+    @Test
+    public void testSplitFullBatches() {
+        final RowReadBatcher batcher = new RowReadBatcher(async, TABLE, 2);
+
+        batcher.read(client, filter, key("a"));
+        batcher.read(client, filter, key("b"));
+
+        /* full batches are sent immediately */
+        verify(client).readRows(eq(TABLE), any(ReadRowsRequest.class));
+
+        batcher.read(client, filter, key("c"));
+        executor.runAll();
+
+        verify(client, times(2)).readRows(eq(TABLE), any(ReadRowsRequest.class));
+    }
+
+    @Test
+    public void testSeparateFilters() {
+        final RowReadBatcher batcher = new RowReadBatcher(async, TABLE, 10);
+
+        batcher.read(client, filter, key("a"));
+        batcher.read(client, RowFilter.onlyLatestCell(), key("b"));
+        executor.runAll();
+
+        verify(client, times(2)).readRows(eq(TABLE), any(ReadRowsRequest.class));
+    }
+
+    @Test
+    public void testFailBatch() {
+        final RowReadBatcher batcher = new RowReadBatcher(async, TABLE, 10);
+
+        final AsyncFuture<List<FlatRow>> a = batcher.read(client, filter, key("a"));
+        final AsyncFuture<List<FlatRow>> b = batcher.read(client, filter, key("a"));
+        executor.runAll();
+
+        requests.get(0).fail(new RuntimeException("unavailable"));
+
+        assertTrue(a.isFailed());
+        assertTrue(b.isFailed());
+    }
+
+    /**
+     * Executor which only runs tasks when asked to, to control when batches are flushed.
+     */
+    private static class QueuedExecutor extends AbstractExecutorService {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            tasks.add(command);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return ImmutableList.of();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(final long timeout, final TimeUnit unit) {
+            return true;
+        }
+    }
+}
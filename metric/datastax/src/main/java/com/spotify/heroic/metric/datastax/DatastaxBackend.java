@@ -21,6 +21,7 @@
 
 package com.spotify.heroic.metric.datastax;
 
+import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.ExecutionInfo;
 import com.datastax.driver.core.PreparedStatement;
@@ -46,6 +47,7 @@ import com.spotify.heroic.metric.FetchQuotaWatcher;
 import com.spotify.heroic.metric.MetricCollection;
 import com.spotify.heroic.metric.MetricType;
 import com.spotify.heroic.metric.Point;
+import com.spotify.heroic.metric.PointColumns;
 import com.spotify.heroic.metric.QueryError;
 import com.spotify.heroic.metric.QueryTrace;
 import com.spotify.heroic.metric.Tracing;
@@ -54,6 +56,7 @@ import com.spotify.heroic.metric.datastax.schema.Schema;
 import com.spotify.heroic.metric.datastax.schema.Schema.PreparedFetch;
 import com.spotify.heroic.metric.datastax.schema.SchemaBoundStatement;
 import com.spotify.heroic.metric.datastax.schema.SchemaInstance;
+import com.spotify.heroic.statistics.MetricBackendReporter;
 import eu.toolchain.async.AsyncFramework;
 import eu.toolchain.async.AsyncFuture;
 import eu.toolchain.async.Borrowed;
@@ -62,18 +65,20 @@ import eu.toolchain.async.Managed;
 import eu.toolchain.async.ResolvableFuture;
 import eu.toolchain.async.StreamCollector;
 import eu.toolchain.async.Transform;
-import lombok.AccessLevel;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.Callable;
@@ -84,6 +89,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 
 /**
  * MetricBackend for Heroic cassandra datastore.
@@ -97,18 +104,49 @@ public class DatastaxBackend extends AbstractMetricBackend implements LifeCycles
     public static final QueryTrace.Identifier FETCH =
         QueryTrace.identifier(DatastaxBackend.class, "fetch");
 
+    /* estimated overhead of a single statement in a batch, besides its values */
+    static final long STATEMENT_OVERHEAD = 32L;
+
     private final AsyncFramework async;
     private final Managed<Connection> connection;
     private final Groups groups;
+    private final MetricBackendReporter reporter;
+    private final WriteMode writeMode;
+    private final int maxBatchStatements;
+    private final long maxBatchBytes;
+    private final int writeConcurrency;
+    private final int fetchSize;
+    private final int readAhead;
 
+    /**
+     * @param writeMode How points are written.
+     * @param maxBatchStatements The maximum number of statements in a single batch.
+     * @param maxBatchBytes The maximum estimated size of a single batch.
+     * @param writeConcurrency How many statements or batches of a single write that are executed
+     * in parallel.
+     * @param fetchSize The default number of rows to fetch in a single page.
+     * @param readAhead How many pages to request ahead of the page being converted.
+     */
     @Inject
     public DatastaxBackend(
-        final AsyncFramework async, final Managed<Connection> connection, final Groups groups
+        final AsyncFramework async, final Managed<Connection> connection, final Groups groups,
+        final MetricBackendReporter reporter, @Named("writeMode") final WriteMode writeMode,
+        @Named("maxBatchStatements") final int maxBatchStatements,
+        @Named("maxBatchBytes") final long maxBatchBytes,
+        @Named("writeConcurrency") final int writeConcurrency,
+        @Named("fetchSize") final int fetchSize, @Named("readAhead") final int readAhead
     ) {
         super(async);
         this.async = async;
         this.connection = connection;
         this.groups = groups;
+        this.reporter = reporter;
+        this.writeMode = writeMode;
+        this.maxBatchStatements = maxBatchStatements;
+        this.maxBatchBytes = maxBatchBytes;
+        this.writeConcurrency = writeConcurrency;
+        this.fetchSize = fetchSize;
+        this.readAhead = readAhead;
     }
 
     @Override
@@ -196,7 +234,8 @@ public class DatastaxBackend extends AbstractMetricBackend implements LifeCycles
                     bound.enableTracing();
                 }
 
-                options.getFetchSize().ifPresent(bound::setFetchSize);
+                final int pageSize = options.getFetchSize().orElse(fetchSize);
+                bound.setFetchSize(pageSize);
 
                 final AtomicLong failedKeys = new AtomicLong();
 
@@ -236,9 +275,12 @@ public class DatastaxBackend extends AbstractMetricBackend implements LifeCycles
                         }
                     };
 
-                final RowStreamHelper<BackendKey> helper =
-                    new RowStreamHelper<BackendKey>(helperObserver, c.schema.keyConverter(),
-                        cause -> failedKeys.incrementAndGet());
+                final Transform<Row, BackendKey> keyConverter = c.schema.keyConverter();
+
+                final RowStreamHelper<List<BackendKey>> helper =
+                    new RowStreamHelper<>(helperObserver, ArrayList::new,
+                        (row, keys) -> keys.add(keyConverter.transform(row)),
+                        Optional.of(cause -> failedKeys.incrementAndGet()), pageSize);
 
                 Async.bind(async, c.session.executeAsync(bound)).onDone(helper);
                 return null;
@@ -298,10 +340,13 @@ public class DatastaxBackend extends AbstractMetricBackend implements LifeCycles
 
             final ResolvableFuture<MetricCollection> future = async.future();
 
+            final Statement stmt = f.fetch(Integer.MAX_VALUE).setFetchSize(fetchSize);
+
             Async
-                .bind(async, c.session.executeAsync(f.fetch(Integer.MAX_VALUE)))
-                .onDone(new RowFetchHelper<>(future, f.converter(),
-                    result -> async.resolved(MetricCollection.points(result.getData()))));
+                .bind(async, c.session.executeAsync(stmt))
+                .onDone(new RowFetchHelper<>(future, PointColumns.builder(), f::convert,
+                    result -> async.resolved(MetricCollection.points(result.getData().build())),
+                    fetchSize));
 
             return future;
         });
@@ -327,10 +372,11 @@ public class DatastaxBackend extends AbstractMetricBackend implements LifeCycles
                 throw new RuntimeException(e);
             }
 
-            final AsyncObserver<List<Point>> helperObserver = new AsyncObserver<List<Point>>() {
+            final AsyncObserver<PointColumns.Builder> helperObserver =
+                new AsyncObserver<PointColumns.Builder>() {
                 @Override
-                public AsyncFuture<Void> observe(List<Point> value) {
-                    return observer.observe(MetricCollection.points(value));
+                public AsyncFuture<Void> observe(PointColumns.Builder value) {
+                    return observer.observe(MetricCollection.points(value.build()));
                 }
 
                 @Override
@@ -349,10 +395,13 @@ public class DatastaxBackend extends AbstractMetricBackend implements LifeCycles
                 }
             };
 
-            final RowStreamHelper<Point> helper =
-                new RowStreamHelper<Point>(helperObserver, f.converter());
+            final RowStreamHelper<PointColumns.Builder> helper =
+                new RowStreamHelper<>(helperObserver, PointColumns::builder, f::convert,
+                    Optional.empty(), fetchSize);
+
+            final Statement stmt = f.fetch(Integer.MAX_VALUE).setFetchSize(fetchSize);
 
-            Async.bind(async, c.session.executeAsync(f.fetch(Integer.MAX_VALUE))).onDone(helper);
+            Async.bind(async, c.session.executeAsync(stmt)).onDone(helper);
         };
     }
 
@@ -401,6 +450,41 @@ public class DatastaxBackend extends AbstractMetricBackend implements LifeCycles
     private AsyncFuture<WriteMetric> doWrite(
         final Connection c, final SchemaInstance.WriteSession session,
         final WriteMetric.Request request
+    ) throws IOException {
+        final List<Callable<AsyncFuture<Long>>> callables;
+
+        if (writeMode == WriteMode.BATCH) {
+            callables = batchWrites(c, session, request);
+        } else {
+            callables = statementWrites(c, session, request);
+        }
+
+        return async.eventuallyCollect(callables, new StreamCollector<Long, WriteMetric>() {
+            final ConcurrentLinkedQueue<Long> q = new ConcurrentLinkedQueue<Long>();
+
+            @Override
+            public void resolved(Long result) throws Exception {
+                q.add(result);
+            }
+
+            @Override
+            public void failed(Throwable cause) throws Exception {
+            }
+
+            @Override
+            public void cancelled() throws Exception {
+            }
+
+            @Override
+            public WriteMetric end(int resolved, int failed, int cancelled) throws Exception {
+                return new WriteMetric(ImmutableList.of(), ImmutableList.copyOf(q));
+            }
+        }, writeConcurrency);
+    }
+
+    private List<Callable<AsyncFuture<Long>>> statementWrites(
+        final Connection c, final SchemaInstance.WriteSession session,
+        final WriteMetric.Request request
     ) throws IOException {
         final List<Callable<AsyncFuture<Long>>> callables = new ArrayList<>();
 
@@ -419,27 +503,126 @@ public class DatastaxBackend extends AbstractMetricBackend implements LifeCycles
             }
         }
 
-        return async.eventuallyCollect(callables, new StreamCollector<Long, WriteMetric>() {
-            final ConcurrentLinkedQueue<Long> q = new ConcurrentLinkedQueue<Long>();
+        return callables;
+    }
 
-            @Override
-            public void resolved(Long result) throws Exception {
-                q.add(result);
+    /**
+     * Group points by the partition they are written to, and write each group in as few unlogged
+     * batches as the batch limits permit.
+     */
+    private List<Callable<AsyncFuture<Long>>> batchWrites(
+        final Connection c, final SchemaInstance.WriteSession session,
+        final WriteMetric.Request request
+    ) throws IOException {
+        final Map<MetricsRowKey, List<BoundStatement>> partitions = new LinkedHashMap<>();
+
+        final MetricCollection g = request.getData();
+
+        if (g.getType() == MetricType.POINT) {
+            for (final Point d : g.getDataAs(Point.class)) {
+                final BoundStatement stmt = session.writePoint(request.getSeries(), d);
+
+                partitions
+                    .computeIfAbsent(session.partitionKey(request.getSeries(), d),
+                        k -> new ArrayList<>())
+                    .add(stmt);
             }
+        }
 
-            @Override
-            public void failed(Throwable cause) throws Exception {
+        final List<Callable<AsyncFuture<Long>>> callables = new ArrayList<>();
+
+        for (final List<BoundStatement> statements : partitions.values()) {
+            for (final List<BoundStatement> batch : split(statements,
+                DatastaxBackend::estimateSize, maxBatchStatements, maxBatchBytes)) {
+                callables.add(() -> executeBatch(c, batch));
             }
+        }
 
-            @Override
-            public void cancelled() throws Exception {
+        return callables;
+    }
+
+    private AsyncFuture<Long> executeBatch(
+        final Connection c, final List<BoundStatement> statements
+    ) {
+        final Statement stmt;
+
+        if (statements.size() == 1) {
+            stmt = statements.get(0);
+        } else {
+            final BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+            batch.addAll(statements);
+            stmt = batch;
+        }
+
+        long bytes = 0L;
+
+        for (final BoundStatement s : statements) {
+            bytes += estimateSize(s);
+        }
+
+        final long size = bytes;
+        final long start = System.nanoTime();
+
+        return Async.bind(async, c.session.executeAsync(stmt)).directTransform(r -> {
+            final long elapsed = System.nanoTime() - start;
+            reporter.reportWriteBatch(statements.size(), size,
+                TimeUnit.NANOSECONDS.toMillis(elapsed));
+            return elapsed;
+        });
+    }
+
+    /**
+     * Split the given statements into batches, bounded by the number of statements and their
+     * estimated size. A statement which is larger than the size bound gets a batch of its own.
+     */
+    static <T> List<List<T>> split(
+        final List<T> statements, final ToLongFunction<T> estimateSize, final int maxStatements,
+        final long maxBytes
+    ) {
+        final List<List<T>> batches = new ArrayList<>();
+
+        List<T> current = new ArrayList<>();
+        long bytes = 0L;
+
+        for (final T statement : statements) {
+            final long size = estimateSize.applyAsLong(statement);
+
+            final boolean full = current.size() >= maxStatements || bytes + size > maxBytes;
+
+            if (!current.isEmpty() && full) {
+                batches.add(current);
+                current = new ArrayList<>();
+                bytes = 0L;
             }
 
-            @Override
-            public WriteMetric end(int resolved, int failed, int cancelled) throws Exception {
-                return new WriteMetric(ImmutableList.of(), ImmutableList.copyOf(q));
+            current.add(statement);
+            bytes += size;
+        }
+
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+
+        return batches;
+    }
+
+    /**
+     * Estimate the size of a statement in a batch, from the size of its bound values.
+     */
+    static long estimateSize(final BoundStatement stmt) {
+        long size = STATEMENT_OVERHEAD;
+
+        final int variables = stmt.preparedStatement().getVariables().size();
+
+        for (int i = 0; i < variables; i++) {
+            final ByteBuffer value = stmt.getBytesUnsafe(i);
+
+            if (value != null) {
+                size += value.remaining();
             }
-        }, 500);
+        }
+
+        return size;
     }
 
     private AsyncFuture<QueryTrace> buildTrace(
@@ -486,18 +669,21 @@ public class DatastaxBackend extends AbstractMetricBackend implements LifeCycles
     ) throws Exception {
         final List<AsyncFuture<FetchData>> fetches = new ArrayList<>(prepared.size());
 
+        final int pageSize = options.getFetchSize().orElse(fetchSize);
+
         for (final Schema.PreparedFetch p : prepared) {
-            final Function<RowFetchResult<Point>, AsyncFuture<QueryTrace>> traceBuilder;
+            final Function<RowFetchResult<PointColumns.Builder>, AsyncFuture<QueryTrace>>
+                traceBuilder;
 
             final Statement stmt;
 
             if (options.getTracing().isEnabled(Tracing.DETAILED)) {
-                stmt = p.fetch(limit).enableTracing();
+                stmt = p.fetch(limit).setFetchSize(pageSize).enableTracing();
                 traceBuilder =
                     result -> buildTrace(c, FETCH_SEGMENT.extend(p.toString()), w.elapsed(),
                         result.getInfo());
             } else {
-                stmt = p.fetch(limit);
+                stmt = p.fetch(limit).setFetchSize(pageSize);
                 traceBuilder = result -> async.resolved(w.end(FETCH_SEGMENT));
             }
 
@@ -505,13 +691,13 @@ public class DatastaxBackend extends AbstractMetricBackend implements LifeCycles
 
             Async
                 .bind(async, c.session.executeAsync(stmt))
-                .onDone(new RowFetchHelper<>(future, p.converter(),
+                .onDone(new RowFetchHelper<>(future, PointColumns.builder(), p::convert,
                     result -> traceBuilder.apply(result).directTransform(trace -> {
                         final ImmutableList<Long> times = ImmutableList.of(trace.getElapsed());
                         final List<MetricCollection> groups =
-                            ImmutableList.of(MetricCollection.points(result.getData()));
+                            ImmutableList.of(MetricCollection.points(result.getData().build()));
                         return FetchData.of(trace, times, groups);
-                    })));
+                    }), pageSize));
 
             fetches.add(future);
         }
@@ -519,13 +705,23 @@ public class DatastaxBackend extends AbstractMetricBackend implements LifeCycles
         return async.collect(fetches, FetchData.collect(FETCH));
     }
 
-    @RequiredArgsConstructor
-    private final class RowFetchHelper<R, T> implements FutureDone<ResultSet> {
-        private final List<R> data = new ArrayList<>();
+    /**
+     * Consumes a single row into an accumulated result.
+     *
+     * @param <A> The type of the accumulated result.
+     */
+    @FunctionalInterface
+    private interface RowConsumer<A> {
+        void accept(Row row, A data) throws Exception;
+    }
 
+    @RequiredArgsConstructor
+    private final class RowFetchHelper<A, T> implements FutureDone<ResultSet> {
         private final ResolvableFuture<T> future;
-        private final Transform<Row, R> rowConverter;
-        private final Transform<RowFetchResult<R>, AsyncFuture<T>> converter;
+        private final A data;
+        private final RowConsumer<A> rowConsumer;
+        private final Transform<RowFetchResult<A>, AsyncFuture<T>> converter;
+        private final int pageSize;
 
         @Override
         public void failed(Throwable cause) throws Exception {
@@ -539,55 +735,53 @@ public class DatastaxBackend extends AbstractMetricBackend implements LifeCycles
 
         @Override
         public void resolved(final ResultSet rows) throws Exception {
-            if (future.isDone()) {
-                return;
-            }
-
-            int count = rows.getAvailableWithoutFetching();
-
-            final Optional<AsyncFuture<Void>> nextFetch = rows.isFullyFetched() ? Optional.empty()
-                : Optional.of(
-                    Async.bind(async, rows.fetchMoreResults()).directTransform(r -> null));
+            consume(new ReadAheadResultSet(async, rows, readAhead, pageSize));
+        }
 
-            while (count-- > 0) {
-                final R part;
+        private void consume(final ReadAheadResultSet rows) {
+            do {
+                if (future.isDone()) {
+                    return;
+                }
 
                 try {
-                    part = rowConverter.transform(rows.one());
-                } catch (Exception e) {
+                    for (final Row row : rows.take()) {
+                        rowConsumer.accept(row, data);
+                    }
+                } catch (final Exception e) {
                     future.fail(e);
                     return;
                 }
 
-                data.add(part);
-            }
-
-            if (nextFetch.isPresent()) {
-                nextFetch.get().onDone(new FutureDone<Void>() {
-                    @Override
-                    public void failed(Throwable cause) throws Exception {
-                        RowFetchHelper.this.failed(cause);
-                    }
+                if (rows.isExhausted()) {
+                    finish(rows.getAllExecutionInfo());
+                    return;
+                }
+            } while (rows.hasAvailable());
 
-                    @Override
-                    public void cancelled() throws Exception {
-                        RowFetchHelper.this.cancelled();
-                    }
+            rows.next().onDone(new FutureDone<Void>() {
+                @Override
+                public void failed(Throwable cause) throws Exception {
+                    future.fail(cause);
+                }
 
-                    @Override
-                    public void resolved(Void result) throws Exception {
-                        RowFetchHelper.this.resolved(rows);
-                    }
-                });
+                @Override
+                public void cancelled() throws Exception {
+                    future.cancel();
+                }
 
-                return;
-            }
+                @Override
+                public void resolved(Void result) throws Exception {
+                    consume(rows);
+                }
+            });
+        }
 
+        private void finish(final List<ExecutionInfo> info) {
             final AsyncFuture<T> result;
 
             try {
-                result =
-                    converter.transform(new RowFetchResult<>(rows.getAllExecutionInfo(), data));
+                result = converter.transform(new RowFetchResult<>(info, data));
             } catch (final Exception e) {
                 future.fail(e);
                 return;
@@ -614,22 +808,18 @@ public class DatastaxBackend extends AbstractMetricBackend implements LifeCycles
         }
     }
 
-    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
-    private final class RowStreamHelper<R> implements FutureDone<ResultSet> {
-        private final AsyncObserver<List<R>> observer;
-        private final Transform<Row, R> rowConverter;
+    /**
+     * Streams the rows of a result set to an observer, one page at a time.
+     *
+     * @param <A> The type of a converted page.
+     */
+    @RequiredArgsConstructor
+    private final class RowStreamHelper<A> implements FutureDone<ResultSet> {
+        private final AsyncObserver<A> observer;
+        private final Supplier<A> newPage;
+        private final RowConsumer<A> rowConsumer;
         private final Optional<Consumer<Throwable>> errorHandler;
-
-        public RowStreamHelper(
-            AsyncObserver<List<R>> observer, Transform<Row, R> rowConverter,
-            Consumer<Throwable> errorHandler
-        ) {
-            this(observer, rowConverter, Optional.of(errorHandler));
-        }
-
-        public RowStreamHelper(AsyncObserver<List<R>> observer, Transform<Row, R> rowConverter) {
-            this(observer, rowConverter, Optional.empty());
-        }
+        private final int pageSize;
 
         @Override
         public void failed(Throwable cause) throws Exception {
@@ -643,19 +833,15 @@ public class DatastaxBackend extends AbstractMetricBackend implements LifeCycles
 
         @Override
         public void resolved(final ResultSet rows) throws Exception {
-            int count = rows.getAvailableWithoutFetching();
-
-            final Optional<AsyncFuture<Void>> nextFetch = rows.isFullyFetched() ? Optional.empty()
-                : Optional.of(
-                    Async.bind(async, rows.fetchMoreResults()).directTransform(r -> null));
-
-            final List<R> batch = new ArrayList<>();
+            consume(new ReadAheadResultSet(async, rows, readAhead, pageSize));
+        }
 
-            while (count-- > 0) {
-                final R part;
+        private void consume(final ReadAheadResultSet rows) {
+            final A page = newPage.get();
 
+            for (final Row row : rows.take()) {
                 try {
-                    part = rowConverter.transform(rows.one());
+                    rowConsumer.accept(row, page);
                 } catch (Exception e) {
                     /* custom error handling */
                     if (errorHandler.isPresent()) {
@@ -673,11 +859,9 @@ public class DatastaxBackend extends AbstractMetricBackend implements LifeCycles
                     observer.fail(e);
                     return;
                 }
-
-                batch.add(part);
             }
 
-            observer.observe(batch).onDone(new FutureDone<Void>() {
+            observer.observe(page).onDone(new FutureDone<Void>() {
                 @Override
                 public void failed(Throwable cause) throws Exception {
                     observer.fail(cause);
@@ -690,28 +874,27 @@ public class DatastaxBackend extends AbstractMetricBackend implements LifeCycles
 
                 @Override
                 public void resolved(Void result) throws Exception {
-                    if (nextFetch.isPresent()) {
-                        nextFetch.get().onDone(new FutureDone<Void>() {
-                            @Override
-                            public void failed(Throwable cause) throws Exception {
-                                RowStreamHelper.this.failed(cause);
-                            }
-
-                            @Override
-                            public void cancelled() throws Exception {
-                                RowStreamHelper.this.cancelled();
-                            }
-
-                            @Override
-                            public void resolved(Void result) throws Exception {
-                                RowStreamHelper.this.resolved(rows);
-                            }
-                        });
-
+                    if (rows.isExhausted()) {
+                        observer.end();
                         return;
                     }
 
-                    observer.end();
+                    rows.next().onDone(new FutureDone<Void>() {
+                        @Override
+                        public void failed(Throwable cause) throws Exception {
+                            RowStreamHelper.this.failed(cause);
+                        }
+
+                        @Override
+                        public void cancelled() throws Exception {
+                            RowStreamHelper.this.cancelled();
+                        }
+
+                        @Override
+                        public void resolved(Void result) throws Exception {
+                            consume(rows);
+                        }
+                    });
                 }
             });
         }
@@ -736,9 +919,10 @@ public class DatastaxBackend extends AbstractMetricBackend implements LifeCycles
 
         Async
             .bind(async, c.session.executeAsync(SELECT_EVENTS_FORMAT, id))
-            .onDone(new RowFetchHelper<Event, List<Event>>(future, converter, result -> {
+            .onDone(new RowFetchHelper<List<Event>, List<Event>>(future, new ArrayList<>(),
+                (row, data) -> data.add(converter.transform(row)), result -> {
                 return async.resolved(ImmutableList.copyOf(result.getData()));
-            }));
+            }, fetchSize));
 
         return future;
     }
@@ -753,8 +937,8 @@ public class DatastaxBackend extends AbstractMetricBackend implements LifeCycles
     }
 
     @Data
-    private static class RowFetchResult<T> {
+    private static class RowFetchResult<A> {
         final List<ExecutionInfo> info;
-        final List<T> data;
+        final A data;
     }
 }
@@ -71,6 +71,12 @@ public final class DatastaxMetricModule implements MetricModule, DynamicModuleId
     public static final boolean DEFAULT_CONFIGURE = false;
     public static final int DEFAULT_FETCH_SIZE = 5000;
     public static final Duration DEFAULT_READ_TIMEOUT = new Duration(30, TimeUnit.SECONDS);
+    public static final WriteMode DEFAULT_WRITE_MODE = WriteMode.STATEMENT;
+    public static final int DEFAULT_MAX_BATCH_STATEMENTS = 100;
+    /* same as the default batch size warning threshold in cassandra */
+    public static final long DEFAULT_MAX_BATCH_BYTES = 5 * 1024;
+    public static final int DEFAULT_WRITE_CONCURRENCY = 500;
+    public static final int DEFAULT_READ_AHEAD = 2;
 
     /* id of backend (defualt will be generated) */
     private final Optional<String> id;
@@ -92,6 +98,16 @@ public final class DatastaxMetricModule implements MetricModule, DynamicModuleId
     private final RetryPolicy retryPolicy;
     /* authentication to apply to builder */
     private final DatastaxAuthentication authentication;
+    /* how points are written */
+    private final WriteMode writeMode;
+    /* the maximum number of statements in a single write batch */
+    private final int maxBatchStatements;
+    /* the maximum estimated size in bytes of a single write batch */
+    private final long maxBatchBytes;
+    /* how many statements or batches of a single write are executed in parallel */
+    private final int writeConcurrency;
+    /* the number of pages to request ahead of the page being converted */
+    private final int readAhead;
 
     @JsonCreator
     public DatastaxMetricModule(
@@ -103,7 +119,12 @@ public final class DatastaxMetricModule implements MetricModule, DynamicModuleId
         @JsonProperty("readTimeout") Optional<Duration> readTimeout,
         @JsonProperty("consistencyLevel") Optional<ConsistencyLevel> consistencyLevel,
         @JsonProperty("retryPolicy") Optional<RetryPolicy> retryPolicy,
-        @JsonProperty("authentication") Optional<DatastaxAuthentication> authentication
+        @JsonProperty("authentication") Optional<DatastaxAuthentication> authentication,
+        @JsonProperty("writeMode") Optional<WriteMode> writeMode,
+        @JsonProperty("maxBatchStatements") Optional<Integer> maxBatchStatements,
+        @JsonProperty("maxBatchBytes") Optional<Long> maxBatchBytes,
+        @JsonProperty("writeConcurrency") Optional<Integer> writeConcurrency,
+        @JsonProperty("readAhead") Optional<Integer> readAhead
     ) {
         this.id = id;
         this.groups = groups.orElseGet(Groups::empty).or("heroic");
@@ -115,6 +136,15 @@ public final class DatastaxMetricModule implements MetricModule, DynamicModuleId
         this.consistencyLevel = consistencyLevel.orElse(ConsistencyLevel.ONE);
         this.retryPolicy = retryPolicy.orElse(DefaultRetryPolicy.INSTANCE);
         this.authentication = authentication.orElseGet(DatastaxAuthentication.None::new);
+        this.writeMode = writeMode.orElse(DEFAULT_WRITE_MODE);
+        this.maxBatchStatements = maxBatchStatements.orElse(DEFAULT_MAX_BATCH_STATEMENTS);
+        this.maxBatchBytes = maxBatchBytes.orElse(DEFAULT_MAX_BATCH_BYTES);
+        this.writeConcurrency = writeConcurrency.orElse(DEFAULT_WRITE_CONCURRENCY);
+        this.readAhead = readAhead.orElse(DEFAULT_READ_AHEAD);
+
+        if (this.readAhead < 0) {
+            throw new IllegalArgumentException("readAhead must not be negative");
+        }
     }
 
     private static List<InetSocketAddress> convert(Set<String> source) {
@@ -191,6 +221,48 @@ public final class DatastaxMetricModule implements MetricModule, DynamicModuleId
             return groups;
         }
 
+        @Provides
+        @DatastaxScope
+        @Named("writeMode")
+        public WriteMode writeMode() {
+            return writeMode;
+        }
+
+        @Provides
+        @DatastaxScope
+        @Named("maxBatchStatements")
+        public int maxBatchStatements() {
+            return maxBatchStatements;
+        }
+
+        @Provides
+        @DatastaxScope
+        @Named("maxBatchBytes")
+        public long maxBatchBytes() {
+            return maxBatchBytes;
+        }
+
+        @Provides
+        @DatastaxScope
+        @Named("writeConcurrency")
+        public int writeConcurrency() {
+            return writeConcurrency;
+        }
+
+        @Provides
+        @DatastaxScope
+        @Named("fetchSize")
+        public int fetchSize() {
+            return fetchSize;
+        }
+
+        @Provides
+        @DatastaxScope
+        @Named("readAhead")
+        public int readAhead() {
+            return readAhead;
+        }
+
         @Provides
         @DatastaxScope
         public Managed<Connection> connection(
@@ -229,6 +301,11 @@ public final class DatastaxMetricModule implements MetricModule, DynamicModuleId
         private Optional<ConsistencyLevel> consistencyLevel = empty();
         private Optional<RetryPolicy> retryPolicy = empty();
         private Optional<DatastaxAuthentication> authentication = empty();
+        private Optional<WriteMode> writeMode = empty();
+        private Optional<Integer> maxBatchStatements = empty();
+        private Optional<Long> maxBatchBytes = empty();
+        private Optional<Integer> writeConcurrency = empty();
+        private Optional<Integer> readAhead = empty();
 
         public Builder id(String id) {
             this.id = of(id);
@@ -280,9 +357,35 @@ public final class DatastaxMetricModule implements MetricModule, DynamicModuleId
             return this;
         }
 
+        public Builder writeMode(WriteMode writeMode) {
+            this.writeMode = of(writeMode);
+            return this;
+        }
+
+        public Builder maxBatchStatements(int maxBatchStatements) {
+            this.maxBatchStatements = of(maxBatchStatements);
+            return this;
+        }
+
+        public Builder maxBatchBytes(long maxBatchBytes) {
+            this.maxBatchBytes = of(maxBatchBytes);
+            return this;
+        }
+
+        public Builder writeConcurrency(int writeConcurrency) {
+            this.writeConcurrency = of(writeConcurrency);
+            return this;
+        }
+
+        public Builder readAhead(int readAhead) {
+            this.readAhead = of(readAhead);
+            return this;
+        }
+
         public DatastaxMetricModule build() {
             return new DatastaxMetricModule(id, groups, seeds, schema, configure, fetchSize,
-                readTimeout, consistencyLevel, retryPolicy, authentication);
+                readTimeout, consistencyLevel, retryPolicy, authentication, writeMode,
+                maxBatchStatements, maxBatchBytes, writeConcurrency, readAhead);
         }
     }
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.metric.datastax;
+
+import com.datastax.driver.core.ExecutionInfo;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the rows of a result set page by page, while requesting pages ahead of the rows which
+ * have not been consumed yet.
+ * <p>
+ * The driver buffers up to {@code readAhead} pages while the current page is being converted, so
+ * that the next page is already available once conversion finishes. A read-ahead of zero only
+ * requests the next page when all available rows have been consumed.
+ * <p>
+ * Result sets are not thread-safe, all access to the underlying result set is serialized through
+ * this class.
+ */
+class ReadAheadResultSet {
+    private final AsyncFramework async;
+    private final ResultSet rows;
+    private final int readAheadRows;
+
+    /* request for more rows which is in progress or has failed, guarded by this */
+    private AsyncFuture<Void> pending = null;
+
+    /**
+     * @param readAhead The number of pages to keep requested ahead of the consumer, must not be
+     * negative.
+     * @param pageSize The number of rows in a single page.
+     */
+    ReadAheadResultSet(
+        final AsyncFramework async, final ResultSet rows, final int readAhead, final int pageSize
+    ) {
+        if (readAhead < 0) {
+            throw new IllegalArgumentException("readAhead must not be negative: " + readAhead);
+        }
+
+        this.async = async;
+        this.rows = rows;
+        this.readAheadRows = readAhead * pageSize;
+    }
+
+    /**
+     * Take all rows which are available without fetching.
+     */
+    synchronized List<Row> take() {
+        int count = rows.getAvailableWithoutFetching();
+
+        final List<Row> taken = new ArrayList<>(count);
+
+        while (count-- > 0) {
+            taken.add(rows.one());
+        }
+
+        fetchAhead();
+        return taken;
+    }
+
+    synchronized boolean hasAvailable() {
+        return rows.getAvailableWithoutFetching() > 0;
+    }
+
+    /**
+     * Check if all rows have been fetched and taken.
+     */
+    synchronized boolean isExhausted() {
+        return rows.isFullyFetched() && rows.getAvailableWithoutFetching() == 0;
+    }
+
+    /**
+     * Get a future which is resolved when more rows are available, or all rows have been fetched.
+     */
+    synchronized AsyncFuture<Void> next() {
+        if (rows.getAvailableWithoutFetching() > 0 || rows.isFullyFetched()) {
+            return async.resolved();
+        }
+
+        fetch();
+
+        /* the request might have completed immediately */
+        return pending != null ? pending : async.resolved();
+    }
+
+    synchronized List<ExecutionInfo> getAllExecutionInfo() {
+        return rows.getAllExecutionInfo();
+    }
+
+    private void fetchAhead() {
+        if (rows.getAvailableWithoutFetching() < readAheadRows) {
+            fetch();
+        }
+    }
+
+    private void fetch() {
+        if (pending != null || rows.isFullyFetched()) {
+            return;
+        }
+
+        final AsyncFuture<Void> next =
+            Async.bind(async, rows.fetchMoreResults()).directTransform(r -> null);
+
+        pending = next;
+
+        /* a failed request is kept, so that it is seen by the consumer */
+        next.onResolved(r -> {
+            synchronized (this) {
+                pending = null;
+                fetchAhead();
+            }
+        });
+    }
+}
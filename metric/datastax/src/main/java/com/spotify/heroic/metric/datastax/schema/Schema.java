@@ -27,6 +27,7 @@ import com.datastax.driver.core.Session;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.spotify.heroic.metric.Point;
+import com.spotify.heroic.metric.PointColumns;
 import com.spotify.heroic.metric.datastax.schema.legacy.LegacySchema;
 import com.spotify.heroic.metric.datastax.schema.ng.NextGenSchema;
 import eu.toolchain.async.AsyncFuture;
@@ -46,5 +47,10 @@ public interface Schema {
         public BoundStatement fetch(int limit);
 
         public Transform<Row, Point> converter();
+
+        /**
+         * Convert the given row straight into columns, without materializing a {@link Point}.
+         */
+        public void convert(Row row, PointColumns.Builder columns);
     }
 }
@@ -56,5 +56,10 @@ public interface SchemaInstance {
 
     public static interface WriteSession {
         public BoundStatement writePoint(Series series, Point d) throws IOException;
+
+        /**
+         * The partition that the given point is written to.
+         */
+        public MetricsRowKey partitionKey(Series series, Point d);
     }
 }
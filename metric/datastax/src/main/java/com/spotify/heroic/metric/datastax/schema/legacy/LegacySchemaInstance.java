@@ -28,6 +28,7 @@ import com.spotify.heroic.common.DateRange;
 import com.spotify.heroic.common.Series;
 import com.spotify.heroic.metric.BackendKey;
 import com.spotify.heroic.metric.Point;
+import com.spotify.heroic.metric.PointColumns;
 import com.spotify.heroic.metric.datastax.MetricsRowKey;
 import com.spotify.heroic.metric.datastax.TypeSerializer;
 import com.spotify.heroic.metric.datastax.schema.AbstractSchemaInstance;
@@ -122,6 +123,11 @@ public class LegacySchemaInstance extends AbstractSchemaInstance {
                     };
                 }
 
+                @Override
+                public void convert(Row row, PointColumns.Builder columns) {
+                    columns.add(calculateAbsoluteTimestamp(base, row.getInt(0)), row.getDouble(1));
+                }
+
                 @Override
                 public String toString() {
                     return modified.toString();
@@ -153,6 +159,11 @@ public class LegacySchemaInstance extends AbstractSchemaInstance {
                 };
             }
 
+            @Override
+            public void convert(Row row, PointColumns.Builder columns) {
+                columns.add(calculateAbsoluteTimestamp(base, row.getInt(0)), row.getDouble(1));
+            }
+
             @Override
             public String toString() {
                 return "<Fetch Row " + key + ">";
@@ -179,6 +190,11 @@ public class LegacySchemaInstance extends AbstractSchemaInstance {
                 final int offset = calculateColumnKey(d.getTimestamp());
                 return write.bind(key, offset, d.getValue());
             }
+
+            @Override
+            public MetricsRowKey partitionKey(Series series, Point d) {
+                return new MetricsRowKey(series, calculateBaseTimestamp(d.getTimestamp()));
+            }
         };
     }
 
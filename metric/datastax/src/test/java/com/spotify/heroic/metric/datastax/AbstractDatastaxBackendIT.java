@@ -20,6 +20,8 @@ public abstract class AbstractDatastaxBackendIT extends AbstractMetricBackendIT
             final DatastaxMetricModule.Builder builder =
                 DatastaxMetricModule.builder().schema(setupSchema(keyspace)).configure(true);
 
+            setupWrites(builder);
+
             properties.getOptionalString("seed").map(ImmutableSet::of).ifPresent(builder::seeds);
 
             return builder.build();
@@ -27,4 +29,7 @@ public abstract class AbstractDatastaxBackendIT extends AbstractMetricBackendIT
     }
 
     abstract protected SchemaModule setupSchema(final String keyspace);
+
+    protected void setupWrites(final DatastaxMetricModule.Builder builder) {
+    }
 }
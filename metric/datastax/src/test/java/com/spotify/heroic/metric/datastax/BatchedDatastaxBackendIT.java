@@ -0,0 +1,9 @@
+package com.spotify.heroic.metric.datastax;
+
+public class BatchedDatastaxBackendIT extends NextGenDatastaxBackendIT {
+    @Override
+    protected void setupWrites(final DatastaxMetricModule.Builder builder) {
+        /* small batches, so that writes are split across several batches */
+        builder.writeMode(WriteMode.BATCH).maxBatchStatements(10);
+    }
+}
@@ -0,0 +1,43 @@
+package com.spotify.heroic.metric.datastax;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class DatastaxBackendTest {
+    @Test
+    public void testSplitByStatements() {
+        final List<List<Long>> batches =
+            DatastaxBackend.split(ImmutableList.of(1L, 1L, 1L, 1L, 1L), s -> s, 2, 100L);
+
+        assertEquals(ImmutableList.of(ImmutableList.of(1L, 1L), ImmutableList.of(1L, 1L),
+            ImmutableList.of(1L)), batches);
+    }
+
+    @Test
+    public void testSplitByBytes() {
+        final List<List<Long>> batches =
+            DatastaxBackend.split(ImmutableList.of(40L, 40L, 40L, 10L), s -> s, 100, 100L);
+
+        assertEquals(
+            ImmutableList.of(ImmutableList.of(40L, 40L), ImmutableList.of(40L, 10L)), batches);
+    }
+
+    @Test
+    public void testSplitOversizedStatement() {
+        final List<List<Long>> batches =
+            DatastaxBackend.split(ImmutableList.of(10L, 200L, 10L), s -> s, 100, 100L);
+
+        assertEquals(ImmutableList.of(ImmutableList.of(10L), ImmutableList.of(200L),
+            ImmutableList.of(10L)), batches);
+    }
+
+    @Test
+    public void testSplitEmpty() {
+        assertEquals(ImmutableList.of(),
+            DatastaxBackend.split(ImmutableList.<Long>of(), s -> s, 100, 100L));
+    }
+}
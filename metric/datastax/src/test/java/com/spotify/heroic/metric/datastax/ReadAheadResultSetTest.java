@@ -0,0 +1,159 @@
+package com.spotify.heroic.metric.datastax;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.TinyAsync;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReadAheadResultSetTest {
+    private static final int PAGE_SIZE = 10;
+
+    private final AsyncFramework async =
+        TinyAsync.builder().executor(MoreExecutors.newDirectExecutorService()).build();
+
+    @Mock
+    private ResultSet rows;
+
+    @Mock
+    private Row row;
+
+    /* rows fetched but not yet taken */
+    private int available;
+
+    /* rows which have not been fetched yet */
+    private int remaining;
+
+    /* requests for more results, in the order they were made */
+    private final List<SettableFuture<ResultSet>> requested = new ArrayList<>();
+
+    @Before
+    public void setup() {
+        doAnswer(invocation -> available).when(rows).getAvailableWithoutFetching();
+        doAnswer(invocation -> remaining == 0).when(rows).isFullyFetched();
+
+        doAnswer(invocation -> {
+            available--;
+            return row;
+        }).when(rows).one();
+
+        doAnswer(invocation -> {
+            final SettableFuture<ResultSet> future = SettableFuture.create();
+            requested.add(future);
+            return future;
+        }).when(rows).fetchMoreResults();
+    }
+
+    /**
+     * Complete the request at the given index with the next page.
+     */
+    private void page(final int index) {
+        final int size = Math.min(PAGE_SIZE, remaining);
+        remaining -= size;
+        available += size;
+        requested.get(index).set(rows);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeReadAhead() {
+        new ReadAheadResultSet(async, rows, -1, PAGE_SIZE);
+    }
+
+    @Test
+    public void testRequestsPagesAhead() {
+        available = PAGE_SIZE;
+        remaining = PAGE_SIZE * 3;
+
+        final ReadAheadResultSet r = new ReadAheadResultSet(async, rows, 2, PAGE_SIZE);
+
+        assertEquals(PAGE_SIZE, r.take().size());
+        assertEquals(1, requested.size());
+
+        /* only one request is in progress at a time */
+        assertFalse(r.next().isDone());
+        assertEquals(1, requested.size());
+
+        /* requests are made until two pages are buffered */
+        page(0);
+        assertEquals(2, requested.size());
+        page(1);
+        assertEquals(2, requested.size());
+        assertEquals(PAGE_SIZE * 2, available);
+
+        assertEquals(PAGE_SIZE * 2, r.take().size());
+        assertEquals(3, requested.size());
+        page(2);
+
+        assertEquals(PAGE_SIZE, r.take().size());
+        assertTrue(r.isExhausted());
+        assertEquals(3, requested.size());
+    }
+
+    @Test
+    public void testNoReadAhead() {
+        available = PAGE_SIZE;
+        remaining = PAGE_SIZE;
+
+        final ReadAheadResultSet r = new ReadAheadResultSet(async, rows, 0, PAGE_SIZE);
+
+        assertEquals(PAGE_SIZE, r.take().size());
+        assertTrue(requested.isEmpty());
+
+        /* the next page is only requested once asked for */
+        final AsyncFuture<Void> next = r.next();
+        assertFalse(next.isDone());
+        assertEquals(1, requested.size());
+
+        page(0);
+        assertTrue(next.isResolved());
+        assertTrue(r.hasAvailable());
+    }
+
+    @Test
+    public void testFailure() {
+        available = PAGE_SIZE;
+        remaining = PAGE_SIZE;
+
+        final ReadAheadResultSet r = new ReadAheadResultSet(async, rows, 1, PAGE_SIZE);
+
+        r.take();
+        requested.get(0).setException(new RuntimeException("read failed"));
+
+        /* the failure is seen by the consumer, and the request isn't retried */
+        assertTrue(r.next().isFailed());
+        assertTrue(r.next().isFailed());
+        assertEquals(1, requested.size());
+        assertFalse(r.isExhausted());
+    }
+
+    @Test
+    public void testExhausted() {
+        available = 5;
+        remaining = 0;
+
+        final ReadAheadResultSet r = new ReadAheadResultSet(async, rows, 2, PAGE_SIZE);
+
+        assertFalse(r.isExhausted());
+        assertEquals(5, r.take().size());
+        assertTrue(r.isExhausted());
+        assertFalse(r.hasAvailable());
+        assertTrue(r.next().isResolved());
+        assertTrue(requested.isEmpty());
+    }
+}
@@ -0,0 +1,553 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.metric.local;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.spotify.heroic.QueryOptions;
+import com.spotify.heroic.async.AsyncObservable;
+import com.spotify.heroic.async.AsyncObserver;
+import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.common.Duration;
+import com.spotify.heroic.common.Groups;
+import com.spotify.heroic.common.RequestTimer;
+import com.spotify.heroic.common.Series;
+import com.spotify.heroic.common.Statistics;
+import com.spotify.heroic.lifecycle.LifeCycleRegistry;
+import com.spotify.heroic.metric.AbstractMetricBackend;
+import com.spotify.heroic.metric.BackendEntry;
+import com.spotify.heroic.metric.BackendKey;
+import com.spotify.heroic.metric.BackendKeyFilter;
+import com.spotify.heroic.metric.BackendKeySet;
+import com.spotify.heroic.metric.FetchData;
+import com.spotify.heroic.metric.FetchQuotaWatcher;
+import com.spotify.heroic.metric.MetricCollection;
+import com.spotify.heroic.metric.MetricType;
+import com.spotify.heroic.metric.PointColumns;
+import com.spotify.heroic.metric.QueryError;
+import com.spotify.heroic.metric.QueryTrace;
+import com.spotify.heroic.metric.WriteMetric;
+import com.spotify.heroic.scheduler.Scheduler;
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.FutureDone;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * MetricBackend storing points in memory-mapped segment files on local disk.
+ * <p>
+ * Points are partitioned into time blocks, each of which is stored in a single append-only
+ * segment file containing compressed blocks of points for every series. Series are assigned
+ * compact identifiers by an on-disk index.
+ * <p>
+ * Every write appends a new record to the segments it covers. Segments of blocks that have ended
+ * are periodically compacted into a single record per series, and segments past the retention
+ * are removed.
+ */
+@Slf4j
+@ToString(of = {"path"})
+public class LocalBackend extends AbstractMetricBackend {
+    public static final String LOCAL_SERIES = "local-series";
+    public static final String LOCAL_SEGMENTS = "local-segments";
+    public static final String LOCAL_BYTES = "local-bytes";
+
+    public static final String INDEX = "series.idx";
+    public static final String SEGMENTS = "segments";
+    public static final String SEGMENT_SUFFIX = ".seg";
+    public static final String TEMPORARY_SUFFIX = ".tmp";
+
+    public static final int KEYS_PAGE_SIZE = 1000;
+
+    public static final QueryTrace.Identifier FETCH =
+        QueryTrace.identifier(LocalBackend.class, "fetch");
+
+    static final Comparator<BackendKey> KEY_COMPARATOR =
+        Comparator.comparing(BackendKey::getSeries).thenComparingLong(BackendKey::getBase);
+
+    private final AsyncFramework async;
+    private final Groups groups;
+    private final Path path;
+    private final long blockSize;
+    private final int segmentSize;
+    private final Optional<Duration> retention;
+    private final Duration compactionInterval;
+    private final Scheduler scheduler;
+
+    /* segments by the start of their block */
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    private volatile SeriesIndex index;
+    private volatile boolean stopped = false;
+
+    @Inject
+    public LocalBackend(
+        final AsyncFramework async, final Groups groups, @Named("path") final Path path,
+        @Named("blockSize") final Duration blockSize, @Named("segmentSize") final int segmentSize,
+        @Named("retention") final Optional<Duration> retention,
+        @Named("compactionInterval") final Duration compactionInterval,
+        final Scheduler scheduler, final LifeCycleRegistry registry
+    ) {
+        super(async);
+        this.async = async;
+        this.groups = groups;
+        this.path = path;
+        this.blockSize = blockSize.toMilliseconds();
+        this.segmentSize = segmentSize;
+        this.retention = retention;
+        this.compactionInterval = compactionInterval;
+        this.scheduler = scheduler;
+
+        registry.start(this::start);
+        registry.stop(this::stop);
+    }
+
+    @Override
+    public Groups groups() {
+        return groups;
+    }
+
+    @Override
+    public AsyncFuture<Void> configure() {
+        return async.call(() -> {
+            Files.createDirectories(path.resolve(SEGMENTS));
+            return null;
+        });
+    }
+
+    @Override
+    public boolean isReady() {
+        return index != null && !stopped;
+    }
+
+    @Override
+    public Statistics getStatistics() {
+        final SeriesIndex index = this.index;
+
+        long bytes = 0L;
+
+        for (final Segment segment : segments.values()) {
+            bytes += segment.byteSize();
+        }
+
+        return Statistics.of(LOCAL_SERIES, index == null ? 0L : index.size(), LOCAL_SEGMENTS,
+            segments.size(), LOCAL_BYTES, bytes);
+    }
+
+    @Override
+    public AsyncFuture<WriteMetric> write(final WriteMetric.Request request) {
+        final MetricCollection g = request.getData();
+
+        if (g.getType() != MetricType.POINT) {
+            return async.failed(
+                new IllegalArgumentException("unsupported metric type: " + g.getType()));
+        }
+
+        return async.call(() -> {
+            final RequestTimer<WriteMetric> timer = WriteMetric.timer();
+            final int id = index().idOrCreate(request.getSeries());
+            final PointColumns points = g.getPointColumns().sorted();
+
+            int i = 0;
+
+            while (i < points.size()) {
+                final long block = blockStart(points.timestamp(i));
+                final PointColumns.Builder columns = PointColumns.builder();
+
+                while (i < points.size() && blockStart(points.timestamp(i)) == block) {
+                    columns.add(points.timestamp(i), points.value(i));
+                    i++;
+                }
+
+                final PointColumns slice = columns.build();
+
+                while (!segment(block).append(id, slice)) {
+                    /* segment was retired by a compaction, retry with its replacement */
+                }
+            }
+
+            return timer.end();
+        });
+    }
+
+    @Override
+    public AsyncFuture<FetchData> fetch(
+        final FetchData.Request request, final FetchQuotaWatcher watcher
+    ) {
+        if (request.getType() != MetricType.POINT) {
+            return async.resolved(FetchData.error(QueryTrace.of(FETCH),
+                QueryError.fromMessage("unsupported source: " + request.getType())));
+        }
+
+        return async.call(() -> {
+            final QueryTrace.NamedWatch w = QueryTrace.watch(FETCH);
+
+            if (!watcher.mayReadData()) {
+                throw new IllegalArgumentException("query violated data limit");
+            }
+
+            final PointColumns points = read(request.getSeries(), request.getRange());
+            watcher.readData(points.size());
+
+            return FetchData.of(w.end(), ImmutableList.of(),
+                ImmutableList.of(MetricCollection.points(points)));
+        });
+    }
+
+    @Override
+    public AsyncObservable<BackendKeySet> streamKeys(
+        final BackendKeyFilter filter, final QueryOptions options
+    ) {
+        return observer -> {
+            final AsyncFuture<List<BackendKey>> keys = async.call(() -> keys(filter));
+
+            keys.onDone(new FutureDone<List<BackendKey>>() {
+                @Override
+                public void failed(final Throwable cause) throws Exception {
+                    observer.fail(cause);
+                }
+
+                @Override
+                public void resolved(final List<BackendKey> result) throws Exception {
+                    emit(observer, Lists.partition(result, KEYS_PAGE_SIZE).iterator());
+                }
+
+                @Override
+                public void cancelled() throws Exception {
+                    observer.cancel();
+                }
+            });
+        };
+    }
+
+    @Override
+    public AsyncFuture<Void> deleteKey(final BackendKey key, final QueryOptions options) {
+        return async.call(() -> {
+            final Optional<Integer> id = index().id(key.getSeries());
+
+            if (!id.isPresent()) {
+                return null;
+            }
+
+            while (true) {
+                final Segment segment = segments.get(key.getBase());
+
+                if (segment == null || segment.delete(id.get())) {
+                    return null;
+                }
+            }
+        });
+    }
+
+    @Override
+    public AsyncFuture<Long> countKey(final BackendKey key, final QueryOptions options) {
+        return async.call(() -> (long) readKey(key).size());
+    }
+
+    @Override
+    public AsyncFuture<MetricCollection> fetchRow(final BackendKey key) {
+        return async.call(() -> MetricCollection.points(readKey(key)));
+    }
+
+    @Override
+    public AsyncObservable<MetricCollection> streamRow(final BackendKey key) {
+        return observer -> fetchRow(key).onDone(new FutureDone<MetricCollection>() {
+            @Override
+            public void failed(final Throwable cause) throws Exception {
+                observer.fail(cause);
+            }
+
+            @Override
+            public void resolved(final MetricCollection result) throws Exception {
+                observer.observe(result).onFinished(observer::end);
+            }
+
+            @Override
+            public void cancelled() throws Exception {
+                observer.cancel();
+            }
+        });
+    }
+
+    @Override
+    public Iterable<BackendEntry> listEntries() {
+        return ImmutableList.of();
+    }
+
+    /**
+     * Read all points of a series in the given range.
+     *
+     * @param range Range to read, start exclusive and end inclusive like other backends.
+     */
+    PointColumns read(final Series series, final DateRange range) {
+        final Optional<Integer> id = index().id(series);
+
+        if (!id.isPresent()) {
+            return PointColumns.empty();
+        }
+
+        final Map<Long, Segment> covered =
+            segments.subMap(blockStart(range.start()), true, range.end(), true);
+
+        final List<PointColumns> blocks = new ArrayList<>(covered.size());
+
+        for (final Segment segment : covered.values()) {
+            final PointColumns points = segment.read(id.get(), range.start(), range.end());
+
+            if (!points.isEmpty()) {
+                blocks.add(points);
+            }
+        }
+
+        return PointColumns.mergeSorted(blocks);
+    }
+
+    /**
+     * Compact segments of blocks that have ended, and remove segments past the retention.
+     */
+    void maintain(final long now) throws IOException {
+        if (retention.isPresent()) {
+            final long cutoff = now - retention.get().toMilliseconds();
+
+            for (final Segment segment : segments.headMap(cutoff - blockSize, true).values()) {
+                segments.remove(segment.start(), segment);
+                segment.retire();
+                Files.deleteIfExists(segment.path());
+                log.info("{}: removed segment past retention", segment.path());
+            }
+        }
+
+        /* leave a block of grace for late writes before compacting */
+        for (final Segment segment : segments.headMap(now - blockSize * 2, true).values()) {
+            if (stopped || !segment.isFragmented()) {
+                continue;
+            }
+
+            final Path temporary =
+                segment.path().resolveSibling(segment.path().getFileName() + TEMPORARY_SUFFIX);
+
+            segment.compact(temporary, compacted -> segments.put(segment.start(), compacted));
+            log.info("{}: compacted segment", segment.path());
+        }
+    }
+
+    private List<BackendKey> keys(final BackendKeyFilter filter) {
+        final SeriesIndex index = index();
+        final List<BackendKey> keys = new ArrayList<>();
+
+        for (final Segment segment : segments.values()) {
+            for (final int id : segment.series()) {
+                index.series(id).ifPresent(s -> {
+                    final BackendKey key = new BackendKey(s, segment.start());
+
+                    if (matches(filter, key)) {
+                        keys.add(key);
+                    }
+                });
+            }
+        }
+
+        keys.sort(KEY_COMPARATOR);
+        return filter.getLimit().limitList(keys);
+    }
+
+    private PointColumns readKey(final BackendKey key) {
+        return read(key.getSeries(),
+            new DateRange(key.getBase() - 1, key.getBase() + blockSize - 1));
+    }
+
+    private void emit(
+        final AsyncObserver<BackendKeySet> observer, final Iterator<List<BackendKey>> pages
+    ) {
+        if (!pages.hasNext()) {
+            observer.end();
+            return;
+        }
+
+        observer
+            .observe(new BackendKeySet(ImmutableList.copyOf(pages.next()), 0L))
+            .onDone(new FutureDone<Void>() {
+                @Override
+                public void failed(final Throwable cause) throws Exception {
+                    observer.fail(cause);
+                }
+
+                @Override
+                public void resolved(final Void result) throws Exception {
+                    emit(observer, pages);
+                }
+
+                @Override
+                public void cancelled() throws Exception {
+                    observer.cancel();
+                }
+            });
+    }
+
+    private AsyncFuture<Void> start() {
+        return async.call(() -> {
+            final Path directory = path.resolve(SEGMENTS);
+            Files.createDirectories(directory);
+
+            index = SeriesIndex.open(path.resolve(INDEX));
+
+            try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (final Path file : files) {
+                    final String name = file.getFileName().toString();
+
+                    if (name.endsWith(TEMPORARY_SUFFIX)) {
+                        /* left over from an interrupted compaction */
+                        Files.delete(file);
+                        continue;
+                    }
+
+                    if (!name.endsWith(SEGMENT_SUFFIX)) {
+                        continue;
+                    }
+
+                    final long start = Long.parseLong(
+                        name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                    segments.put(start, Segment.open(file, start, segmentSize));
+                }
+            }
+
+            log.info("{}: opened {} series in {} segment(s)", path, index.size(),
+                segments.size());
+
+            scheduler.periodically("local-maintenance", compactionInterval.getDuration(),
+                compactionInterval.getUnit(), () -> {
+                    if (!stopped) {
+                        maintain(System.currentTimeMillis());
+                    }
+                });
+
+            return null;
+        });
+    }
+
+    private AsyncFuture<Void> stop() {
+        stopped = true;
+
+        return async.call(() -> {
+            for (final Segment segment : segments.values()) {
+                segment.close();
+            }
+
+            final SeriesIndex index = this.index;
+
+            if (index != null) {
+                index.close();
+            }
+
+            return null;
+        });
+    }
+
+    private SeriesIndex index() {
+        final SeriesIndex index = this.index;
+
+        if (index == null) {
+            throw new IllegalStateException("backend is not started");
+        }
+
+        return index;
+    }
+
+    private Segment segment(final long block) {
+        final Segment segment = segments.get(block);
+
+        if (segment != null) {
+            return segment;
+        }
+
+        synchronized (segments) {
+            final Segment checked = segments.get(block);
+
+            if (checked != null) {
+                return checked;
+            }
+
+            final Path file = path.resolve(SEGMENTS).resolve(block + SEGMENT_SUFFIX);
+
+            final Segment created;
+
+            try {
+                created = Segment.open(file, block, segmentSize);
+            } catch (final IOException e) {
+                throw new RuntimeException(file + ": failed to open segment", e);
+            }
+
+            segments.put(block, created);
+            return created;
+        }
+    }
+
+    private long blockStart(final long timestamp) {
+        return Math.floorDiv(timestamp, blockSize) * blockSize;
+    }
+
+    static boolean matches(final BackendKeyFilter filter, final BackendKey key) {
+        if (filter.getStart().isPresent()) {
+            final BackendKeyFilter.Start start = filter.getStart().get();
+
+            if (start instanceof BackendKeyFilter.GT) {
+                if (KEY_COMPARATOR.compare(key, ((BackendKeyFilter.GT) start).getKey()) <= 0) {
+                    return false;
+                }
+            } else if (start instanceof BackendKeyFilter.GTE) {
+                if (KEY_COMPARATOR.compare(key, ((BackendKeyFilter.GTE) start).getKey()) < 0) {
+                    return false;
+                }
+            } else {
+                throw new IllegalArgumentException("unsupported start of key filter: " + start);
+            }
+        }
+
+        if (filter.getEnd().isPresent()) {
+            final BackendKeyFilter.End end = filter.getEnd().get();
+
+            if (end instanceof BackendKeyFilter.LT) {
+                if (KEY_COMPARATOR.compare(key, ((BackendKeyFilter.LT) end).getKey()) >= 0) {
+                    return false;
+                }
+            } else {
+                throw new IllegalArgumentException("unsupported end of key filter: " + end);
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.metric.local;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.spotify.heroic.common.Duration;
+import com.spotify.heroic.common.DynamicModuleId;
+import com.spotify.heroic.common.Groups;
+import com.spotify.heroic.common.ModuleId;
+import com.spotify.heroic.dagger.PrimaryComponent;
+import com.spotify.heroic.metric.MetricModule;
+import dagger.Component;
+import dagger.Module;
+import dagger.Provides;
+import lombok.Data;
+
+import javax.inject.Named;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Optional.empty;
+import static java.util.Optional.of;
+
+@Data
+@ModuleId("local")
+public final class LocalMetricModule implements MetricModule, DynamicModuleId {
+    public static final String DEFAULT_GROUP = "local";
+    public static final String DEFAULT_PATH = "./heroic-local";
+    public static final Duration DEFAULT_BLOCK_SIZE = Duration.of(2, TimeUnit.HOURS);
+    public static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+    public static final Duration DEFAULT_COMPACTION_INTERVAL = Duration.of(5, TimeUnit.MINUTES);
+
+    private final Optional<String> id;
+    private final Groups groups;
+    private final Path path;
+    private final Duration blockSize;
+    private final int segmentSize;
+    private final Optional<Duration> retention;
+    private final Duration compactionInterval;
+
+    @JsonCreator
+    public LocalMetricModule(
+        @JsonProperty("id") Optional<String> id, @JsonProperty("groups") Optional<Groups> groups,
+        @JsonProperty("path") Optional<String> path,
+        @JsonProperty("blockSize") Optional<Duration> blockSize,
+        @JsonProperty("segmentSize") Optional<Integer> segmentSize,
+        @JsonProperty("retention") Optional<Duration> retention,
+        @JsonProperty("compactionInterval") Optional<Duration> compactionInterval
+    ) {
+        this.id = id;
+        this.groups = groups.orElseGet(Groups::empty).or(DEFAULT_GROUP);
+        this.path = Paths.get(path.orElse(DEFAULT_PATH));
+        this.blockSize = blockSize.orElse(DEFAULT_BLOCK_SIZE);
+        this.segmentSize = segmentSize.orElse(DEFAULT_SEGMENT_SIZE);
+        this.retention = retention;
+        this.compactionInterval = compactionInterval.orElse(DEFAULT_COMPACTION_INTERVAL);
+    }
+
+    @Override
+    public Exposed module(PrimaryComponent primary, Depends depends, String id) {
+        return DaggerLocalMetricModule_C
+            .builder()
+            .primaryComponent(primary)
+            .depends(depends)
+            .m(new M())
+            .build();
+    }
+
+    @LocalScope
+    @Component(modules = M.class, dependencies = {PrimaryComponent.class, Depends.class})
+    interface C extends Exposed {
+        @Override
+        LocalBackend backend();
+    }
+
+    @Module
+    class M {
+        @Provides
+        @LocalScope
+        public Groups groups() {
+            return groups;
+        }
+
+        @Provides
+        @LocalScope
+        @Named("path")
+        public Path path() {
+            return path;
+        }
+
+        @Provides
+        @LocalScope
+        @Named("blockSize")
+        public Duration blockSize() {
+            return blockSize;
+        }
+
+        @Provides
+        @LocalScope
+        @Named("segmentSize")
+        public int segmentSize() {
+            return segmentSize;
+        }
+
+        @Provides
+        @LocalScope
+        @Named("retention")
+        public Optional<Duration> retention() {
+            return retention;
+        }
+
+        @Provides
+        @LocalScope
+        @Named("compactionInterval")
+        public Duration compactionInterval() {
+            return compactionInterval;
+        }
+    }
+
+    @Override
+    public Optional<String> id() {
+        return id;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private Optional<String> id = empty();
+        private Optional<Groups> groups = empty();
+        private Optional<String> path = empty();
+        private Optional<Duration> blockSize = empty();
+        private Optional<Integer> segmentSize = empty();
+        private Optional<Duration> retention = empty();
+        private Optional<Duration> compactionInterval = empty();
+
+        public Builder id(String id) {
+            this.id = of(id);
+            return this;
+        }
+
+        public Builder groups(Groups groups) {
+            this.groups = of(groups);
+            return this;
+        }
+
+        /**
+         * Directory in which the series index and segments are stored.
+         */
+        public Builder path(final String path) {
+            this.path = of(path);
+            return this;
+        }
+
+        /**
+         * Time span covered by a single segment.
+         */
+        public Builder blockSize(final Duration blockSize) {
+            this.blockSize = of(blockSize);
+            return this;
+        }
+
+        /**
+         * Initial size in bytes of a newly created segment file.
+         */
+        public Builder segmentSize(final int segmentSize) {
+            this.segmentSize = of(segmentSize);
+            return this;
+        }
+
+        /**
+         * Remove segments once all of their data is older than the given duration.
+         */
+        public Builder retention(final Duration retention) {
+            this.retention = of(retention);
+            return this;
+        }
+
+        public Builder compactionInterval(final Duration compactionInterval) {
+            this.compactionInterval = of(compactionInterval);
+            return this;
+        }
+
+        public LocalMetricModule build() {
+            return new LocalMetricModule(id, groups, path, blockSize, segmentSize, retention,
+                compactionInterval);
+        }
+    }
+}
@@ -0,0 +1,438 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.metric.local;
+
+import com.spotify.heroic.metric.GorillaDecoder;
+import com.spotify.heroic.metric.GorillaEncoder;
+import com.spotify.heroic.metric.PointColumns;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only, memory-mapped segment file containing all points of a single time block.
+ * <p>
+ * The file is a sequence of records, each of which contains a compressed block of points for a
+ * single series:
+ * <pre>
+ * [magic: int][series: int][count: int][length: int][crc: int][block: byte[length]]
+ * </pre>
+ * A record with a count and length of zero is a tombstone, which deletes all previous records of
+ * the same series.
+ * <p>
+ * The file is preallocated, and the unused tail is zeroed. When the segment is opened, records
+ * are scanned until the first invalid record, which is either the end of the written data or a
+ * partially written record that is discarded.
+ * <p>
+ * Appends are serialized on the segment. Reads use absolute positions in a snapshot of the mapped
+ * buffer and never block on writes, the positions of records are only published after they have
+ * been completely written.
+ */
+class Segment {
+    static final int MAGIC = 0x48455231;
+    static final int HEADER_SIZE = Integer.BYTES * 5;
+    static final int MIN_GROWTH = 4096;
+
+    private final Path path;
+    private final long start;
+    private final FileChannel channel;
+
+    /* positions of records for every series, must synchronize on the segment to access */
+    private final Map<Integer, List<Integer>> records = new HashMap<>();
+
+    private volatile MappedByteBuffer buffer;
+
+    /* position of the next record, must synchronize on the segment to access */
+    private int position;
+    private int recordCount;
+    private boolean tombstones;
+    /* set when the segment has been replaced by a compacted segment, or removed */
+    private boolean retired;
+
+    private Segment(
+        final Path path, final long start, final FileChannel channel,
+        final MappedByteBuffer buffer
+    ) {
+        this.path = path;
+        this.start = start;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Open, or create the segment file at the given path.
+     *
+     * @param start Start of the time block that the segment contains.
+     * @param size Initial size of the file, if it is created.
+     */
+    static Segment open(final Path path, final long start, final int size) throws IOException {
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        final int mapped = (int) Math.max(channel.size(), size);
+        final Segment segment = new Segment(path, start, channel,
+            channel.map(FileChannel.MapMode.READ_WRITE, 0, mapped));
+        segment.scan();
+        return segment;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    long start() {
+        return start;
+    }
+
+    /**
+     * Append the given points of a series as a new record.
+     *
+     * @return {@code false} if the segment has been retired, in which case the current segment for
+     * the block should be used instead.
+     */
+    synchronized boolean append(final int series, final PointColumns points) throws IOException {
+        if (retired) {
+            return false;
+        }
+
+        if (points.isEmpty()) {
+            return true;
+        }
+
+        final byte[] block = GorillaEncoder.encode(points);
+        write(series, points.size(), block);
+        return true;
+    }
+
+    /**
+     * Delete all points of the given series.
+     *
+     * @return {@code false} if the segment has been retired, in which case the current segment for
+     * the block should be used instead.
+     */
+    synchronized boolean delete(final int series) throws IOException {
+        if (retired) {
+            return false;
+        }
+
+        if (records.containsKey(series)) {
+            write(series, 0, new byte[0]);
+        }
+
+        return true;
+    }
+
+    /**
+     * Retire this segment, causing all future modifications to be rejected.
+     * <p>
+     * Reads of a retired segment are still valid, since the mapping stays valid until it is
+     * garbage collected.
+     */
+    synchronized void retire() throws IOException {
+        retired = true;
+        close();
+    }
+
+    /**
+     * Read the points of the given series, sorted by timestamp.
+     * <p>
+     * Points in later records take precedence over points with the same timestamp in earlier
+     * records.
+     *
+     * @param from Start of the range to read (exclusive).
+     * @param to End of the range to read (inclusive).
+     */
+    PointColumns read(final int series, final long from, final long to) {
+        final int[] positions;
+
+        synchronized (this) {
+            final List<Integer> p = records.get(series);
+
+            if (p == null) {
+                return PointColumns.empty();
+            }
+
+            positions = new int[p.size()];
+
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = p.get(i);
+            }
+        }
+
+        final ByteBuffer b = buffer;
+        final List<PointColumns> runs = new ArrayList<>(positions.length);
+
+        boolean ordered = true;
+        long last = Long.MIN_VALUE;
+        int size = 0;
+
+        for (final int position : positions) {
+            final int count = b.getInt(position + Integer.BYTES * 2);
+            final PointColumns.Builder columns = PointColumns.builder(count);
+
+            final ByteBuffer block = b.duplicate();
+            block.position(position + HEADER_SIZE);
+
+            final GorillaDecoder decoder = new GorillaDecoder(block);
+
+            while (decoder.next()) {
+                final long t = decoder.timestamp();
+
+                if (t > from && t <= to) {
+                    columns.add(t, decoder.value());
+                }
+            }
+
+            final PointColumns run = columns.build();
+
+            if (run.isEmpty()) {
+                continue;
+            }
+
+            ordered = ordered && (runs.isEmpty() || run.timestamp(0) > last);
+            last = Math.max(last, run.timestamp(run.size() - 1));
+            size += run.size();
+            runs.add(run);
+        }
+
+        if (runs.isEmpty()) {
+            return PointColumns.empty();
+        }
+
+        if (runs.size() == 1) {
+            return runs.get(0);
+        }
+
+        /* records that were appended in order are concatenated, otherwise merged once */
+        if (ordered) {
+            final PointColumns.Builder result = PointColumns.builder(size);
+
+            for (final PointColumns run : runs) {
+                result.addAll(run);
+            }
+
+            return result.build();
+        }
+
+        return latest(PointColumns.mergeSorted(runs));
+    }
+
+    synchronized Set<Integer> series() {
+        return new TreeSet<>(records.keySet());
+    }
+
+    /**
+     * Check if the segment contains more than one record for any series, or deleted records.
+     */
+    synchronized boolean isFragmented() {
+        return tombstones || recordCount > records.size();
+    }
+
+    /**
+     * Number of bytes used by records.
+     */
+    synchronized int byteSize() {
+        return position;
+    }
+
+    /**
+     * Replace this segment with a compacted copy, containing a single record for each series.
+     * <p>
+     * The copy is written to a temporary file which is atomically moved over the file of this
+     * segment. The new segment is installed before this segment is retired, so that writers which
+     * are waiting for this segment can pick it up.
+     *
+     * @param temporary Path to write the compacted copy to.
+     * @param install Called with the compacted segment, before this segment is retired.
+     * @return The compacted segment.
+     */
+    synchronized Segment compact(final Path temporary, final Consumer<Segment> install)
+        throws IOException {
+        /* might be left over from an earlier, failed compaction */
+        Files.deleteIfExists(temporary);
+
+        final Segment compacted = open(temporary, start, Math.max(position, HEADER_SIZE));
+
+        for (final int series : records.keySet()) {
+            compacted.append(series, read(series, Long.MIN_VALUE, Long.MAX_VALUE));
+        }
+
+        compacted.close();
+
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+
+        final Segment reopened = open(path, start, 0);
+        install.accept(reopened);
+        retire();
+        return reopened;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    private void write(final int series, final int count, final byte[] block)
+        throws IOException {
+        final int required = position + HEADER_SIZE + block.length;
+
+        if (required > buffer.capacity()) {
+            grow(required);
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(block, 0, block.length);
+
+        final MappedByteBuffer b = buffer;
+
+        /* write the body before the header, so that a valid header implies a valid body */
+        final ByteBuffer body = b.duplicate();
+        body.position(position + HEADER_SIZE);
+        body.put(block);
+
+        b.putInt(position + Integer.BYTES, series);
+        b.putInt(position + Integer.BYTES * 2, count);
+        b.putInt(position + Integer.BYTES * 3, block.length);
+        b.putInt(position + Integer.BYTES * 4, (int) crc.getValue());
+        b.putInt(position, MAGIC);
+
+        index(series, count, position);
+        position = required;
+    }
+
+    private void grow(final int required) throws IOException {
+        long size = Math.max(buffer.capacity(), MIN_GROWTH);
+
+        while (size < required) {
+            size *= 2;
+        }
+
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(path + ": segment is full");
+        }
+
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private void index(final int series, final int count, final int at) {
+        recordCount++;
+
+        if (count == 0) {
+            tombstones = true;
+            recordCount -= records.remove(series).size();
+            return;
+        }
+
+        records.computeIfAbsent(series, s -> new ArrayList<>()).add(at);
+    }
+
+    /**
+     * Scan all valid records, and position the segment after the last one.
+     */
+    private synchronized void scan() {
+        final MappedByteBuffer b = buffer;
+        final int limit = b.capacity();
+
+        int p = 0;
+
+        while (p + HEADER_SIZE <= limit) {
+            if (b.getInt(p) != MAGIC) {
+                break;
+            }
+
+            final int series = b.getInt(p + Integer.BYTES);
+            final int count = b.getInt(p + Integer.BYTES * 2);
+            final int length = b.getInt(p + Integer.BYTES * 3);
+            final int checksum = b.getInt(p + Integer.BYTES * 4);
+
+            if (count < 0 || length < 0 || p + HEADER_SIZE + length > limit) {
+                break;
+            }
+
+            final ByteBuffer body = b.duplicate();
+            body.position(p + HEADER_SIZE);
+            body.limit(p + HEADER_SIZE + length);
+
+            final CRC32 crc = new CRC32();
+            crc.update(body);
+
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            if (count > 0 || records.containsKey(series)) {
+                index(series, count, p);
+            } else {
+                recordCount++;
+                tombstones = true;
+            }
+
+            p += HEADER_SIZE + length;
+        }
+
+        /* clear anything that was partially written after the last valid record */
+        for (int i = p; i < Math.min(limit, p + HEADER_SIZE); i++) {
+            b.put(i, (byte) 0);
+        }
+
+        position = p;
+    }
+
+    /**
+     * Only keep the last of the points with the same timestamp in the given sorted columns.
+     * <p>
+     * Points with the same timestamp are in record order after a stable merge, so the kept point
+     * is the one from the latest record.
+     */
+    static PointColumns latest(final PointColumns points) {
+        final PointColumns.Builder result = PointColumns.builder(points.size());
+
+        for (int i = 0; i < points.size(); i++) {
+            if (i + 1 < points.size() && points.timestamp(i + 1) == points.timestamp(i)) {
+                continue;
+            }
+
+            result.add(points.timestamp(i), points.value(i));
+        }
+
+        return result.build();
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.metric.local;
+
+import com.spotify.heroic.common.Series;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk index of all series stored in a local backend, assigning each series a compact
+ * identifier which is used in segment files.
+ * <p>
+ * The index is an append-only log of {@code [length: int][crc: int][entry: byte[length]]} records,
+ * where each entry is {@code [id: int][key: string][tags: int]([key: utf][value: string])*} and a
+ * string is a boolean indicating if it is present followed by the string itself. Identifiers are
+ * assigned in order.
+ * <p>
+ * When the index is opened, entries are read until the first invalid one, which is either a
+ * partially written entry or a corrupt one, and the log is truncated there.
+ */
+class SeriesIndex {
+    static final int HEADER_SIZE = Integer.BYTES * 2;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final DataOutputStream output;
+
+    private final Map<Series, Integer> ids = new ConcurrentHashMap<>();
+    private final Map<Integer, Series> series = new ConcurrentHashMap<>();
+
+    private SeriesIndex(final Path path, final FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+        this.output =
+            new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    }
+
+    static SeriesIndex open(final Path path) throws IOException {
+        final Map<Integer, Series> entries = new HashMap<>();
+        long valid = 0L;
+
+        if (Files.exists(path)) {
+            final ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(path));
+
+            while (bytes.remaining() >= HEADER_SIZE) {
+                final int length = bytes.getInt();
+                final int checksum = bytes.getInt();
+
+                if (length < 0 || length > bytes.remaining()) {
+                    break;
+                }
+
+                final CRC32 crc = new CRC32();
+                crc.update(bytes.array(), bytes.position(), length);
+
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                final int id;
+                final Series s;
+
+                try (final DataInputStream input = new DataInputStream(
+                    new ByteArrayInputStream(bytes.array(), bytes.position(), length))) {
+                    id = input.readInt();
+                    s = readSeries(input);
+                } catch (final IOException e) {
+                    break;
+                }
+
+                if (id != entries.size()) {
+                    break;
+                }
+
+                entries.put(id, s);
+                bytes.position(bytes.position() + length);
+                valid = bytes.position();
+            }
+        }
+
+        final FileChannel channel =
+            FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+        /* drop everything after the last valid entry */
+        channel.truncate(valid);
+        channel.position(valid);
+
+        final SeriesIndex index = new SeriesIndex(path, channel);
+
+        for (final Map.Entry<Integer, Series> e : entries.entrySet()) {
+            index.ids.put(e.getValue(), e.getKey());
+            index.series.put(e.getKey(), e.getValue());
+        }
+
+        return index;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    int size() {
+        return ids.size();
+    }
+
+    Optional<Integer> id(final Series s) {
+        return Optional.ofNullable(ids.get(s));
+    }
+
+    Optional<Series> series(final int id) {
+        return Optional.ofNullable(series.get(id));
+    }
+
+    /**
+     * Get the identifier of the given series, adding it to the index if it is not present.
+     */
+    int idOrCreate(final Series s) throws IOException {
+        final Integer existing = ids.get(s);
+
+        if (existing != null) {
+            return existing;
+        }
+
+        synchronized (this) {
+            final Integer checked = ids.get(s);
+
+            if (checked != null) {
+                return checked;
+            }
+
+            final int id = series.size();
+
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+            try (final DataOutputStream entry = new DataOutputStream(bytes)) {
+                entry.writeInt(id);
+                writeString(entry, s.getKey());
+                entry.writeInt(s.getTags().size());
+
+                for (final Map.Entry<String, String> tag : s.getTags().entrySet()) {
+                    entry.writeUTF(tag.getKey());
+                    writeString(entry, tag.getValue());
+                }
+            }
+
+            final byte[] body = bytes.toByteArray();
+            final CRC32 crc = new CRC32();
+            crc.update(body, 0, body.length);
+
+            output.writeInt(body.length);
+            output.writeInt((int) crc.getValue());
+            output.write(body);
+            output.flush();
+
+            series.put(id, s);
+            ids.put(s, id);
+            return id;
+        }
+    }
+
+    synchronized void force() throws IOException {
+        output.flush();
+        channel.force(true);
+    }
+
+    synchronized void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    private static Series readSeries(final DataInputStream input) throws IOException {
+        final String key = readString(input);
+        final int size = input.readInt();
+
+        if (size < 0) {
+            throw new IOException("negative number of tags: " + size);
+        }
+
+        final Map<String, String> tags = new TreeMap<>();
+
+        for (int i = 0; i < size; i++) {
+            tags.put(input.readUTF(), readString(input));
+        }
+
+        return Series.of(key, tags);
+    }
+
+    private static String readString(final DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    private static void writeString(final DataOutputStream output, final String value)
+        throws IOException {
+        output.writeBoolean(value != null);
+
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.spotify.heroic.metric.local;
+
+import com.spotify.heroic.metric.MetricModule;
+import com.spotify.heroic.test.AbstractMetricBackendIT;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Optional;
+
+public class LocalBackendIT extends AbstractMetricBackendIT {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Override
+    protected Optional<MetricModule> setupModule() {
+        return Optional.of(
+            LocalMetricModule.builder().path(folder.getRoot().getAbsolutePath()).build());
+    }
+}
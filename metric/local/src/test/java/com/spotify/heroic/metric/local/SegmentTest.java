@@ -0,0 +1,135 @@
+package com.spotify.heroic.metric.local;
+
+import com.google.common.collect.ImmutableSet;
+import com.spotify.heroic.metric.PointColumns;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static PointColumns points(final long... timestamps) {
+        final PointColumns.Builder builder = PointColumns.builder();
+
+        for (final long t : timestamps) {
+            builder.add(t, t * 2D);
+        }
+
+        return builder.build();
+    }
+
+    @Test
+    public void testAppendAndRead() throws Exception {
+        final Segment segment = Segment.open(folder.getRoot().toPath().resolve("0.seg"), 0L, 0);
+
+        assertTrue(segment.append(1, points(10, 20, 30)));
+        assertTrue(segment.append(2, points(15)));
+
+        assertEquals(ImmutableSet.of(1, 2), segment.series());
+        assertEquals(3, segment.read(1, Long.MIN_VALUE, Long.MAX_VALUE).size());
+
+        /* start exclusive, end inclusive */
+        final PointColumns some = segment.read(1, 20, 30);
+        assertEquals(1, some.size());
+        assertEquals(30L, some.timestamp(0));
+        assertEquals(60D, some.value(0), 0D);
+
+        assertEquals(0, segment.read(3, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        segment.close();
+    }
+
+    @Test
+    public void testLaterRecordsWin() throws Exception {
+        final Segment segment = Segment.open(folder.getRoot().toPath().resolve("0.seg"), 0L, 64);
+
+        segment.append(1, points(10, 20));
+        segment.append(1, PointColumns.of(new long[]{20, 30}, new double[]{1D, 2D}, 2));
+
+        final PointColumns all = segment.read(1, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(3, all.size());
+        assertEquals(20D, all.value(0), 0D);
+        assertEquals(1D, all.value(1), 0D);
+        assertEquals(2D, all.value(2), 0D);
+        assertTrue(segment.isFragmented());
+        segment.close();
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        final Path path = folder.getRoot().toPath().resolve("0.seg");
+        final Segment segment = Segment.open(path, 0L, 0);
+
+        segment.append(1, points(10, 20));
+        segment.append(2, points(10));
+        assertTrue(segment.delete(1));
+        assertEquals(ImmutableSet.of(2), segment.series());
+        segment.close();
+
+        final Segment reopened = Segment.open(path, 0L, 0);
+        assertEquals(ImmutableSet.of(2), reopened.series());
+        assertEquals(0, reopened.read(1, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        reopened.close();
+    }
+
+    @Test
+    public void testRecoverPartialRecord() throws Exception {
+        final Path path = folder.getRoot().toPath().resolve("0.seg");
+        final Segment segment = Segment.open(path, 0L, 0);
+
+        segment.append(1, points(10, 20));
+        final int valid = segment.byteSize();
+        segment.append(1, points(30, 40));
+        segment.close();
+
+        /* corrupt the body of the last record */
+        try (final RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(valid + Segment.HEADER_SIZE);
+            file.write(0xff);
+        }
+
+        final Segment reopened = Segment.open(path, 0L, 0);
+        assertEquals(valid, reopened.byteSize());
+        assertEquals(2, reopened.read(1, Long.MIN_VALUE, Long.MAX_VALUE).size());
+
+        /* appends continue after the last valid record */
+        reopened.append(1, points(50));
+        assertEquals(3, reopened.read(1, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        reopened.close();
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        final Path path = folder.getRoot().toPath().resolve("0.seg");
+        final Segment segment = Segment.open(path, 0L, 0);
+
+        for (int i = 0; i < 100; i++) {
+            segment.append(i % 4, points(i, i + 1000));
+        }
+
+        segment.delete(3);
+        assertTrue(segment.isFragmented());
+
+        final Segment[] installed = new Segment[1];
+        final Segment compacted =
+            segment.compact(path.resolveSibling("0.seg.tmp"), s -> installed[0] = s);
+
+        assertEquals(compacted, installed[0]);
+        assertFalse(compacted.isFragmented());
+        assertEquals(ImmutableSet.of(0, 1, 2), compacted.series());
+        assertEquals(50, compacted.read(0, Long.MIN_VALUE, Long.MAX_VALUE).size());
+
+        /* the retired segment rejects modifications */
+        assertFalse(segment.append(0, points(1)));
+        assertFalse(segment.delete(0));
+        compacted.close();
+    }
+}
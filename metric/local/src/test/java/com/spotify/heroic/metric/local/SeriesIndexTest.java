@@ -0,0 +1,91 @@
+package com.spotify.heroic.metric.local;
+
+import com.google.common.collect.ImmutableMap;
+import com.spotify.heroic.common.Series;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+
+public class SeriesIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReopen() throws Exception {
+        final Path path = folder.getRoot().toPath().resolve("series.idx");
+        final Series a = Series.of("a", ImmutableMap.of("host", "foo"));
+        final Series b = Series.of(null);
+
+        final SeriesIndex index = SeriesIndex.open(path);
+        assertEquals(0, index.idOrCreate(a));
+        assertEquals(1, index.idOrCreate(b));
+        assertEquals(0, index.idOrCreate(a));
+        index.close();
+
+        final SeriesIndex reopened = SeriesIndex.open(path);
+        assertEquals(2, reopened.size());
+        assertEquals(Optional.of(0), reopened.id(a));
+        assertEquals(Optional.of(b), reopened.series(1));
+        reopened.close();
+    }
+
+    @Test
+    public void testTruncatePartialEntry() throws Exception {
+        final Path path = folder.getRoot().toPath().resolve("series.idx");
+        final SeriesIndex index = SeriesIndex.open(path);
+        index.idOrCreate(Series.of("a"));
+        index.idOrCreate(Series.of("b"));
+        index.close();
+
+        /* cut the last entry in half */
+        try (final RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(file.length() - 2);
+        }
+
+        final SeriesIndex reopened = SeriesIndex.open(path);
+        assertEquals(1, reopened.size());
+        assertEquals(1, reopened.idOrCreate(Series.of("c")));
+        reopened.close();
+
+        final SeriesIndex recovered = SeriesIndex.open(path);
+        assertEquals(Optional.of(Series.of("c")), recovered.series(1));
+        recovered.close();
+    }
+
+    @Test
+    public void testTruncateCorruptEntry() throws Exception {
+        final Path path = folder.getRoot().toPath().resolve("series.idx");
+        final SeriesIndex index = SeriesIndex.open(path);
+        index.idOrCreate(Series.of("a"));
+        index.idOrCreate(Series.of("b"));
+        index.idOrCreate(Series.of("c"));
+        index.close();
+
+        /* flip a byte in the body of the second entry, all entries have the same size */
+        try (final RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            final long at = file.length() / 3 + SeriesIndex.HEADER_SIZE + 2;
+            file.seek(at);
+            final int value = file.read();
+            file.seek(at);
+            file.write(~value);
+        }
+
+        /* entries after the corrupt one are dropped as well */
+        final SeriesIndex reopened = SeriesIndex.open(path);
+        assertEquals(1, reopened.size());
+        assertEquals(Optional.of(Series.of("a")), reopened.series(0));
+        assertEquals(1, reopened.idOrCreate(Series.of("d")));
+        reopened.close();
+
+        final SeriesIndex recovered = SeriesIndex.open(path);
+        assertEquals(2, recovered.size());
+        assertEquals(Optional.of(Series.of("d")), recovered.series(1));
+        recovered.close();
+    }
+}
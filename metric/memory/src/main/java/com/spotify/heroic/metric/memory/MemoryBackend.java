@@ -24,6 +24,7 @@ package com.spotify.heroic.metric.memory;
 import com.google.common.collect.ImmutableList;
 import com.spotify.heroic.QueryOptions;
 import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.common.Duration;
 import com.spotify.heroic.common.Groups;
 import com.spotify.heroic.common.RequestTimer;
 import com.spotify.heroic.common.Series;
@@ -37,8 +38,10 @@ import com.spotify.heroic.metric.FetchQuotaWatcher;
 import com.spotify.heroic.metric.Metric;
 import com.spotify.heroic.metric.MetricCollection;
 import com.spotify.heroic.metric.MetricType;
+import com.spotify.heroic.metric.PointColumns;
 import com.spotify.heroic.metric.QueryTrace;
 import com.spotify.heroic.metric.WriteMetric;
+import com.spotify.heroic.scheduler.Scheduler;
 import eu.toolchain.async.AsyncFramework;
 import eu.toolchain.async.AsyncFuture;
 import lombok.Data;
@@ -47,18 +50,30 @@ import lombok.ToString;
 import javax.inject.Inject;
 import javax.inject.Named;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.Optional;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * MetricBackend for Heroic cassandra datastore.
  */
-@ToString(exclude = {"storage", "async", "createLock"})
+@ToString(exclude = {"storage", "points", "async", "scheduler", "createLock"})
 public class MemoryBackend extends AbstractMetricBackend {
     public static final String MEMORY_KEYS = "memory-keys";
+    public static final String MEMORY_POINTS = "memory-points";
+    public static final String MEMORY_POINT_BYTES = "memory-point-bytes";
+    public static final String MEMORY_EVICTED = "memory-evicted";
+
+    /**
+     * Shortest interval at which data past the retention is evicted.
+     */
+    public static final long MIN_EVICT_INTERVAL = TimeUnit.SECONDS.toMillis(10);
 
     public static final QueryTrace.Identifier FETCH =
         QueryTrace.identifier(MemoryBackend.class, "fetch");
@@ -80,22 +95,72 @@ public class MemoryBackend extends AbstractMetricBackend {
     private final AsyncFramework async;
     private final Groups groups;
     private final Map<MemoryKey, NavigableMap<Long, Metric>> storage;
+    private final Map<Series, PointChunks> points;
+    private final int chunkSize;
+    private final Scheduler scheduler;
+    private final Optional<Duration> retention;
+
+    private final AtomicLong evicted = new AtomicLong();
+
+    private volatile boolean stopped = false;
 
     @Inject
     public MemoryBackend(
         final AsyncFramework async, final Groups groups,
         @Named("storage") final Map<MemoryKey, NavigableMap<Long, Metric>> storage,
-        LifeCycleRegistry registry
+        @Named("points") final Map<Series, PointChunks> points,
+        @Named("chunkSize") final int chunkSize, final Scheduler scheduler,
+        @Named("retention") final Optional<Duration> retention, LifeCycleRegistry registry
     ) {
         super(async);
         this.async = async;
         this.groups = groups;
         this.storage = storage;
+        this.points = points;
+        this.chunkSize = chunkSize;
+        this.scheduler = scheduler;
+        this.retention = retention;
+
+        registry.start(this::start);
+        registry.stop(this::stop);
     }
 
     @Override
     public Statistics getStatistics() {
-        return Statistics.of(MEMORY_KEYS, storage.size());
+        long size = 0L;
+        long bytes = 0L;
+
+        for (final Map.Entry<Series, PointChunks> e : snapshot(points)) {
+            size += e.getValue().size();
+            bytes += e.getValue().byteSize();
+        }
+
+        return Statistics
+            .of(MEMORY_KEYS, storage.size() + points.size(), MEMORY_POINTS, size,
+                MEMORY_POINT_BYTES, bytes)
+            .merge(Statistics.of(MEMORY_EVICTED, evicted.get()));
+    }
+
+    /**
+     * If a retention is configured, this backend holds all points of a series which are newer than
+     * the retention, but not older than the first write of the series through this backend.
+     * <p>
+     * Only series which have been written through this backend are claimed, but the backend can
+     * not tell if a series is also written through other nodes. Using it as a hot tier requires
+     * that every series is only ingested by a single node.
+     */
+    @Override
+    public Optional<Long> retainedSince(final MetricType type, final Series series) {
+        return retention.map(r -> {
+            final PointChunks chunks = type == MetricType.POINT ? points.get(series) : null;
+
+            /* other types are not tracked, and always read from durable backends */
+            if (chunks == null) {
+                return Long.MAX_VALUE;
+            }
+
+            return Math.max(chunks.created(), System.currentTimeMillis() - r.toMilliseconds());
+        });
     }
 
     @Override
@@ -135,7 +200,74 @@ public class MemoryBackend extends AbstractMetricBackend {
 
     @Override
     public AsyncFuture<Void> deleteKey(BackendKey key, QueryOptions options) {
-        storage.remove(new MemoryKey(key.getType(), key.getSeries()));
+        if (key.getType() == MetricType.POINT) {
+            points.remove(key.getSeries());
+        } else {
+            storage.remove(new MemoryKey(key.getType(), key.getSeries()));
+        }
+
+        return async.resolved();
+    }
+
+    /**
+     * Evict all data which is older than the given timestamp.
+     * <p>
+     * Points are evicted one chunk at a time, so points older than the cutoff might be retained
+     * until the chunk that they are in has expired. Series which have no data left are removed.
+     * Writers check that the series they write to is still stored while holding the same lock.
+     */
+    void evict(final long cutoff) {
+        for (final Map.Entry<Series, PointChunks> e : snapshot(points)) {
+            final PointChunks chunks = e.getValue();
+
+            synchronized (chunks) {
+                evicted.addAndGet(chunks.evict(cutoff));
+
+                if (chunks.isEmpty()) {
+                    points.remove(e.getKey(), chunks);
+                }
+            }
+        }
+
+        for (final Map.Entry<MemoryKey, NavigableMap<Long, Metric>> e : snapshot(storage)) {
+            final NavigableMap<Long, Metric> tree = e.getValue();
+
+            synchronized (tree) {
+                final NavigableMap<Long, Metric> expired = tree.headMap(cutoff, false);
+                evicted.addAndGet(expired.size());
+                expired.clear();
+
+                if (tree.isEmpty()) {
+                    storage.remove(e.getKey(), tree);
+                }
+            }
+        }
+    }
+
+    private static <K, V> List<Map.Entry<K, V>> snapshot(final Map<K, V> map) {
+        /* synchronized maps are locked on themselves while iterated */
+        synchronized (map) {
+            return new ArrayList<>(map.entrySet());
+        }
+    }
+
+    private AsyncFuture<Void> start() {
+        retention.ifPresent(r -> {
+            final long millis = r.toMilliseconds();
+
+            scheduler.periodically("memory-retention", Math.max(millis / 10, MIN_EVICT_INTERVAL),
+                TimeUnit.MILLISECONDS, () -> {
+                    if (!stopped) {
+                        evict(System.currentTimeMillis() - millis);
+                    }
+                });
+        });
+
+        return async.resolved();
+    }
+
+    private AsyncFuture<Void> stop() {
+        stopped = true;
         return async.resolved();
     }
 
@@ -148,12 +280,33 @@ public class MemoryBackend extends AbstractMetricBackend {
     private void writeOne(final WriteMetric.Request request) {
         final MetricCollection g = request.getData();
 
+        if (g.getType() == MetricType.POINT) {
+            while (true) {
+                final PointChunks chunks = getOrCreatePoints(request.getSeries());
+
+                synchronized (chunks) {
+                    /* retry if the series was evicted after it was looked up */
+                    if (points.get(request.getSeries()) == chunks) {
+                        chunks.addAll(g.getPointColumns());
+                        return;
+                    }
+                }
+            }
+        }
+
         final MemoryKey key = new MemoryKey(g.getType(), request.getSeries());
-        final NavigableMap<Long, Metric> tree = getOrCreate(key);
 
-        synchronized (tree) {
-            for (final Metric d : g.getData()) {
-                tree.put(d.getTimestamp(), d);
+        while (true) {
+            final NavigableMap<Long, Metric> tree = getOrCreate(key);
+
+            synchronized (tree) {
+                if (storage.get(key) == tree) {
+                    for (final Metric d : g.getData()) {
+                        tree.put(d.getTimestamp(), d);
+                    }
+
+                    return;
+                }
             }
         }
     }
@@ -161,6 +314,18 @@ public class MemoryBackend extends AbstractMetricBackend {
     private List<MetricCollection> doFetch(
         final MemoryKey key, final DateRange range, final FetchQuotaWatcher watcher
     ) {
+        if (key.getSource() == MetricType.POINT) {
+            final PointChunks chunks = points.get(key.getSeries());
+
+            if (chunks == null) {
+                return ImmutableList.of(MetricCollection.points(PointColumns.empty()));
+            }
+
+            final PointColumns columns = chunks.read(range);
+            watcher.readData(columns.size());
+            return ImmutableList.of(MetricCollection.points(columns));
+        }
+
         final NavigableMap<Long, Metric> tree = storage.get(key);
 
         if (tree == null) {
@@ -168,7 +333,9 @@ public class MemoryBackend extends AbstractMetricBackend {
         }
 
         synchronized (tree) {
-            final Iterable<Metric> metrics = tree.subMap(range.getStart(), range.getEnd()).values();
+            final Collection<Metric> metrics =
+                tree.subMap(range.getStart(), false, range.getEnd(), true).values();
+
             final List<Metric> data = ImmutableList.copyOf(metrics);
             watcher.readData(data.size());
             return ImmutableList.of(MetricCollection.build(key.getSource(), data));
@@ -200,4 +367,27 @@ public class MemoryBackend extends AbstractMetricBackend {
             return created;
         }
     }
+
+    /**
+     * Get or create a new chunk store for the points of the given series.
+     */
+    private PointChunks getOrCreatePoints(final Series series) {
+        final PointChunks chunks = points.get(series);
+
+        if (chunks != null) {
+            return chunks;
+        }
+
+        synchronized (createLock) {
+            final PointChunks checked = points.get(series);
+
+            if (checked != null) {
+                return checked;
+            }
+
+            final PointChunks created = new PointChunks(chunkSize);
+            points.put(series, created);
+            return created;
+        }
+    }
 }
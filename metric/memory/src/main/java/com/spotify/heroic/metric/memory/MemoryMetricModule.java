@@ -23,9 +23,11 @@ package com.spotify.heroic.metric.memory;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.spotify.heroic.common.Duration;
 import com.spotify.heroic.common.DynamicModuleId;
 import com.spotify.heroic.common.Groups;
 import com.spotify.heroic.common.ModuleId;
+import com.spotify.heroic.common.Series;
 import com.spotify.heroic.dagger.PrimaryComponent;
 import com.spotify.heroic.metric.Metric;
 import com.spotify.heroic.metric.MetricModule;
@@ -50,19 +52,26 @@ import static java.util.Optional.of;
 @ModuleId("memory")
 public final class MemoryMetricModule implements MetricModule, DynamicModuleId {
     public static final String DEFAULT_GROUP = "memory";
+    public static final int DEFAULT_CHUNK_SIZE = 512;
 
     private final Optional<String> id;
     private final Groups groups;
     private final boolean synchronizedStorage;
+    private final int chunkSize;
+    private final Optional<Duration> retention;
 
     @JsonCreator
     public MemoryMetricModule(
         @JsonProperty("id") Optional<String> id, @JsonProperty("groups") Optional<Groups> groups,
-        @JsonProperty("synchronizedStorage") Optional<Boolean> synchronizedStorage
+        @JsonProperty("synchronizedStorage") Optional<Boolean> synchronizedStorage,
+        @JsonProperty("chunkSize") Optional<Integer> chunkSize,
+        @JsonProperty("retention") Optional<Duration> retention
     ) {
         this.id = id;
         this.groups = groups.orElseGet(Groups::empty).or(DEFAULT_GROUP);
         this.synchronizedStorage = synchronizedStorage.orElse(false);
+        this.chunkSize = chunkSize.orElse(DEFAULT_CHUNK_SIZE);
+        this.retention = retention;
     }
 
     @Override
@@ -102,6 +111,31 @@ public final class MemoryMetricModule implements MetricModule, DynamicModuleId {
 
             return new ConcurrentSkipListMap<>(MemoryBackend.COMPARATOR);
         }
+
+        @Provides
+        @MemoryScope
+        @Named("points")
+        public Map<Series, PointChunks> points() {
+            if (synchronizedStorage) {
+                return Collections.synchronizedMap(new HashMap<>());
+            }
+
+            return new ConcurrentSkipListMap<>();
+        }
+
+        @Provides
+        @MemoryScope
+        @Named("chunkSize")
+        public int chunkSize() {
+            return chunkSize;
+        }
+
+        @Provides
+        @MemoryScope
+        @Named("retention")
+        public Optional<Duration> retention() {
+            return retention;
+        }
     }
 
     @Override
@@ -117,6 +151,8 @@ public final class MemoryMetricModule implements MetricModule, DynamicModuleId {
         private Optional<String> id = empty();
         private Optional<Groups> groups = empty();
         private Optional<Boolean> synchronizedStorage = empty();
+        private Optional<Integer> chunkSize = empty();
+        private Optional<Duration> retention = empty();
 
         public Builder id(String id) {
             this.id = of(id);
@@ -133,8 +169,25 @@ public final class MemoryMetricModule implements MetricModule, DynamicModuleId {
             return this;
         }
 
+        public Builder chunkSize(final int chunkSize) {
+            this.chunkSize = of(chunkSize);
+            return this;
+        }
+
+        /**
+         * Only retain data that is newer than the given duration.
+         * <p>
+         * A backend with a retention is used as a hot tier when it is in the same group as a
+         * durable backend, in which case recent points of the series written through it are read
+         * from it. This requires that every series is only ingested by a single node.
+         */
+        public Builder retention(final Duration retention) {
+            this.retention = of(retention);
+            return this;
+        }
+
         public MemoryMetricModule build() {
-            return new MemoryMetricModule(id, groups, synchronizedStorage);
+            return new MemoryMetricModule(id, groups, synchronizedStorage, chunkSize, retention);
         }
     }
 }
@@ -0,0 +1,487 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.metric.memory;
+
+import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.metric.GorillaDecoder;
+import com.spotify.heroic.metric.GorillaEncoder;
+import com.spotify.heroic.metric.PointColumns;
+import lombok.RequiredArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-optimized point storage for a single series.
+ * <p>
+ * Points are appended to a small mutable head, which grows as needed up to the chunk size. When
+ * the head is full it is sealed into an immutable, Gorilla-compressed chunk. Sealed chunks and
+ * the head are published through a single volatile snapshot, which means that reads never take
+ * a lock. Writes are serialized on the instance.
+ * <p>
+ * The head is append-only as far as readers are concerned. Points that are not appended in order,
+ * or that replace an existing point in the head, cause the head to be copied before it is
+ * published again. Points that are written to the range of an already sealed chunk end up in a
+ * later chunk, and take precedence over points with the same timestamp in earlier chunks.
+ */
+class PointChunks {
+    /* initial capacity of a head, most series never fill a complete chunk */
+    static final int INITIAL_HEAD_CAPACITY = 16;
+
+    private final int chunkSize;
+
+    /* when the first point was written */
+    private final long created = System.currentTimeMillis();
+
+    private volatile State state;
+
+    PointChunks(final int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+
+        this.chunkSize = chunkSize;
+        this.state = new State(new Chunk[0], newHead());
+    }
+
+    /**
+     * Write a single point.
+     */
+    synchronized void add(final long timestamp, final double value) {
+        final State s = this.state;
+        final Head head = s.head;
+        final int size = head.size;
+
+        if (size == 0 || head.timestamps[size - 1] < timestamp) {
+            if (size < head.timestamps.length) {
+                head.timestamps[size] = timestamp;
+                head.values[size] = value;
+                /* volatile write, publishes the point to readers of the current head */
+                head.size = size + 1;
+            } else {
+                this.state = new State(s.chunks, head.append(timestamp, value, chunkSize));
+            }
+        } else {
+            this.state = new State(s.chunks, head.insert(timestamp, value, chunkSize));
+        }
+
+        if (this.state.head.size >= chunkSize) {
+            seal();
+        }
+    }
+
+    /**
+     * Write all the given points.
+     */
+    synchronized void addAll(final PointColumns columns) {
+        for (int i = 0; i < columns.size(); i++) {
+            add(columns.timestamp(i), columns.value(i));
+        }
+    }
+
+    /**
+     * Drop all sealed chunks, and the head, if they only contain points older than the given
+     * timestamp.
+     *
+     * @return The number of points that were dropped.
+     */
+    synchronized long evict(final long cutoff) {
+        final State s = this.state;
+        final Head head = s.head;
+        final int headSize = head.size;
+
+        final Chunk[] kept = new Chunk[s.chunks.length];
+        int size = 0;
+        long evicted = 0L;
+
+        for (final Chunk chunk : s.chunks) {
+            if (chunk.last < cutoff) {
+                evicted += chunk.size;
+            } else {
+                kept[size++] = chunk;
+            }
+        }
+
+        final boolean expired = headSize > 0 && head.timestamps[headSize - 1] < cutoff;
+
+        if (expired) {
+            evicted += headSize;
+        }
+
+        if (evicted > 0) {
+            this.state = new State(Arrays.copyOf(kept, size), expired ? newHead() : head);
+        }
+
+        return evicted;
+    }
+
+    synchronized boolean isEmpty() {
+        final State s = this.state;
+        return s.chunks.length == 0 && s.head.size == 0;
+    }
+
+    long created() {
+        return created;
+    }
+
+    /**
+     * Read all points in the given range, sorted by timestamp.
+     * <p>
+     * If the chunks in the range, and the head, do not overlap they are decoded in order into a
+     * single result. Otherwise they are decoded separately and merged once.
+     *
+     * @param range Range to read, start exclusive and end inclusive.
+     */
+    PointColumns read(final DateRange range) {
+        final State s = this.state;
+        final long start = range.getStart();
+        final long end = range.getEnd();
+
+        final Head head = s.head;
+        final int headSize = head.size;
+
+        final List<Chunk> chunks = new ArrayList<>();
+        boolean ordered = true;
+        long last = Long.MIN_VALUE;
+        int capacity = headSize;
+
+        for (final Chunk chunk : s.chunks) {
+            if (chunk.last <= start || chunk.first > end) {
+                continue;
+            }
+
+            ordered = ordered && (chunks.isEmpty() || chunk.first > last);
+            last = Math.max(last, chunk.last);
+            capacity += chunk.size;
+            chunks.add(chunk);
+        }
+
+        if (headSize > 0 && !chunks.isEmpty()) {
+            ordered = ordered && head.timestamps[0] > last;
+        }
+
+        if (ordered) {
+            final PointColumns.Builder columns = PointColumns.builder(capacity);
+
+            for (final Chunk chunk : chunks) {
+                chunk.decode(start, end, columns);
+            }
+
+            head.decode(headSize, start, end, columns);
+            return columns.build();
+        }
+
+        final List<PointColumns> runs = new ArrayList<>(chunks.size() + 1);
+
+        for (final Chunk chunk : chunks) {
+            final PointColumns.Builder columns = PointColumns.builder(chunk.size);
+            chunk.decode(start, end, columns);
+            runs.add(columns.build());
+        }
+
+        final PointColumns.Builder columns = PointColumns.builder(headSize);
+        head.decode(headSize, start, end, columns);
+        runs.add(columns.build());
+
+        return merge(runs);
+    }
+
+    /**
+     * Number of points stored, including points that have been overwritten in later chunks.
+     */
+    long size() {
+        final State s = this.state;
+        long size = s.head.size;
+
+        for (final Chunk chunk : s.chunks) {
+            size += chunk.size;
+        }
+
+        return size;
+    }
+
+    /**
+     * Approximate number of bytes used to store points.
+     */
+    long byteSize() {
+        final State s = this.state;
+        long bytes = (long) s.head.timestamps.length * (Long.BYTES + Double.BYTES);
+
+        for (final Chunk chunk : s.chunks) {
+            bytes += chunk.bytes.length;
+        }
+
+        return bytes;
+    }
+
+    int chunks() {
+        return state.chunks.length;
+    }
+
+    private void seal() {
+        final State s = this.state;
+        final Head head = s.head;
+
+        final GorillaEncoder encoder = new GorillaEncoder();
+
+        for (int i = 0; i < head.size; i++) {
+            encoder.add(head.timestamps[i], head.values[i]);
+        }
+
+        final Chunk chunk = new Chunk(head.timestamps[0], head.timestamps[head.size - 1],
+            head.size, encoder.toBytes());
+
+        final Chunk[] chunks = Arrays.copyOf(s.chunks, s.chunks.length + 1);
+        chunks[s.chunks.length] = chunk;
+        this.state = new State(chunks, newHead());
+    }
+
+    private Head newHead() {
+        return new Head(Math.min(chunkSize, INITIAL_HEAD_CAPACITY));
+    }
+
+    /**
+     * Merge sorted runs of points in a single pass, points in later runs take precedence over
+     * points with the same timestamp in earlier runs.
+     */
+    static PointColumns merge(final List<PointColumns> runs) {
+        final MergeHeap heap = new MergeHeap(runs);
+
+        if (heap.size == 0) {
+            return PointColumns.empty();
+        }
+
+        if (heap.size == 1) {
+            return runs.get(heap.heap[0]);
+        }
+
+        final PointColumns.Builder merged = PointColumns.builder(heap.points);
+
+        while (heap.size > 0) {
+            final long t = heap.timestamp(heap.heap[0]);
+            merged.add(t, heap.value(heap.heap[0]));
+
+            /* skip the point with the same timestamp in all earlier runs */
+            do {
+                heap.advance();
+            } while (heap.size > 0 && heap.timestamp(heap.heap[0]) == t);
+        }
+
+        return merged.build();
+    }
+
+    @RequiredArgsConstructor
+    private static final class State {
+        private final Chunk[] chunks;
+        private final Head head;
+    }
+
+    @RequiredArgsConstructor
+    private static final class Chunk {
+        private final long first;
+        private final long last;
+        private final int size;
+        private final byte[] bytes;
+
+        private void decode(final long start, final long end, final PointColumns.Builder columns) {
+            final GorillaDecoder decoder = new GorillaDecoder(bytes);
+
+            while (decoder.next()) {
+                final long t = decoder.timestamp();
+
+                if (t > start && t <= end) {
+                    columns.add(t, decoder.value());
+                }
+            }
+        }
+    }
+
+    /**
+     * Binary min-heap of run indexes, ordered by the timestamp at the current position of each
+     * run. Ties are ordered with the latest run first.
+     */
+    private static final class MergeHeap {
+        private final List<PointColumns> runs;
+        private final int[] positions;
+        private final int[] heap;
+
+        private int size;
+        private int points;
+
+        private MergeHeap(final List<PointColumns> runs) {
+            this.runs = runs;
+            this.positions = new int[runs.size()];
+            this.heap = new int[runs.size()];
+
+            for (int r = 0; r < runs.size(); r++) {
+                if (!runs.get(r).isEmpty()) {
+                    heap[size++] = r;
+                    points += runs.get(r).size();
+                }
+            }
+
+            for (int i = size / 2 - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+        }
+
+        private long timestamp(final int run) {
+            return runs.get(run).timestamp(positions[run]);
+        }
+
+        private double value(final int run) {
+            return runs.get(run).value(positions[run]);
+        }
+
+        /**
+         * Move the top run to its next point, removing it if it is exhausted.
+         */
+        private void advance() {
+            final int run = heap[0];
+
+            if (++positions[run] >= runs.get(run).size()) {
+                heap[0] = heap[--size];
+            }
+
+            siftDown(0);
+        }
+
+        private boolean before(final int a, final int b) {
+            final long ta = timestamp(a);
+            final long tb = timestamp(b);
+            return ta < tb || (ta == tb && a > b);
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                final int left = i * 2 + 1;
+
+                if (left >= size) {
+                    return;
+                }
+
+                int child = left;
+
+                if (left + 1 < size && before(heap[left + 1], heap[left])) {
+                    child = left + 1;
+                }
+
+                if (!before(heap[child], heap[i])) {
+                    return;
+                }
+
+                final int tmp = heap[i];
+                heap[i] = heap[child];
+                heap[child] = tmp;
+                i = child;
+            }
+        }
+    }
+
+    /**
+     * Mutable head of a series.
+     * <p>
+     * Slots below {@link #size} are never modified once published.
+     */
+    private static final class Head {
+        private final long[] timestamps;
+        private final double[] values;
+
+        private volatile int size;
+
+        private Head(final int capacity) {
+            this.timestamps = new long[capacity];
+            this.values = new double[capacity];
+            this.size = 0;
+        }
+
+        private void decode(
+            final int size, final long start, final long end, final PointColumns.Builder columns
+        ) {
+            for (int i = 0; i < size; i++) {
+                final long t = timestamps[i];
+
+                if (t > start && t <= end) {
+                    columns.add(t, values[i]);
+                }
+            }
+        }
+
+        /**
+         * Capacity of a head which holds at least the given number of points, doubling the
+         * current capacity up to the given maximum.
+         */
+        private int capacity(final int minimum, final int maximum) {
+            if (minimum <= timestamps.length) {
+                return timestamps.length;
+            }
+
+            return Math.min(maximum, Math.max(minimum, timestamps.length * 2));
+        }
+
+        /**
+         * Build a larger copy of this head with the given point appended.
+         */
+        private Head append(final long timestamp, final double value, final int maximum) {
+            final int size = this.size;
+            final Head copy = new Head(capacity(size + 1, maximum));
+
+            System.arraycopy(timestamps, 0, copy.timestamps, 0, size);
+            System.arraycopy(values, 0, copy.values, 0, size);
+            copy.timestamps[size] = timestamp;
+            copy.values[size] = value;
+            copy.size = size + 1;
+            return copy;
+        }
+
+        /**
+         * Build a copy of this head with the given point inserted in timestamp order, replacing
+         * any existing point with the same timestamp.
+         */
+        private Head insert(final long timestamp, final double value, final int maximum) {
+            final int size = this.size;
+            final int index = Arrays.binarySearch(timestamps, 0, size, timestamp);
+
+            final Head copy = new Head(capacity(index >= 0 ? size : size + 1, maximum));
+
+            if (index >= 0) {
+                System.arraycopy(timestamps, 0, copy.timestamps, 0, size);
+                System.arraycopy(values, 0, copy.values, 0, size);
+                copy.values[index] = value;
+                copy.size = size;
+                return copy;
+            }
+
+            final int at = -(index + 1);
+
+            System.arraycopy(timestamps, 0, copy.timestamps, 0, at);
+            System.arraycopy(values, 0, copy.values, 0, at);
+            copy.timestamps[at] = timestamp;
+            copy.values[at] = value;
+            System.arraycopy(timestamps, at, copy.timestamps, at + 1, size - at);
+            System.arraycopy(values, at, copy.values, at + 1, size - at);
+            copy.size = size + 1;
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.spotify.heroic.metric.memory;
+
+import com.spotify.heroic.common.DateRange;
+import com.spotify.heroic.metric.PointColumns;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PointChunksTest {
+    private static final DateRange ALL = new DateRange(0, Long.MAX_VALUE);
+
+    @Test
+    public void testAppend() {
+        final PointChunks chunks = new PointChunks(4);
+
+        for (long t = 0; t < 10; t++) {
+            chunks.add((t + 1) * 10, t);
+        }
+
+        assertEquals(2, chunks.chunks());
+        assertEquals(10L, chunks.size());
+
+        final PointColumns all = chunks.read(ALL);
+        assertEquals(10, all.size());
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals((i + 1) * 10L, all.timestamp(i));
+            assertEquals((double) i, all.value(i), 0D);
+        }
+
+        /* start exclusive, end inclusive */
+        final PointColumns some = chunks.read(new DateRange(30, 70));
+        assertEquals(4, some.size());
+        assertEquals(40L, some.timestamp(0));
+        assertEquals(70L, some.timestamp(3));
+    }
+
+    @Test
+    public void testOutOfOrderAndOverwrites() {
+        final PointChunks chunks = new PointChunks(8);
+        final Map<Long, Double> expected = new TreeMap<>();
+        final Random random = new Random(0L);
+
+        for (int i = 0; i < 1000; i++) {
+            final long t = 1 + random.nextInt(200);
+            final double v = random.nextDouble();
+            chunks.add(t, v);
+            expected.put(t, v);
+        }
+
+        final PointColumns all = chunks.read(ALL);
+        assertEquals(expected.size(), all.size());
+
+        int i = 0;
+
+        for (final Map.Entry<Long, Double> e : expected.entrySet()) {
+            assertEquals((long) e.getKey(), all.timestamp(i));
+            assertEquals(e.getValue(), all.value(i), 0D);
+            i++;
+        }
+    }
+
+    @Test
+    public void testCompression() {
+        final PointChunks chunks = new PointChunks(512);
+
+        for (long t = 0; t < 512 * 10; t++) {
+            chunks.add(t * 10000L, 42D);
+        }
+
+        assertEquals(10, chunks.chunks());
+        /* a regular series compresses down to a few bits per point */
+        assertTrue(chunks.byteSize() < 512 * 10 * 2 + 512 * 16);
+    }
+
+    @Test
+    public void testEvict() {
+        final PointChunks chunks = new PointChunks(4);
+
+        for (long t = 0; t < 10; t++) {
+            chunks.add(t, t);
+        }
+
+        /* only chunks that are completely older than the cutoff are evicted */
+        assertEquals(0L, chunks.evict(3));
+        assertEquals(4L, chunks.evict(6));
+        assertEquals(1, chunks.chunks());
+
+        final PointColumns all = chunks.read(ALL);
+        assertEquals(6, all.size());
+        assertEquals(4L, all.timestamp(0));
+    }
+
+    @Test
+    public void testEvictHead() {
+        final PointChunks chunks = new PointChunks(4);
+
+        for (long t = 0; t < 6; t++) {
+            chunks.add(t, t);
+        }
+
+        /* the head is evicted once all of its points are older than the cutoff */
+        assertEquals(4L, chunks.evict(5));
+        assertFalse(chunks.isEmpty());
+        assertEquals(2L, chunks.evict(6));
+        assertTrue(chunks.isEmpty());
+    }
+
+    @Test
+    public void testMerge() {
+        final PointColumns a = PointColumns.of(new long[]{1, 2, 3}, new double[]{1, 2, 3}, 3);
+        final PointColumns b = PointColumns.of(new long[]{2, 4}, new double[]{20, 40}, 2);
+
+        final PointColumns merged = PointChunks.merge(Arrays.asList(a, b));
+
+        assertEquals(4, merged.size());
+        assertEquals(20D, merged.value(1), 0D);
+        assertEquals(4L, merged.timestamp(3));
+    }
+
+    @Test
+    public void testMergeManyRuns() {
+        final PointColumns a = PointColumns.of(new long[]{1, 5, 9}, new double[]{1, 5, 9}, 3);
+        final PointColumns b = PointColumns.of(new long[]{5, 6}, new double[]{50, 60}, 2);
+        final PointColumns c =
+            PointColumns.of(new long[]{1, 5, 10}, new double[]{100, 500, 1000}, 3);
+
+        final PointColumns merged =
+            PointChunks.merge(Arrays.asList(a, PointColumns.empty(), b, c));
+
+        final long[] timestamps = new long[merged.size()];
+        final double[] values = new double[merged.size()];
+        merged.copyTimestamps(timestamps);
+        merged.copyValues(values);
+
+        /* the latest run wins for duplicate timestamps */
+        assertArrayEquals(new long[]{1, 5, 6, 9, 10}, timestamps);
+        assertArrayEquals(new double[]{100, 500, 60, 9, 1000}, values, 0D);
+    }
+
+    @Test
+    public void testHeadGrows() {
+        final PointChunks chunks = new PointChunks(512);
+        chunks.add(10L, 10D);
+
+        /* a series with a single point does not allocate a complete chunk */
+        assertEquals(PointChunks.INITIAL_HEAD_CAPACITY * 16L, chunks.byteSize());
+
+        for (long t = 11; t < 110; t++) {
+            chunks.add(t, t);
+        }
+
+        /* out of order writes into a grown head */
+        chunks.add(1L, 1D);
+        chunks.add(60L, 500D);
+
+        final PointColumns all = chunks.read(ALL);
+        assertEquals(101, all.size());
+        assertEquals(1L, all.timestamp(0));
+        assertEquals(500D, all.value(51), 0D);
+        assertEquals(0, chunks.chunks());
+    }
+}
@@ -42,6 +42,10 @@ public class SemanticConsumerReporter implements ConsumerReporter {
     private final Meter consumerSchemaError;
     private final Histogram messageSize;
     private final Histogram messageDrift;
+    private final Histogram batchSize;
+    private final Meter batchWrites;
+    private final Histogram commitLag;
+    private final Meter commitError;
 
     public SemanticConsumerReporter(SemanticMetricRegistry registry, String id) {
         this.registry = registry;
@@ -55,6 +59,11 @@ public class SemanticConsumerReporter implements ConsumerReporter {
         messageSize = registry.histogram(base.tagged("what", "message-size", "unit", Units.BYTE));
         messageDrift =
             registry.histogram(base.tagged("what", "message-drift", "unit", Units.MILLISECOND));
+        batchSize = registry.histogram(base.tagged("what", "batch-size", "unit", Units.MESSAGE));
+        batchWrites = registry.meter(base.tagged("what", "batch-writes", "unit", Units.WRITE));
+        commitLag =
+            registry.histogram(base.tagged("what", "commit-lag", "unit", Units.MILLISECOND));
+        commitError = registry.meter(base.tagged("what", "commit-error", "unit", Units.FAILURE));
     }
 
     @Override
@@ -77,4 +86,20 @@ public class SemanticConsumerReporter implements ConsumerReporter {
     public void reportMessageDrift(final long ms) {
         messageDrift.update(ms);
     }
+
+    @Override
+    public void reportBatch(final int messages, final int writes) {
+        batchSize.update(messages);
+        batchWrites.mark(writes);
+    }
+
+    @Override
+    public void reportCommitLag(final long ms) {
+        commitLag.update(ms);
+    }
+
+    @Override
+    public void reportCommitError() {
+        commitError.mark();
+    }
 }
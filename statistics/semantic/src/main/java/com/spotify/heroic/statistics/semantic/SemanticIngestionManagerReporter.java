@@ -22,6 +22,7 @@
 package com.spotify.heroic.statistics.semantic;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.spotify.heroic.statistics.FutureReporter;
 import com.spotify.heroic.statistics.FutureReporter.Context;
@@ -39,6 +40,17 @@ public class SemanticIngestionManagerReporter implements IngestionManagerReporte
     private final Counter concurrentWritesCounter;
     private final Meter droppedByFilter;
 
+    private final Meter writeAheadOverflow;
+    private final Counter writeAheadPending;
+    private final Meter writeAheadRetries;
+    private final Meter writeAheadDeadLetters;
+    private final Histogram writeAheadLag;
+
+    private final Counter pendingWrites;
+    private final Histogram writeQueueWait;
+    private final Meter writeRejected;
+    private final Meter writeDropped;
+
     public SemanticIngestionManagerReporter(SemanticMetricRegistry registry) {
         final MetricId id = MetricId.build().tagged("component", COMPONENT);
         this.metadataWrite = new SemanticFutureReporter(registry,
@@ -47,6 +59,24 @@ public class SemanticIngestionManagerReporter implements IngestionManagerReporte
             registry.counter(id.tagged("what", "concurrent-writes", "unit", Units.WRITE));
         this.droppedByFilter =
             registry.meter(id.tagged("what", "dropped-by-filter", "unit", Units.DROP));
+        this.writeAheadOverflow =
+            registry.meter(id.tagged("what", "write-ahead-overflow", "unit", Units.WRITE));
+        this.writeAheadPending =
+            registry.counter(id.tagged("what", "write-ahead-pending", "unit", Units.BYTE));
+        this.writeAheadRetries =
+            registry.meter(id.tagged("what", "write-ahead-retries", "unit", Units.WRITE));
+        this.writeAheadDeadLetters =
+            registry.meter(id.tagged("what", "write-ahead-dead-letters", "unit", Units.WRITE));
+        this.writeAheadLag =
+            registry.histogram(id.tagged("what", "write-ahead-lag", "unit", Units.MILLISECOND));
+        this.pendingWrites =
+            registry.counter(id.tagged("what", "pending-writes", "unit", Units.WRITE));
+        this.writeQueueWait =
+            registry.histogram(id.tagged("what", "write-queue-wait", "unit", Units.MILLISECOND));
+        this.writeRejected =
+            registry.meter(id.tagged("what", "write-rejected", "unit", Units.DROP));
+        this.writeDropped =
+            registry.meter(id.tagged("what", "write-dropped", "unit", Units.DROP));
     }
 
     @Override
@@ -68,4 +98,59 @@ public class SemanticIngestionManagerReporter implements IngestionManagerReporte
     public void decrementConcurrentWrites() {
         concurrentWritesCounter.dec();
     }
+
+    @Override
+    public void reportWriteAheadOverflow() {
+        writeAheadOverflow.mark();
+    }
+
+    @Override
+    public void reportWriteAheadAppended(final long bytes) {
+        writeAheadPending.inc(bytes);
+    }
+
+    @Override
+    public void reportWriteAheadDrained(final long bytes) {
+        writeAheadPending.dec(bytes);
+    }
+
+    @Override
+    public void reportWriteAheadRetries(final int writes) {
+        writeAheadRetries.mark(writes);
+    }
+
+    @Override
+    public void reportWriteAheadDeadLetters(final int records) {
+        writeAheadDeadLetters.mark(records);
+    }
+
+    @Override
+    public void reportWriteAheadLag(final long lag) {
+        writeAheadLag.update(lag);
+    }
+
+    @Override
+    public void incrementPendingWrites() {
+        pendingWrites.inc();
+    }
+
+    @Override
+    public void decrementPendingWrites() {
+        pendingWrites.dec();
+    }
+
+    @Override
+    public void reportWriteQueueWait(final long wait) {
+        writeQueueWait.update(wait);
+    }
+
+    @Override
+    public void reportWriteRejected() {
+        writeRejected.mark();
+    }
+
+    @Override
+    public void reportWriteDropped() {
+        writeDropped.mark();
+    }
 }
@@ -22,9 +22,12 @@
 package com.spotify.heroic.statistics.semantic;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
 import com.spotify.heroic.QueryOptions;
 import com.spotify.heroic.async.AsyncObservable;
+import com.spotify.heroic.common.DateRange;
 import com.spotify.heroic.common.Groups;
+import com.spotify.heroic.common.Series;
 import com.spotify.heroic.common.Statistics;
 import com.spotify.heroic.metric.BackendEntry;
 import com.spotify.heroic.metric.BackendKey;
@@ -34,6 +37,7 @@ import com.spotify.heroic.metric.FetchData;
 import com.spotify.heroic.metric.FetchQuotaWatcher;
 import com.spotify.heroic.metric.MetricBackend;
 import com.spotify.heroic.metric.MetricCollection;
+import com.spotify.heroic.metric.MetricType;
 import com.spotify.heroic.metric.WriteMetric;
 import com.spotify.heroic.statistics.DataInMemoryReporter;
 import com.spotify.heroic.statistics.FutureReporter;
@@ -42,6 +46,7 @@ import com.spotify.metrics.core.MetricId;
 import com.spotify.metrics.core.SemanticMetricRegistry;
 import eu.toolchain.async.AsyncFuture;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.atomic.AtomicLong;
 import lombok.RequiredArgsConstructor;
 import lombok.ToString;
@@ -56,6 +61,7 @@ public class SemanticMetricBackendReporter implements MetricBackendReporter {
     private final FutureReporter deleteKey;
     private final FutureReporter countKey;
     private final FutureReporter fetchRow;
+    private final FutureReporter compact;
 
     private final FutureReporter findSeries;
     private final FutureReporter queryMetrics;
@@ -72,9 +78,19 @@ public class SemanticMetricBackendReporter implements MetricBackendReporter {
      */
     private final Counter sampleSizeAccumulated;
 
+    private final Histogram writeBatchStatements;
+    private final Histogram writeBatchSize;
+    private final Histogram writeBatchDuration;
+
+    private final SemanticMetricRegistry registry;
+    private final MetricId base;
+
     public SemanticMetricBackendReporter(SemanticMetricRegistry registry) {
         final MetricId base = MetricId.build().tagged("component", COMPONENT);
 
+        this.registry = registry;
+        this.base = base;
+
         this.write =
             new SemanticFutureReporter(registry, base.tagged("what", "write", "unit", Units.WRITE));
         this.writeBatch = new SemanticFutureReporter(registry,
@@ -87,6 +103,8 @@ public class SemanticMetricBackendReporter implements MetricBackendReporter {
             base.tagged("what", "count-key", "unit", Units.QUERY));
         this.fetchRow = new SemanticFutureReporter(registry,
             base.tagged("what", "fetch-row", "unit", Units.QUERY));
+        this.compact = new SemanticFutureReporter(registry,
+            base.tagged("what", "compact", "unit", Units.WRITE));
 
         this.findSeries = new SemanticFutureReporter(registry,
             base.tagged("what", "find-series", "unit", Units.QUERY));
@@ -97,6 +115,13 @@ public class SemanticMetricBackendReporter implements MetricBackendReporter {
             registry.counter(base.tagged("what", "sample-size-live", "unit", Units.SAMPLE));
         sampleSizeAccumulated =
             registry.counter(base.tagged("what", "sample-size-accumulated", "unit", Units.SAMPLE));
+
+        writeBatchStatements = registry.histogram(
+            base.tagged("what", "write-batch-statements", "unit", Units.COUNT));
+        writeBatchSize =
+            registry.histogram(base.tagged("what", "write-batch-size", "unit", Units.BYTE));
+        writeBatchDuration = registry.histogram(
+            base.tagged("what", "write-batch-duration", "unit", Units.MILLISECOND));
     }
 
     @Override
@@ -138,6 +163,22 @@ public class SemanticMetricBackendReporter implements MetricBackendReporter {
         return queryMetrics.setup();
     }
 
+    @Override
+    public void reportFetchLimit(final MetricBackend backend, final int limit) {
+        final String groups = String.join(",", backend.groups());
+
+        registry
+            .histogram(base.tagged("what", "fetch-limit", "unit", Units.COUNT, "backend", groups))
+            .update(limit);
+    }
+
+    @Override
+    public void reportWriteBatch(final int statements, final long bytes, final long millis) {
+        writeBatchStatements.update(statements);
+        writeBatchSize.update(bytes);
+        writeBatchDuration.update(millis);
+    }
+
     @RequiredArgsConstructor
     private class InstrumentedMetricBackend implements MetricBackend {
         private final MetricBackend delegate;
@@ -205,6 +246,16 @@ public class SemanticMetricBackendReporter implements MetricBackendReporter {
             return delegate.countKey(key, options).onDone(countKey.setup());
         }
 
+        @Override
+        public AsyncFuture<Long> compact(final Series series, final DateRange range) {
+            return delegate.compact(series, range).onDone(compact.setup());
+        }
+
+        @Override
+        public Optional<Long> retainedSince(final MetricType type, final Series series) {
+            return delegate.retainedSince(type, series);
+        }
+
         @Override
         public AsyncFuture<MetricCollection> fetchRow(final BackendKey key) {
             return delegate.fetchRow(key).onDone(fetchRow.setup());
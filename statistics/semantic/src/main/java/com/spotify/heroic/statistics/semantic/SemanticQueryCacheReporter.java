@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2015 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.heroic.statistics.semantic;
+
+import com.codahale.metrics.Meter;
+import com.spotify.heroic.statistics.QueryCacheReporter;
+import com.spotify.metrics.core.MetricId;
+import com.spotify.metrics.core.SemanticMetricRegistry;
+import lombok.ToString;
+
+@ToString(of = {})
+public class SemanticQueryCacheReporter implements QueryCacheReporter {
+    private static final String COMPONENT = "query-cache";
+
+    private final Meter hit;
+    private final Meter partialHit;
+    private final Meter join;
+    private final Meter miss;
+
+    public SemanticQueryCacheReporter(SemanticMetricRegistry registry) {
+        final MetricId id = MetricId.build().tagged("component", COMPONENT);
+        this.hit = registry.meter(id.tagged("what", "hit", "unit", Units.QUERY));
+        this.partialHit = registry.meter(id.tagged("what", "partial-hit", "unit", Units.QUERY));
+        this.join = registry.meter(id.tagged("what", "join", "unit", Units.QUERY));
+        this.miss = registry.meter(id.tagged("what", "miss", "unit", Units.QUERY));
+    }
+
+    @Override
+    public void reportHit() {
+        hit.mark();
+    }
+
+    @Override
+    public void reportPartialHit() {
+        partialHit.mark();
+    }
+
+    @Override
+    public void reportJoin() {
+        join.mark();
+    }
+
+    @Override
+    public void reportMiss() {
+        miss.mark();
+    }
+}
@@ -28,6 +28,7 @@ import com.spotify.heroic.common.Grouped;
 import com.spotify.heroic.common.Groups;
 import com.spotify.heroic.common.OptionalLimit;
 import com.spotify.heroic.common.Series;
+import com.spotify.heroic.filter.CompiledFilter;
 import com.spotify.heroic.filter.Filter;
 import com.spotify.heroic.suggest.KeySuggest;
 import com.spotify.heroic.suggest.SuggestBackend;
@@ -313,21 +314,23 @@ public class MemoryBackend implements SuggestBackend, Grouped {
     }
 
     private Stream<KeyDocument> lookupKeys(final Filter filter) {
+        final CompiledFilter compiled = CompiledFilter.compile(filter);
         final Lock l = lock.readLock();
         l.lock();
-        return keyIndex.values().stream().filter(e -> filter.apply(e.series)).onClose(l::unlock);
+        return keyIndex.values().stream().filter(e -> compiled.test(e.series)).onClose(l::unlock);
     }
 
     private Stream<TagDocument> lookupTags(final Filter filter) {
+        final CompiledFilter compiled = CompiledFilter.compile(filter);
         final Lock l = lock.readLock();
         l.lock();
-        return tagIndex.values().stream().filter(e -> filter.apply(e.series)).onClose(l::unlock);
+        return tagIndex.values().stream().filter(e -> compiled.test(e.series)).onClose(l::unlock);
     }
 
     private Stream<Series> lookupSeries(final Filter filter) {
         final Lock l = lock.readLock();
         l.lock();
-        return series.stream().filter(filter::apply).onClose(l::unlock);
+        return series.stream().filter(CompiledFilter.compile(filter)).onClose(l::unlock);
     }
 
     @Data